@@ -59,6 +59,8 @@ public class CodecBenchmarks {
   static final byte[] clientSpanThrift = SpanBytesEncoder.THRIFT.encode(clientSpan);
   static final List<Span> tenClientSpans = Collections.nCopies(10, clientSpan);
   static final byte[] tenClientSpansJsonV2 = SpanBytesEncoder.JSON_V2.encodeList(tenClientSpans);
+  static final byte[] tenClientSpansProto3 = SpanBytesEncoder.PROTO3.encodeList(tenClientSpans);
+  static final byte[] tenClientSpansThrift = SpanBytesEncoder.THRIFT.encodeList(tenClientSpans);
 
   @Benchmark
   public Span readClientSpan_JSON_V1() {
@@ -105,6 +107,16 @@ public class CodecBenchmarks {
     return SpanBytesDecoder.JSON_V2.decodeList(tenClientSpansJsonV2);
   }
 
+  @Benchmark
+  public List<Span> readTenClientSpans_PROTO3() {
+    return SpanBytesDecoder.PROTO3.decodeList(tenClientSpansProto3);
+  }
+
+  @Benchmark
+  public List<Span> readTenClientSpans_THRIFT() {
+    return SpanBytesDecoder.THRIFT.decodeList(tenClientSpansThrift);
+  }
+
   @Benchmark
   public byte[] writeTenClientSpans_JSON_V2() {
     return SpanBytesEncoder.JSON_V2.encodeList(tenClientSpans);
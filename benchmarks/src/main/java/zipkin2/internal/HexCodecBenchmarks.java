@@ -0,0 +1,114 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import zipkin2.Span;
+
+/** IDs are parsed or formatted several times per span, so this compares the hex routines. */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Threads(1)
+public class HexCodecBenchmarks {
+  static final String TRACE_ID_HEX = "463ac35c9f6413ad48485a3953bb6124";
+  static final String ID_HEX = "48485a3953bb6124";
+  static final long TRACE_ID_HIGH = 0x463ac35c9f6413adL, ID = 0x48485a3953bb6124L;
+  static final byte[] TRACE_ID_ASCII = TRACE_ID_HEX.getBytes(HexCodec.ASCII);
+
+  byte[] bytes = new byte[32];
+  WriteBuffer.Array buffer = new WriteBuffer.Array(bytes, 0);
+
+  @Benchmark public long lowerHexToUnsignedLong() {
+    return HexCodec.lowerHexToUnsignedLong(ID_HEX);
+  }
+
+  /** The previous implementation, with two branches per character */
+  @Benchmark public long lowerHexToUnsignedLong_branching() {
+    long result = 0;
+    for (int i = 0; i < 16; i++) {
+      char c = ID_HEX.charAt(i);
+      result <<= 4;
+      if (c >= '0' && c <= '9') {
+        result |= c - '0';
+      } else if (c >= 'a' && c <= 'f') {
+        result |= c - 'a' + 10;
+      } else {
+        throw new NumberFormatException(ID_HEX);
+      }
+    }
+    return result;
+  }
+
+  @Benchmark public long lowerHexToUnsignedLong_ascii() {
+    return HexCodec.lowerHexToUnsignedLong(TRACE_ID_ASCII, 16, 32);
+  }
+
+  @Benchmark public int lowerHexZeroPrefix() {
+    return HexCodec.lowerHexZeroPrefix(TRACE_ID_HEX);
+  }
+
+  @Benchmark public String toLowerHex_128() {
+    return HexCodec.toLowerHex(TRACE_ID_HIGH, ID);
+  }
+
+  @Benchmark public String toLowerHex_64() {
+    return HexCodec.toLowerHex(0L, ID);
+  }
+
+  @Benchmark public int writeLongHex() {
+    buffer.pos = 0;
+    buffer.writeLongHex(ID);
+    return buffer.pos;
+  }
+
+  @Benchmark public Span.Builder traceId_128() {
+    return Span.newBuilder().traceId(TRACE_ID_HEX);
+  }
+
+  @Benchmark public Span.Builder traceId_64() {
+    return Span.newBuilder().traceId(ID_HEX);
+  }
+
+  @Benchmark public Span.Builder id() {
+    return Span.newBuilder().id(ID_HEX);
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(".*" + HexCodecBenchmarks.class.getSimpleName() + ".*")
+      .addProfiler("gc")
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import com.google.common.io.ByteStreams;
+import com.linecorp.armeria.client.encoding.GzipStreamDecoderFactory;
+import com.linecorp.armeria.common.HttpData;
+import io.airlift.compress.zstd.ZstdCompressor;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.compression.SnappyFrameEncoder;
+import io.netty.util.ReferenceCountUtil;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.codec.SpanBytesEncoder;
+
+/**
+ * Compares decompressing a POST body of 100 spans, fed in chunks like they arrive from the network.
+ * Run with the gc profiler to compare allocation, as in {@link #main(String[])}.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Threads(1)
+public class ContentDecoderBenchmarks {
+  static final int CHUNK_SIZE = 8192;
+  static final GzipStreamDecoderFactory GZIP_DECODER_FACTORY = new GzipStreamDecoderFactory();
+  static final byte[] JSON = SpanBytesEncoder.JSON_V2.encodeList(spans(100));
+  static final byte[] GZIP = gzip(JSON), SNAPPY = snappy(JSON), ZSTD = zstd(JSON);
+
+  ByteBufAllocator alloc = ByteBufAllocator.DEFAULT;
+
+  /** The former approach: aggregate the compressed body, then decompress it. */
+  @Benchmark public int gzip_aggregated() {
+    ByteBuf aggregated = alloc.buffer(GZIP.length);
+    for (ByteBuf chunk : chunks(GZIP)) {
+      aggregated.writeBytes(chunk);
+      chunk.release();
+    }
+    HttpData compressed = HttpData.wrap(ByteBufUtil.getBytes(aggregated));
+    aggregated.release();
+    HttpData decoded = GZIP_DECODER_FACTORY.newDecoder(alloc).decode(compressed);
+    int result = decoded.length();
+    ReferenceCountUtil.release(decoded);
+    return result;
+  }
+
+  @Benchmark public int gzip_streaming() {
+    return decode("gzip", GZIP);
+  }
+
+  @Benchmark public int snappy_streaming() {
+    return decode("snappy", SNAPPY);
+  }
+
+  @Benchmark public int zstd() {
+    return decode("zstd", ZSTD);
+  }
+
+  int decode(String encoding, byte[] compressed) {
+    ContentDecoder decoder = ContentDecoder.create(encoding, alloc, 0L); // no limit
+    for (ByteBuf chunk : chunks(compressed)) {
+      decoder.decode(chunk);
+    }
+    ByteBuf decoded = decoder.finish();
+    int result = decoded.readableBytes();
+    decoded.release();
+    return result;
+  }
+
+  /** Like network reads, chunks are pooled buffers. */
+  List<ByteBuf> chunks(byte[] compressed) {
+    List<ByteBuf> result = new ArrayList<>();
+    for (int i = 0; i < compressed.length; i += CHUNK_SIZE) {
+      int length = Math.min(CHUNK_SIZE, compressed.length - i);
+      result.add(alloc.directBuffer(length).writeBytes(compressed, i, length));
+    }
+    return result;
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .addProfiler("gc")
+      .include(".*" + ContentDecoderBenchmarks.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+
+  /** Varies IDs and timestamps, so that the body doesn't compress unrealistically well. */
+  static List<Span> spans(int count) {
+    Span span = SpanBytesDecoder.JSON_V2.decodeOne(read("/zipkin2-client.json"));
+    List<Span> result = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      result.add(span.toBuilder()
+        .traceId(span.traceIdHigh() + i, span.traceIdLow() * 31 + i)
+        .id(span.idAsLong() + i)
+        .timestamp(span.timestampAsLong() + i * 1000L)
+        .duration(span.durationAsLong() + i)
+        .build());
+    }
+    return result;
+  }
+
+  static byte[] gzip(byte[] input) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(input);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    return out.toByteArray();
+  }
+
+  static byte[] snappy(byte[] input) {
+    EmbeddedChannel channel = new EmbeddedChannel(new SnappyFrameEncoder());
+    channel.writeOutbound(Unpooled.wrappedBuffer(input));
+    channel.finish();
+    ByteBuf out = Unpooled.buffer();
+    for (ByteBuf encoded; (encoded = channel.readOutbound()) != null; ) {
+      out.writeBytes(encoded);
+      encoded.release();
+    }
+    return ByteBufUtil.getBytes(out);
+  }
+
+  static byte[] zstd(byte[] input) {
+    ZstdCompressor compressor = new ZstdCompressor();
+    byte[] out = new byte[compressor.maxCompressedLength(input.length)];
+    int length = compressor.compress(input, 0, input.length, out, 0, out.length);
+    return Arrays.copyOf(out, length);
+  }
+
+  static byte[] read(String resource) {
+    try {
+      return ByteStreams.toByteArray(ContentDecoderBenchmarks.class.getResourceAsStream(resource));
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
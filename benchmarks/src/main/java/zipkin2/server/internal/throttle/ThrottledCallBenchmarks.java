@@ -14,6 +14,7 @@
 package zipkin2.server.internal.throttle;
 
 import com.linecorp.armeria.common.metric.NoopMeterRegistry;
+import com.netflix.concurrency.limits.Limiter.Listener;
 import com.netflix.concurrency.limits.limit.FixedLimit;
 import com.netflix.concurrency.limits.limiter.SimpleLimiter;
 import java.io.IOException;
@@ -51,21 +52,18 @@ import zipkin2.Callback;
 @Threads(2)
 public class ThrottledCallBenchmarks {
   ExecutorService fakeCallExecutor = Executors.newSingleThreadExecutor();
-  ExecutorService executor = Executors.newSingleThreadExecutor();
   ThrottledCall call;
 
   @Setup public void setup() {
-    executor = Executors.newSingleThreadExecutor();
     fakeCallExecutor = Executors.newSingleThreadExecutor();
     SimpleLimiter<Void> limiter = SimpleLimiter.newBuilder().limit(FixedLimit.of(1)).build();
     LimiterMetrics metrics = new LimiterMetrics(NoopMeterRegistry.get());
     Predicate<Throwable> isOverCapacity = RejectedExecutionException.class::isInstance;
-    call =
-      new ThrottledCall(new FakeCall(fakeCallExecutor), executor, limiter, metrics, isOverCapacity);
+    AsyncLimiter asyncLimiter = new AsyncLimiter(limiter, 1, null);
+    call = new ThrottledCall(new FakeCall(fakeCallExecutor), asyncLimiter, metrics, isOverCapacity);
   }
 
   @TearDown public void tearDown() {
-    executor.shutdown();
     fakeCallExecutor.shutdown();
   }
 
@@ -84,9 +82,14 @@ public class ThrottledCallBenchmarks {
     }
   }
 
-  @Benchmark public void execute_throttled() throws IOException {
-    call.limiter.acquire(null); // capacity is 1, so this will overdo it.
-    call.clone().execute();
+  @Benchmark public Object execute_queued() throws IOException {
+    // capacity is 1, so the call will queue until the permit is released
+    Listener listener = call.limiter.limiter.acquire(null).get();
+    fakeCallExecutor.execute(() -> {
+      listener.onIgnore();
+      call.limiter.drain();
+    });
+    return call.clone().execute();
   }
 
   static final RejectedExecutionException OVER_CAPACITY = new RejectedExecutionException();
@@ -22,6 +22,7 @@ import zipkin2.collector.Collector;
 import zipkin2.collector.CollectorComponent;
 import zipkin2.collector.CollectorMetrics;
 import zipkin2.collector.CollectorSampler;
+import zipkin2.collector.CollectorSpanLimiter;
 import zipkin2.storage.StorageComponent;
 
 /** This collector consumes encoded binary messages from a ActiveMQ queue. */
@@ -48,6 +49,12 @@ public final class ActiveMQCollector extends CollectorComponent {
       return this;
     }
 
+    /** Truncates or drops oversized spans before storage. Defaults to no limits. */
+    public Builder spanLimiter(CollectorSpanLimiter spanLimiter) {
+      this.delegate.spanLimiter(spanLimiter);
+      return this;
+    }
+
     @Override public Builder metrics(CollectorMetrics metrics) {
       if (metrics == null) throw new NullPointerException("metrics == null");
       this.metrics = metrics.forTransport("activemq");
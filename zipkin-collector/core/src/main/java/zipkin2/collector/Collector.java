@@ -24,7 +24,12 @@ import zipkin2.Callback;
 import zipkin2.Span;
 import zipkin2.SpanBytesDecoderDetector;
 import zipkin2.codec.BytesDecoder;
+import zipkin2.codec.Encoding;
 import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.internal.LazySpan;
+import zipkin2.internal.Nullable;
+import zipkin2.storage.EncodedSpanConsumer;
+import zipkin2.storage.SpanConsumer;
 import zipkin2.storage.StorageComponent;
 
 import static java.lang.String.format;
@@ -33,7 +38,7 @@ import static zipkin2.Call.propagateIfFatal;
 
 /**
  * This component takes action on spans received from a transport. This includes deserializing,
- * sampling and scheduling for storage.
+ * sampling, limiting the size of spans and scheduling for storage.
  *
  * <p>Callbacks passed do not propagate to the storage layer. They only return success or failures
  * before storage is attempted. This ensures that calling threads are disconnected from storage
@@ -58,6 +63,7 @@ public class Collector { // not final for mock
     final Logger logger;
     StorageComponent storage;
     CollectorSampler sampler;
+    CollectorSpanLimiter spanLimiter;
     CollectorMetrics metrics;
 
     Builder(Logger logger) {
@@ -85,6 +91,13 @@ public class Collector { // not final for mock
       return this;
     }
 
+    /** Truncates or drops oversized spans before storage. Defaults to no limits. */
+    public Builder spanLimiter(CollectorSpanLimiter spanLimiter) {
+      if (spanLimiter == null) throw new NullPointerException("spanLimiter == null");
+      this.spanLimiter = spanLimiter;
+      return this;
+    }
+
     public Collector build() {
       return new Collector(this);
     }
@@ -92,16 +105,24 @@ public class Collector { // not final for mock
 
   final Logger logger;
   final CollectorMetrics metrics;
+  @Nullable final TimedCollectorMetrics timings;
   final CollectorSampler sampler;
+  final CollectorSpanLimiter spanLimiter;
   final StorageComponent storage;
+  /** Lazy as getting it could throw or block. Only assigned on success, so errors are retried */
+  volatile SpanConsumer spanConsumer;
 
   Collector(Builder builder) {
     if (builder.logger == null) throw new NullPointerException("logger == null");
     this.logger = builder.logger;
     this.metrics = builder.metrics == null ? CollectorMetrics.NOOP_METRICS : builder.metrics;
+    this.timings =
+      metrics instanceof TimedCollectorMetrics ? (TimedCollectorMetrics) metrics : null;
     if (builder.storage == null) throw new NullPointerException("storage == null");
     this.storage = builder.storage;
     this.sampler = builder.sampler == null ? CollectorSampler.ALWAYS_SAMPLE : builder.sampler;
+    this.spanLimiter =
+      builder.spanLimiter == null ? CollectorSpanLimiter.NOOP : builder.spanLimiter;
   }
 
   public void accept(List<Span> spans, Callback<Void> callback) {
@@ -115,24 +136,52 @@ public class Collector { // not final for mock
    * callers (such as http or gRPC) do not add additional load during such events.
    */
   public void accept(List<Span> spans, Callback<Void> callback, Executor executor) {
+    accept(spans, callback, executor, startTiming());
+  }
+
+  /** @param startNanos when the message was received, or zero if it isn't timed */
+  void accept(List<Span> spans, Callback<Void> callback, Executor executor, long startNanos) {
     if (spans.isEmpty()) {
       callback.onSuccess(null);
       return;
     }
     metrics.incrementSpans(spans.size());
 
-    List<Span> sampledSpans = sample(spans);
+    if (startNanos == 0L) {
+      storeSampled(limit(sample(spans)), callback, executor, 0L);
+      return;
+    }
+    long sampleNanos = System.nanoTime();
+    List<Span> sampledSpans = limit(sample(spans));
+    timings.recordSample(System.nanoTime() - sampleNanos);
+    storeSampled(sampledSpans, callback, executor, startNanos);
+  }
+
+  /** Returns the current time if latencies of this message should be recorded, or zero. */
+  long startTiming() {
+    return timings != null && timings.isTimingSampled() ? System.nanoTime() : 0L;
+  }
+
+  void recordDecode(Encoding encoding, long startNanos) {
+    if (startNanos != 0L) timings.recordDecode(encoding, System.nanoTime() - startNanos);
+  }
+
+  void storeSampled(List<Span> sampledSpans, Callback<Void> callback, Executor executor,
+    long startNanos) {
     if (sampledSpans.isEmpty()) {
       callback.onSuccess(null);
       return;
     }
+    execute(new StoreSpans(sampledSpans, startNanos), callback, executor);
+  }
 
+  void execute(StoreSpans storeSpans, Callback<Void> callback, Executor executor) {
     // In order to ensure callers are not blocked, we swap callbacks when we get to the storage
     // phase of this process. Here, we create a callback whose sole purpose is classifying later
     // errors on this bundle of spans in the same log category. This allows people to only turn on
     // debug logging in one place.
     try {
-      executor.execute(new StoreSpans(sampledSpans));
+      executor.execute(storeSpans);
       callback.onSuccess(null);
     } catch (Throwable unexpected) { // ensure if a future is supplied we always set value or error
       callback.onError(unexpected);
@@ -143,6 +192,7 @@ public class Collector { // not final for mock
   /** Like {@link #acceptSpans(byte[], BytesDecoder, Callback)}, except using a byte buffer. */
   public void acceptSpans(ByteBuffer encoded, SpanBytesDecoder decoder, Callback<Void> callback,
     Executor executor) {
+    long startNanos = startTiming();
     List<Span> spans;
     try {
       spans = decoder.decodeList(encoded);
@@ -150,7 +200,8 @@ public class Collector { // not final for mock
       handleDecodeError(e, callback);
       return;
     }
-    accept(spans, callback, executor);
+    recordDecode(decoder.encoding(), startNanos);
+    accept(spans, callback, executor, startNanos);
   }
 
   /**
@@ -180,6 +231,14 @@ public class Collector { // not final for mock
    */
   public void acceptSpans(
     byte[] serializedSpans, BytesDecoder<Span> decoder, Callback<Void> callback) {
+    long startNanos = startTiming();
+    if (LazySpan.isSupported(decoder)) {
+      EncodedSpanConsumer encodedSpanConsumer = encodedSpanConsumer(decoder.encoding());
+      if (encodedSpanConsumer != null || !sampler.isAlwaysSample()) {
+        acceptLazySpans(serializedSpans, decoder, encodedSpanConsumer, callback, startNanos);
+        return;
+      }
+    }
     List<Span> spans;
     try {
       spans = decodeList(decoder, serializedSpans);
@@ -187,7 +246,82 @@ public class Collector { // not final for mock
       handleDecodeError(e, callback);
       return;
     }
-    accept(spans, callback);
+    recordDecode(decoder.encoding(), startNanos);
+    accept(spans, callback, Runnable::run, startNanos);
+  }
+
+  /**
+   * Returns the span consumer if it can store spans in the given encoding, or null.
+   *
+   * <p>Errors are deferred, as they will also be raised when storing spans, where they are
+   * handled.
+   */
+  @Nullable EncodedSpanConsumer encodedSpanConsumer(Encoding encoding) {
+    SpanConsumer spanConsumer;
+    try {
+      spanConsumer = spanConsumer();
+    } catch (RuntimeException e) {
+      return null;
+    }
+    if (!(spanConsumer instanceof EncodedSpanConsumer)) return null;
+    EncodedSpanConsumer result = (EncodedSpanConsumer) spanConsumer;
+    return result.encoding() == encoding ? result : null;
+  }
+
+  /**
+   * Samples before decoding, so that dropped spans are never materialized. This only reads the
+   * trace ID and debug flag of each span, so is cheaper than {@link #sample(List)} on decoded
+   * spans when the sample rate is low.
+   *
+   * @param encodedSpanConsumer when present, receives the bytes of each sampled span that is
+   * {@linkplain LazySpan#isNormalized() normalized}, so that it needn't re-encode them.
+   * @param startNanos when the message was received, or zero if it isn't timed
+   */
+  void acceptLazySpans(byte[] serializedSpans, BytesDecoder<Span> decoder,
+    @Nullable EncodedSpanConsumer encodedSpanConsumer, Callback<Void> callback, long startNanos) {
+    int spanCount, truncated = 0;
+    List<Span> sampledSpans;
+    List<byte[]> encodedSpans = null;
+    try {
+      List<LazySpan> spans = LazySpan.indexList(decoder, serializedSpans);
+      spanCount = spans.size();
+      sampledSpans = new ArrayList<>(spanCount);
+      if (encodedSpanConsumer != null) encodedSpans = new ArrayList<>(spanCount);
+      for (int i = 0; i < spanCount; i++) {
+        LazySpan s = spans.get(i);
+        if (!sampler.isSampled(s.traceIdLow(), s.debug())) continue;
+        Span span = s.toSpan(), limited = span;
+        if (!spanLimiter.isNoop()) {
+          limited = spanLimiter.limit(span);
+          if (limited == null) continue;
+          if (limited != span) truncated++;
+        }
+        sampledSpans.add(limited);
+        if (encodedSpans != null) {
+          encodedSpans.add(limited == span && s.isNormalized() ? s.encodedBytes() : null);
+        }
+      }
+    } catch (RuntimeException | Error e) {
+      handleDecodeError(e, callback);
+      return;
+    }
+    recordDecode(decoder.encoding(), startNanos);
+    if (spanCount == 0) {
+      callback.onSuccess(null);
+      return;
+    }
+    metrics.incrementSpans(spanCount);
+    int dropped = spanCount - sampledSpans.size();
+    if (dropped > 0) metrics.incrementSpansDropped(dropped);
+    if (truncated > 0) metrics.incrementSpansTruncated(truncated);
+    if (encodedSpans == null) {
+      storeSampled(sampledSpans, callback, Runnable::run, startNanos);
+    } else if (sampledSpans.isEmpty()) {
+      callback.onSuccess(null);
+    } else {
+      execute(new StoreEncodedSpans(encodedSpanConsumer, sampledSpans, encodedSpans, startNanos),
+        callback, Runnable::run);
+    }
   }
 
   List<Span> decodeList(BytesDecoder<Span> decoder, byte[] serialized) {
@@ -197,7 +331,14 @@ public class Collector { // not final for mock
   }
 
   void store(List<Span> sampledSpans, Callback<Void> callback) {
-    storage.spanConsumer().accept(sampledSpans).enqueue(callback);
+    spanConsumer().accept(sampledSpans).enqueue(callback);
+  }
+
+  /** Returns the span consumer of storage, which is only resolved once it succeeds. */
+  SpanConsumer spanConsumer() {
+    SpanConsumer result = spanConsumer;
+    if (result == null) spanConsumer = result = storage.spanConsumer();
+    return result;
   }
 
   String idString(Span span) {
@@ -208,7 +349,7 @@ public class Collector { // not final for mock
     List<Span> sampled = new ArrayList<>(input.size());
     for (int i = 0, length = input.size(); i < length; i++) {
       Span s = input.get(i);
-      if (sampler.isSampled(s.traceId(), Boolean.TRUE.equals(s.debug()))) {
+      if (sampler.isSampled(s.traceIdLow(), Boolean.TRUE.equals(s.debug()))) {
         sampled.add(s);
       }
     }
@@ -217,16 +358,50 @@ public class Collector { // not final for mock
     return sampled;
   }
 
+  /** Applies the {@link CollectorSpanLimiter}, only copying the input when a span changed. */
+  List<Span> limit(List<Span> input) {
+    if (spanLimiter.isNoop()) return input;
+    List<Span> result = null;
+    int truncated = 0, dropped = 0;
+    for (int i = 0, length = input.size(); i < length; i++) {
+      Span span = input.get(i), limited = spanLimiter.limit(span);
+      if (limited != span) {
+        if (limited == null) {
+          dropped++;
+        } else {
+          truncated++;
+        }
+        if (result == null) result = new ArrayList<>(input.subList(0, i));
+      }
+      if (result != null && limited != null) result.add(limited);
+    }
+    if (dropped > 0) metrics.incrementSpansDropped(dropped);
+    if (truncated > 0) metrics.incrementSpansTruncated(truncated);
+    return result != null ? result : input;
+  }
+
   class StoreSpans implements Callback<Void>, Runnable {
     final List<Span> spans;
+    final long startNanos; // zero when not timed
+    long storeNanos; // set before calling storage
 
     StoreSpans(List<Span> spans) {
+      this(spans, 0L);
+    }
+
+    StoreSpans(List<Span> spans, long startNanos) {
       this.spans = spans;
+      this.startNanos = startNanos;
+    }
+
+    void store() {
+      Collector.this.store(spans, this);
     }
 
     @Override public void run() {
+      if (startNanos != 0L) storeNanos = System.nanoTime();
       try {
-        store(spans, this);
+        store();
       } catch (RuntimeException | Error e) {
         // While unexpected, invoking the storage command could raise an error synchronously. When
         // that's the case, we wouldn't have invoked callback.onSuccess, so we need to handle the
@@ -236,9 +411,14 @@ public class Collector { // not final for mock
     }
 
     @Override public void onSuccess(Void value) {
+      if (startNanos == 0L) return;
+      long endNanos = System.nanoTime();
+      timings.recordStore(endNanos - storeNanos);
+      timings.recordReceiveToStored(endNanos - startNanos);
     }
 
     @Override public void onError(Throwable t) {
+      if (startNanos != 0L) timings.recordStore(System.nanoTime() - storeNanos);
       handleStorageError(spans, t, NOOP_CALLBACK);
     }
 
@@ -247,6 +427,22 @@ public class Collector { // not final for mock
     }
   }
 
+  final class StoreEncodedSpans extends StoreSpans {
+    final EncodedSpanConsumer spanConsumer;
+    final List<byte[]> encodedSpans;
+
+    StoreEncodedSpans(EncodedSpanConsumer spanConsumer, List<Span> spans,
+      List<byte[]> encodedSpans, long startNanos) {
+      super(spans, startNanos);
+      this.spanConsumer = spanConsumer;
+      this.encodedSpans = encodedSpans;
+    }
+
+    @Override void store() {
+      spanConsumer.accept(spans, encodedSpans).enqueue(this);
+    }
+  }
+
   void handleDecodeError(Throwable e, Callback<Void> callback) {
     metrics.incrementMessagesDropped();
     handleError(e, "Cannot decode spans"::toString, callback);
@@ -98,6 +98,16 @@ public interface CollectorMetrics {
    */
   void incrementSpansDropped(int quantity);
 
+  /**
+   * Increments the count of spans stored with less data than received, for example tags dropped
+   * or values shortened by a {@link CollectorSpanLimiter}. Spans dropped entirely are counted by
+   * {@link #incrementSpansDropped(int)} instead.
+   *
+   * <p>This is a default method so that existing implementations needn't change.
+   */
+  default void incrementSpansTruncated(int quantity) {
+  }
+
   CollectorMetrics NOOP_METRICS =
       new CollectorMetrics() {
 
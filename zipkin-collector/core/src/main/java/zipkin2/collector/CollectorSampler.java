@@ -62,13 +62,32 @@ public abstract class CollectorSampler {
    */
   public boolean isSampled(String hexTraceId, boolean debug) {
     if (Boolean.TRUE.equals(debug)) return true;
-    long traceId = HexCodec.lowerHexToUnsignedLong(hexTraceId);
+    return isSampled(HexCodec.lowerHexToUnsignedLong(hexTraceId), false);
+  }
+
+  /**
+   * Like {@link #isSampled(String, boolean)}, except avoids parsing the trace ID.
+   *
+   * @param traceIdLow the lower 64 bits of the span's trace ID, as in {@link Span#traceIdLow()}
+   * @param debug when true, always passes sampling
+   */
+  public boolean isSampled(long traceIdLow, boolean debug) {
+    if (debug) return true;
+    long traceId = traceIdLow;
     // The absolute value of Long.MIN_VALUE is larger than a long, so Math.abs returns identity.
     // This converts to MAX_VALUE to avoid always dropping when traceId == Long.MIN_VALUE
     long t = traceId == Long.MIN_VALUE ? Long.MAX_VALUE : Math.abs(traceId);
     return t <= boundary();
   }
 
+  /**
+   * True when all spans pass sampling, regardless of the instance. This is checked on each call, as
+   * the boundary may be dynamic.
+   */
+  boolean isAlwaysSample() {
+    return boundary() == Long.MAX_VALUE;
+  }
+
   @Override
   public String toString() {
     return "CollectorSampler(" + boundary() + ")";
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.collector;
+
+import java.util.List;
+import java.util.Map;
+import zipkin2.Annotation;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.internal.Nullable;
+
+/**
+ * CollectorSpanLimiter protects storage from pathological spans, such as those with a SQL
+ * statement or a stack trace in a tag. One misbehaving application can otherwise stall bulk
+ * requests shared with well-behaved ones.
+ *
+ * <h3>Implementation</h3>
+ *
+ * <p>Limits are checked in order of cost. Counts and tag value lengths are checked first, and
+ * excess data is truncated: only the first tags (ordered by key) and the earliest annotations are
+ * kept. Afterwards, the size of the span is {@linkplain SpanBytesEncoder#sizeInBytes(Span)
+ * estimated} as JSON, without encoding it. Spans that are still too large are dropped.
+ *
+ * <p>A limit of zero disables it. By default, there are no limits.
+ */
+public final class CollectorSpanLimiter {
+  public static final CollectorSpanLimiter NOOP = newBuilder().build();
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static final class Builder {
+    int maxSpanSizeInBytes, maxTagValueLength, maxTags, maxAnnotations;
+
+    /**
+     * Spans whose JSON encoding would be larger than this, after other limits are applied, are
+     * dropped. Defaults to zero, which disables this check.
+     */
+    public Builder maxSpanSizeInBytes(int maxSpanSizeInBytes) {
+      this.maxSpanSizeInBytes = checkNotNegative(maxSpanSizeInBytes, "maxSpanSizeInBytes");
+      return this;
+    }
+
+    /** Tag values longer than this many characters are truncated. Defaults to zero: no limit. */
+    public Builder maxTagValueLength(int maxTagValueLength) {
+      this.maxTagValueLength = checkNotNegative(maxTagValueLength, "maxTagValueLength");
+      return this;
+    }
+
+    /** Tags beyond this count are dropped from the span. Defaults to zero: no limit. */
+    public Builder maxTags(int maxTags) {
+      this.maxTags = checkNotNegative(maxTags, "maxTags");
+      return this;
+    }
+
+    /** Annotations beyond this count are dropped from the span. Defaults to zero: no limit. */
+    public Builder maxAnnotations(int maxAnnotations) {
+      this.maxAnnotations = checkNotNegative(maxAnnotations, "maxAnnotations");
+      return this;
+    }
+
+    public CollectorSpanLimiter build() {
+      return new CollectorSpanLimiter(this);
+    }
+
+    Builder() {
+    }
+  }
+
+  final int maxSpanSizeInBytes, maxTagValueLength, maxTags, maxAnnotations;
+
+  CollectorSpanLimiter(Builder builder) {
+    maxSpanSizeInBytes = builder.maxSpanSizeInBytes;
+    maxTagValueLength = builder.maxTagValueLength;
+    maxTags = builder.maxTags;
+    maxAnnotations = builder.maxAnnotations;
+  }
+
+  /** Returns true if no limits are configured, so {@link #limit(Span)} returns its input. */
+  public boolean isNoop() {
+    return maxSpanSizeInBytes == 0 && maxTagValueLength == 0 && maxTags == 0
+      && maxAnnotations == 0;
+  }
+
+  /**
+   * Returns the input when it is within limits, a truncated copy when it isn't, or null when it
+   * should be dropped.
+   */
+  @Nullable public Span limit(Span span) {
+    Span result = truncate(span);
+    if (maxSpanSizeInBytes != 0
+      && SpanBytesEncoder.JSON_V2.sizeInBytes(result) > maxSpanSizeInBytes) {
+      return null;
+    }
+    return result;
+  }
+
+  Span truncate(Span span) {
+    List<Annotation> annotations = span.annotations();
+    Map<String, String> tags = span.tags();
+    boolean truncateAnnotations = maxAnnotations != 0 && annotations.size() > maxAnnotations;
+    boolean truncateTags = maxTags != 0 && tags.size() > maxTags;
+    if (!truncateTags && maxTagValueLength != 0) {
+      for (String value : tags.values()) {
+        if (value.length() > maxTagValueLength) {
+          truncateTags = true;
+          break;
+        }
+      }
+    }
+    if (!truncateAnnotations && !truncateTags) return span;
+
+    Span.Builder builder = span.toBuilder();
+    if (truncateAnnotations) { // annotations are sorted by timestamp, so we keep the earliest
+      builder.clearAnnotations();
+      for (int i = 0; i < maxAnnotations; i++) {
+        Annotation a = annotations.get(i);
+        builder.addAnnotation(a.timestamp(), a.value());
+      }
+    }
+    if (truncateTags) {
+      builder.clearTags();
+      int count = 0;
+      for (Map.Entry<String, String> tag : tags.entrySet()) {
+        if (maxTags != 0 && count++ == maxTags) break;
+        builder.putTag(tag.getKey(), truncateValue(tag.getValue()));
+      }
+    }
+    return builder.build();
+  }
+
+  String truncateValue(String value) {
+    if (maxTagValueLength == 0 || value.length() <= maxTagValueLength) return value;
+    int end = maxTagValueLength;
+    // don't split a surrogate pair, as half of one can't be encoded
+    if (Character.isHighSurrogate(value.charAt(end - 1))) end--;
+    return value.substring(0, end);
+  }
+
+  static int checkNotNegative(int value, String name) {
+    if (value < 0) throw new IllegalArgumentException(name + " < 0");
+    return value;
+  }
+
+  @Override public String toString() {
+    return "CollectorSpanLimiter{maxSpanSizeInBytes=" + maxSpanSizeInBytes
+      + ", maxTagValueLength=" + maxTagValueLength
+      + ", maxTags=" + maxTags
+      + ", maxAnnotations=" + maxAnnotations
+      + "}";
+  }
+}
@@ -24,6 +24,7 @@ public final class InMemoryCollectorMetrics implements CollectorMetrics {
   private final String bytes;
   private final String spans;
   private final String spansDropped;
+  private final String spansTruncated;
 
   public InMemoryCollectorMetrics() {
     this(new ConcurrentHashMap<>(), null);
@@ -36,6 +37,7 @@ public final class InMemoryCollectorMetrics implements CollectorMetrics {
     this.bytes = scope("bytes", transport);
     this.spans = scope("spans", transport);
     this.spansDropped = scope("spansDropped", transport);
+    this.spansTruncated = scope("spansTruncated", transport);
   }
 
   @Override
@@ -89,6 +91,15 @@ public final class InMemoryCollectorMetrics implements CollectorMetrics {
     return get(spansDropped);
   }
 
+  @Override
+  public void incrementSpansTruncated(int quantity) {
+    increment(spansTruncated, quantity);
+  }
+
+  public int spansTruncated() {
+    return get(spansTruncated);
+  }
+
   public void clear() {
     metrics.clear();
   }
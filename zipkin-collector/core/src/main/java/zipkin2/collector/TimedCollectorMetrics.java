@@ -0,0 +1,46 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.collector;
+
+import zipkin2.codec.Encoding;
+
+/**
+ * Optional capability of {@link CollectorMetrics} that records where time goes while collecting a
+ * message. To keep collection cheap, the {@link Collector} only reads the clock for messages where
+ * {@link #isTimingSampled()} is true.
+ *
+ * <p>Durations are in nanoseconds.
+ */
+public interface TimedCollectorMetrics extends CollectorMetrics {
+  /** Called once per message to decide if its latencies should be recorded. */
+  boolean isTimingSampled();
+
+  /**
+   * Records the time to decode a message. When spans are sampled before they are decoded, this
+   * includes sampling.
+   */
+  void recordDecode(Encoding encoding, long nanos);
+
+  /** Records the time to sample and limit the spans of a decoded message. */
+  void recordSample(long nanos);
+
+  /** Records the time from calling storage to its callback, regardless of the outcome. */
+  void recordStore(long nanos);
+
+  /**
+   * Records the time from when a message was passed to the collector until its spans were stored.
+   * This is only recorded when storage succeeds.
+   */
+  void recordReceiveToStored(long nanos);
+}
@@ -39,6 +39,17 @@ public class CollectorSamplerTest {
         .isEqualTo(sampler.isSampled("7fffffffffffffff", false));
   }
 
+  @Test
+  public void isSampled_longSameAsHex() {
+    CollectorSampler sampler = CollectorSampler.create(0.1f);
+
+    assertThat(lotsOfSpans().filter(s -> sampler.isSampled(s.traceIdLow(), false)).toArray())
+        .containsExactly(
+            lotsOfSpans().filter(s -> sampler.isSampled(s.traceId(), false)).toArray());
+    assertThat(sampler.isSampled(Long.MIN_VALUE, false))
+        .isEqualTo(sampler.isSampled(Long.MAX_VALUE, false));
+  }
+
   @Test
   public void debugWins() {
     CollectorSampler sampler = CollectorSampler.create(0.0f);
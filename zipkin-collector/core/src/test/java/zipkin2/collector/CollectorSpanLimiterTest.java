@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.collector;
+
+import org.junit.Test;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesEncoder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static zipkin2.TestObjects.CLIENT_SPAN;
+
+public class CollectorSpanLimiterTest {
+  Span span = Span.newBuilder().traceId("1").id("2")
+    .addAnnotation(1L, "foo")
+    .addAnnotation(2L, "bar")
+    .addAnnotation(3L, "baz")
+    .putTag("a", "1")
+    .putTag("b", "22")
+    .putTag("c", "333")
+    .build();
+
+  @Test public void noop_returnsInput() {
+    assertThat(CollectorSpanLimiter.NOOP.isNoop()).isTrue();
+    assertThat(CollectorSpanLimiter.NOOP.limit(CLIENT_SPAN)).isSameAs(CLIENT_SPAN);
+  }
+
+  @Test public void withinLimits_returnsInput() {
+    CollectorSpanLimiter limiter = CollectorSpanLimiter.newBuilder()
+      .maxSpanSizeInBytes(SpanBytesEncoder.JSON_V2.sizeInBytes(span))
+      .maxTagValueLength(3)
+      .maxTags(3)
+      .maxAnnotations(3)
+      .build();
+
+    assertThat(limiter.isNoop()).isFalse();
+    assertThat(limiter.limit(span)).isSameAs(span);
+  }
+
+  @Test public void maxTagValueLength() {
+    CollectorSpanLimiter limiter = CollectorSpanLimiter.newBuilder().maxTagValueLength(2).build();
+
+    assertThat(limiter.limit(span).tags())
+      .containsExactly(entry("a", "1"), entry("b", "22"), entry("c", "33"));
+  }
+
+  @Test public void maxTagValueLength_doesntSplitSurrogatePair() {
+    Span emoji = span.toBuilder().putTag("c", "a😀").build();
+    CollectorSpanLimiter limiter = CollectorSpanLimiter.newBuilder().maxTagValueLength(2).build();
+
+    assertThat(limiter.limit(emoji).tags()).containsEntry("c", "a");
+  }
+
+  @Test public void maxTags_keepsFirstKeys() {
+    CollectorSpanLimiter limiter = CollectorSpanLimiter.newBuilder().maxTags(2).build();
+
+    assertThat(limiter.limit(span).tags()).containsOnlyKeys("a", "b");
+  }
+
+  @Test public void maxAnnotations_keepsEarliest() {
+    CollectorSpanLimiter limiter = CollectorSpanLimiter.newBuilder().maxAnnotations(1).build();
+
+    Span limited = limiter.limit(span);
+    assertThat(limited.annotations()).containsExactly(span.annotations().get(0));
+    assertThat(limited.tags()).isEqualTo(span.tags()); // only annotations were limited
+  }
+
+  @Test public void maxSpanSizeInBytes_dropsAfterTruncation() {
+    int truncatedSize = SpanBytesEncoder.JSON_V2.sizeInBytes(
+      span.toBuilder().clearAnnotations().addAnnotation(1L, "foo").build());
+
+    assertThat(CollectorSpanLimiter.newBuilder()
+      .maxSpanSizeInBytes(truncatedSize)
+      .maxAnnotations(1)
+      .build().limit(span)).isNotNull();
+
+    assertThat(CollectorSpanLimiter.newBuilder()
+      .maxSpanSizeInBytes(truncatedSize - 1)
+      .maxAnnotations(1)
+      .build().limit(span)).isNull();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void negativeLimit() {
+    CollectorSpanLimiter.newBuilder().maxTags(-1);
+  }
+}
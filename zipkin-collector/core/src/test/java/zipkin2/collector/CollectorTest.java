@@ -21,17 +21,24 @@ import java.util.logging.Logger;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import zipkin2.Call;
 import zipkin2.Callback;
 import zipkin2.Span;
+import zipkin2.codec.Encoding;
 import zipkin2.codec.SpanBytesDecoder;
 import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.storage.EncodedSpanConsumer;
 import zipkin2.storage.InMemoryStorage;
 import zipkin2.storage.StorageComponent;
 
 import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -86,6 +93,192 @@ public class CollectorTest {
     assertThat(storage.getTraces()).isEmpty();
   }
 
+  @Test
+  public void unsampledSpansArentDecoded() {
+    collector = spy(new Collector.Builder(logger)
+      .sampler(CollectorSampler.create(0.0f))
+      .metrics(metrics)
+      .storage(storage)
+      .build());
+
+    byte[] bytes = SpanBytesEncoder.PROTO3.encodeList(TRACE);
+    collector.acceptSpans(bytes, SpanBytesDecoder.PROTO3, callback);
+
+    verify(collector).acceptLazySpans(bytes, SpanBytesDecoder.PROTO3, null, callback, 0L);
+    verify(collector, never()).decodeList(any(), any());
+    verify(callback).onSuccess(null);
+    verify(metrics).incrementSpans(4);
+    verify(metrics).incrementSpansDropped(4);
+    assertThat(storage.getTraces()).isEmpty();
+  }
+
+  /** The server creates its sampler from a rate, so it isn't the same instance as ALWAYS_SAMPLE */
+  @Test
+  public void sampleRateOne_decodesEagerly() {
+    collector = spy(new Collector.Builder(logger)
+      .sampler(CollectorSampler.create(1.0f))
+      .metrics(metrics)
+      .storage(storage)
+      .build());
+
+    byte[] bytes = SpanBytesEncoder.JSON_V2.encodeList(TRACE);
+    collector.acceptSpans(bytes, SpanBytesDecoder.JSON_V2, callback);
+
+    verify(collector, never()).acceptLazySpans(any(), any(), any(), any(), anyLong());
+    verify(collector).decodeList(SpanBytesDecoder.JSON_V2, bytes);
+    verify(callback).onSuccess(null);
+    assertThat(storage.getTraces()).containsOnly(TRACE);
+  }
+
+  @Test
+  public void sampledSpansAreDecodedLazily() {
+    collector = new Collector.Builder(logger)
+      .sampler(CollectorSampler.create(0.99999f)) // not ALWAYS_SAMPLE, but keeps all spans
+      .metrics(metrics)
+      .storage(storage)
+      .build();
+
+    collector.acceptSpans(SpanBytesEncoder.JSON_V2.encodeList(TRACE), SpanBytesDecoder.JSON_V2,
+      callback);
+
+    verify(callback).onSuccess(null);
+    verify(metrics).incrementSpans(4);
+    assertThat(storage.getTraces()).containsOnly(TRACE);
+  }
+
+  @Test
+  public void normalizedSpansArePassedEncoded() {
+    EncodedSpanConsumer spanConsumer = mock(EncodedSpanConsumer.class);
+    when(spanConsumer.encoding()).thenReturn(Encoding.JSON);
+    when(spanConsumer.accept(any(), any())).thenReturn(Call.create(null));
+    StorageComponent storage = mock(StorageComponent.class);
+    when(storage.spanConsumer()).thenReturn(spanConsumer);
+    collector = new Collector.Builder(logger).metrics(metrics).storage(storage).build();
+
+    byte[] normalized = SpanBytesEncoder.JSON_V2.encode(CLIENT_SPAN);
+    String upperCase = new String(normalized, UTF_8).replace("\"get\"", "\"GET\"");
+    byte[] message = ("[" + new String(normalized, UTF_8) + "," + upperCase + "]").getBytes(UTF_8);
+    collector.acceptSpans(message, SpanBytesDecoder.JSON_V2, callback);
+
+    ArgumentCaptor<List<byte[]>> encodedSpans = ArgumentCaptor.forClass(List.class);
+    verify(spanConsumer).accept(eq(asList(CLIENT_SPAN, CLIENT_SPAN)), encodedSpans.capture());
+    assertThat(encodedSpans.getValue()).containsExactly(normalized, null);
+    verify(callback).onSuccess(null);
+    verify(metrics).incrementSpans(2);
+  }
+
+  @Test
+  public void spanConsumer_resolvedOnce() {
+    StorageComponent storage = mock(StorageComponent.class);
+    when(storage.spanConsumer()).thenReturn(this.storage.spanConsumer());
+    collector = new Collector.Builder(logger).metrics(metrics).storage(storage).build();
+
+    byte[] message = SpanBytesEncoder.JSON_V2.encodeList(TRACE);
+    collector.acceptSpans(message, SpanBytesDecoder.JSON_V2, callback);
+    collector.acceptSpans(message, SpanBytesDecoder.JSON_V2, callback);
+
+    verify(storage).spanConsumer();
+    assertThat(this.storage.getTraces()).containsOnly(TRACE);
+  }
+
+  @Test
+  public void spanConsumer_retriedAfterError() {
+    StorageComponent storage = mock(StorageComponent.class);
+    when(storage.spanConsumer())
+      .thenThrow(new RuntimeException("storage disabled"))
+      .thenReturn(this.storage.spanConsumer());
+    collector = new Collector.Builder(logger).metrics(metrics).storage(storage).build();
+
+    collector.accept(TRACE, callback);
+    collector.accept(TRACE, callback);
+
+    assertThat(this.storage.getTraces()).containsOnly(TRACE);
+  }
+
+  @Test
+  public void oversizedSpansAreLimited() {
+    Span tooManyTags = CLIENT_SPAN.toBuilder().putTag("a", "b").putTag("c", "d").build();
+    collector = new Collector.Builder(logger)
+      .spanLimiter(CollectorSpanLimiter.newBuilder()
+        .maxTags(CLIENT_SPAN.tags().size() + 1)
+        .maxSpanSizeInBytes(SpanBytesEncoder.JSON_V2.sizeInBytes(CLIENT_SPAN) + 10)
+        .build())
+      .metrics(metrics)
+      .storage(storage)
+      .build();
+
+    String longName = new String(new char[1000]).replace('\0', 'a');
+    Span huge = CLIENT_SPAN.toBuilder().id("3").name(longName).build();
+    collector.accept(asList(CLIENT_SPAN, tooManyTags, huge), callback);
+
+    verify(callback).onSuccess(null);
+    verify(metrics).incrementSpans(3);
+    verify(metrics).incrementSpansTruncated(1);
+    verify(metrics).incrementSpansDropped(1);
+    assertThat(storage.getTraces()).hasSize(1);
+    assertThat(storage.getTraces().get(0)).extracting(Span::id).containsOnly(CLIENT_SPAN.id());
+  }
+
+  @Test
+  public void truncatedSpansAreReEncoded() {
+    EncodedSpanConsumer spanConsumer = mock(EncodedSpanConsumer.class);
+    when(spanConsumer.encoding()).thenReturn(Encoding.JSON);
+    when(spanConsumer.accept(any(), any())).thenReturn(Call.create(null));
+    StorageComponent storage = mock(StorageComponent.class);
+    when(storage.spanConsumer()).thenReturn(spanConsumer);
+    collector = new Collector.Builder(logger)
+      .spanLimiter(CollectorSpanLimiter.newBuilder().maxAnnotations(1).build())
+      .metrics(metrics)
+      .storage(storage)
+      .build();
+
+    Span twoAnnotations = CLIENT_SPAN.toBuilder()
+      .addAnnotation(CLIENT_SPAN.annotations().get(0).timestamp() + 1, "bar")
+      .build();
+    byte[] normalized = SpanBytesEncoder.JSON_V2.encode(CLIENT_SPAN);
+    collector.acceptSpans(SpanBytesEncoder.JSON_V2.encodeList(asList(CLIENT_SPAN, twoAnnotations)),
+      SpanBytesDecoder.JSON_V2, callback);
+
+    // the truncated span isn't passed encoded, as its bytes no longer match
+    ArgumentCaptor<List<byte[]>> encodedSpans = ArgumentCaptor.forClass(List.class);
+    verify(spanConsumer).accept(eq(asList(CLIENT_SPAN, CLIENT_SPAN)), encodedSpans.capture());
+    assertThat(encodedSpans.getValue()).containsExactly(normalized, null);
+    verify(callback).onSuccess(null);
+    verify(metrics).incrementSpans(2);
+    verify(metrics).incrementSpansTruncated(1);
+  }
+
+  @Test
+  public void timedMetrics_recordsLatenciesWhenSampled() {
+    TimedCollectorMetrics timings = mock(TimedCollectorMetrics.class);
+    when(timings.isTimingSampled()).thenReturn(true);
+    collector = new Collector.Builder(logger).metrics(timings).storage(storage).build();
+
+    byte[] bytes = SpanBytesEncoder.JSON_V2.encodeList(TRACE);
+    collector.acceptSpans(bytes, SpanBytesDecoder.JSON_V2, callback);
+
+    verify(callback).onSuccess(null);
+    verify(timings).recordDecode(eq(Encoding.JSON), anyLong());
+    verify(timings).recordSample(anyLong());
+    verify(timings).recordStore(anyLong());
+    verify(timings).recordReceiveToStored(anyLong());
+    assertThat(storage.getTraces()).containsOnly(TRACE);
+  }
+
+  @Test
+  public void timedMetrics_onlyReadsClockWhenSampled() {
+    TimedCollectorMetrics timings = mock(TimedCollectorMetrics.class);
+    collector = new Collector.Builder(logger).metrics(timings).storage(storage).build();
+
+    collector.accept(TRACE, callback);
+
+    verify(callback).onSuccess(null);
+    verify(timings).isTimingSampled();
+    verify(timings).incrementSpans(4);
+    verifyNoMoreInteractions(timings);
+    assertThat(storage.getTraces()).containsOnly(TRACE);
+  }
+
   @Test
   public void errorDetectingFormat() {
     collector.acceptSpans(new byte[] {'f', 'o', 'o'}, callback);
@@ -34,6 +34,7 @@ import zipkin2.collector.Collector;
 import zipkin2.collector.CollectorComponent;
 import zipkin2.collector.CollectorMetrics;
 import zipkin2.collector.CollectorSampler;
+import zipkin2.collector.CollectorSpanLimiter;
 import zipkin2.storage.SpanConsumer;
 import zipkin2.storage.StorageComponent;
 
@@ -76,6 +77,12 @@ public final class KafkaCollector extends CollectorComponent {
       return this;
     }
 
+    /** Truncates or drops oversized spans before storage. Defaults to no limits. */
+    public Builder spanLimiter(CollectorSpanLimiter spanLimiter) {
+      delegate.spanLimiter(spanLimiter);
+      return this;
+    }
+
     @Override
     public Builder metrics(CollectorMetrics metrics) {
       if (metrics == null) throw new NullPointerException("metrics == null");
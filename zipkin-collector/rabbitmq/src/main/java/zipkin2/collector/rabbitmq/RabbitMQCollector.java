@@ -32,6 +32,7 @@ import zipkin2.collector.Collector;
 import zipkin2.collector.CollectorComponent;
 import zipkin2.collector.CollectorMetrics;
 import zipkin2.collector.CollectorSampler;
+import zipkin2.collector.CollectorSpanLimiter;
 import zipkin2.storage.StorageComponent;
 
 /** This collector consumes encoded binary messages from a RabbitMQ queue. */
@@ -69,6 +70,12 @@ public final class RabbitMQCollector extends CollectorComponent {
       return this;
     }
 
+    /** Truncates or drops oversized spans before storage. Defaults to no limits. */
+    public Builder spanLimiter(CollectorSpanLimiter spanLimiter) {
+      this.delegate.spanLimiter(spanLimiter);
+      return this;
+    }
+
     @Override
     public Builder metrics(CollectorMetrics metrics) {
       if (metrics == null) throw new NullPointerException("metrics == null");
@@ -18,6 +18,7 @@ import zipkin2.collector.Collector;
 import zipkin2.collector.CollectorComponent;
 import zipkin2.collector.CollectorMetrics;
 import zipkin2.collector.CollectorSampler;
+import zipkin2.collector.CollectorSpanLimiter;
 import zipkin2.storage.SpanConsumer;
 import zipkin2.storage.StorageComponent;
 
@@ -56,6 +57,12 @@ public final class ScribeCollector extends CollectorComponent {
       return this;
     }
 
+    /** Truncates or drops oversized spans before storage. Defaults to no limits. */
+    public Builder spanLimiter(CollectorSpanLimiter spanLimiter) {
+      delegate.spanLimiter(spanLimiter);
+      return this;
+    }
+
     /** Category zipkin spans will be consumed from. Defaults to "zipkin" */
     public Builder category(String category) {
       if (category == null) throw new NullPointerException("category == null");
@@ -16,10 +16,19 @@ package zipkin2.server.internal;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
+import zipkin2.codec.Encoding;
 import zipkin2.collector.CollectorMetrics;
+import zipkin2.collector.TimedCollectorMetrics;
 import zipkin2.internal.Nullable;
 
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
 /**
  * This is a simple metric service that exports the following to the "/metrics" endpoint:
  *
@@ -34,30 +43,61 @@ import zipkin2.internal.Nullable;
  * messages reported by instrumented apps</li>
  *     <li>counter.zipkin_collector.spans_dropped.$transport - cumulative spans dropped; reasons
  * include sampling or storage failures</li>
+ *     <li>counter.zipkin_collector.spans_truncated.$transport - cumulative spans stored with less
+ * data than received; reasons include tags over size limits</li>
  *     <li>gauge.zipkin_collector.message_spans.$transport - last count of spans in a message</li>
  *     <li>gauge.zipkin_collector.message_bytes.$transport - last count of bytes in a message</li>
  * </ul>
  * </pre>
  *
+ * <p>When the timing sample rate is positive, the following timers record latencies of that
+ * percentage of messages:
+ *
+ * <pre>
+ * <ul>
+ *     <li>timer.zipkin_collector.decode_duration.$transport.$encoding - time to decode a message,
+ * including sampling when that happens before decoding</li>
+ *     <li>timer.zipkin_collector.sample_duration.$transport - time to sample decoded spans</li>
+ *     <li>timer.zipkin_collector.store_duration.$transport - time from calling storage until it
+ * completes, including any throttle queue wait</li>
+ *     <li>timer.zipkin_collector.receive_to_stored_duration.$transport - time from receiving a
+ * message until its spans are stored</li>
+ * </ul>
+ * </pre>
+ *
  * See https://docs.spring.io/spring-boot/docs/current/reference/html/production-ready-metrics.html
  *
  * <p>In-memory implementation mimics code from org.springframework.boot.actuate.metrics.buffer
  */
-public final class ActuateCollectorMetrics implements CollectorMetrics {
+public final class ActuateCollectorMetrics implements TimedCollectorMetrics {
 
   final MeterRegistry registryInstance;
-  final Counter messages, messagesDropped, bytes, spans, spansDropped;
+  final float timingSampleRate;
+  final Counter messages, messagesDropped, bytes, spans, spansDropped, spansTruncated;
   final AtomicInteger messageBytes, messageSpans;
+  final Map<Encoding, Timer> decodeDuration = new EnumMap<>(Encoding.class);
+  final Timer sampleDuration, storeDuration, receiveToStoredDuration;
 
   public ActuateCollectorMetrics(MeterRegistry registry) {
-    this(null, registry);
+    this(registry, 0.0f);
+  }
+
+  /** @param timingSampleRate percentage of messages to record latencies of, from 0.0 to 1.0. */
+  public ActuateCollectorMetrics(MeterRegistry registry, float timingSampleRate) {
+    this(null, registry, timingSampleRate);
   }
 
-  ActuateCollectorMetrics(@Nullable String transport, MeterRegistry meterRegistry) {
+  ActuateCollectorMetrics(@Nullable String transport, MeterRegistry meterRegistry,
+    float timingSampleRate) {
+    if (timingSampleRate < 0.0f || timingSampleRate > 1.0f) {
+      throw new IllegalArgumentException("timingSampleRate should be between 0.0 and 1.0");
+    }
     this.registryInstance = meterRegistry;
+    this.timingSampleRate = timingSampleRate;
     if (transport == null) {
-      messages = messagesDropped = bytes = spans = spansDropped = null;
+      messages = messagesDropped = bytes = spans = spansDropped = spansTruncated = null;
       messageBytes = messageSpans = null;
+      sampleDuration = storeDuration = receiveToStoredDuration = null;
       return;
     }
     this.messages =
@@ -87,6 +127,11 @@ public final class ActuateCollectorMetrics implements CollectorMetrics {
             .description("cumulative amount of spans received that were later dropped")
             .tag("transport", transport)
             .register(registryInstance);
+    this.spansTruncated =
+        Counter.builder("zipkin_collector.spans_truncated")
+            .description("cumulative amount of spans received that were later truncated")
+            .tag("transport", transport)
+            .register(registryInstance);
 
     this.messageSpans = new AtomicInteger(0);
     Gauge.builder("zipkin_collector.message_spans", messageSpans, AtomicInteger::get)
@@ -99,12 +144,40 @@ public final class ActuateCollectorMetrics implements CollectorMetrics {
         .tag("transport", transport)
         .baseUnit("bytes")
         .register(registryInstance);
+
+    if (timingSampleRate == 0.0f) { // don't export timers that never record
+      sampleDuration = storeDuration = receiveToStoredDuration = null;
+      return;
+    }
+    for (Encoding encoding : Encoding.values()) {
+      decodeDuration.put(encoding,
+        timer("zipkin_collector.decode_duration", "time to decode a message", transport)
+          .tag("encoding", encoding.name().toLowerCase(Locale.ROOT))
+          .register(registryInstance));
+    }
+    this.sampleDuration =
+      timer("zipkin_collector.sample_duration", "time to sample decoded spans", transport)
+        .register(registryInstance);
+    this.storeDuration =
+      timer("zipkin_collector.store_duration", "time from calling storage until it completes",
+        transport).register(registryInstance);
+    this.receiveToStoredDuration =
+      timer("zipkin_collector.receive_to_stored_duration",
+        "time from receiving a message until its spans are stored", transport)
+        .register(registryInstance);
+  }
+
+  static Timer.Builder timer(String name, String description, String transport) {
+    return Timer.builder(name)
+      .description(description + ", for the sampled percentage of messages")
+      .tag("transport", transport)
+      .publishPercentileHistogram();
   }
 
   @Override
   public ActuateCollectorMetrics forTransport(String transportType) {
     if (transportType == null) throw new NullPointerException("transportType == null");
-    return new ActuateCollectorMetrics(transportType, registryInstance);
+    return new ActuateCollectorMetrics(transportType, registryInstance, timingSampleRate);
   }
 
   @Override
@@ -139,6 +212,42 @@ public final class ActuateCollectorMetrics implements CollectorMetrics {
     spansDropped.increment(quantity);
   }
 
+  @Override
+  public void incrementSpansTruncated(int quantity) {
+    checkScoped();
+    spansTruncated.increment(quantity);
+  }
+
+  @Override
+  public boolean isTimingSampled() {
+    if (timingSampleRate == 0.0f) return false;
+    return timingSampleRate == 1.0f || ThreadLocalRandom.current().nextFloat() < timingSampleRate;
+  }
+
+  @Override
+  public void recordDecode(Encoding encoding, long nanos) {
+    checkScoped();
+    decodeDuration.get(encoding).record(nanos, NANOSECONDS);
+  }
+
+  @Override
+  public void recordSample(long nanos) {
+    checkScoped();
+    sampleDuration.record(nanos, NANOSECONDS);
+  }
+
+  @Override
+  public void recordStore(long nanos) {
+    checkScoped();
+    storeDuration.record(nanos, NANOSECONDS);
+  }
+
+  @Override
+  public void recordReceiveToStored(long nanos) {
+    checkScoped();
+    receiveToStoredDuration.record(nanos, NANOSECONDS);
+  }
+
   void checkScoped() {
     if (messages == null)
       throw new IllegalStateException("always scope with ActuateCollectorMetrics.forTransport");
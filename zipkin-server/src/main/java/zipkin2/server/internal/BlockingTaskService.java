@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import com.linecorp.armeria.common.HttpRequest;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.server.Service;
+import com.linecorp.armeria.server.ServiceRequestContext;
+import com.linecorp.armeria.server.SimpleDecoratingService;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Serves requests on the {@link ServiceRequestContext#blockingTaskExecutor() blocking task
+ * executor} instead of the event loop. This is for services that block, such as those invoking
+ * {@link zipkin2.Call#execute()}.
+ */
+final class BlockingTaskService extends SimpleDecoratingService<HttpRequest, HttpResponse> {
+  BlockingTaskService(Service<HttpRequest, HttpResponse> delegate) {
+    super(delegate);
+  }
+
+  @Override public HttpResponse serve(ServiceRequestContext ctx, HttpRequest req) {
+    CompletableFuture<HttpResponse> result = new CompletableFuture<>();
+    ctx.blockingTaskExecutor().execute(ctx.makeContextAware(() -> {
+      try {
+        result.complete(delegate().serve(ctx, req));
+      } catch (Throwable t) {
+        result.completeExceptionally(t);
+      }
+    }));
+    return HttpResponse.from(result);
+  }
+}
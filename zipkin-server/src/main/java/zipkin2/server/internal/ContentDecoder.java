@@ -0,0 +1,327 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpObject;
+import com.linecorp.armeria.common.HttpRequest;
+import com.linecorp.armeria.common.stream.SubscriptionOption;
+import com.linecorp.armeria.unsafe.ByteBufHttpData;
+import io.airlift.compress.MalformedInputException;
+import io.airlift.compress.zstd.ZstdDecompressor;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.compression.DecompressionException;
+import io.netty.handler.codec.compression.JdkZlibDecoder;
+import io.netty.handler.codec.compression.SnappyFrameDecoder;
+import io.netty.handler.codec.compression.ZlibWrapper;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.EventExecutor;
+import java.util.concurrent.CompletableFuture;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import zipkin2.internal.Nullable;
+
+/**
+ * Decompresses a request body according to its {@code Content-Encoding}.
+ *
+ * <p>Unlike decoding an aggregated request, chunks are decompressed as they arrive and released
+ * immediately after. This means peak memory is the decompressed size plus one chunk, as opposed to
+ * the compressed plus the decompressed size.
+ *
+ * <p>The following encodings are supported, all implemented in Java:
+ * <ul>
+ *   <li>{@code gzip}: decoded incrementally</li>
+ *   <li>{@code snappy}: the framing format, decoded incrementally</li>
+ *   <li>{@code zstd}: decoded once all chunks are received</li>
+ * </ul>
+ *
+ * <p>The decompressed body is limited to {@code maxBytes}, so that a small compressed request
+ * can't use more memory than an uncompressed one could.
+ */
+abstract class ContentDecoder {
+  /**
+   * Returns null when the encoding is absent or not supported, in which case it is ignored.
+   *
+   * @param maxBytes limits the size of the decompressed body, usually the max request length.
+   * Zero or less means no limit.
+   */
+  @Nullable static ContentDecoder create(@Nullable String contentEncoding, ByteBufAllocator alloc,
+    long maxBytes) {
+    if (contentEncoding == null) return null;
+    int max = maxBytes <= 0 || maxBytes > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) maxBytes;
+    if (contentEncoding.contains("gzip")) {
+      return new ChannelDecoder(alloc, max, new JdkZlibDecoder(ZlibWrapper.GZIP), "gunzip");
+    } else if (contentEncoding.contains("snappy")) {
+      return new ChannelDecoder(alloc, max, new SnappyFrameDecoder(), "decode snappy");
+    } else if (contentEncoding.contains("zstd")) {
+      return new ZstdDecoder(alloc, max);
+    }
+    return null;
+  }
+
+  final ByteBufAllocator alloc;
+  final int maxBytes;
+  final String verb;
+  int compressedBytes;
+  boolean closed;
+
+  ContentDecoder(ByteBufAllocator alloc, int maxBytes, String verb) {
+    this.alloc = alloc;
+    this.maxBytes = maxBytes;
+    this.verb = verb;
+  }
+
+  /**
+   * Returns a future of the decompressed body, completed when the request is fully read. The body
+   * is a pooled object, so must be released by the caller.
+   */
+  CompletableFuture<HttpData> decode(HttpRequest req, EventExecutor executor) {
+    DecodingSubscriber subscriber = new DecodingSubscriber(this);
+    req.subscribe(subscriber, executor, SubscriptionOption.WITH_POOLED_OBJECTS);
+    return subscriber.result;
+  }
+
+  /** Decompresses the next chunk, taking ownership of it. */
+  final void decode(ByteBuf chunk) {
+    compressedBytes += chunk.readableBytes();
+    try {
+      doDecode(chunk);
+    } catch (DecompressionException | MalformedInputException e) {
+      throw malformed(e);
+    }
+  }
+
+  /** Returns the decompressed body, which the caller must release. */
+  final ByteBuf finish() {
+    ByteBuf result;
+    try {
+      result = doFinish();
+    } catch (DecompressionException | MalformedInputException e) {
+      throw malformed(e);
+    }
+    if (compressedBytes > 0 && !result.isReadable()) {
+      result.release();
+      throw malformed(null);
+    }
+    return result;
+  }
+
+  abstract void doDecode(ByteBuf chunk);
+
+  abstract ByteBuf doFinish();
+
+  abstract void doClose();
+
+  /** Releases any resources held. This is safe to call multiple times. */
+  final void close() {
+    if (closed) return;
+    closed = true;
+    doClose();
+  }
+
+  IllegalArgumentException malformed(@Nullable Throwable cause) {
+    close();
+    return new IllegalArgumentException("Cannot " + verb + " spans", cause);
+  }
+
+  IllegalArgumentException tooLarge() {
+    close();
+    return new IllegalArgumentException(
+      "Cannot " + verb + " spans larger than " + maxBytes + " bytes");
+  }
+
+  /** Decodes with a Netty handler, which outputs decompressed buffers as soon as it can. */
+  static final class ChannelDecoder extends ContentDecoder {
+    final EmbeddedChannel channel;
+    final JdkZlibDecoder zlib; // when not null, we can tell if the input was truncated
+    ByteBuf out;
+
+    ChannelDecoder(ByteBufAllocator alloc, int maxBytes, ChannelHandler decoder, String verb) {
+      super(alloc, maxBytes, verb);
+      channel = new EmbeddedChannel(decoder);
+      channel.config().setAllocator(alloc); // so that decompressed buffers are from the same pool
+      zlib = decoder instanceof JdkZlibDecoder ? (JdkZlibDecoder) decoder : null;
+    }
+
+    @Override void doDecode(ByteBuf chunk) {
+      channel.writeInbound(chunk);
+      drain();
+    }
+
+    @Override ByteBuf doFinish() {
+      channel.finish();
+      drain();
+      if (zlib != null && compressedBytes > 0 && !zlib.isClosed()) throw malformed(null);
+      ByteBuf result = out != null ? out : Unpooled.EMPTY_BUFFER;
+      out = null;
+      return result;
+    }
+
+    void drain() {
+      for (ByteBuf decoded; (decoded = channel.readInbound()) != null; ) {
+        try {
+          int size = out != null ? out.readableBytes() : 0;
+          if (decoded.readableBytes() > maxBytes - size) throw tooLarge();
+          if (out == null) out = alloc.buffer(decoded.readableBytes());
+          out.writeBytes(decoded);
+        } finally {
+          decoded.release();
+        }
+      }
+    }
+
+    @Override void doClose() {
+      channel.finishAndReleaseAll();
+      if (out != null) out.release();
+      out = null;
+    }
+  }
+
+  /**
+   * Zstd frames are decoded at the end, as the decompressor reads a whole frame at a time from a
+   * contiguous array. Hence, the compressed chunks are copied, unless there was only one on heap.
+   */
+  static final class ZstdDecoder extends ContentDecoder {
+    /** Initial output size of a frame that doesn't say its content size, as a multiple of input. */
+    static final int UNKNOWN_SIZE_RATIO = 4;
+
+    final CompositeByteBuf compressed;
+
+    ZstdDecoder(ByteBufAllocator alloc, int maxBytes) {
+      super(alloc, maxBytes, "decode zstd");
+      compressed = alloc.compositeBuffer(Integer.MAX_VALUE);
+    }
+
+    @Override void doDecode(ByteBuf chunk) {
+      compressed.addComponent(true, chunk);
+    }
+
+    @Override ByteBuf doFinish() {
+      int length = compressed.readableBytes();
+      if (length == 0) {
+        close();
+        return Unpooled.EMPTY_BUFFER;
+      }
+      byte[] input;
+      int offset;
+      if (compressed.hasArray()) {
+        input = compressed.array();
+        offset = compressed.arrayOffset() + compressed.readerIndex();
+      } else {
+        input = ByteBufUtil.getBytes(compressed);
+        offset = 0;
+      }
+      try {
+        // The size in the frame header is untrusted, so is checked before allocating for it
+        long size = ZstdDecompressor.getDecompressedSize(input, offset, length);
+        if (size > maxBytes) throw tooLarge();
+        if (size >= 0) return decompress(input, offset, length, (int) size);
+
+        // Otherwise, the size isn't in the header, so grow the output until the frame fits
+        int capacity = (int) Math.min(maxBytes, (long) length * UNKNOWN_SIZE_RATIO);
+        while (true) {
+          try {
+            return decompress(input, offset, length, capacity);
+          } catch (MalformedInputException e) {
+            String message = e.getMessage();
+            if (message == null || !message.contains("Output buffer too small")) throw e;
+            if (capacity == maxBytes) throw tooLarge();
+            capacity = (int) Math.min(maxBytes, capacity * 2L);
+          }
+        }
+      } finally {
+        close();
+      }
+    }
+
+    ByteBuf decompress(byte[] input, int offset, int length, int capacity) {
+      ByteBuf result = alloc.heapBuffer(capacity, capacity);
+      try {
+        result.writerIndex(new ZstdDecompressor().decompress(input, offset, length,
+          result.array(), result.arrayOffset(), capacity));
+        return result;
+      } catch (RuntimeException e) {
+        result.release();
+        throw e;
+      }
+    }
+
+    @Override void doClose() {
+      compressed.release();
+    }
+  }
+
+  static final class DecodingSubscriber implements Subscriber<HttpObject> {
+    final CompletableFuture<HttpData> result = new CompletableFuture<>();
+    final ContentDecoder decoder;
+    Subscription subscription;
+
+    DecodingSubscriber(ContentDecoder decoder) {
+      this.decoder = decoder;
+    }
+
+    @Override public void onSubscribe(Subscription subscription) {
+      this.subscription = subscription;
+      subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override public void onNext(HttpObject object) {
+      if (!(object instanceof HttpData)) return; // headers or trailers
+      HttpData data = (HttpData) object;
+      if (result.isDone() || data.isEmpty()) {
+        ReferenceCountUtil.release(data);
+        return;
+      }
+      ByteBuf chunk = data instanceof ByteBufHolder
+        ? ((ByteBufHolder) data).content()
+        : Unpooled.wrappedBuffer(data.array(), data.offset(), data.length());
+      try {
+        decoder.decode(chunk);
+      } catch (Throwable t) {
+        subscription.cancel();
+        onError(t);
+      }
+    }
+
+    @Override public void onError(Throwable t) {
+      if (result.isDone()) return;
+      decoder.close();
+      result.completeExceptionally(t);
+    }
+
+    @Override public void onComplete() {
+      if (result.isDone()) return;
+      ByteBuf decoded;
+      try {
+        decoded = decoder.finish();
+      } catch (Throwable t) {
+        onError(t);
+        return;
+      }
+      if (!decoded.isReadable()) {
+        decoded.release();
+        result.complete(HttpData.EMPTY_DATA);
+      } else {
+        result.complete(new ByteBufHttpData(decoded, true));
+      }
+    }
+  }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpHeaderNames;
+import com.linecorp.armeria.common.HttpRequest;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.MediaType;
+import com.linecorp.armeria.common.RequestHeaders;
+import com.linecorp.armeria.common.ResponseHeaders;
+import com.linecorp.armeria.server.Service;
+import com.linecorp.armeria.server.ServiceRequestContext;
+import com.linecorp.armeria.server.SimpleDecoratingService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import zipkin2.Callback;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.collector.Collector;
+import zipkin2.collector.CollectorMetrics;
+import zipkin2.internal.Nullable;
+
+/**
+ * Limits the rate of ingest per key, so that one noisy client can't use all storage capacity.
+ *
+ * <p>The key is one of the following:
+ * <ul>
+ *   <li>{@code client-address}: the remote IP of the request</li>
+ *   <li>{@code header:<name>}: the value of a request header, such as a tenant ID</li>
+ *   <li>{@code local-service-name}: the local service of each span</li>
+ * </ul>
+ *
+ * <p>Request keys are checked before the body is read, and limit messages per second. Requests
+ * over quota are answered with status 429 and a {@code Retry-After} header. Spans are only decoded
+ * after that, so the local service name key limits spans per second. Spans over quota are dropped,
+ * like sampling, but the request succeeds.
+ *
+ * <h3>Implementation</h3>
+ * Each key has a token bucket implemented with the generic cell rate algorithm: the bucket is a
+ * single {@link AtomicLong} holding the time it will be full again. Acquiring a token is a
+ * compare-and-set of that time, so there's no lock, and contention is only between requests with
+ * the same key.
+ *
+ * <p>A bucket that's full is the same as a new one, so those are removed when there are more than
+ * {@code maxKeys}. If all are in use, new keys share one bucket until some refill. The "key" tag
+ * of metrics is similarly bounded by {@code maxMetricKeys}, after which it is "other".
+ */
+final class IngestQuota {
+  static final String CLIENT_ADDRESS = "client-address", LOCAL_SERVICE_NAME = "local-service-name";
+  static final String HEADER_PREFIX = "header:", UNKNOWN_KEY = "unknown", OTHER_KEY = "other";
+  static final IngestQuota NOOP = new IngestQuota();
+
+  static IngestQuota create(String key, double ratePerSecond, int burst, int maxKeys,
+    int maxMetricKeys, MeterRegistry registry) {
+    if (ratePerSecond == 0) return NOOP;
+    return new IngestQuota(key, ratePerSecond, burst, maxKeys, maxMetricKeys, registry,
+      System::nanoTime);
+  }
+
+  @Nullable final String header; // only set when keyed by a header
+  final boolean perLocalService;
+  final long intervalNanos, toleranceNanos; // time to earn one token, and for a burst
+  final int maxKeys, maxMetricKeys;
+  final MeterRegistry registry;
+  final LongSupplier nanoTime;
+  final ConcurrentMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+  final AtomicLong overflowBucket;
+  final ConcurrentMap<String, Counter> exceeded = new ConcurrentHashMap<>();
+  volatile long nextPurgeNanos;
+
+  IngestQuota(String key, double ratePerSecond, int burst, int maxKeys, int maxMetricKeys,
+    MeterRegistry registry, LongSupplier nanoTime) {
+    if (ratePerSecond <= 0) throw new IllegalArgumentException("ratePerSecond <= 0");
+    if (burst < 0) throw new IllegalArgumentException("burst < 0");
+    if (maxKeys <= 0) throw new IllegalArgumentException("maxKeys <= 0");
+    if (maxMetricKeys < 0) throw new IllegalArgumentException("maxMetricKeys < 0");
+    if (key.startsWith(HEADER_PREFIX) && key.length() > HEADER_PREFIX.length()) {
+      header = key.substring(HEADER_PREFIX.length());
+      perLocalService = false;
+    } else if (key.equals(CLIENT_ADDRESS) || key.equals(LOCAL_SERVICE_NAME)) {
+      header = null;
+      perLocalService = key.equals(LOCAL_SERVICE_NAME);
+    } else {
+      throw new IllegalArgumentException("Unsupported quota key: " + key + ". Use "
+        + CLIENT_ADDRESS + ", " + LOCAL_SERVICE_NAME + " or " + HEADER_PREFIX + "<name>");
+    }
+    if (burst == 0) burst = (int) Math.max(1, Math.ceil(ratePerSecond));
+    this.intervalNanos = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+    this.toleranceNanos = intervalNanos * burst;
+    this.maxKeys = maxKeys;
+    this.maxMetricKeys = maxMetricKeys;
+    this.registry = registry;
+    this.nanoTime = nanoTime;
+    this.nextPurgeNanos = nanoTime.getAsLong();
+    this.overflowBucket = new AtomicLong(nextPurgeNanos);
+    Gauge.builder("zipkin_collector.quota_keys", buckets::size)
+      .description("number of keys with ingest quota in use")
+      .register(registry);
+  }
+
+  IngestQuota() { // NOOP
+    header = null;
+    perLocalService = false;
+    intervalNanos = toleranceNanos = 0;
+    maxKeys = maxMetricKeys = 0;
+    registry = null;
+    nanoTime = null;
+    overflowBucket = null;
+  }
+
+  /** True when requests should be checked before their body is read. */
+  boolean isPerRequest() {
+    return this != NOOP && !perLocalService;
+  }
+
+  boolean isPerLocalService() {
+    return perLocalService;
+  }
+
+  String requestKey(ServiceRequestContext ctx, RequestHeaders headers) {
+    String result = header != null ? headers.get(header) : ctx.clientAddress().getHostAddress();
+    return result != null && !result.isEmpty() ? result : UNKNOWN_KEY;
+  }
+
+  /** Returns zero if a token was acquired, or else how long until one will be available. */
+  long tryAcquire(String key) {
+    long now = nanoTime.getAsLong();
+    AtomicLong bucket = buckets.get(key);
+    if (bucket == null) bucket = newBucket(key, now);
+    while (true) {
+      long full = bucket.get();
+      long next = (full - now > 0 ? full : now) + intervalNanos; // nanoTime can overflow
+      long waitNanos = next - now - toleranceNanos;
+      if (waitNanos > 0) return waitNanos;
+      if (bucket.compareAndSet(full, next)) return 0L;
+    }
+  }
+
+  AtomicLong newBucket(String key, long now) {
+    if (buckets.size() >= maxKeys) {
+      if (now - nextPurgeNanos >= 0) { // don't scan on every new key when all buckets are in use
+        nextPurgeNanos = now + TimeUnit.SECONDS.toNanos(1);
+        buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+      }
+      if (buckets.size() >= maxKeys) return overflowBucket;
+    }
+    return buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+  }
+
+  /**
+   * Like {@link Collector#acceptSpans(ByteBuffer, SpanBytesDecoder, Callback, Executor)}, except
+   * dropping spans over quota when keyed by local service name.
+   */
+  void acceptSpans(Collector collector, ByteBuffer encoded, SpanBytesDecoder decoder,
+    Callback<Void> callback, Executor executor, String transport, CollectorMetrics metrics) {
+    if (!perLocalService) {
+      collector.acceptSpans(encoded, decoder, callback, executor);
+      return;
+    }
+    List<Span> spans;
+    try {
+      spans = decoder.decodeList(encoded.duplicate());
+    } catch (RuntimeException e) {
+      collector.acceptSpans(encoded, decoder, callback, executor); // reports the decode error
+      return;
+    }
+    collector.accept(filterByLocalService(spans, transport, metrics), callback, executor);
+  }
+
+  /** Drops spans whose local service is over quota, accounting for them in collector metrics. */
+  List<Span> filterByLocalService(List<Span> spans, String transport, CollectorMetrics metrics) {
+    List<Span> result = null; // lazy, as usually nothing is dropped
+    for (int i = 0, length = spans.size(); i < length; i++) {
+      Span span = spans.get(i);
+      String key = span.localServiceName();
+      if (key == null) key = UNKNOWN_KEY;
+      if (tryAcquire(key) == 0L) {
+        if (result != null) result.add(span);
+        continue;
+      }
+      if (result == null) result = new ArrayList<>(spans.subList(0, i));
+      exceeded(transport, key).increment();
+    }
+    if (result == null) return spans;
+
+    int dropped = spans.size() - result.size();
+    metrics.incrementSpans(dropped); // the collector only counts spans it's passed
+    metrics.incrementSpansDropped(dropped);
+    return result;
+  }
+
+  Counter exceeded(String transport, String key) {
+    Counter result = exceeded.get(transport + ' ' + key);
+    if (result != null) return result;
+    String tag = exceeded.size() < maxMetricKeys ? key : OTHER_KEY;
+    return exceeded.computeIfAbsent(transport + ' ' + tag, id -> Counter.builder(
+      "zipkin_collector.quota_exceeded")
+      .description("cumulative amount of messages, or spans by local service, over quota")
+      .tag("transport", transport)
+      .tag("key", tag)
+      .register(registry));
+  }
+
+  /** Returns a decorator that checks the request key before the delegate reads the body. */
+  Service<HttpRequest, HttpResponse> decorate(Service<HttpRequest, HttpResponse> delegate,
+    String transport, CollectorMetrics metrics) {
+    return new QuotaService(delegate, transport, metrics);
+  }
+
+  final class QuotaService extends SimpleDecoratingService<HttpRequest, HttpResponse> {
+    final String transport;
+    final CollectorMetrics metrics;
+
+    QuotaService(Service<HttpRequest, HttpResponse> delegate, String transport,
+      CollectorMetrics metrics) {
+      super(delegate);
+      this.transport = transport;
+      this.metrics = metrics;
+    }
+
+    @Override public HttpResponse serve(ServiceRequestContext ctx, HttpRequest req)
+      throws Exception {
+      String key = requestKey(ctx, req.headers());
+      long waitNanos = tryAcquire(key);
+      if (waitNanos == 0L) return delegate().serve(ctx, req);
+
+      exceeded(transport, key).increment();
+      metrics.incrementMessages();
+      metrics.incrementMessagesDropped();
+      req.abort(); // we won't read the body
+      return tooManyRequests(waitNanos);
+    }
+  }
+
+  static HttpResponse tooManyRequests(long waitNanos) {
+    long retryAfterSeconds = Math.max(1L, (waitNanos + 999_999_999L) / 1_000_000_000L);
+    return HttpResponse.of(ResponseHeaders.of(HttpStatus.TOO_MANY_REQUESTS,
+      HttpHeaderNames.RETRY_AFTER, Long.toString(retryAfterSeconds),
+      HttpHeaderNames.CONTENT_TYPE, MediaType.PLAIN_TEXT_UTF_8),
+      HttpData.ofUtf8("Ingest quota exceeded\n"));
+  }
+}
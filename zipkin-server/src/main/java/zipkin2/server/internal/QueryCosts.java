@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import com.linecorp.armeria.server.ServiceRequestContext;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import zipkin2.Call;
+import zipkin2.internal.Nullable;
+import zipkin2.internal.QueryCost;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Accounts for the storage work done by each query: wall time, and the {@link QueryCost} of
+ * backend calls, rows and bytes read, as reported by the storage component. Costs are recorded
+ * as metrics tagged by operation, logged when the query is slow, and optionally returned in a
+ * {@code Server-Timing} response header.
+ */
+final class QueryCosts {
+  static final Logger LOGGER = LogManager.getLogger();
+
+  final MeterRegistry registry;
+  final long slowQueryThresholdNanos;
+  final boolean costHeader;
+  final Map<String, Meters> meters = new ConcurrentHashMap<>();
+
+  /**
+   * @param slowQueryThresholdMillis queries taking longer are logged. Zero disables the log.
+   * @param costHeader when true, responses include the cost in a {@code Server-Timing} header.
+   */
+  QueryCosts(MeterRegistry registry, long slowQueryThresholdMillis, boolean costHeader) {
+    if (slowQueryThresholdMillis < 0) {
+      throw new IllegalArgumentException("slowQueryThresholdMillis < 0");
+    }
+    this.registry = registry;
+    this.slowQueryThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowQueryThresholdMillis);
+    this.costHeader = costHeader;
+  }
+
+  /**
+   * Executes the call, accounting for the storage work it does on this thread.
+   *
+   * @param operation the name of the storage method, such as "get-traces"
+   * @param query what's logged when the query is slow, such as the query request
+   */
+  <V> V execute(@Nullable ServiceRequestContext ctx, String operation, Object query,
+    Call<V> call) throws IOException {
+    QueryCost cost = new QueryCost();
+    QueryCost previous = cost.makeCurrent();
+    long startNanos = System.nanoTime();
+    try {
+      return call.execute();
+    } finally {
+      long durationNanos = System.nanoTime() - startNanos;
+      QueryCost.restore(previous);
+      record(ctx, operation, query, cost, durationNanos);
+    }
+  }
+
+  void record(@Nullable ServiceRequestContext ctx, String operation, Object query, QueryCost cost,
+    long durationNanos) {
+    meters.computeIfAbsent(operation, this::newMeters).record(cost, durationNanos);
+
+    if (slowQueryThresholdNanos != 0L && durationNanos >= slowQueryThresholdNanos) {
+      LOGGER.warn("slow query: operation={} duration_ms={} calls={} rows={} bytes={} query={}",
+        operation, NANOSECONDS.toMillis(durationNanos), cost.calls(), cost.rows(), cost.bytes(),
+        query);
+    }
+
+    if (costHeader && ctx != null) {
+      ctx.addAdditionalResponseHeader("server-timing", serverTiming(cost, durationNanos));
+    }
+  }
+
+  /** Formats the cost so that browser developer tools show it with the request. */
+  static String serverTiming(QueryCost cost, long durationNanos) {
+    return String.format(Locale.ROOT, "storage;dur=%.3f;desc=\"calls=%d rows=%d bytes=%d\"",
+      durationNanos / 1_000_000.0, cost.calls(), cost.rows(), cost.bytes());
+  }
+
+  Meters newMeters(String operation) {
+    return new Meters(registry, operation);
+  }
+
+  static final class Meters {
+    final Timer duration;
+    final DistributionSummary calls, rows, bytes;
+
+    Meters(MeterRegistry registry, String operation) {
+      duration = Timer.builder("zipkin_query.duration")
+        .description("time to execute a query against storage")
+        .tag("operation", operation)
+        .publishPercentileHistogram()
+        .register(registry);
+      calls = DistributionSummary.builder("zipkin_query.storage_calls")
+        .description("count of requests to the storage backend per query")
+        .tag("operation", operation)
+        .register(registry);
+      rows = DistributionSummary.builder("zipkin_query.storage_rows")
+        .description("count of rows or documents read from the storage backend per query")
+        .tag("operation", operation)
+        .register(registry);
+      bytes = DistributionSummary.builder("zipkin_query.storage_bytes")
+        .description("count of bytes read from the storage backend per query")
+        .tag("operation", operation)
+        .baseUnit("bytes")
+        .register(registry);
+    }
+
+    void record(QueryCost cost, long durationNanos) {
+      duration.record(durationNanos, NANOSECONDS);
+      calls.record(cost.calls());
+      rows.record(cost.rows());
+      bytes.record(cost.bytes());
+    }
+  }
+}
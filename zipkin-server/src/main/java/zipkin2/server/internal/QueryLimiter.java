@@ -0,0 +1,315 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import com.linecorp.armeria.common.AggregatedHttpResponse;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpHeaderNames;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.MediaType;
+import com.linecorp.armeria.common.ResponseHeaders;
+import com.linecorp.armeria.server.ServiceRequestContext;
+import com.netflix.concurrency.limits.Limit;
+import com.netflix.concurrency.limits.limit.Gradient2Limit;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import zipkin2.Call;
+import zipkin2.internal.Nullable;
+import zipkin2.storage.QueryRequest;
+
+import static zipkin2.server.internal.IngestQuota.CLIENT_ADDRESS;
+import static zipkin2.server.internal.IngestQuota.HEADER_PREFIX;
+import static zipkin2.server.internal.IngestQuota.UNKNOWN_KEY;
+
+/**
+ * Limits the cost of queries running against storage at the same time, so that a few expensive
+ * searches can't starve ingest, or other users of the UI.
+ *
+ * <p>Each query has a weight, which estimates its cost relative to looking up one trace. The sum
+ * of weights in flight is bounded by a {@link Gradient2Limit}, which adapts to storage latency
+ * between {@code minConcurrency} and {@code maxConcurrency}. A query heavier than the current limit
+ * is admitted alone, as it would otherwise never run.
+ *
+ * <p>Queries over the limit wait in a queue per client, keyed by {@code client-address} or
+ * {@code header:<name>}, and clients take turns: after one query is admitted, its client goes to
+ * the back of the line. This way, someone running many searches only delays their own. Queries
+ * waiting longer than {@code maxWaitMillis}, or that don't fit in the queue, are answered with
+ * status 503 and a {@code Retry-After} header, instead of timing out.
+ *
+ * <p>Waiting doesn't park a thread: a queued query runs on the request's blocking task executor
+ * when another completes. Queries never run on the event loop, as storage calls block.
+ */
+final class QueryLimiter {
+  static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+  static QueryLimiter create(String key, int minConcurrency, int maxConcurrency, int maxQueueSize,
+    long maxWaitMillis, Predicate<Throwable> isOverCapacity, MeterRegistry registry) {
+    Limit limit = Gradient2Limit.newBuilder()
+      .minLimit(minConcurrency)
+      // Limiter will trend towards min until otherwise necessary so may as well start there
+      .initialLimit(minConcurrency)
+      .maxConcurrency(maxConcurrency)
+      .queueSize(0)
+      .build();
+    return new QueryLimiter(key, limit, maxQueueSize, maxWaitMillis, isOverCapacity, registry);
+  }
+
+  /** Estimates the cost of a trace search, relative to looking up one trace. */
+  static int weight(QueryRequest request) {
+    long weight = lookbackDays(request.lookback()) * Math.max(1, request.limit() / 10);
+    // Without a service name, every service's index is scanned
+    if (request.serviceName() == null) weight *= 4;
+    return (int) Math.min(weight, Integer.MAX_VALUE);
+  }
+
+  /** Estimates the cost of aggregating dependency links, relative to looking up one trace. */
+  static int weight(long lookbackMillis) {
+    return (int) Math.min(lookbackDays(lookbackMillis), Integer.MAX_VALUE);
+  }
+
+  static long lookbackDays(long lookbackMillis) {
+    return Math.max(1L, (lookbackMillis + DAY - 1) / DAY);
+  }
+
+  @Nullable final String header; // only set when keyed by a header
+  final Limit limit;
+  final int maxQueueSize;
+  final long maxWaitMillis;
+  final Predicate<Throwable> isOverCapacity;
+  final Counter rejected;
+
+  // guarded by this
+  final Map<String, ArrayDeque<Pending>> queues = new LinkedHashMap<>(); // in order of their turn
+  int inFlight, queued; // inFlight is the sum of weights
+
+  QueryLimiter(String key, Limit limit, int maxQueueSize, long maxWaitMillis,
+    Predicate<Throwable> isOverCapacity, MeterRegistry registry) {
+    if (maxQueueSize < 0) throw new IllegalArgumentException("maxQueueSize < 0");
+    if (maxWaitMillis <= 0) throw new IllegalArgumentException("maxWaitMillis <= 0");
+    if (key.startsWith(HEADER_PREFIX) && key.length() > HEADER_PREFIX.length()) {
+      header = key.substring(HEADER_PREFIX.length());
+    } else if (key.equals(CLIENT_ADDRESS)) {
+      header = null;
+    } else {
+      throw new IllegalArgumentException("Unsupported query throttle key: " + key + ". Use "
+        + CLIENT_ADDRESS + " or " + HEADER_PREFIX + "<name>");
+    }
+    this.limit = limit;
+    this.maxQueueSize = maxQueueSize;
+    this.maxWaitMillis = maxWaitMillis;
+    this.isOverCapacity = isOverCapacity;
+    this.rejected = Counter.builder("zipkin_query.throttle.requests_rejected")
+      .description("cumulative amount of queries answered with status 503 as they were over the "
+        + "concurrency limit")
+      .register(registry);
+    Gauge.builder("zipkin_query.throttle.concurrency", limit::getLimit)
+      .description("weight of queries allowed to run against storage at the same time")
+      .register(registry);
+    Gauge.builder("zipkin_query.throttle.in_flight", this, QueryLimiter::inFlight)
+      .description("weight of queries running against storage")
+      .register(registry);
+    Gauge.builder("zipkin_query.throttle.queue_size", this, QueryLimiter::queued)
+      .description("number of queries waiting to run against storage")
+      .register(registry);
+  }
+
+  synchronized int inFlight() {
+    return inFlight;
+  }
+
+  synchronized int queued() {
+    return queued;
+  }
+
+  String clientKey(ServiceRequestContext ctx) {
+    String result = header != null
+      ? ctx.request().headers().get(header)
+      : ctx.clientAddress().getHostAddress();
+    return result != null && !result.isEmpty() ? result : UNKNOWN_KEY;
+  }
+
+  /**
+   * Runs the query now if under the limit, or else when it is the client's turn. The result is a
+   * 503 response if the query couldn't be admitted in time.
+   */
+  CompletableFuture<AggregatedHttpResponse> submit(ServiceRequestContext ctx, int weight,
+    Callable<AggregatedHttpResponse> query) {
+    String client = clientKey(ctx);
+    Pending pending = new Pending(ctx, weight, query);
+    boolean admitted = false;
+    synchronized (this) {
+      int limit = this.limit.getLimit();
+      pending.weight = Math.min(weight, limit);
+      if (queued == 0 && inFlight + pending.weight <= limit) {
+        inFlight += pending.weight;
+        admitted = true;
+      } else if (queued >= maxQueueSize) {
+        pending = null;
+      } else {
+        queues.computeIfAbsent(client, k -> new ArrayDeque<>()).add(pending);
+        queued++;
+      }
+    }
+
+    if (admitted) {
+      if (ctx.eventLoop().inEventLoop()) {
+        dispatch(pending);
+      } else { // already on a thread that can block
+        run(pending);
+      }
+    } else if (pending == null) {
+      rejected.increment();
+      return CompletableFuture.completedFuture(serviceUnavailable());
+    } else {
+      Pending toExpire = pending;
+      ctx.eventLoop().schedule(() -> expire(client, toExpire), maxWaitMillis,
+        TimeUnit.MILLISECONDS);
+    }
+    return pending.result;
+  }
+
+  void run(Pending pending) {
+    long startNanos = System.nanoTime();
+    boolean didDrop = false;
+    try {
+      pending.result.complete(pending.query.call());
+    } catch (Throwable t) {
+      Call.propagateIfFatal(t);
+      didDrop = isOverCapacity.test(t);
+      pending.result.completeExceptionally(t);
+    } finally {
+      release(pending.weight, startNanos, didDrop);
+    }
+  }
+
+  void release(int weight, long startNanos, boolean didDrop) {
+    List<Pending> admitted;
+    synchronized (this) {
+      if (startNanos != 0L) {
+        limit.onSample(startNanos, System.nanoTime() - startNanos, inFlight, didDrop);
+      }
+      inFlight -= weight;
+      admitted = admitQueued();
+    }
+    if (admitted != null) admitted.forEach(this::dispatch);
+  }
+
+  /** Queries run on the blocking task executor, as storage calls block. */
+  void dispatch(Pending pending) {
+    try {
+      pending.ctx.blockingTaskExecutor().execute(pending.ctx.makeContextAware(() -> run(pending)));
+    } catch (Throwable t) { // ex. the executor is shutting down
+      Call.propagateIfFatal(t);
+      pending.result.completeExceptionally(t);
+      release(pending.weight, 0L, false); // no latency to sample
+    }
+  }
+
+  /** Answers the query with a 503 if it is still waiting. */
+  void expire(String client, Pending pending) {
+    List<Pending> admitted;
+    synchronized (this) {
+      ArrayDeque<Pending> queue = queues.get(client);
+      if (queue == null || !queue.remove(pending)) return; // already admitted
+      if (queue.isEmpty()) queues.remove(client);
+      queued--;
+      admitted = admitQueued(); // this query may have been blocking lighter ones
+    }
+    rejected.increment();
+    pending.result.complete(serviceUnavailable());
+    if (admitted != null) admitted.forEach(this::dispatch);
+  }
+
+  /** Takes the head of each client's queue, in turn, until one doesn't fit under the limit. */
+  @Nullable List<Pending> admitQueued() {
+    List<Pending> result = null;
+    int limit = this.limit.getLimit();
+    while (queued > 0) {
+      Iterator<Map.Entry<String, ArrayDeque<Pending>>> turn = queues.entrySet().iterator();
+      Map.Entry<String, ArrayDeque<Pending>> next = turn.next();
+      Pending pending = next.getValue().peek();
+      int weight = Math.min(pending.weight, limit);
+      // Don't skip to a lighter query, as that would starve heavy ones
+      if (inFlight + weight > limit) break;
+
+      next.getValue().poll();
+      queued--;
+      inFlight += pending.weight = weight;
+      turn.remove();
+      if (!next.getValue().isEmpty()) queues.put(next.getKey(), next.getValue()); // to the back
+      if (result == null) result = new ArrayList<>();
+      result.add(pending);
+    }
+    return result;
+  }
+
+  /**
+   * Runs the query without limiting it. Like {@link #submit}, storage calls block, so the query is
+   * moved to the blocking task executor when called on the event loop.
+   */
+  static CompletableFuture<AggregatedHttpResponse> execute(ServiceRequestContext ctx,
+    Callable<AggregatedHttpResponse> query) {
+    CompletableFuture<AggregatedHttpResponse> result = new CompletableFuture<>();
+    Runnable task = () -> {
+      try {
+        result.complete(query.call());
+      } catch (Throwable t) {
+        Call.propagateIfFatal(t);
+        result.completeExceptionally(t);
+      }
+    };
+    if (!ctx.eventLoop().inEventLoop()) {
+      task.run();
+      return result;
+    }
+    try {
+      ctx.blockingTaskExecutor().execute(ctx.makeContextAware(task));
+    } catch (Throwable t) { // ex. the executor is shutting down
+      Call.propagateIfFatal(t);
+      result.completeExceptionally(t);
+    }
+    return result;
+  }
+
+  static AggregatedHttpResponse serviceUnavailable() {
+    return AggregatedHttpResponse.of(ResponseHeaders.of(HttpStatus.SERVICE_UNAVAILABLE,
+      HttpHeaderNames.RETRY_AFTER, "1",
+      HttpHeaderNames.CONTENT_TYPE, MediaType.PLAIN_TEXT_UTF_8.toString()),
+      HttpData.ofUtf8("Too many concurrent queries\n"));
+  }
+
+  static final class Pending {
+    final ServiceRequestContext ctx;
+    final Callable<AggregatedHttpResponse> query;
+    final CompletableFuture<AggregatedHttpResponse> result = new CompletableFuture<>();
+    int weight; // guarded by the limiter
+
+    Pending(ServiceRequestContext ctx, int weight, Callable<AggregatedHttpResponse> query) {
+      this.ctx = ctx;
+      this.weight = weight;
+      this.query = query;
+    }
+  }
+}
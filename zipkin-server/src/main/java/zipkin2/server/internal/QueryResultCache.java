@@ -0,0 +1,172 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import zipkin2.Span;
+import zipkin2.internal.Nullable;
+import zipkin2.storage.QueryRequest;
+
+/**
+ * Caches encoded responses of trace queries, so that repeated lookups of the same trace, such as a
+ * shared link or the UI refetching, don't go to storage.
+ *
+ * <p>Traces are only cached once settled: when their last span finished longer ago than {@code
+ * settleWindowMillis}, so that late spans aren't hidden by a cached copy. A search is cached when
+ * it returns traces and all of them are settled, keyed by its parameters with {@code endTs}
+ * truncated to the settle window. An empty search isn't cached, as its traces may still arrive. This way, the same search repeated within the window is a hit, even though each
+ * request has a different end time.
+ *
+ * <p>Entries are weighed by their encoded size, and the least recently used are evicted when over
+ * {@code maxBytes}. Entries expire after {@code ttlMillis}, which bounds how stale a cached search
+ * can be.
+ */
+final class QueryResultCache {
+  /** Approximate size of an entry, excluding its body, to weigh many small results fairly. */
+  static final int ENTRY_OVERHEAD = 64;
+
+  final long maxBytes, ttlMillis, settleWindowMillis;
+  final LongSupplier currentTimeMillis;
+  final Counter hits, misses, evictions;
+
+  // guarded by this
+  final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  long bytes;
+
+  QueryResultCache(long maxBytes, long ttlMillis, long settleWindowMillis, MeterRegistry registry,
+    LongSupplier currentTimeMillis) {
+    if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes <= 0");
+    if (ttlMillis <= 0) throw new IllegalArgumentException("ttlMillis <= 0");
+    if (settleWindowMillis <= 0) throw new IllegalArgumentException("settleWindowMillis <= 0");
+    this.maxBytes = maxBytes;
+    this.ttlMillis = ttlMillis;
+    this.settleWindowMillis = settleWindowMillis;
+    this.currentTimeMillis = currentTimeMillis;
+    hits = Counter.builder("zipkin_query.cache.hits")
+      .description("cumulative amount of queries answered from the result cache")
+      .register(registry);
+    misses = Counter.builder("zipkin_query.cache.misses")
+      .description("cumulative amount of cacheable queries not in the result cache")
+      .register(registry);
+    evictions = Counter.builder("zipkin_query.cache.evictions")
+      .description("cumulative amount of results evicted from the cache to stay under max bytes")
+      .register(registry);
+    Gauge.builder("zipkin_query.cache.bytes", this, QueryResultCache::bytes)
+      .description("weight in bytes of results in the cache")
+      .register(registry);
+  }
+
+  synchronized long bytes() {
+    return bytes;
+  }
+
+  /** Returns null if the trace ID is invalid, leaving storage to report the error. */
+  @Nullable static String traceKey(String traceIdHex) {
+    try {
+      return "trace/" + Span.normalizeTraceId(traceIdHex);
+    } catch (RuntimeException e) {
+      return null;
+    }
+  }
+
+  String tracesKey(QueryRequest request) {
+    long endTs = request.endTs() - request.endTs() % settleWindowMillis;
+    return "traces?serviceName=" + request.serviceName()
+      + "&remoteServiceName=" + request.remoteServiceName()
+      + "&spanName=" + request.spanName()
+      + "&annotationQuery=" + request.annotationQueryString()
+      + "&minDuration=" + request.minDuration()
+      + "&maxDuration=" + request.maxDuration()
+      + "&endTs=" + endTs
+      + "&lookback=" + request.lookback()
+      + "&limit=" + request.limit();
+  }
+
+  /** True when no more spans are expected for this trace. */
+  boolean isSettled(List<Span> trace) {
+    long settledMicros = (currentTimeMillis.getAsLong() - settleWindowMillis) * 1000L;
+    long lastMicros = 0L;
+    for (int i = 0, length = trace.size(); i < length; i++) {
+      Span span = trace.get(i);
+      lastMicros = Math.max(lastMicros, span.timestampAsLong() + span.durationAsLong());
+    }
+    // Without timestamps, there's no way to tell if the trace is complete
+    return lastMicros != 0L && lastMicros <= settledMicros;
+  }
+
+  /** False when there are no traces, as a trace matching the search may not be stored yet. */
+  boolean areSettled(List<List<Span>> traces) {
+    if (traces.isEmpty()) return false;
+    for (int i = 0, length = traces.size(); i < length; i++) {
+      if (!isSettled(traces.get(i))) return false;
+    }
+    return true;
+  }
+
+  @Nullable synchronized byte[] get(String key) {
+    Entry entry = entries.get(key);
+    if (entry != null && entry.expiresAt - currentTimeMillis.getAsLong() <= 0) {
+      remove(key, entry);
+      entry = null;
+    }
+    if (entry == null) {
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    return entry.body;
+  }
+
+  synchronized void put(String key, byte[] body) {
+    long weight = weight(key, body);
+    if (weight > maxBytes) return; // would evict everything else
+    Entry previous = entries.put(key, new Entry(body, currentTimeMillis.getAsLong() + ttlMillis));
+    if (previous != null) bytes -= weight(key, previous.body);
+    bytes += weight;
+
+    Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+    while (bytes > maxBytes) {
+      Map.Entry<String, Entry> next = eldest.next();
+      eldest.remove();
+      bytes -= weight(next.getKey(), next.getValue().body);
+      evictions.increment();
+    }
+  }
+
+  void remove(String key, Entry entry) {
+    entries.remove(key);
+    bytes -= weight(key, entry.body);
+  }
+
+  static long weight(String key, byte[] body) {
+    return ENTRY_OVERHEAD + key.length() + body.length;
+  }
+
+  static final class Entry {
+    final byte[] body;
+    final long expiresAt;
+
+    Entry(byte[] body, long expiresAt) {
+      this.body = body;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
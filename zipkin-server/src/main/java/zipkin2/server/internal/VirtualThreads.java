@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import zipkin2.internal.Nullable;
+
+/**
+ * Creates executors for blocking work, such as JDBC calls, that start a virtual thread per task.
+ * Virtual threads are cheap to block, so concurrency isn't limited by a thread pool size.
+ *
+ * <p>The server is compiled for Java 8, so virtual threads are looked up reflectively. When the
+ * runtime doesn't support them (before JDK 21, or JDK 19-20 without preview features), a platform
+ * thread executor is used instead.
+ */
+public final class VirtualThreads {
+  static final Logger LOGGER = LogManager.getLogger();
+
+  /** Null when virtual threads are unsupported. */
+  @Nullable static final Method OF_VIRTUAL, NAME, FACTORY, NEW_THREAD_PER_TASK_EXECUTOR;
+
+  static {
+    Method ofVirtual = null, name = null, factory = null, newThreadPerTaskExecutor = null;
+    try {
+      ofVirtual = Thread.class.getMethod("ofVirtual");
+      Class<?> builder = ofVirtual.getReturnType(); // Thread.Builder.OfVirtual
+      name = builder.getMethod("name", String.class, long.class);
+      factory = builder.getMethod("factory");
+      newThreadPerTaskExecutor =
+        Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+      ofVirtual.invoke(null); // throws when virtual threads are a disabled preview feature
+    } catch (Exception | LinkageError e) {
+      ofVirtual = null;
+    }
+    OF_VIRTUAL = ofVirtual;
+    NAME = name;
+    FACTORY = factory;
+    NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+  }
+
+  public static boolean isSupported() {
+    return OF_VIRTUAL != null;
+  }
+
+  /**
+   * Returns an executor that starts a virtual thread per task, named with the given prefix and a
+   * counter, or null if unsupported. On null, the caller should use its platform thread executor.
+   */
+  @Nullable public static ExecutorService tryNewExecutor(String threadNamePrefix) {
+    if (OF_VIRTUAL == null) {
+      LOGGER.warn("Virtual threads are not supported by this JRE. Using platform threads for {}",
+        threadNamePrefix);
+      return null;
+    }
+    try {
+      Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), threadNamePrefix, 0L);
+      ThreadFactory factory = (ThreadFactory) FACTORY.invoke(builder);
+      return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+    } catch (Exception e) {
+      LOGGER.warn("Couldn't create a virtual thread executor for " + threadNamePrefix, e);
+      return null;
+    }
+  }
+
+  VirtualThreads() {
+  }
+}
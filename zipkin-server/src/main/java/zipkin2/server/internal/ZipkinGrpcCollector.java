@@ -28,6 +28,7 @@ import zipkin2.codec.SpanBytesDecoder;
 import zipkin2.collector.Collector;
 import zipkin2.collector.CollectorMetrics;
 import zipkin2.collector.CollectorSampler;
+import zipkin2.collector.CollectorSpanLimiter;
 import zipkin2.storage.StorageComponent;
 
 /** Collector for receiving spans on a gRPC endpoint. */
@@ -35,25 +36,31 @@ import zipkin2.storage.StorageComponent;
 final class ZipkinGrpcCollector {
 
   @Bean ArmeriaServerConfigurator grpcCollectorConfigurator(StorageComponent storage,
-    CollectorSampler sampler, CollectorMetrics metrics) {
+    CollectorSampler sampler, CollectorSpanLimiter spanLimiter, IngestQuota quota,
+    CollectorMetrics metrics) {
     CollectorMetrics grpcMetrics = metrics.forTransport("grpc");
     Collector collector = Collector.newBuilder(getClass())
       .storage(storage)
       .sampler(sampler)
+      .spanLimiter(spanLimiter)
       .metrics(grpcMetrics)
       .build();
 
-    return sb ->
-      sb.service("/zipkin.proto3.SpanService/Report", new SpanService(collector, grpcMetrics));
+    SpanService spanService = new SpanService(collector, quota, grpcMetrics);
+    return sb -> sb.service("/zipkin.proto3.SpanService/Report", quota.isPerRequest()
+      ? quota.decorate(spanService, "grpc", grpcMetrics) // HTTP 429 is UNAVAILABLE in gRPC
+      : spanService);
   }
 
   static final class SpanService extends AbstractUnsafeUnaryGrpcService {
 
     final Collector collector;
+    final IngestQuota quota;
     final CollectorMetrics metrics;
 
-    SpanService(Collector collector, CollectorMetrics metrics) {
+    SpanService(Collector collector, IngestQuota quota, CollectorMetrics metrics) {
       this.collector = collector;
+      this.quota = quota;
       this.metrics = metrics;
     }
 
@@ -74,7 +81,8 @@ final class ZipkinGrpcCollector {
           ctx -> ctx.makeContextAware(ctx.blockingTaskExecutor()),
           CommonPools::blockingTaskExecutor);
 
-        collector.acceptSpans(bytes.nioBuffer(), SpanBytesDecoder.PROTO3, result, executor);
+        quota.acceptSpans(collector, bytes.nioBuffer(), SpanBytesDecoder.PROTO3, result, executor,
+          "grpc", metrics);
 
         return result;
       } finally {
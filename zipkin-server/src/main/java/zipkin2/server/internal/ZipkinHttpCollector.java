@@ -13,7 +13,6 @@
  */
 package zipkin2.server.internal;
 
-import com.linecorp.armeria.client.encoding.GzipStreamDecoderFactory;
 import com.linecorp.armeria.common.AggregatedHttpRequest;
 import com.linecorp.armeria.common.HttpData;
 import com.linecorp.armeria.common.HttpHeaderNames;
@@ -22,6 +21,7 @@ import com.linecorp.armeria.common.HttpResponse;
 import com.linecorp.armeria.common.HttpStatus;
 import com.linecorp.armeria.common.MediaType;
 import com.linecorp.armeria.common.RequestContext;
+import com.linecorp.armeria.common.RequestHeaders;
 import com.linecorp.armeria.common.ResponseHeaders;
 import com.linecorp.armeria.server.ServiceRequestContext;
 import com.linecorp.armeria.server.annotation.Consumes;
@@ -37,6 +37,7 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 import java.nio.ByteBuffer;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -49,6 +50,8 @@ import zipkin2.codec.SpanBytesDecoder;
 import zipkin2.collector.Collector;
 import zipkin2.collector.CollectorMetrics;
 import zipkin2.collector.CollectorSampler;
+import zipkin2.collector.CollectorSpanLimiter;
+import zipkin2.internal.Nullable;
 import zipkin2.storage.StorageComponent;
 
 import static com.linecorp.armeria.common.HttpStatus.BAD_REQUEST;
@@ -62,12 +65,19 @@ public class ZipkinHttpCollector {
   static final Logger LOGGER = LogManager.getLogger();
   static volatile CollectorMetrics metrics;
   final Collector collector;
+  final IngestQuota quota;
 
   ZipkinHttpCollector(
-    StorageComponent storage, CollectorSampler sampler, CollectorMetrics metrics) {
+    StorageComponent storage, CollectorSampler sampler, CollectorSpanLimiter spanLimiter,
+    IngestQuota quota, CollectorMetrics metrics) {
     metrics = metrics.forTransport("http");
-    collector =
-      Collector.newBuilder(getClass()).storage(storage).sampler(sampler).metrics(metrics).build();
+    collector = Collector.newBuilder(getClass())
+      .storage(storage)
+      .sampler(sampler)
+      .spanLimiter(spanLimiter)
+      .metrics(metrics)
+      .build();
+    this.quota = quota;
     ZipkinHttpCollector.metrics = metrics; // converter instances aren't injected by Spring
   }
 
@@ -113,15 +123,20 @@ public class ZipkinHttpCollector {
     HttpRequest req) {
     CompletableCallback result = new CompletableCallback();
 
-    req.aggregateWithPooledObjects(ctx.contextAwareEventLoop(), ctx.alloc()).handle((msg, t) -> {
-      if (t != null) {
-        result.onError(t);
-        return null;
-      }
+    ContentDecoder contentDecoder = ContentDecoder.create(
+      req.headers().get(HttpHeaderNames.CONTENT_ENCODING), ctx.alloc(), ctx.maxRequestLength());
+    CompletableFuture<HttpData> body;
+    if (contentDecoder != null) { // decompress chunks as they arrive, instead of after aggregation
+      body = contentDecoder.decode(req, ctx.contextAwareEventLoop());
+    } else {
+      body = req.aggregateWithPooledObjects(ctx.contextAwareEventLoop(), ctx.alloc())
+        .thenApply(AggregatedHttpRequest::content);
+    }
 
+    body.handle((decoded, t) -> {
       final HttpData content;
       try {
-        content = UnzippingBytesRequestConverter.convertRequest(ctx, msg);
+        content = UnzippingBytesRequestConverter.convertRequest(ctx, req.headers(), decoded, t);
       } catch (Throwable t1) {
         propagateIfFatal(t1);
         result.onError(t1);
@@ -163,7 +178,7 @@ public class ZipkinHttpCollector {
         // callback is context aware to continue the trace.
         Executor executor = ctx.makeContextAware(ctx.blockingTaskExecutor());
         try {
-          collector.acceptSpans(nioBuffer, decoder, result, executor);
+          quota.acceptSpans(collector, nioBuffer, decoder, result, executor, "http", metrics);
         } catch (Throwable t1) {
           result.onError(t1);
           return null;
@@ -178,10 +193,10 @@ public class ZipkinHttpCollector {
     return HttpResponse.from(result);
   }
 
-  static void maybeLog(String prefix, ServiceRequestContext ctx, AggregatedHttpRequest request) {
+  static void maybeLog(String prefix, ServiceRequestContext ctx, RequestHeaders headers) {
     if (!LOGGER.isDebugEnabled()) return;
     LOGGER.debug("{} sent by clientAddress->{}, userAgent->{}",
-      prefix, ctx.clientAddress(), request.headers().get(HttpHeaderNames.USER_AGENT)
+      prefix, ctx.clientAddress(), headers.get(HttpHeaderNames.USER_AGENT)
     );
   }
 }
@@ -210,26 +225,31 @@ final class CompletableCallback extends CompletableFuture<HttpResponse>
   }
 }
 
+/**
+ * Accounts for a request body, once it is read and {@linkplain ContentDecoder decompressed}.
+ */
 final class UnzippingBytesRequestConverter {
-  static final GzipStreamDecoderFactory GZIP_DECODER_FACTORY = new GzipStreamDecoderFactory();
 
-  static HttpData convertRequest(ServiceRequestContext ctx, AggregatedHttpRequest request) {
+  /**
+   * @param content the decompressed body, or null on error
+   * @param error raised reading or decompressing the body, or null on success
+   */
+  static HttpData convertRequest(ServiceRequestContext ctx, RequestHeaders headers,
+    @Nullable HttpData content, @Nullable Throwable error) throws Throwable {
     ZipkinHttpCollector.metrics.incrementMessages();
-    String encoding = request.headers().get(HttpHeaderNames.CONTENT_ENCODING);
-    HttpData content = request.content();
-    if (!content.isEmpty() && encoding != null && encoding.contains("gzip")) {
-      content = GZIP_DECODER_FACTORY.newDecoder(ctx.alloc()).decode(content);
-      // The implementation of the armeria decoder is to return an empty body on failure
-      if (content.isEmpty()) {
-        ZipkinHttpCollector.maybeLog("Malformed gzip body", ctx, request);
-        ReferenceCountUtil.release(content);
-        throw new IllegalArgumentException("Cannot gunzip spans");
+    if (error != null) {
+      if (error instanceof CompletionException && error.getCause() != null) {
+        error = error.getCause();
+      }
+      if (error instanceof IllegalArgumentException) { // ContentDecoder raises this when malformed
+        ZipkinHttpCollector.maybeLog("Malformed compressed body", ctx, headers);
       }
+      throw error;
     }
 
-    if (content.isEmpty()) ZipkinHttpCollector.maybeLog("Empty POST body", ctx, request);
+    if (content.isEmpty()) ZipkinHttpCollector.maybeLog("Empty POST body", ctx, headers);
     if (content.length() == 2 && "[]".equals(content.toStringAscii())) {
-      ZipkinHttpCollector.maybeLog("Empty JSON list POST body", ctx, request);
+      ZipkinHttpCollector.maybeLog("Empty JSON list POST body", ctx, headers);
       ReferenceCountUtil.release(content);
       content = HttpData.EMPTY_DATA;
     }
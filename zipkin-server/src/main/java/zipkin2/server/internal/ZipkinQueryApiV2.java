@@ -20,13 +20,20 @@ import com.linecorp.armeria.common.HttpStatus;
 import com.linecorp.armeria.common.MediaType;
 import com.linecorp.armeria.common.ResponseHeaders;
 import com.linecorp.armeria.common.ResponseHeadersBuilder;
+import com.linecorp.armeria.server.ServiceRequestContext;
 import com.linecorp.armeria.server.annotation.Default;
 import com.linecorp.armeria.server.annotation.Get;
 import com.linecorp.armeria.server.annotation.Param;
-import java.io.IOException;
+import com.linecorp.armeria.unsafe.ByteBufHttpData;
+import io.netty.buffer.ByteBuf;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.buffer.ByteBufAllocator;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
@@ -37,6 +44,7 @@ import zipkin2.Span;
 import zipkin2.codec.DependencyLinkBytesEncoder;
 import zipkin2.codec.SpanBytesEncoder;
 import zipkin2.internal.JsonCodec;
+import zipkin2.internal.Nullable;
 import zipkin2.internal.WriteBuffer;
 import zipkin2.storage.QueryRequest;
 import zipkin2.storage.StorageComponent;
@@ -52,6 +60,9 @@ public class ZipkinQueryApiV2 {
    */
   final int namesMaxAge;
   final List<String> autocompleteKeys;
+  final QueryCosts queryCosts;
+  @Nullable final QueryLimiter queryLimiter;
+  @Nullable final QueryResultCache resultCache;
 
   volatile int serviceCount; // used as a threshold to start returning cache-control headers
 
@@ -60,47 +71,81 @@ public class ZipkinQueryApiV2 {
     @Value("${zipkin.storage.type:mem}") String storageType,
     @Value("${zipkin.query.lookback:86400000}") long defaultLookback, // 1 day in millis
     @Value("${zipkin.query.names-max-age:300}") int namesMaxAge, // 5 minutes
-    @Value("${zipkin.storage.autocomplete-keys:}") List<String> autocompleteKeys
+    @Value("${zipkin.storage.autocomplete-keys:}") List<String> autocompleteKeys,
+    MeterRegistry registry,
+    @Value("${zipkin.query.slow-query-threshold:0}") long slowQueryThresholdMillis,
+    @Value("${zipkin.query.cost-header:false}") boolean costHeader,
+    @Value("${zipkin.query.throttle.enabled:false}") boolean throttleEnabled,
+    @Value("${zipkin.query.throttle.key:client-address}") String throttleKey,
+    @Value("${zipkin.query.throttle.min-concurrency:10}") int throttleMinConcurrency,
+    @Value("${zipkin.query.throttle.max-concurrency:200}") int throttleMaxConcurrency,
+    @Value("${zipkin.query.throttle.max-queue-size:100}") int throttleMaxQueueSize,
+    @Value("${zipkin.query.throttle.max-wait:5000}") long throttleMaxWaitMillis,
+    @Value("${zipkin.query.cache.enabled:false}") boolean cacheEnabled,
+    @Value("${zipkin.query.cache.max-bytes:67108864}") long cacheMaxBytes, // 64MiB
+    @Value("${zipkin.query.cache.ttl:300000}") long cacheTtlMillis, // 5 minutes
+    @Value("${zipkin.query.cache.settle-window:60000}") long cacheSettleWindowMillis // 1 minute
   ) {
     this.storage = storage;
     this.storageType = storageType;
     this.defaultLookback = defaultLookback;
     this.namesMaxAge = namesMaxAge;
     this.autocompleteKeys = autocompleteKeys;
+    this.queryCosts = new QueryCosts(registry, slowQueryThresholdMillis, costHeader);
+    this.queryLimiter = throttleEnabled ? QueryLimiter.create(throttleKey, throttleMinConcurrency,
+      throttleMaxConcurrency, throttleMaxQueueSize, throttleMaxWaitMillis, storage::isOverCapacity,
+      registry) : null;
+    this.resultCache = cacheEnabled ? new QueryResultCache(cacheMaxBytes, cacheTtlMillis,
+      cacheSettleWindowMillis, registry, System::currentTimeMillis) : null;
   }
 
   @Get("/api/v2/dependencies")
-  public AggregatedHttpResponse getDependencies(
+  public CompletableFuture<AggregatedHttpResponse> getDependencies(
+    ServiceRequestContext ctx,
     @Param("endTs") long endTs,
-    @Param("lookback") Optional<Long> lookback) throws IOException {
-    Call<List<DependencyLink>> call =
-      storage.spanStore().getDependencies(endTs, lookback.orElse(defaultLookback));
-    return jsonResponse(DependencyLinkBytesEncoder.JSON_V1.encodeList(call.execute()));
+    @Param("lookback") Optional<Long> lookback) {
+    long lookbackMillis = lookback.orElse(defaultLookback);
+    return admit(ctx, QueryLimiter.weight(lookbackMillis), () -> {
+      Call<List<DependencyLink>> call = storage.spanStore().getDependencies(endTs, lookbackMillis);
+      List<DependencyLink> links = queryCosts.execute(ctx, "get-dependencies",
+        "endTs=" + endTs + " lookback=" + lookbackMillis, call);
+      return jsonResponse(DependencyLinkBytesEncoder.JSON_V1.encodeList(links));
+    });
   }
 
   @Get("/api/v2/services")
-  public AggregatedHttpResponse getServiceNames() throws IOException {
-    List<String> serviceNames = storage.serviceAndSpanNames().getServiceNames().execute();
-    serviceCount = serviceNames.size();
-    return maybeCacheNames(serviceCount > 3, serviceNames);
+  public CompletableFuture<AggregatedHttpResponse> getServiceNames(ServiceRequestContext ctx) {
+    return admit(ctx, 1, () -> {
+      List<String> serviceNames = queryCosts.execute(ctx, "get-service-names", "",
+        storage.serviceAndSpanNames().getServiceNames());
+      serviceCount = serviceNames.size();
+      return maybeCacheNames(serviceCount > 3, serviceNames);
+    });
   }
 
   @Get("/api/v2/spans")
-  public AggregatedHttpResponse getSpanNames(@Param("serviceName") String serviceName) throws IOException {
-    List<String> spanNames = storage.serviceAndSpanNames().getSpanNames(serviceName).execute();
-    return maybeCacheNames(serviceCount > 3, spanNames);
+  public CompletableFuture<AggregatedHttpResponse> getSpanNames(ServiceRequestContext ctx,
+    @Param("serviceName") String serviceName) {
+    return admit(ctx, 1, () -> {
+      List<String> spanNames = queryCosts.execute(ctx, "get-span-names", serviceName,
+        storage.serviceAndSpanNames().getSpanNames(serviceName));
+      return maybeCacheNames(serviceCount > 3, spanNames);
+    });
   }
 
   @Get("/api/v2/remoteServices")
-  public AggregatedHttpResponse getRemoteServiceNames(@Param("serviceName") String serviceName)
-    throws IOException {
-    List<String> remoteServiceNames =
-      storage.serviceAndSpanNames().getRemoteServiceNames(serviceName).execute();
-    return maybeCacheNames(serviceCount > 3, remoteServiceNames);
+  public CompletableFuture<AggregatedHttpResponse> getRemoteServiceNames(
+    ServiceRequestContext ctx, @Param("serviceName") String serviceName) {
+    return admit(ctx, 1, () -> {
+      List<String> remoteServiceNames = queryCosts.execute(ctx, "get-remote-service-names",
+        serviceName, storage.serviceAndSpanNames().getRemoteServiceNames(serviceName));
+      return maybeCacheNames(serviceCount > 3, remoteServiceNames);
+    });
   }
 
   @Get("/api/v2/traces")
-  public AggregatedHttpResponse getTraces(
+  public CompletableFuture<AggregatedHttpResponse> getTraces(
+    ServiceRequestContext ctx,
     @Param("serviceName") Optional<String> serviceName,
     @Param("remoteServiceName") Optional<String> remoteServiceName,
     @Param("spanName") Optional<String> spanName,
@@ -109,8 +154,7 @@ public class ZipkinQueryApiV2 {
     @Param("maxDuration") Optional<Long> maxDuration,
     @Param("endTs") Optional<Long> endTs,
     @Param("lookback") Optional<Long> lookback,
-    @Default("10") @Param("limit") int limit)
-    throws IOException {
+    @Default("10") @Param("limit") int limit) {
     QueryRequest queryRequest =
       QueryRequest.newBuilder()
         .serviceName(serviceName.orElse(null))
@@ -124,24 +168,63 @@ public class ZipkinQueryApiV2 {
         .limit(limit)
         .build();
 
-    List<List<Span>> traces = storage.spanStore().getTraces(queryRequest).execute();
-    return jsonResponse(writeTraces(SpanBytesEncoder.JSON_V2, traces));
+    String cacheKey = resultCache != null ? resultCache.tracesKey(queryRequest) : null;
+    byte[] cached = cacheKey != null ? resultCache.get(cacheKey) : null;
+    if (cached != null) return CompletableFuture.completedFuture(jsonResponse(cached));
+
+    return admit(ctx, QueryLimiter.weight(queryRequest), () -> {
+      List<List<Span>> traces = queryCosts.execute(ctx, "get-traces", queryRequest,
+        storage.spanStore().getTraces(queryRequest));
+      if (cacheKey != null && resultCache.areSettled(traces)) {
+        byte[] body = encodeTraces(SpanBytesEncoder.JSON_V2, traces);
+        resultCache.put(cacheKey, body);
+        return jsonResponse(body);
+      }
+      return jsonResponse(writeTraces(ctx.alloc(), SpanBytesEncoder.JSON_V2, traces));
+    });
   }
 
   @Get("/api/v2/trace/{traceIdHex}")
-  public AggregatedHttpResponse getTrace(@Param("traceIdHex") String traceIdHex) throws IOException {
-    List<Span> trace = storage.spanStore().getTrace(traceIdHex).execute();
-    if (trace == null) {
-      return AggregatedHttpResponse.of(HttpStatus.NOT_FOUND, MediaType.PLAIN_TEXT_UTF_8,
-        traceIdHex + " not found");
-    }
-    return jsonResponse(SpanBytesEncoder.JSON_V2.encodeList(trace));
+  public CompletableFuture<AggregatedHttpResponse> getTrace(ServiceRequestContext ctx,
+    @Param("traceIdHex") String traceIdHex) {
+    String cacheKey = resultCache != null ? QueryResultCache.traceKey(traceIdHex) : null;
+    byte[] cached = cacheKey != null ? resultCache.get(cacheKey) : null;
+    if (cached != null) return CompletableFuture.completedFuture(jsonResponse(cached));
+
+    return admit(ctx, 1, () -> {
+      List<Span> trace = queryCosts.execute(ctx, "get-trace", traceIdHex,
+        storage.spanStore().getTrace(traceIdHex));
+      if (trace == null) {
+        return AggregatedHttpResponse.of(HttpStatus.NOT_FOUND, MediaType.PLAIN_TEXT_UTF_8,
+          traceIdHex + " not found");
+      }
+      if (cacheKey != null && resultCache.isSettled(trace)) {
+        byte[] body = SpanBytesEncoder.JSON_V2.encodeList(trace);
+        resultCache.put(cacheKey, body);
+        return jsonResponse(body);
+      }
+      return jsonResponse(writeTrace(ctx.alloc(), SpanBytesEncoder.JSON_V2, trace));
+    });
+  }
+
+  /**
+   * Runs the query off the event loop, unless the {@link QueryLimiter} says it must wait or be
+   * rejected. As these endpoints return a future, Armeria invokes them on the event loop.
+   */
+  CompletableFuture<AggregatedHttpResponse> admit(ServiceRequestContext ctx, int weight,
+    Callable<AggregatedHttpResponse> query) {
+    if (queryLimiter != null) return queryLimiter.submit(ctx, weight, query);
+    return QueryLimiter.execute(ctx, query);
   }
 
   static AggregatedHttpResponse jsonResponse(byte[] body) {
+    return jsonResponse(HttpData.wrap(body));
+  }
+
+  static AggregatedHttpResponse jsonResponse(HttpData body) {
     return AggregatedHttpResponse.of(ResponseHeaders.builder(200)
       .contentType(MediaType.JSON)
-      .setInt(HttpHeaderNames.CONTENT_LENGTH, body.length).build(), HttpData.wrap(body));
+      .setInt(HttpHeaderNames.CONTENT_LENGTH, body.length()).build(), body);
   }
 
   static final WriteBuffer.Writer<String> QUOTED_STRING_WRITER = new WriteBuffer.Writer<String>() {
@@ -162,9 +245,13 @@ public class ZipkinQueryApiV2 {
   }
 
   @Get("/api/v2/autocompleteValues")
-  public AggregatedHttpResponse getAutocompleteValues(@Param("key") String key) throws IOException {
-    List<String> values = storage.autocompleteTags().getValues(key).execute();
-    return maybeCacheNames(values.size() > 3, values);
+  public CompletableFuture<AggregatedHttpResponse> getAutocompleteValues(
+    ServiceRequestContext ctx, @Param("key") String key) {
+    return admit(ctx, 1, () -> {
+      List<String> values =
+        queryCosts.execute(ctx, "get-values", key, storage.autocompleteTags().getValues(key));
+      return maybeCacheNames(values.size() > 3, values);
+    });
   }
 
   /**
@@ -188,30 +275,67 @@ public class ZipkinQueryApiV2 {
   }
 
   // This is inlined here as there isn't enough re-use to warrant it being in the zipkin2 library
-  static byte[] writeTraces(SpanBytesEncoder codec, List<List<zipkin2.Span>> traces) {
+  static HttpData writeTraces(ByteBufAllocator alloc, SpanBytesEncoder codec,
+    List<List<zipkin2.Span>> traces) {
     // Get the encoded size of the nested list so that we don't need to grow the buffer
+    int sizeInBytes = sizeInBytes(codec, traces);
+    ByteBuf buf = alloc.buffer(sizeInBytes);
+    try {
+      writeTraces(codec, traces, buf.nioBuffer(0, sizeInBytes));
+      return pooledHttpData(buf, sizeInBytes);
+    } catch (RuntimeException | Error e) {
+      buf.release();
+      throw e;
+    }
+  }
+
+  /** Like {@link #writeTraces(ByteBufAllocator, SpanBytesEncoder, List)}, for the result cache */
+  static byte[] encodeTraces(SpanBytesEncoder codec, List<List<zipkin2.Span>> traces) {
+    byte[] result = new byte[sizeInBytes(codec, traces)];
+    writeTraces(codec, traces, ByteBuffer.wrap(result));
+    return result;
+  }
+
+  static int sizeInBytes(SpanBytesEncoder codec, List<List<zipkin2.Span>> traces) {
     int length = traces.size();
     int sizeInBytes = 2; // []
     if (length > 1) sizeInBytes += length - 1; // comma to join elements
-
     for (int i = 0; i < length; i++) {
-      List<zipkin2.Span> spans = traces.get(i);
-      int jLength = spans.size();
-      sizeInBytes += 2; // []
-      if (jLength > 1) sizeInBytes += jLength - 1; // comma to join elements
-      for (int j = 0; j < jLength; j++) {
-        sizeInBytes += codec.sizeInBytes(spans.get(j));
-      }
+      sizeInBytes += codec.sizeInBytes(traces.get(i));
     }
+    return sizeInBytes;
+  }
 
-    byte[] out = new byte[sizeInBytes];
-    int pos = 0;
-    out[pos++] = '['; // start list of traces
+  static void writeTraces(SpanBytesEncoder codec, List<List<zipkin2.Span>> traces,
+    ByteBuffer out) {
+    int length = traces.size();
+    out.put((byte) '['); // start list of traces
     for (int i = 0; i < length; i++) {
-      pos += codec.encodeList(traces.get(i), out, pos);
-      if (i + 1 < length) out[pos++] = ',';
+      codec.encodeList(traces.get(i), out);
+      if (i + 1 < length) out.put((byte) ',');
     }
-    out[pos] = ']'; // stop list of traces
-    return out;
+    out.put((byte) ']'); // stop list of traces
+  }
+
+  static HttpData writeTrace(ByteBufAllocator alloc, SpanBytesEncoder codec,
+    List<zipkin2.Span> trace) {
+    int sizeInBytes = codec.sizeInBytes(trace);
+    ByteBuf buf = alloc.buffer(sizeInBytes);
+    try {
+      codec.encodeList(trace, buf.nioBuffer(0, sizeInBytes));
+      return pooledHttpData(buf, sizeInBytes);
+    } catch (RuntimeException | Error e) {
+      buf.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Responses are encoded directly into a pooled buffer, which Armeria releases once written. This
+   * avoids allocating a heap array the size of the response, which can be megabytes for a query.
+   */
+  static HttpData pooledHttpData(ByteBuf buf, int sizeInBytes) {
+    buf.writerIndex(sizeInBytes); // encoding wrote through an NIO view of the same memory
+    return new ByteBufHttpData(buf, true);
   }
 }
@@ -24,10 +24,15 @@ import com.linecorp.armeria.spring.actuate.ArmeriaSpringActuatorAutoConfiguratio
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.config.MeterFilter;
 import io.prometheus.client.CollectorRegistry;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanCreationException;
 import org.springframework.beans.factory.BeanFactory;
 import org.springframework.beans.factory.BeanFactoryAware;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -36,7 +41,9 @@ import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.boot.actuate.autoconfigure.metrics.MeterRegistryCustomizer;
 import org.springframework.boot.actuate.health.HealthAggregator;
 import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Condition;
@@ -44,13 +51,18 @@ import org.springframework.context.annotation.ConditionContext;
 import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.core.Ordered;
 import org.springframework.core.annotation.Order;
 import org.springframework.core.type.AnnotatedTypeMetadata;
 import org.springframework.web.servlet.config.annotation.ViewControllerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 import zipkin2.collector.CollectorMetrics;
 import zipkin2.collector.CollectorSampler;
+import zipkin2.collector.CollectorSpanLimiter;
+import zipkin2.internal.DecodeCache;
 import zipkin2.server.internal.brave.TracingStorageComponent;
+import zipkin2.server.internal.spill.SpillingStorageComponent;
+import zipkin2.server.internal.spill.ZipkinStorageSpillProperties;
 import zipkin2.server.internal.throttle.ThrottledStorageComponent;
 import zipkin2.server.internal.throttle.ZipkinStorageThrottleProperties;
 import zipkin2.storage.InMemoryStorage;
@@ -70,13 +82,32 @@ public class ZipkinServerConfiguration implements WebMvcConfigurer {
   MetricsHealthController healthController;
 
   @Bean ArmeriaServerConfigurator serverConfigurator(
-    Optional<CollectorRegistry> prometheusRegistry) {
+    Optional<CollectorRegistry> prometheusRegistry,
+    @Value("${zipkin.virtual-threads.enabled:false}") boolean virtualThreads) {
     return sb -> {
+      // Collectors move blocking work to this executor. With virtual threads, query calls also move
+      // here, as they block in Call.execute() and would otherwise hold up the event loop.
+      ExecutorService virtualExecutor =
+        virtualThreads ? VirtualThreads.tryNewExecutor("zipkin-blocking-") : null;
+      if (virtualExecutor != null) sb.blockingTaskExecutor(virtualExecutor, true);
       if (httpQuery != null) {
-        sb.annotatedService(httpQuery);
-        sb.annotatedService("/zipkin", httpQuery); // For UI.
+        if (virtualExecutor != null) {
+          sb.annotatedService(httpQuery, BlockingTaskService::new);
+          sb.annotatedService("/zipkin", httpQuery, BlockingTaskService::new); // For UI.
+        } else {
+          sb.annotatedService(httpQuery);
+          sb.annotatedService("/zipkin", httpQuery); // For UI.
+        }
+      }
+      if (httpCollector != null) {
+        IngestQuota quota = httpCollector.quota;
+        if (quota.isPerRequest()) { // checked before the body is read
+          sb.annotatedService(httpCollector,
+            s -> quota.decorate(s, "http", ZipkinHttpCollector.metrics));
+        } else {
+          sb.annotatedService(httpCollector);
+        }
       }
-      if (httpCollector != null) sb.annotatedService(httpCollector);
       if (healthController != null) sb.annotatedService(healthController);
       prometheusRegistry.ifPresent(registry -> {
         PrometheusExpositionService prometheusService = new PrometheusExpositionService(registry);
@@ -127,10 +158,51 @@ public class ZipkinServerConfiguration implements WebMvcConfigurer {
     return CollectorSampler.create(rate);
   }
 
+  @Bean
+  @ConditionalOnMissingBean(CollectorSpanLimiter.class)
+  CollectorSpanLimiter spanLimiter(
+    @Value("${zipkin.collector.max-span-size-bytes:0}") int maxSpanSizeInBytes,
+    @Value("${zipkin.collector.max-tag-value-length:0}") int maxTagValueLength,
+    @Value("${zipkin.collector.max-tags:0}") int maxTags,
+    @Value("${zipkin.collector.max-annotations:0}") int maxAnnotations) {
+    return CollectorSpanLimiter.newBuilder()
+      .maxSpanSizeInBytes(maxSpanSizeInBytes)
+      .maxTagValueLength(maxTagValueLength)
+      .maxTags(maxTags)
+      .maxAnnotations(maxAnnotations)
+      .build();
+  }
+
+  @Bean IngestQuota ingestQuota(MeterRegistry registry,
+    @Value("${zipkin.collector.quota.rate:0}") double rate,
+    @Value("${zipkin.collector.quota.burst:0}") int burst,
+    @Value("${zipkin.collector.quota.key:client-address}") String key,
+    @Value("${zipkin.collector.quota.max-keys:10000}") int maxKeys,
+    @Value("${zipkin.collector.quota.max-metric-keys:100}") int maxMetricKeys) {
+    return IngestQuota.create(key, rate, burst, maxKeys, maxMetricKeys, registry);
+  }
+
   @Bean
   @ConditionalOnMissingBean(CollectorMetrics.class)
-  CollectorMetrics metrics(MeterRegistry registry) {
-    return new ActuateCollectorMetrics(registry);
+  CollectorMetrics metrics(MeterRegistry registry,
+    @Value("${zipkin.collector.timing-sample-rate:0.0}") float timingSampleRate) {
+    return new ActuateCollectorMetrics(registry, timingSampleRate);
+  }
+
+  /**
+   * Shares decoded span names, tags and endpoints across spans when enabled. The cache is static,
+   * so it is disabled when this context closes, instead of outliving it.
+   */
+  @Configuration
+  @ConditionalOnExpression("${zipkin.collector.decode-cache-entries:0} > 0")
+  static class DecodeCacheConfiguration implements Closeable {
+    DecodeCacheConfiguration(@Value("${zipkin.collector.decode-cache-entries}") int entries) {
+      DecodeCache.enable(entries);
+    }
+
+    @Override public void close() {
+      DecodeCache.disable();
+    }
   }
 
   @Bean
@@ -154,9 +226,13 @@ public class ZipkinServerConfiguration implements WebMvcConfigurer {
   @Configuration
   @EnableConfigurationProperties(ZipkinStorageThrottleProperties.class)
   @ConditionalOnThrottledStorage
-  static class ThrottledStorageComponentEnhancer implements BeanPostProcessor, BeanFactoryAware {
+  static class ThrottledStorageComponentEnhancer
+    implements BeanPostProcessor, BeanFactoryAware, Ordered {
     @Autowired(required = false)
     Tracing tracing;
+    /** Queue wait is sampled at the same rate as collector timings */
+    @Value("${zipkin.collector.timing-sample-rate:0.0}")
+    float timingSampleRate;
 
     /**
      * Need this to resolve cyclic instantiation issue with spring.  Mostly, this is for
@@ -178,7 +254,45 @@ public class ZipkinServerConfiguration implements WebMvcConfigurer {
           tracing,
           throttleProperties.getMinConcurrency(),
           throttleProperties.getMaxConcurrency(),
-          throttleProperties.getMaxQueueSize());
+          throttleProperties.getMaxQueueSize(),
+          throttleProperties.isShedByPriority(),
+          timingSampleRate);
+      }
+      return bean;
+    }
+
+    @Override public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+      this.beanFactory = beanFactory;
+    }
+
+    /** Throttling is inside spilling, so that messages it rejects are spilled. */
+    @Override public int getOrder() {
+      return 0;
+    }
+  }
+
+  @Configuration
+  @EnableConfigurationProperties(ZipkinStorageSpillProperties.class)
+  @ConditionalOnProperty(name = "zipkin.storage.spill.enabled", havingValue = "true")
+  static class SpillingStorageComponentEnhancer
+    implements BeanPostProcessor, BeanFactoryAware, Ordered {
+    /** See {@link ThrottledStorageComponentEnhancer#beanFactory} */
+    private BeanFactory beanFactory;
+
+    @Override public Object postProcessAfterInitialization(Object bean, String beanName) {
+      if (bean instanceof StorageComponent) {
+        ZipkinStorageSpillProperties spillProperties =
+          beanFactory.getBean(ZipkinStorageSpillProperties.class);
+        try {
+          return new SpillingStorageComponent((StorageComponent) bean,
+            beanFactory.getBean(MeterRegistry.class),
+            Paths.get(spillProperties.getDirectory()),
+            spillProperties.getSegmentBytes(),
+            spillProperties.getMaxBytes(),
+            spillProperties.getMaxConcurrency());
+        } catch (IOException e) {
+          throw new BeanCreationException(beanName, "Couldn't open the spill queue", e);
+        }
       }
       return bean;
     }
@@ -186,6 +300,10 @@ public class ZipkinServerConfiguration implements WebMvcConfigurer {
     @Override public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
       this.beanFactory = beanFactory;
     }
+
+    @Override public int getOrder() {
+      return 1;
+    }
   }
 
   @Configuration
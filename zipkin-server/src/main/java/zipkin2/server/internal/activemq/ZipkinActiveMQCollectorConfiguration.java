@@ -22,6 +22,7 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.core.type.AnnotatedTypeMetadata;
 import zipkin2.collector.CollectorMetrics;
 import zipkin2.collector.CollectorSampler;
+import zipkin2.collector.CollectorSpanLimiter;
 import zipkin2.collector.activemq.ActiveMQCollector;
 import zipkin2.storage.StorageComponent;
 
@@ -35,9 +36,15 @@ public class ZipkinActiveMQCollectorConfiguration {
   ActiveMQCollector activeMq(
     ZipkinActiveMQCollectorProperties properties,
     CollectorSampler sampler,
+    CollectorSpanLimiter spanLimiter,
     CollectorMetrics metrics,
     StorageComponent storage) {
-    return properties.toBuilder().sampler(sampler).metrics(metrics).storage(storage).build();
+    return properties.toBuilder()
+      .sampler(sampler)
+      .spanLimiter(spanLimiter)
+      .metrics(metrics)
+      .storage(storage)
+      .build();
   }
 
   /**
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal.brave;
+
+import com.linecorp.armeria.common.brave.RequestContextCurrentTraceContext;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.Span;
+import zipkin2.collector.CollectorMetrics;
+import zipkin2.reporter.Reporter;
+import zipkin2.storage.StorageComponent;
+
+/**
+ * Reports Zipkin's own spans directly to its storage.
+ *
+ * <p>Unlike {@link zipkin2.reporter.AsyncReporter}, spans are never encoded: a sender would encode
+ * them only for storage to decode them again in the same process. Spans are buffered in lock-free
+ * ring buffers, one per stripe of threads, so that reporting doesn't contend with other request
+ * threads. A single thread drains the buffers each message timeout, and stores them in batches.
+ *
+ * <p>When a buffer is full, the span is dropped.
+ */
+final class SelfTracingReporter implements Reporter<Span>, Closeable {
+  static final int BUFFER_CAPACITY = 1024, MAX_BATCH_SIZE = 1000;
+
+  final Supplier<StorageComponent> storage;
+  final Supplier<CollectorMetrics> metrics;
+  final long messageTimeoutNanos;
+  final RingBuffer[] buffers;
+  final Thread flushThread;
+  volatile boolean closed;
+
+  /** Suppliers are lazy to avoid eagerly initializing storage and metrics beans. */
+  SelfTracingReporter(Supplier<StorageComponent> storage, Supplier<CollectorMetrics> metrics,
+    long messageTimeoutNanos) {
+    // Zero would make the flush thread spin, as there is no other signal to flush
+    if (messageTimeoutNanos <= 0) throw new IllegalArgumentException("messageTimeoutNanos <= 0");
+    this.storage = storage;
+    this.metrics = metrics;
+    this.messageTimeoutNanos = messageTimeoutNanos;
+    int stripes = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+    this.buffers = new RingBuffer[stripes];
+    for (int i = 0; i < stripes; i++) buffers[i] = new RingBuffer(BUFFER_CAPACITY);
+    this.flushThread = new Thread(this::run, "zipkin-self-tracing-reporter");
+    this.flushThread.setDaemon(true);
+    this.flushThread.start();
+  }
+
+  @Override public void report(Span span) {
+    if (closed) return;
+    int stripe = (int) Thread.currentThread().getId() & (buffers.length - 1);
+    if (buffers[stripe].offer(span)) return;
+    CollectorMetrics metrics = this.metrics.get();
+    metrics.incrementSpans(1);
+    metrics.incrementSpansDropped(1);
+  }
+
+  void run() {
+    // Storage calls made here aren't in a request, so shouldn't warn about a missing context
+    RequestContextCurrentTraceContext.setCurrentThreadNotRequestThread(true);
+    while (!closed) {
+      LockSupport.parkNanos(this, messageTimeoutNanos);
+      flush();
+    }
+    flush(); // spans reported before close
+  }
+
+  /** Stores all buffered spans, returning how many. */
+  int flush() {
+    int result = 0;
+    List<Span> batch = new ArrayList<>();
+    for (RingBuffer buffer : buffers) {
+      while (true) {
+        buffer.drainTo(batch, MAX_BATCH_SIZE - batch.size());
+        if (batch.size() < MAX_BATCH_SIZE) break; // this buffer is empty
+        result += store(batch);
+        batch = new ArrayList<>();
+      }
+    }
+    if (!batch.isEmpty()) result += store(batch);
+    return result;
+  }
+
+  int store(List<Span> spans) {
+    CollectorMetrics metrics = this.metrics.get();
+    metrics.incrementMessages();
+    metrics.incrementSpans(spans.size());
+    try {
+      storage.get().spanConsumer().accept(spans).enqueue(new Callback<Void>() {
+        @Override public void onSuccess(Void value) {
+        }
+
+        @Override public void onError(Throwable t) {
+          metrics.incrementMessagesDropped();
+        }
+      });
+    } catch (Throwable t) {
+      Call.propagateIfFatal(t);
+      metrics.incrementMessagesDropped();
+    }
+    return spans.size();
+  }
+
+  @Override public void close() {
+    if (closed) return;
+    closed = true;
+    LockSupport.unpark(flushThread);
+    try {
+      flushThread.join(TimeUnit.NANOSECONDS.toMillis(messageTimeoutNanos) + 1000L);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override public String toString() {
+    // Avoid using the storage to avoid eagerly loading the bean during initialization
+    return "SelfTracingReporter{StorageComponent}";
+  }
+
+  /**
+   * A bounded queue with many producers and one consumer. Each slot has a sequence number, which
+   * tells a producer the slot is free, and the consumer that it's written. Producers only contend
+   * on the tail index, with compare-and-set.
+   */
+  static final class RingBuffer {
+    final AtomicReferenceArray<Span> slots;
+    final AtomicLongArray sequences;
+    final int mask;
+    final AtomicLong tail = new AtomicLong();
+    long head; // only accessed by the consumer
+
+    RingBuffer(int capacity) {
+      if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("not a power of 2");
+      slots = new AtomicReferenceArray<>(capacity);
+      sequences = new AtomicLongArray(capacity);
+      for (int i = 0; i < capacity; i++) sequences.set(i, i);
+      mask = capacity - 1;
+    }
+
+    /** Returns false if the buffer is full. */
+    boolean offer(Span span) {
+      long t = tail.get();
+      while (true) {
+        int index = (int) t & mask;
+        long difference = sequences.get(index) - t;
+        if (difference == 0L) {
+          if (tail.compareAndSet(t, t + 1)) {
+            slots.lazySet(index, span);
+            sequences.lazySet(index, t + 1); // publishes the span to the consumer
+            return true;
+          }
+          t = tail.get();
+        } else if (difference < 0L) {
+          return false; // the consumer hasn't freed this slot yet
+        } else {
+          t = tail.get(); // another producer took this slot
+        }
+      }
+    }
+
+    /** Moves up to {@code max} spans to the list, returning how many. */
+    int drainTo(List<Span> list, int max) {
+      int count = 0;
+      while (count < max) {
+        int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) break; // empty, or a producer is still writing
+        list.add(slots.get(index));
+        slots.lazySet(index, null);
+        sequences.lazySet(index, head + mask + 1); // frees the slot for the next lap
+        head++;
+        count++;
+      }
+      return count;
+    }
+  }
+}
@@ -16,11 +16,24 @@ package zipkin2.server.internal.brave;
 import brave.ScopedSpan;
 import brave.Span;
 import brave.Tracer;
+import brave.Tracing;
+import brave.propagation.TraceContext;
 import java.io.IOException;
 import zipkin2.Call;
 import zipkin2.Callback;
 
 public final class TracedCall<V> extends Call<V> {
+  /**
+   * Returns the delegate unless there's a sampled trace in scope. Storage calls never start traces,
+   * so this avoids allocating a noop span per call when self-tracing, such as for each message
+   * received by a collector.
+   */
+  public static <V> Call<V> create(Tracing tracing, Call<V> delegate, String name) {
+    TraceContext context = tracing.currentTraceContext().get();
+    if (context == null || !Boolean.TRUE.equals(context.sampled())) return delegate;
+    return new TracedCall<>(tracing.tracer(), delegate, name);
+  }
+
   final Tracer tracer;
   final Call<V> delegate;
   final String name;
@@ -27,23 +27,14 @@ import brave.sampler.Sampler;
 import com.linecorp.armeria.common.brave.RequestContextCurrentTraceContext;
 import com.linecorp.armeria.server.brave.BraveService;
 import com.linecorp.armeria.spring.ArmeriaServerConfigurator;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import org.springframework.beans.factory.BeanFactory;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import zipkin2.Call;
-import zipkin2.CheckResult;
 import zipkin2.Span;
-import zipkin2.codec.Encoding;
-import zipkin2.codec.SpanBytesDecoder;
 import zipkin2.collector.CollectorMetrics;
-import zipkin2.reporter.AsyncReporter;
 import zipkin2.reporter.Reporter;
-import zipkin2.reporter.ReporterMetrics;
-import zipkin2.reporter.Sender;
 import zipkin2.server.internal.ConditionalOnSelfTracing;
 import zipkin2.storage.StorageComponent;
 
@@ -52,21 +43,9 @@ import zipkin2.storage.StorageComponent;
 @ConditionalOnSelfTracing
 public class TracingConfiguration {
   /** Configuration for how to buffer spans into messages for Zipkin */
-  @Bean Reporter<Span> reporter(BeanFactory factory, SelfTracingProperties config) {
-    return AsyncReporter.builder(new LocalSender(factory))
-      .threadFactory((runnable) -> new Thread(new Runnable() {
-        @Override public void run() {
-          RequestContextCurrentTraceContext.setCurrentThreadNotRequestThread(true);
-          runnable.run();
-        }
-
-        @Override public String toString() {
-          return runnable.toString();
-        }
-      }))
-      .messageTimeout(config.getMessageTimeout().toNanos(), TimeUnit.NANOSECONDS)
-      .metrics(new ReporterMetricsAdapter(factory))
-      .build();
+  @Bean SelfTracingReporter reporter(BeanFactory factory, SelfTracingProperties config) {
+    return new SelfTracingReporter(new LazyStorage(factory), new LazyMetrics(factory),
+      config.getMessageTimeout().toNanos());
   }
 
   @Bean CurrentTraceContext currentTraceContext() {
@@ -138,50 +117,16 @@ public class TracingConfiguration {
   /**
    * Defined locally as StorageComponent is a lazy proxy, and we need to avoid eagerly calling it.
    */
-  static final class LocalSender extends Sender {
+  static final class LazyStorage implements Supplier<StorageComponent> {
     final BeanFactory factory;
     volatile StorageComponent delegate; // volatile to prevent stale reads
 
-    LocalSender(BeanFactory factory) {
+    LazyStorage(BeanFactory factory) {
       this.factory = factory;
     }
 
-    @Override public Encoding encoding() {
-      return Encoding.PROTO3;
-    }
-
-    @Override public int messageMaxBytes() {
-      return 5 * 1024 * 1024; // arbitrary
-    }
-
-    @Override public int messageSizeInBytes(List<byte[]> list) {
-      return Encoding.PROTO3.listSizeInBytes(list);
-    }
-
-    @Override public Call<Void> sendSpans(List<byte[]> encodedSpans) {
-      List<Span> spans = new ArrayList<>(encodedSpans.size());
-      for (byte[] encodedSpan : encodedSpans) {
-        Span v2Span = SpanBytesDecoder.PROTO3.decodeOne(encodedSpan);
-        spans.add(v2Span);
-      }
-      return delegate().spanConsumer().accept(spans);
-    }
-
-    @Override public CheckResult check() {
-      return delegate().check();
-    }
-
-    @Override public String toString() {
-      // Avoid using the delegate to avoid eagerly loading the bean during initialization
-      return "StorageComponent";
-    }
-
-    @Override public void close() {
-      // don't close delegate as we didn't open it!
-    }
-
     /** Lazy lookup to avoid proxying */
-    StorageComponent delegate() {
+    @Override public StorageComponent get() {
       StorageComponent result = delegate;
       if (result != null) return delegate;
       // synchronization is not needed as redundant calls have no ill effects
@@ -193,45 +138,16 @@ public class TracingConfiguration {
     }
   }
 
-  static final class ReporterMetricsAdapter implements ReporterMetrics {
+  static final class LazyMetrics implements Supplier<CollectorMetrics> {
     final BeanFactory factory;
     volatile CollectorMetrics delegate; // volatile to prevent stale reads
 
-    ReporterMetricsAdapter(BeanFactory factory) {
+    LazyMetrics(BeanFactory factory) {
       this.factory = factory;
     }
 
-    @Override public void incrementMessages() {
-      delegate().incrementMessages();
-    }
-
-    @Override public void incrementMessagesDropped(Throwable throwable) {
-      delegate().incrementMessagesDropped();
-    }
-
-    @Override public void incrementSpans(int i) {
-      delegate().incrementSpans(i);
-    }
-
-    @Override public void incrementSpanBytes(int i) {
-      delegate().incrementBytes(i);
-    }
-
-    @Override public void incrementMessageBytes(int i) {
-    }
-
-    @Override public void incrementSpansDropped(int i) {
-      delegate().incrementMessagesDropped();
-    }
-
-    @Override public void updateQueuedSpans(int i) {
-    }
-
-    @Override public void updateQueuedBytes(int i) {
-    }
-
     /** Lazy lookup to avoid proxying */
-    CollectorMetrics delegate() {
+    @Override public CollectorMetrics get() {
       CollectorMetrics result = delegate;
       if (result != null) return delegate;
       // synchronization is not needed as redundant calls have no ill effects
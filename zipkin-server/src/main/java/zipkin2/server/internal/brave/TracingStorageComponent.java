@@ -13,7 +13,6 @@
  */
 package zipkin2.server.internal.brave;
 
-import brave.Tracer;
 import brave.Tracing;
 import java.io.IOException;
 import java.util.List;
@@ -21,7 +20,9 @@ import zipkin2.Call;
 import zipkin2.CheckResult;
 import zipkin2.DependencyLink;
 import zipkin2.Span;
+import zipkin2.codec.Encoding;
 import zipkin2.storage.AutocompleteTags;
+import zipkin2.storage.EncodedSpanConsumer;
 import zipkin2.storage.ForwardingStorageComponent;
 import zipkin2.storage.QueryRequest;
 import zipkin2.storage.ServiceAndSpanNames;
@@ -56,7 +57,11 @@ public final class TracingStorageComponent extends ForwardingStorageComponent {
   }
 
   @Override public SpanConsumer spanConsumer() {
-    return new TracingSpanConsumer(tracing, delegate.spanConsumer());
+    SpanConsumer spanConsumer = delegate.spanConsumer();
+    if (spanConsumer instanceof EncodedSpanConsumer) {
+      return new TracingEncodedSpanConsumer(tracing, (EncodedSpanConsumer) spanConsumer);
+    }
+    return new TracingSpanConsumer(tracing, spanConsumer);
   }
 
   @Override public CheckResult check() {
@@ -72,33 +77,33 @@ public final class TracingStorageComponent extends ForwardingStorageComponent {
   }
 
   static final class TracingSpanStore implements SpanStore {
-    final Tracer tracer;
+    final Tracing tracing;
     final SpanStore delegate;
 
     TracingSpanStore(Tracing tracing, SpanStore delegate) {
-      this.tracer = tracing.tracer();
+      this.tracing = tracing;
       this.delegate = delegate;
     }
 
     @Override public Call<List<List<Span>>> getTraces(QueryRequest request) {
-      return new TracedCall<>(tracer, delegate.getTraces(request), "get-traces");
+      return TracedCall.create(tracing, delegate.getTraces(request), "get-traces");
     }
 
     @Override public Call<List<Span>> getTrace(String traceId) {
-      return new TracedCall<>(tracer, delegate.getTrace(traceId), "get-trace");
+      return TracedCall.create(tracing, delegate.getTrace(traceId), "get-trace");
     }
 
     @Override @Deprecated public Call<List<String>> getServiceNames() {
-      return new TracedCall<>(tracer, delegate.getServiceNames(), "get-service-names");
+      return TracedCall.create(tracing, delegate.getServiceNames(), "get-service-names");
     }
 
     @Override @Deprecated public Call<List<String>> getSpanNames(String serviceName) {
-      return new TracedCall<>(tracer, delegate.getSpanNames(serviceName), "get-span-names");
+      return TracedCall.create(tracing, delegate.getSpanNames(serviceName), "get-span-names");
     }
 
     @Override public Call<List<DependencyLink>> getDependencies(long endTs, long lookback) {
-      return new TracedCall<>(
-        tracer, delegate.getDependencies(endTs, lookback), "get-dependencies");
+      return TracedCall.create(
+        tracing, delegate.getDependencies(endTs, lookback), "get-dependencies");
     }
 
     @Override public String toString() {
@@ -107,20 +112,20 @@ public final class TracingStorageComponent extends ForwardingStorageComponent {
   }
 
   static final class TracingAutocompleteTags implements AutocompleteTags {
-    final Tracer tracer;
+    final Tracing tracing;
     final AutocompleteTags delegate;
 
     TracingAutocompleteTags(Tracing tracing, AutocompleteTags delegate) {
-      this.tracer = tracing.tracer();
+      this.tracing = tracing;
       this.delegate = delegate;
     }
 
     @Override public Call<List<String>> getKeys() {
-      return new TracedCall<>(tracer, delegate.getKeys(), "get-keys");
+      return TracedCall.create(tracing, delegate.getKeys(), "get-keys");
     }
 
     @Override public Call<List<String>> getValues(String key) {
-      return new TracedCall<>(tracer, delegate.getValues(key), "get-values");
+      return TracedCall.create(tracing, delegate.getValues(key), "get-values");
     }
 
     @Override public String toString() {
@@ -129,25 +134,25 @@ public final class TracingStorageComponent extends ForwardingStorageComponent {
   }
 
   static final class TracingServiceAndSpanNames implements ServiceAndSpanNames {
-    final Tracer tracer;
+    final Tracing tracing;
     final ServiceAndSpanNames delegate;
 
     TracingServiceAndSpanNames(Tracing tracing, ServiceAndSpanNames delegate) {
-      this.tracer = tracing.tracer();
+      this.tracing = tracing;
       this.delegate = delegate;
     }
 
     @Override public Call<List<String>> getServiceNames() {
-      return new TracedCall<>(tracer, delegate.getServiceNames(), "get-service-names");
+      return TracedCall.create(tracing, delegate.getServiceNames(), "get-service-names");
     }
 
     @Override public Call<List<String>> getRemoteServiceNames(String serviceName) {
-      return new TracedCall<>(tracer, delegate.getRemoteServiceNames(serviceName),
+      return TracedCall.create(tracing, delegate.getRemoteServiceNames(serviceName),
         "get-remote-service-names");
     }
 
     @Override public Call<List<String>> getSpanNames(String serviceName) {
-      return new TracedCall<>(tracer, delegate.getSpanNames(serviceName), "get-span-names");
+      return TracedCall.create(tracing, delegate.getSpanNames(serviceName), "get-span-names");
     }
 
     @Override public String toString() {
@@ -155,21 +160,40 @@ public final class TracingStorageComponent extends ForwardingStorageComponent {
     }
   }
 
-  static final class TracingSpanConsumer implements SpanConsumer {
-    final Tracer tracer;
+  static class TracingSpanConsumer implements SpanConsumer {
+    final Tracing tracing;
     final SpanConsumer delegate;
 
     TracingSpanConsumer(Tracing tracing, SpanConsumer delegate) {
-      this.tracer = tracing.tracer();
+      this.tracing = tracing;
       this.delegate = delegate;
     }
 
     @Override public Call<Void> accept(List<Span> spans) {
-      return new TracedCall<>(tracer, delegate.accept(spans), "accept-spans");
+      return TracedCall.create(tracing, delegate.accept(spans), "accept-spans");
     }
 
     @Override public String toString() {
       return "Traced{" + delegate + "}";
     }
   }
+
+  static final class TracingEncodedSpanConsumer extends TracingSpanConsumer
+    implements EncodedSpanConsumer {
+    final EncodedSpanConsumer encodedDelegate;
+
+    TracingEncodedSpanConsumer(Tracing tracing, EncodedSpanConsumer delegate) {
+      super(tracing, delegate);
+      this.encodedDelegate = delegate;
+    }
+
+    @Override public Encoding encoding() {
+      return encodedDelegate.encoding();
+    }
+
+    @Override public Call<Void> accept(List<Span> spans, List<byte[]> encodedSpans) {
+      return TracedCall.create(
+        tracing, encodedDelegate.accept(spans, encodedSpans), "accept-spans");
+    }
+  }
 }
@@ -15,7 +15,10 @@ package zipkin2.server.internal.cassandra3;
 
 import brave.Tracing;
 import brave.cassandra.driver.TracingSession;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.util.List;
+import java.util.Optional;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.BeanPostProcessor;
@@ -26,6 +29,7 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import zipkin2.server.internal.ConditionalOnSelfTracing;
 import zipkin2.storage.StorageComponent;
+import zipkin2.storage.cassandra.CassandraStorage;
 import zipkin2.storage.cassandra.CassandraStorage.SessionFactory;
 
 /**
@@ -54,14 +58,28 @@ public class ZipkinCassandra3StorageConfiguration {
       @Value("${zipkin.storage.search-enabled:true}") boolean searchEnabled,
       @Value("${zipkin.storage.autocomplete-keys:}") List<String> autocompleteKeys,
       @Value("${zipkin.storage.autocomplete-ttl:3600000}") int autocompleteTtl,
-      @Value("${zipkin.storage.autocomplete-cardinality:20000}") int autocompleteCardinality) {
-    return properties.toBuilder()
+      @Value("${zipkin.storage.autocomplete-cardinality:20000}") int autocompleteCardinality,
+      Optional<MeterRegistry> registry) {
+    CassandraStorage result = properties.toBuilder()
       .strictTraceId(strictTraceId)
       .searchEnabled(searchEnabled)
       .autocompleteKeys(autocompleteKeys)
       .autocompleteTtl(autocompleteTtl)
       .autocompleteCardinality(autocompleteCardinality)
       .sessionFactory(sessionFactory).build();
+    registry.ifPresent(r -> bindIndexCacheMetrics(result, r));
+    return result;
+  }
+
+  static void bindIndexCacheMetrics(CassandraStorage storage, MeterRegistry registry) {
+    FunctionCounter.builder("zipkin_storage.cassandra3.index_cache.hits", storage,
+      CassandraStorage::indexCacheHits)
+      .description("cumulative amount of trace index rows not written due to the index cache")
+      .register(registry);
+    FunctionCounter.builder("zipkin_storage.cassandra3.index_cache.misses", storage,
+      CassandraStorage::indexCacheMisses)
+      .description("cumulative amount of trace index rows written after checking the index cache")
+      .register(registry);
   }
 
   @Configuration
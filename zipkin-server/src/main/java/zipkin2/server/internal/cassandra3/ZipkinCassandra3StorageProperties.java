@@ -31,6 +31,10 @@ class ZipkinCassandra3StorageProperties implements Serializable { // for Spark j
   private String password;
   /** See {@link CassandraStorage.Builder#indexFetchMultiplier(int)} */
   private int indexFetchMultiplier = 3;
+  /** See {@link CassandraStorage.Builder#indexCacheMax(int)} */
+  private int indexCacheMax = 100000;
+  /** See {@link CassandraStorage.Builder#indexCacheTtl(int)} */
+  private int indexCacheTtl = 60;
 
   public String getKeyspace() {
     return keyspace;
@@ -104,6 +108,22 @@ class ZipkinCassandra3StorageProperties implements Serializable { // for Spark j
     this.indexFetchMultiplier = indexFetchMultiplier;
   }
 
+  public int getIndexCacheMax() {
+    return indexCacheMax;
+  }
+
+  public void setIndexCacheMax(int indexCacheMax) {
+    this.indexCacheMax = indexCacheMax;
+  }
+
+  public int getIndexCacheTtl() {
+    return indexCacheTtl;
+  }
+
+  public void setIndexCacheTtl(int indexCacheTtl) {
+    this.indexCacheTtl = indexCacheTtl;
+  }
+
   public CassandraStorage.Builder toBuilder() {
     return CassandraStorage.newBuilder()
         .keyspace(keyspace)
@@ -114,6 +134,8 @@ class ZipkinCassandra3StorageProperties implements Serializable { // for Spark j
         .useSsl(useSsl)
         .username(username)
         .password(password)
-        .indexFetchMultiplier(indexFetchMultiplier);
+        .indexFetchMultiplier(indexFetchMultiplier)
+        .indexCacheMax(indexCacheMax)
+        .indexCacheTtl(indexCacheTtl);
   }
 }
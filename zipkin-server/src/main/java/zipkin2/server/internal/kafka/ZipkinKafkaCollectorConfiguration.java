@@ -22,6 +22,7 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.core.type.AnnotatedTypeMetadata;
 import zipkin2.collector.CollectorMetrics;
 import zipkin2.collector.CollectorSampler;
+import zipkin2.collector.CollectorSpanLimiter;
 import zipkin2.collector.kafka.KafkaCollector;
 import zipkin2.storage.StorageComponent;
 
@@ -38,9 +39,15 @@ public class ZipkinKafkaCollectorConfiguration { // makes simple type name uniqu
   KafkaCollector kafka(
       ZipkinKafkaCollectorProperties properties,
       CollectorSampler sampler,
+      CollectorSpanLimiter spanLimiter,
       CollectorMetrics metrics,
       StorageComponent storage) {
-    return properties.toBuilder().sampler(sampler).metrics(metrics).storage(storage).build();
+    return properties.toBuilder()
+      .sampler(sampler)
+      .spanLimiter(spanLimiter)
+      .metrics(metrics)
+      .storage(storage)
+      .build();
   }
   /**
    * This condition passes when {@link ZipkinKafkaCollectorProperties#getBootstrapServers()} is set
@@ -23,6 +23,7 @@ import org.jooq.ExecuteListenerProvider;
 import org.jooq.impl.DefaultExecuteListener;
 import org.jooq.impl.DefaultExecuteListenerProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -37,6 +38,7 @@ class TracingZipkinMySQLStorageConfiguration extends DefaultExecuteListener {
   @Autowired ZipkinMySQLStorageProperties mysql;
   @Autowired CurrentTraceContext currentTraceContext;
   @Autowired ThreadLocalSpan threadLocalSpan;
+  @Value("${zipkin.virtual-threads.enabled:false}") boolean virtualThreads;
 
   @Bean ExecuteListenerProvider mysqlListener() {
     return new DefaultExecuteListenerProvider(this);
@@ -44,7 +46,7 @@ class TracingZipkinMySQLStorageConfiguration extends DefaultExecuteListener {
 
   @Bean Executor mysqlExecutor() {
     return makeContextAware(
-      new ZipkinMySQLStorageConfiguration().mysqlExecutor(),
+      ZipkinMySQLStorageConfiguration.mysqlExecutor(virtualThreads),
       currentTraceContext
     );
   }
@@ -26,6 +26,7 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import zipkin2.server.internal.VirtualThreads;
 import zipkin2.storage.StorageComponent;
 import zipkin2.storage.mysql.v1.MySQLStorage;
 
@@ -37,9 +38,19 @@ import zipkin2.storage.mysql.v1.MySQLStorage;
 public class ZipkinMySQLStorageConfiguration {
   @Autowired(required = false) ZipkinMySQLStorageProperties mysql;
   @Autowired(required = false) ExecuteListenerProvider mysqlListener;
+  @Value("${zipkin.virtual-threads.enabled:false}") boolean virtualThreads;
 
   @Bean @ConditionalOnMissingBean
   Executor mysqlExecutor() {
+    return mysqlExecutor(virtualThreads);
+  }
+
+  /** JDBC blocks, so virtual threads allow more concurrent queries than a fixed pool. */
+  static Executor mysqlExecutor(boolean virtualThreads) {
+    if (virtualThreads) {
+      Executor executor = VirtualThreads.tryNewExecutor("ZipkinMySQLStorage-");
+      if (executor != null) return executor;
+    }
     ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
     executor.setThreadNamePrefix("ZipkinMySQLStorage-");
     executor.initialize();
@@ -61,6 +72,7 @@ public class ZipkinMySQLStorageConfiguration {
       .strictTraceId(strictTraceId)
       .searchEnabled(searchEnabled)
       .autocompleteKeys(autocompleteKeys)
+      .dependencyRollup(mysql.isDependencyRollup())
       .executor(mysqlExecutor)
       .datasource(mysqlDataSource)
       .listenerProvider(mysqlListener)
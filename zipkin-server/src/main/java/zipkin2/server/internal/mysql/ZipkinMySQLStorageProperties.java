@@ -31,6 +31,7 @@ class ZipkinMySQLStorageProperties implements Serializable { // for Spark jobs
   private String db = "zipkin";
   private int maxActive = 10;
   private boolean useSsl;
+  private boolean dependencyRollup;
 
   public String getJdbcUrl() {
     return jdbcUrl;
@@ -96,6 +97,14 @@ class ZipkinMySQLStorageProperties implements Serializable { // for Spark jobs
     this.useSsl = useSsl;
   }
 
+  public boolean isDependencyRollup() {
+    return dependencyRollup;
+  }
+
+  public void setDependencyRollup(boolean dependencyRollup) {
+    this.dependencyRollup = dependencyRollup;
+  }
+
   public DataSource toDataSource() {
     HikariDataSource result = new HikariDataSource();
     result.setDriverClassName("org.mariadb.jdbc.Driver");
@@ -25,6 +25,7 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.core.type.AnnotatedTypeMetadata;
 import zipkin2.collector.CollectorMetrics;
 import zipkin2.collector.CollectorSampler;
+import zipkin2.collector.CollectorSpanLimiter;
 import zipkin2.collector.rabbitmq.RabbitMQCollector;
 import zipkin2.storage.StorageComponent;
 
@@ -38,10 +39,16 @@ public class ZipkinRabbitMQCollectorConfiguration {
   RabbitMQCollector rabbitMq(
       ZipkinRabbitMQCollectorProperties properties,
       CollectorSampler sampler,
+      CollectorSpanLimiter spanLimiter,
       CollectorMetrics metrics,
       StorageComponent storage)
       throws NoSuchAlgorithmException, KeyManagementException, URISyntaxException {
-    return properties.toBuilder().sampler(sampler).metrics(metrics).storage(storage).build();
+    return properties.toBuilder()
+      .sampler(sampler)
+      .spanLimiter(spanLimiter)
+      .metrics(metrics)
+      .storage(storage)
+      .build();
   }
   /**
    * This condition passes when {@link ZipkinRabbitMQCollectorProperties#getAddresses()} or {@link
@@ -19,6 +19,7 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import zipkin2.collector.CollectorMetrics;
 import zipkin2.collector.CollectorSampler;
+import zipkin2.collector.CollectorSpanLimiter;
 import zipkin2.collector.scribe.ScribeCollector;
 import zipkin2.storage.StorageComponent;
 
@@ -36,12 +37,14 @@ public class ZipkinScribeCollectorConfiguration {
     @Value("${zipkin.collector.scribe.category:zipkin}") String category,
     @Value("${zipkin.collector.scribe.port:9410}") int port,
     CollectorSampler sampler,
+    CollectorSpanLimiter spanLimiter,
     CollectorMetrics metrics,
     StorageComponent storage) {
     return ScribeCollector.newBuilder()
       .category(category)
       .port(port)
       .sampler(sampler)
+      .spanLimiter(spanLimiter)
       .metrics(metrics)
       .storage(storage)
       .build();
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal.spill;
+
+import com.netflix.concurrency.limits.Limiter.Listener;
+import com.netflix.concurrency.limits.limiter.SimpleLimiter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.server.internal.spill.SpillQueue.Message;
+import zipkin2.storage.StorageComponent;
+
+/**
+ * Replays messages from the {@link SpillQueue} to storage on a background thread.
+ *
+ * <p>Concurrency is adaptive, like the storage throttle. When storing a message fails, no more are
+ * started until those in flight complete. Then, after a backoff, the queue is rewound, so that
+ * failed messages are retried in order.
+ *
+ * <p>A message that keeps failing while others succeed is likely invalid, as opposed to storage
+ * being down. It is dropped after {@link #MAX_ATTEMPTS}, so that it can't block the queue. Errors
+ * that say nothing about the message, such as storage being over capacity or timing out, only
+ * back off, as they would otherwise drop valid messages during an outage.
+ */
+final class SpillDrainer implements Runnable, Closeable {
+  static final Logger LOGGER = LogManager.getLogger();
+  static final int MAX_ATTEMPTS = 3;
+  static final long IDLE_MILLIS = 100L, MIN_BACKOFF_MILLIS = 1000L, MAX_BACKOFF_MILLIS = 30_000L;
+
+  final SpillQueue queue;
+  final StorageComponent storage;
+  final SimpleLimiter<Void> limiter;
+  final SpillMetrics metrics;
+  final Thread thread;
+
+  // guarded by this
+  int inFlight;
+  boolean failed, succeededSinceRewind;
+  long backoffMillis;
+  volatile boolean closed;
+
+  SpillDrainer(SpillQueue queue, StorageComponent storage, SimpleLimiter<Void> limiter,
+    SpillMetrics metrics) {
+    this.queue = queue;
+    this.storage = storage;
+    this.limiter = limiter;
+    this.metrics = metrics;
+    this.thread = new Thread(this, "zipkin-spill-drainer");
+    this.thread.setDaemon(true);
+  }
+
+  void start() {
+    thread.start();
+  }
+
+  /** Wakes the drainer, for example after a message is appended. */
+  synchronized void signal() {
+    notifyAll();
+  }
+
+  @Override public void run() {
+    try {
+      while (!closed) {
+        if (!awaitRetry()) continue;
+
+        Optional<Listener> listener = limiter.acquire(null);
+        if (!listener.isPresent()) { // at the concurrency limit
+          await(IDLE_MILLIS);
+          continue;
+        }
+
+        Message message = queue.poll();
+        if (message == null) {
+          listener.get().onIgnore();
+          await(IDLE_MILLIS);
+          continue;
+        }
+        store(message, listener.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Returns true when not failed. Otherwise, waits to retry and rewinds the queue. */
+  boolean awaitRetry() throws InterruptedException {
+    long backoffMillis;
+    synchronized (this) {
+      if (!failed) return true;
+      while (inFlight > 0 && !closed) wait(IDLE_MILLIS);
+      backoffMillis = this.backoffMillis =
+        Math.min(MAX_BACKOFF_MILLIS, Math.max(MIN_BACKOFF_MILLIS, this.backoffMillis * 2));
+    }
+    LOGGER.debug("Retrying spilled messages in {}ms", backoffMillis);
+    sleep(backoffMillis);
+
+    synchronized (this) {
+      queue.rewind();
+      failed = false;
+      succeededSinceRewind = false;
+    }
+    return false;
+  }
+
+  void store(Message message, Listener listener) {
+    List<Span> spans;
+    try {
+      spans = SpanBytesDecoder.PROTO3.decodeList(message.message);
+    } catch (RuntimeException e) {
+      LOGGER.warn("Dropping spilled message that couldn't be decoded", e);
+      listener.onIgnore();
+      queue.complete(message);
+      metrics.messagesDropped.increment();
+      return;
+    }
+
+    synchronized (this) {
+      inFlight++;
+    }
+    StoreCallback callback = new StoreCallback(message, listener);
+    try {
+      storage.spanConsumer().accept(spans).enqueue(callback);
+    } catch (Throwable t) { // such as the storage throttle rejecting the message
+      Call.propagateIfFatal(t);
+      callback.onError(t);
+    }
+  }
+
+  final class StoreCallback implements Callback<Void> {
+    final Message message;
+    final Listener listener;
+
+    StoreCallback(Message message, Listener listener) {
+      this.message = message;
+      this.listener = listener;
+    }
+
+    @Override public void onSuccess(Void value) {
+      listener.onSuccess();
+      queue.complete(message);
+      metrics.messagesDrained.increment();
+      synchronized (SpillDrainer.this) {
+        inFlight--;
+        succeededSinceRewind = true;
+        backoffMillis = 0L;
+        SpillDrainer.this.notifyAll();
+      }
+    }
+
+    @Override public void onError(Throwable t) {
+      boolean overCapacity = storage.isOverCapacity(t);
+      if (overCapacity) {
+        listener.onDropped();
+      } else {
+        listener.onIgnore();
+      }
+      boolean isTransient = overCapacity || isTransient(t);
+      int attempts = isTransient ? 0 : queue.incrementAttempts(message);
+      synchronized (SpillDrainer.this) {
+        inFlight--;
+        if (!isTransient && attempts >= MAX_ATTEMPTS && succeededSinceRewind) {
+          LOGGER.warn("Dropping spilled message after " + attempts + " attempts", t);
+          queue.complete(message);
+          metrics.messagesDropped.increment();
+        } else {
+          if (!failed) LOGGER.debug("Couldn't store spilled message", t);
+          failed = true;
+        }
+        SpillDrainer.this.notifyAll();
+      }
+    }
+  }
+
+  /** True when the error is about storage availability, such as a timeout, not the message. */
+  static boolean isTransient(Throwable t) {
+    for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+      if (cause instanceof IOException
+        || cause instanceof TimeoutException
+        || cause instanceof RejectedExecutionException) {
+        return true;
+      }
+      if (cause.getCause() == cause) break;
+    }
+    return false;
+  }
+
+  /** Waits until signaled, or the timeout. */
+  synchronized void await(long millis) throws InterruptedException {
+    if (!closed) wait(millis);
+  }
+
+  /** Unlike {@link #await(long)}, new messages don't cut this short. */
+  synchronized void sleep(long millis) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+    for (long remaining = millis; remaining > 0 && !closed; ) {
+      wait(remaining);
+      remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+    }
+  }
+
+  @Override public void close() {
+    closed = true;
+    signal();
+    try {
+      thread.join(TimeUnit.SECONDS.toMillis(1));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal.spill;
+
+import com.netflix.concurrency.limits.Limit;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import zipkin2.collector.CollectorMetrics;
+
+/** Follows the same naming convention as {@link CollectorMetrics} */
+final class SpillMetrics {
+  final Counter messagesSpilled, messagesDrained, messagesDropped;
+
+  SpillMetrics(MeterRegistry registry) {
+    messagesSpilled = Counter.builder("zipkin_storage.spill.messages_spilled")
+      .description("cumulative amount of messages appended to the spill queue")
+      .register(registry);
+    messagesDrained = Counter.builder("zipkin_storage.spill.messages_drained")
+      .description("cumulative amount of messages from the spill queue stored")
+      .register(registry);
+    messagesDropped = Counter.builder("zipkin_storage.spill.messages_dropped")
+      .description("cumulative amount of messages dropped as the spill queue was full, or "
+        + "storage rejected them")
+      .register(registry);
+  }
+
+  static void bind(MeterRegistry registry, SpillQueue queue, Limit limit) {
+    Gauge.builder("zipkin_storage.spill.messages", queue::messages)
+      .description("number of messages in the spill queue not yet stored")
+      .register(registry);
+    Gauge.builder("zipkin_storage.spill.bytes", queue::bytes)
+      .description("size in bytes of messages in the spill queue not yet stored")
+      .register(registry);
+    Gauge.builder("zipkin_storage.spill.lag_seconds", queue, SpillMetrics::lagSeconds)
+      .description("age in seconds of the oldest message in the spill queue not yet stored")
+      .register(registry);
+    Gauge.builder("zipkin_storage.spill.concurrency", limit::getLimit)
+      .description("number of spilled messages allowed to be stored at the same time")
+      .register(registry);
+  }
+
+  static double lagSeconds(SpillQueue queue) {
+    long oldest = queue.oldestTimestamp();
+    if (oldest == 0L) return 0.0;
+    return Math.max(0L, System.currentTimeMillis() - oldest) / 1000.0;
+  }
+}
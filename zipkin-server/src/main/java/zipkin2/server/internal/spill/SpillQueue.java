@@ -0,0 +1,398 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal.spill;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import zipkin2.internal.Nullable;
+
+/**
+ * A bounded, append-only queue of messages in memory-mapped segment files.
+ *
+ * <p>Each segment is a file of fixed size, named by a sequence number. Messages are appended to
+ * the last segment, and a new one is started when it is full. A message has the following header:
+ * <pre>{@code
+ * int length; // of the message, written last, so that a torn write reads as the end of a segment
+ * byte state; // pending or done
+ * byte attempts; // how many times storing the message failed
+ * long timestamp; // epoch milliseconds when the message was appended
+ * }</pre>
+ *
+ * <p>Messages can complete out of order, so each is marked done in place. The head is the first
+ * message that isn't done. A segment is deleted when the head moves past it. On open, messages
+ * that are not done are replayed, so delivery is at-least-once. If there are more segments than
+ * now allowed, for example as the max size was lowered, the oldest are dropped.
+ *
+ * <p>Writes go to the page cache, so survive a crash of this process, but not of the host.
+ * Segments are {@link MappedByteBuffer#force() forced} to disk on {@link #close()}.
+ *
+ * <p>This class is thread-safe: all methods synchronize on the queue, as each does little more
+ * than copy bytes.
+ */
+final class SpillQueue implements Closeable {
+  static final String SUFFIX = ".spill";
+  static final int HEADER_SIZE = 4 + 1 + 1 + 8;
+  static final int END_OF_SEGMENT = -1;
+  static final byte PENDING = 0, DONE = 1;
+
+  /**
+   * Opens or creates a queue in the given directory.
+   *
+   * @param segmentBytes the size of each segment file, which also limits the size of a message
+   * @param maxBytes limits the number of segments, to at least two
+   */
+  static SpillQueue open(Path directory, int segmentBytes, long maxBytes) throws IOException {
+    if (segmentBytes <= HEADER_SIZE) throw new IllegalArgumentException("segmentBytes too small");
+    if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes <= 0");
+    Files.createDirectories(directory);
+    return new SpillQueue(directory, segmentBytes, (int) Math.max(2, maxBytes / segmentBytes));
+  }
+
+  final Path directory;
+  final int segmentBytes, maxSegments;
+
+  Segment head, tail; // linked from head to tail
+  int headOffset;
+  Segment read; // the read cursor is never before the head
+  int readOffset;
+  int segmentCount, messages;
+  long bytes;
+  final int droppedOnOpen; // messages in recovered segments over the max
+
+  SpillQueue(Path directory, int segmentBytes, int maxSegments) throws IOException {
+    this.directory = directory;
+    this.segmentBytes = segmentBytes;
+    this.maxSegments = maxSegments;
+
+    // Segments left from a previous process are read, but never appended to. This avoids reading
+    // the remains of a torn write after a new message.
+    long nextId = 0;
+    for (Path path : listSegments(directory)) {
+      Segment segment = Segment.recover(path);
+      nextId = segment.id + 1;
+      if (segment.messages == 0) {
+        segment.delete();
+        continue;
+      }
+      link(segment);
+      messages += segment.messages;
+      bytes += segment.bytes;
+    }
+
+    // Leave room for the segment appended to
+    int dropped = 0;
+    while (segmentCount >= maxSegments) {
+      dropped += head.messages;
+      messages -= head.messages;
+      bytes -= head.bytes;
+      head.delete();
+      head = head.next;
+      segmentCount--;
+    }
+    droppedOnOpen = dropped;
+    link(Segment.create(directory, nextId, segmentBytes));
+    read = head;
+    advanceHead();
+  }
+
+  /** Returns false if the message was dropped, as the queue is full or the message too large. */
+  synchronized boolean offer(byte[] message, long timestamp) {
+    int size = HEADER_SIZE + message.length;
+    if (size > segmentBytes) return false;
+
+    if (tail.writeOffset + size > segmentBytes) {
+      if (segmentCount >= maxSegments) return false;
+      if (tail.writeOffset + 4 <= segmentBytes) {
+        tail.buffer.putInt(tail.writeOffset, END_OF_SEGMENT);
+      }
+      try {
+        link(Segment.create(directory, tail.id + 1, segmentBytes));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    ByteBuffer buffer = tail.buffer;
+    int offset = tail.writeOffset;
+    buffer.put(offset + 4, PENDING);
+    buffer.put(offset + 5, (byte) 0);
+    buffer.putLong(offset + 6, timestamp);
+    ByteBuffer payload = buffer.duplicate();
+    payload.position(offset + HEADER_SIZE);
+    payload.put(message);
+    buffer.putInt(offset, message.length);
+
+    tail.writeOffset += size;
+    tail.messages++;
+    messages++;
+    bytes += size;
+    return true;
+  }
+
+  /** Returns the next pending message after the read cursor, or null if there are none. */
+  @Nullable synchronized Message poll() {
+    while (true) {
+      ByteBuffer buffer = read.buffer;
+      int length = readOffset + HEADER_SIZE <= buffer.capacity() ? buffer.getInt(readOffset) : 0;
+      if (length <= 0) { // end of what's written
+        if (read == tail) return null;
+        read = read.next;
+        readOffset = 0;
+        continue;
+      }
+
+      int offset = readOffset;
+      readOffset += HEADER_SIZE + length;
+      if (buffer.get(offset + 4) == DONE) continue; // completed before a rewind
+
+      byte[] message = new byte[length];
+      ByteBuffer payload = buffer.duplicate();
+      payload.position(offset + HEADER_SIZE);
+      payload.get(message);
+      return new Message(read, offset, buffer.getLong(offset + 6), message);
+    }
+  }
+
+  /** Marks the message done, deleting any segments that no longer have pending messages. */
+  synchronized void complete(Message message) {
+    if (message.segment.deleted) return; // already done
+    ByteBuffer buffer = message.segment.buffer;
+    if (buffer.get(message.offset + 4) == DONE) return;
+    buffer.put(message.offset + 4, DONE);
+    message.segment.messages--;
+    messages--;
+    bytes -= HEADER_SIZE + message.message.length;
+    advanceHead();
+  }
+
+  /** Records a failed attempt to store the message, returning the count of attempts. */
+  synchronized int incrementAttempts(Message message) {
+    if (message.segment.deleted) return 0; // already done
+    ByteBuffer buffer = message.segment.buffer;
+    int attempts = Math.min(Byte.MAX_VALUE, buffer.get(message.offset + 5) + 1);
+    buffer.put(message.offset + 5, (byte) attempts);
+    return attempts;
+  }
+
+  /** Moves the read cursor back to the head, so that messages not yet done are polled again. */
+  synchronized void rewind() {
+    read = head;
+    readOffset = headOffset;
+  }
+
+  synchronized int messages() {
+    return messages;
+  }
+
+  synchronized long bytes() {
+    return bytes;
+  }
+
+  /** Returns the timestamp of the oldest pending message, or zero if there are none. */
+  synchronized long oldestTimestamp() {
+    if (messages == 0) return 0L;
+    return head.buffer.getLong(headOffset + 6); // the head is pending
+  }
+
+  synchronized boolean isEmpty() {
+    return messages == 0;
+  }
+
+  @Override public synchronized void close() {
+    for (Segment segment = head; segment != null; segment = segment.next) {
+      segment.buffer.force();
+    }
+  }
+
+  @Override public String toString() {
+    return "SpillQueue{" + directory + "}";
+  }
+
+  void link(Segment segment) {
+    if (head == null) {
+      head = tail = segment;
+    } else {
+      tail.next = segment;
+      tail = segment;
+    }
+    segmentCount++;
+  }
+
+  /** Skips done messages at the head, deleting segments it moves past. */
+  void advanceHead() {
+    while (true) {
+      ByteBuffer buffer = head.buffer;
+      int length =
+        headOffset + HEADER_SIZE <= buffer.capacity() ? buffer.getInt(headOffset) : 0;
+      if (length > 0) {
+        if (buffer.get(headOffset + 4) != DONE) return;
+        headOffset += HEADER_SIZE + length;
+        continue;
+      }
+      if (head == tail) return;
+
+      head.delete();
+      head = head.next;
+      headOffset = 0;
+      segmentCount--;
+    }
+  }
+
+  static List<Path> listSegments(Path directory) throws IOException {
+    List<Path> result = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+      for (Path path : stream) result.add(path);
+    }
+    Collections.sort(result); // names are zero-padded sequence numbers
+    return result;
+  }
+
+  static final class Message {
+    final Segment segment;
+    final int offset;
+    final long timestamp;
+    final byte[] message;
+
+    Message(Segment segment, int offset, long timestamp, byte[] message) {
+      this.segment = segment;
+      this.offset = offset;
+      this.timestamp = timestamp;
+      this.message = message;
+    }
+  }
+
+  static final class Segment {
+    static Segment create(Path directory, long id, int segmentBytes) throws IOException {
+      Path path = directory.resolve(String.format("%019d", id) + SUFFIX);
+      return new Segment(id, path, map(path, segmentBytes, true));
+    }
+
+    /** Counts the pending messages in a segment written by a previous process. */
+    static Segment recover(Path path) throws IOException {
+      String name = path.getFileName().toString();
+      long id = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+      Segment result = new Segment(id, path, map(path, (int) Files.size(path), false));
+
+      ByteBuffer buffer = result.buffer;
+      int offset = 0;
+      while (offset + HEADER_SIZE <= buffer.capacity()) {
+        int length = buffer.getInt(offset);
+        if (length <= 0 || offset + HEADER_SIZE + length > buffer.capacity()) break;
+        if (buffer.get(offset + 4) != DONE) {
+          result.messages++;
+          result.bytes += HEADER_SIZE + length;
+        }
+        offset += HEADER_SIZE + length;
+      }
+      result.writeOffset = offset;
+      if (offset + 4 <= buffer.capacity()) buffer.putInt(offset, END_OF_SEGMENT); // seal
+      return result;
+    }
+
+    static MappedByteBuffer map(Path path, int size, boolean create) throws IOException {
+      try (FileChannel channel = create
+        ? FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)
+        : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0, size); // valid after close
+      }
+    }
+
+    final long id;
+    final Path path;
+    final MappedByteBuffer buffer;
+    Segment next;
+    int writeOffset, messages;
+    long bytes; // only used on recovery
+    boolean deleted; // when true, the buffer mustn't be accessed
+
+    Segment(long id, Path path, MappedByteBuffer buffer) {
+      this.id = id;
+      this.path = path;
+      this.buffer = buffer;
+    }
+
+    /**
+     * Unmaps the buffer before deleting the file, as otherwise its disk space isn't freed until the
+     * buffer is garbage collected. Best effort: a segment that can't be deleted is only read again
+     * on restart.
+     */
+    void delete() {
+      deleted = true;
+      Unmapper.unmap(buffer);
+      path.toFile().delete();
+    }
+  }
+
+  /**
+   * The JRE only unmaps a buffer when it is garbage collected, which could be long after a large
+   * segment was deleted. This uses internal APIs to unmap it immediately, or does nothing if they
+   * aren't available.
+   */
+  static final class Unmapper {
+    @Nullable static final Object UNSAFE; // JRE 9+
+    @Nullable static final Method INVOKE_CLEANER, CLEANER, CLEAN; // CLEANER and CLEAN are JRE 8
+
+    static {
+      Object unsafe = null;
+      Method invokeCleaner = null, cleaner = null, clean = null;
+      try {
+        Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+        invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+        theUnsafe.setAccessible(true);
+        unsafe = theUnsafe.get(null);
+      } catch (Exception | LinkageError e) {
+        invokeCleaner = null;
+        try {
+          cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+          clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+        } catch (Exception | LinkageError e2) {
+          cleaner = clean = null;
+        }
+      }
+      UNSAFE = unsafe;
+      INVOKE_CLEANER = invokeCleaner;
+      CLEANER = cleaner;
+      CLEAN = clean;
+    }
+
+    /** The buffer must not be accessed after this, as doing so could crash the process. */
+    static void unmap(MappedByteBuffer buffer) {
+      try {
+        if (INVOKE_CLEANER != null) {
+          INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } else if (CLEANER != null) {
+          Object cleaner = CLEANER.invoke(buffer);
+          if (cleaner != null) CLEAN.invoke(cleaner);
+        }
+      } catch (Exception e) {
+        // best effort: the buffer is unmapped when garbage collected instead
+      }
+    }
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal.spill;
+
+import com.netflix.concurrency.limits.Limit;
+import com.netflix.concurrency.limits.limit.Gradient2Limit;
+import com.netflix.concurrency.limits.limiter.SimpleLimiter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.Span;
+import zipkin2.codec.Encoding;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.internal.Nullable;
+import zipkin2.storage.EncodedSpanConsumer;
+import zipkin2.storage.ForwardingStorageComponent;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.StorageComponent;
+
+/**
+ * Delegating implementation that appends spans to a {@link SpillQueue} on disk when they can't be
+ * stored, so that storage outages delay data instead of losing it.
+ *
+ * <p>While the queue is empty, spans are stored directly, and only appended when that fails. While
+ * the queue isn't empty, spans are appended without trying storage, which is left to the {@link
+ * SpillDrainer} at the pace storage can sustain. Either way, the collector sees success unless the
+ * queue is full.
+ *
+ * <p>Spilled messages are PROTO3 encoded lists of spans.
+ */
+public final class SpillingStorageComponent extends ForwardingStorageComponent {
+  final StorageComponent delegate;
+  final SpillQueue queue;
+  final SpillMetrics metrics;
+  final SpillDrainer drainer;
+
+  public SpillingStorageComponent(StorageComponent delegate, MeterRegistry registry,
+    Path directory, int segmentBytes, long maxBytes, int maxConcurrency) throws IOException {
+    this.delegate = Objects.requireNonNull(delegate);
+    this.queue = SpillQueue.open(directory, segmentBytes, maxBytes);
+    this.metrics = new SpillMetrics(registry);
+    metrics.messagesDropped.increment(queue.droppedOnOpen);
+
+    Limit limit = Gradient2Limit.newBuilder()
+      .minLimit(1)
+      .initialLimit(1) // storage may have just recovered
+      .maxConcurrency(maxConcurrency)
+      .queueSize(0)
+      .build();
+    SimpleLimiter<Void> limiter = SimpleLimiter.newBuilder().limit(limit).build();
+    SpillMetrics.bind(registry, queue, limit);
+
+    this.drainer = new SpillDrainer(queue, delegate, limiter, metrics);
+    drainer.start();
+  }
+
+  @Override protected StorageComponent delegate() {
+    return delegate;
+  }
+
+  @Override public SpanConsumer spanConsumer() {
+    SpanConsumer spanConsumer = delegate.spanConsumer();
+    if (spanConsumer instanceof EncodedSpanConsumer) {
+      return new SpillingEncodedSpanConsumer(this, (EncodedSpanConsumer) spanConsumer);
+    }
+    return new SpillingSpanConsumer(this, spanConsumer);
+  }
+
+  @Override public void close() throws IOException {
+    drainer.close();
+    queue.close();
+    delegate.close();
+  }
+
+  @Override public String toString() {
+    return "Spilling{" + delegate.toString() + "}";
+  }
+
+  /** Returns false if the spans were dropped, as the queue is full. */
+  boolean spill(List<Span> spans) {
+    if (!queue.offer(SpanBytesEncoder.PROTO3.encodeList(spans), System.currentTimeMillis())) {
+      metrics.messagesDropped.increment();
+      return false;
+    }
+    metrics.messagesSpilled.increment();
+    drainer.signal();
+    return true;
+  }
+
+  static class SpillingSpanConsumer implements SpanConsumer {
+    final SpillingStorageComponent spillingStorage;
+    final SpanConsumer delegate;
+
+    SpillingSpanConsumer(SpillingStorageComponent spillingStorage, SpanConsumer delegate) {
+      this.spillingStorage = spillingStorage;
+      this.delegate = delegate;
+    }
+
+    @Override public Call<Void> accept(List<Span> spans) {
+      return new SpillingCall(spillingStorage, delegate, spans, null);
+    }
+
+    @Override public String toString() {
+      return "Spilling(" + delegate + ")";
+    }
+  }
+
+  static final class SpillingEncodedSpanConsumer extends SpillingSpanConsumer
+    implements EncodedSpanConsumer {
+    final EncodedSpanConsumer encodedDelegate;
+
+    SpillingEncodedSpanConsumer(SpillingStorageComponent spillingStorage,
+      EncodedSpanConsumer delegate) {
+      super(spillingStorage, delegate);
+      this.encodedDelegate = delegate;
+    }
+
+    @Override public Encoding encoding() {
+      return encodedDelegate.encoding();
+    }
+
+    @Override public Call<Void> accept(List<Span> spans, List<byte[]> encodedSpans) {
+      return new SpillingCall(spillingStorage, encodedDelegate, spans, encodedSpans);
+    }
+  }
+
+  /** Creates the storage call lazily, as it isn't needed when spilling directly. */
+  static final class SpillingCall extends Call.Base<Void> {
+    final SpillingStorageComponent spillingStorage;
+    final SpanConsumer delegate;
+    final List<Span> spans;
+    @Nullable final List<byte[]> encodedSpans;
+
+    SpillingCall(SpillingStorageComponent spillingStorage, SpanConsumer delegate,
+      List<Span> spans, @Nullable List<byte[]> encodedSpans) {
+      this.spillingStorage = spillingStorage;
+      this.delegate = delegate;
+      this.spans = spans;
+      this.encodedSpans = encodedSpans;
+    }
+
+    Call<Void> delegateCall() {
+      return encodedSpans != null
+        ? ((EncodedSpanConsumer) delegate).accept(spans, encodedSpans)
+        : delegate.accept(spans);
+    }
+
+    @Override protected Void doExecute() throws IOException {
+      if (!spillingStorage.queue.isEmpty() && spillingStorage.spill(spans)) return null;
+      try {
+        return delegateCall().execute();
+      } catch (IOException | RuntimeException e) {
+        if (spillingStorage.spill(spans)) return null;
+        throw e;
+      }
+    }
+
+    @Override protected void doEnqueue(Callback<Void> callback) {
+      if (!spillingStorage.queue.isEmpty() && spillingStorage.spill(spans)) {
+        callback.onSuccess(null);
+        return;
+      }
+      SpillCallback spillCallback = new SpillCallback(callback);
+      try {
+        delegateCall().enqueue(spillCallback);
+      } catch (RuntimeException e) { // such as the storage throttle rejecting the message
+        spillCallback.onError(e);
+      }
+    }
+
+    @Override public Call<Void> clone() {
+      return new SpillingCall(spillingStorage, delegate, spans, encodedSpans);
+    }
+
+    @Override public String toString() {
+      return "Spilling(" + delegate + ")";
+    }
+
+    final class SpillCallback implements Callback<Void> {
+      final Callback<Void> delegate;
+
+      SpillCallback(Callback<Void> delegate) {
+        this.delegate = delegate;
+      }
+
+      @Override public void onSuccess(Void value) {
+        delegate.onSuccess(value);
+      }
+
+      @Override public void onError(Throwable t) {
+        if (spillingStorage.spill(spans)) {
+          delegate.onSuccess(null);
+        } else {
+          delegate.onError(t);
+        }
+      }
+    }
+  }
+}
@@ -13,10 +13,10 @@
  */
 package zipkin2.server.internal.throttle;
 
+import com.netflix.concurrency.limits.Limit;
 import com.netflix.concurrency.limits.limiter.AbstractLimiter;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
-import java.util.concurrent.ThreadPoolExecutor;
 import zipkin2.server.internal.ActuateCollectorMetrics;
 
 /** Follows the same naming convention as {@link ActuateCollectorMetrics} */
@@ -27,11 +27,11 @@ final class ActuateThrottleMetrics {
     this.registryInstance = registryInstance;
   }
 
-  void bind(ThreadPoolExecutor pool) {
-    Gauge.builder("zipkin_storage.throttle.concurrency", pool::getCorePoolSize)
-      .description("number of threads running storage requests")
+  void bind(Limit limit, AsyncLimiter asyncLimiter) {
+    Gauge.builder("zipkin_storage.throttle.concurrency", limit::getLimit)
+      .description("number of storage requests allowed to run at the same time")
       .register(registryInstance);
-    Gauge.builder("zipkin_storage.throttle.queue_size", pool.getQueue()::size)
+    Gauge.builder("zipkin_storage.throttle.queue_size", asyncLimiter.queueSize::get)
       .description("number of items queued waiting for access to storage")
       .register(registryInstance);
   }
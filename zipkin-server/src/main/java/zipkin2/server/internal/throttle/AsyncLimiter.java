@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal.throttle;
+
+import brave.propagation.CurrentTraceContext;
+import brave.propagation.CurrentTraceContext.Scope;
+import brave.propagation.TraceContext;
+import com.netflix.concurrency.limits.Limiter;
+import com.netflix.concurrency.limits.Limiter.Listener;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import zipkin2.internal.Nullable;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static zipkin2.server.internal.throttle.ThrottledCall.STORAGE_THROTTLE_MAX_CONCURRENCY;
+import static zipkin2.server.internal.throttle.ThrottledStorageComponent.STORAGE_THROTTLE_MAX_QUEUE_SIZE;
+
+/**
+ * Hands out {@link Limiter} permits without blocking a thread.
+ *
+ * <p>When the limiter is at capacity, the caller is added to a bounded queue instead of waiting.
+ * Queued callers are started by whichever thread frees capacity, which is the thread completing a
+ * storage request. This means the number of threads used doesn't change with the concurrency limit.
+ *
+ * <p>Callers must {@link #drain()} after releasing a {@link Listener}.
+ *
+ * <p>The time queued callers wait is recorded, for the {@linkplain
+ * LimiterMetrics#isTimingSampled() sampled} percentage of them. Callers who needn't wait aren't, so
+ * that the uncontended path doesn't read the clock.
+ */
+final class AsyncLimiter {
+  final Limiter<Void> limiter;
+  final int maxQueueSize;
+  @Nullable final CurrentTraceContext currentTraceContext;
+  @Nullable final LimiterMetrics metrics;
+  final Queue<Pending> pending = new ConcurrentLinkedQueue<>();
+  final AtomicInteger queueSize = new AtomicInteger();
+  final AtomicInteger wip = new AtomicInteger(); // guards drain, so that only one thread runs it
+
+  AsyncLimiter(Limiter<Void> limiter, int maxQueueSize,
+    @Nullable CurrentTraceContext currentTraceContext) {
+    this(limiter, maxQueueSize, currentTraceContext, null);
+  }
+
+  AsyncLimiter(Limiter<Void> limiter, int maxQueueSize,
+    @Nullable CurrentTraceContext currentTraceContext, @Nullable LimiterMetrics metrics) {
+    if (maxQueueSize < 0) throw new IllegalArgumentException("maxQueueSize < 0");
+    this.limiter = limiter;
+    this.maxQueueSize = maxQueueSize;
+    this.currentTraceContext = currentTraceContext;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Passes a listener to the consumer as soon as the limiter allows. This is either now, on the
+   * calling thread, or later on a thread that invoked {@link #drain()}.
+   *
+   * @throws RejectedExecutionException when at the concurrency limit and the queue is full
+   */
+  void acquire(Consumer<Listener> onPermit) {
+    if (queueSize.get() == 0) { // don't jump ahead of queued callers
+      Optional<Listener> listener = limiter.acquire(null);
+      if (listener.isPresent()) {
+        onPermit.accept(listener.get());
+        return;
+      }
+    }
+
+    if (maxQueueSize == 0) throw STORAGE_THROTTLE_MAX_CONCURRENCY;
+    if (queueSize.incrementAndGet() > maxQueueSize) {
+      queueSize.decrementAndGet();
+      throw STORAGE_THROTTLE_MAX_QUEUE_SIZE;
+    }
+
+    TraceContext context = currentTraceContext != null ? currentTraceContext.get() : null;
+    pending.offer(new Pending(onPermit, context));
+
+    // In-flight requests may have completed since we last tried the limiter. If so, nothing else
+    // would start what we just queued.
+    drain();
+  }
+
+  /** Starts queued callers until the limiter is at capacity again. */
+  void drain() {
+    // When a started caller completes synchronously, it will drain again. The work-in-progress
+    // count turns that into another loop here, instead of growing the stack.
+    if (wip.getAndIncrement() != 0) return;
+    int missed = 1;
+    do {
+      while (!pending.isEmpty()) {
+        Optional<Listener> listener = limiter.acquire(null);
+        if (!listener.isPresent()) break;
+
+        Pending next = pending.poll(); // not null, as only this thread removes from the queue
+        queueSize.decrementAndGet();
+        next.start(listener.get());
+      }
+      missed = wip.addAndGet(-missed);
+    } while (missed != 0);
+  }
+
+  final class Pending {
+    final Consumer<Listener> onPermit;
+    @Nullable final TraceContext context;
+    final long queuedNanos;
+
+    Pending(Consumer<Listener> onPermit, @Nullable TraceContext context) {
+      this.onPermit = onPermit;
+      this.context = context;
+      this.queuedNanos = metrics != null && metrics.isTimingSampled() ? System.nanoTime() : 0L;
+    }
+
+    /** Starts on the draining thread, so restores the trace context of the caller. */
+    void start(Listener listener) {
+      if (queuedNanos != 0L) {
+        metrics.queueWait.record(System.nanoTime() - queuedNanos, NANOSECONDS);
+      }
+      if (currentTraceContext == null) {
+        onPermit.accept(listener);
+        return;
+      }
+      try (Scope scope = currentTraceContext.maybeScope(context)) {
+        onPermit.accept(listener);
+      }
+    }
+  }
+}
@@ -15,13 +15,36 @@ package zipkin2.server.internal.throttle;
 
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import zipkin2.Span;
 import zipkin2.collector.CollectorMetrics;
+import zipkin2.internal.Nullable;
+import zipkin2.server.internal.throttle.LoadShedder.Priority;
 
 /** Follows the same naming convention as {@link CollectorMetrics} */
 final class LimiterMetrics {
   final Counter requests, requestsSucceeded, requestsIgnored, requestsDropped;
+  final float timingSampleRate;
+  @Nullable final Timer queueWait; // null when timing is disabled
+  final Map<Priority, Counter> spansDropped = new EnumMap<>(Priority.class);
 
   LimiterMetrics(MeterRegistry registry) {
+    this(registry, 0.0f);
+  }
+
+  /**
+   * @param timingSampleRate percentage of queued requests to record the wait of, from 0.0 to 1.0.
+   * This is the same rate as collector timings.
+   */
+  LimiterMetrics(MeterRegistry registry, float timingSampleRate) {
+    if (timingSampleRate < 0.0f || timingSampleRate > 1.0f) {
+      throw new IllegalArgumentException("timingSampleRate should be between 0.0 and 1.0");
+    }
+    this.timingSampleRate = timingSampleRate;
     requests = Counter.builder("zipkin_storage.throttle.requests")
       .description("cumulative amount of limiter requests acquired")
       .register(registry);
@@ -38,5 +61,34 @@ final class LimiterMetrics {
         .description(
           "cumulative amount of limiter requests acquired that later dropped not due to capacity")
         .register(registry);
+    queueWait = timingSampleRate == 0.0f ? null // don't export a timer that never records
+      : Timer.builder("zipkin_storage.throttle.queue_wait")
+        .description("time limiter requests waited in the queue, for the sampled percentage of "
+          + "those that couldn't start")
+        .publishPercentileHistogram()
+        .register(registry);
+    for (Priority priority : Priority.values()) {
+      spansDropped.put(priority, Counter.builder("zipkin_storage.throttle.spans_dropped")
+        .description("cumulative amount of spans dropped before storage due to capacity")
+        .tag("priority", priority.tag)
+        .register(registry));
+    }
+  }
+
+  /** Like {@code ActuateCollectorMetrics.isTimingSampled()}, decides per queued request. */
+  boolean isTimingSampled() {
+    if (timingSampleRate == 0.0f) return false;
+    return timingSampleRate == 1.0f || ThreadLocalRandom.current().nextFloat() < timingSampleRate;
+  }
+
+  Counter spansDropped(Priority priority) {
+    return spansDropped.get(priority);
+  }
+
+  /** Called when a message is rejected, as the queue is full. */
+  void incrementSpansDropped(List<Span> spans) {
+    for (int i = 0, length = spans.size(); i < length; i++) {
+      spansDropped(LoadShedder.priority(spans.get(i))).increment();
+    }
   }
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal.throttle;
+
+import com.netflix.concurrency.limits.Limit;
+import com.netflix.concurrency.limits.limiter.AbstractLimiter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import zipkin2.Span;
+import zipkin2.internal.Nullable;
+
+/**
+ * Drops low priority spans while storage is saturated, so that the spans most needed during an
+ * incident aren't abandoned with the rest of their message.
+ *
+ * <p>Debug, error and root spans are always kept. Other spans are dropped at a rate that starts
+ * once in-flight requests reach the concurrency limit, and grows with the queue depth. When the
+ * queue is three quarters full, all other spans are dropped. This leaves the last quarter of the
+ * queue to messages with priority spans.
+ *
+ * <p>Like {@link zipkin2.collector.CollectorSampler}, the decision is made on the trace ID, so a
+ * trace is dropped consistently, and traces with a lower ID are dropped first.
+ */
+final class LoadShedder {
+  enum Priority {
+    DEBUG, ERROR, ROOT, OTHER;
+
+    final String tag = name().toLowerCase(Locale.ROOT);
+  }
+
+  static Priority priority(Span span) {
+    if (Boolean.TRUE.equals(span.debug())) return Priority.DEBUG;
+    if (span.tags().containsKey("error")) return Priority.ERROR;
+    if (span.parentIdAsLong() == 0L) return Priority.ROOT;
+    return Priority.OTHER;
+  }
+
+  final Limit limit;
+  final AbstractLimiter<Void> limiter;
+  final AsyncLimiter asyncLimiter;
+  final LimiterMetrics limiterMetrics;
+
+  LoadShedder(Limit limit, AbstractLimiter<Void> limiter, AsyncLimiter asyncLimiter,
+    LimiterMetrics limiterMetrics) {
+    this.limit = limit;
+    this.limiter = limiter;
+    this.asyncLimiter = asyncLimiter;
+    this.limiterMetrics = limiterMetrics;
+  }
+
+  /** Returns the rate between 0 and 1 at which low priority spans should be dropped. */
+  double shedRate() {
+    int queued = asyncLimiter.queueSize.get();
+    if (queued == 0 && limiter.getInflight() < limit.getLimit()) return 0.0;
+    return Math.min(1.0, (queued + 1.0) / (asyncLimiter.maxQueueSize * 0.75 + 1.0));
+  }
+
+  /** Returns the indexes of spans to drop, or null if none should be. */
+  @Nullable BitSet shed(List<Span> spans) {
+    double rate = shedRate();
+    if (rate == 0.0) return null;
+    long boundary = (long) (Long.MAX_VALUE * rate); // safe cast as rate <= 1
+
+    BitSet result = null;
+    for (int i = 0, length = spans.size(); i < length; i++) {
+      Span span = spans.get(i);
+      if (priority(span) != Priority.OTHER) continue;
+      long traceId = span.traceIdLow();
+      long t = traceId == Long.MIN_VALUE ? Long.MAX_VALUE : Math.abs(traceId);
+      if (t > boundary) continue;
+
+      if (result == null) result = new BitSet(length);
+      result.set(i);
+      limiterMetrics.spansDropped(Priority.OTHER).increment();
+    }
+    return result;
+  }
+
+  /** Returns the elements of the input whose index isn't set. */
+  static <T> List<T> retain(List<T> input, BitSet dropped) {
+    List<T> result = new ArrayList<>(input.size() - dropped.cardinality());
+    for (int i = 0, length = input.size(); i < length; i++) {
+      if (!dropped.get(i)) result.add(input.get(i));
+    }
+    return result;
+  }
+}
@@ -14,14 +14,12 @@
 package zipkin2.server.internal.throttle;
 
 import com.linecorp.armeria.common.util.Exceptions;
-import com.netflix.concurrency.limits.Limiter;
 import com.netflix.concurrency.limits.Limiter.Listener;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import zipkin2.Call;
 import zipkin2.Callback;
@@ -29,8 +27,8 @@ import zipkin2.Callback;
 import static com.linecorp.armeria.common.util.Exceptions.clearTrace;
 
 /**
- * {@link Call} implementation that is backed by an {@link ExecutorService}. The ExecutorService
- * serves two purposes:
+ * {@link Call} implementation that is backed by an {@link AsyncLimiter}. The limiter serves two
+ * purposes:
  * <ol>
  * <li>Limits the number of requests that can run in parallel.</li>
  * <li>Depending on configuration, can queue up requests to make sure we don't aggressively drop
@@ -38,6 +36,9 @@ import static com.linecorp.armeria.common.util.Exceptions.clearTrace;
  * unbounded ones can lead to heap exhaustion and {@link OutOfMemoryError OOM errors}.</li>
  * </ol>
  *
+ * <p>No thread waits on an in-flight request: the limiter permit is released in the storage
+ * callback, which also starts the next queued request.
+ *
  * @see ThrottledStorageComponent
  */
 final class ThrottledCall extends Call.Base<Void> {
@@ -58,20 +59,27 @@ final class ThrottledCall extends Call.Base<Void> {
   };
 
   final Call<Void> delegate;
-  final Executor executor;
-  final Limiter<Void> limiter;
+  final AsyncLimiter limiter;
   final LimiterMetrics limiterMetrics;
   final Predicate<Throwable> isOverCapacity;
+  final Runnable onRejected;
   final CountDownLatch latch = new CountDownLatch(1);
   Throwable throwable; // thread visibility guaranteed by the countdown latch
 
-  ThrottledCall(Call<Void> delegate, Executor executor, Limiter<Void> limiter,
-    LimiterMetrics limiterMetrics, Predicate<Throwable> isOverCapacity) {
+  ThrottledCall(Call<Void> delegate, AsyncLimiter limiter, LimiterMetrics limiterMetrics,
+    Predicate<Throwable> isOverCapacity) {
+    this(delegate, limiter, limiterMetrics, isOverCapacity, () -> {
+    });
+  }
+
+  /** @param onRejected invoked when the call is abandoned, as the queue is full */
+  ThrottledCall(Call<Void> delegate, AsyncLimiter limiter, LimiterMetrics limiterMetrics,
+    Predicate<Throwable> isOverCapacity, Runnable onRejected) {
     this.delegate = delegate;
-    this.executor = executor;
     this.limiter = limiter;
     this.limiterMetrics = limiterMetrics;
     this.isOverCapacity = isOverCapacity;
+    this.onRejected = onRejected;
   }
 
   /**
@@ -80,7 +88,7 @@ final class ThrottledCall extends Call.Base<Void> {
    * anyway.
    */
   @Override protected Void doExecute() throws IOException {
-    // Enqueue the call invocation on the executor and block until it completes.
+    // Enqueue the call invocation and block until it completes.
     doEnqueue(NOOP_CALLBACK);
     if (!await(latch)) throw new InterruptedIOException();
 
@@ -95,100 +103,98 @@ final class ThrottledCall extends Call.Base<Void> {
     throw new RuntimeException(t);
   }
 
-  // When handling enqueue, we don't block the calling thread. Any exception goes to the callback.
+  /**
+   * When handling enqueue, we don't block the calling thread. If there's no capacity, the request
+   * is queued and started later by another request's callback. If the queue is full, this throws
+   * {@link RejectedExecutionException}.
+   */
   @Override protected void doEnqueue(Callback<Void> callback) {
-    Listener limiterListener =
-      limiter.acquire(null).orElseThrow(() -> STORAGE_THROTTLE_MAX_CONCURRENCY);
-
-    limiterMetrics.requests.increment();
-    EnqueueAndAwait enqueueAndAwait = new EnqueueAndAwait(callback, limiterListener);
-
     try {
-      executor.execute(enqueueAndAwait);
-    } catch (RuntimeException | Error t) { // possibly rejected, but from the executor, not storage!
-      propagateIfFatal(t);
-      callback.onError(t);
-      // Ignoring in all cases here because storage itself isn't saying we need to throttle. Though
-      // we may still be write bound, but a drop in concurrency won't necessarily help.
-      limiterListener.onIgnore();
-      throw t; // allows blocking calls to see the exception
+      limiter.acquire(new LimiterCallback(callback));
+    } catch (RejectedExecutionException e) {
+      onRejected.run();
+      throw e;
     }
   }
 
   @Override public Call<Void> clone() {
-    return new ThrottledCall(delegate.clone(), executor, limiter, limiterMetrics, isOverCapacity);
+    return new ThrottledCall(delegate.clone(), limiter, limiterMetrics, isOverCapacity,
+      onRejected);
   }
 
   @Override public String toString() {
     return "Throttled(" + delegate + ")";
   }
 
-  /** When run, this enqueues a call with a given callback, and awaits its completion. */
-  final class EnqueueAndAwait implements Runnable, Callback<Void> {
+  /** Enqueues the call once a permit is acquired, and releases it when the call completes. */
+  final class LimiterCallback implements Consumer<Listener>, Callback<Void> {
     final Callback<Void> callback;
-    final Listener limiterListener;
+    Listener limiterListener;
 
-    EnqueueAndAwait(Callback<Void> callback, Listener limiterListener) {
+    LimiterCallback(Callback<Void> callback) {
       this.callback = callback;
-      this.limiterListener = limiterListener;
     }
 
-    /**
-     * This waits until completion to ensure the number of executing calls doesn't surpass the
-     * concurrency limit of the executor.
-     *
-     * <h3>The {@link Listener} isn't affected during run</h3>
-     * There could be an error enqueuing the call or an interruption during shutdown of the
-     * executor. We do not affect the {@link Listener} here because it would be redundant to
-     * handling already done in callbacks. For example, if shutting down, the storage layer would
-     * also invoke {@link #onError(Throwable)}.
-     */
-    @Override public void run() {
-      if (delegate.isCanceled()) return;
+    @Override public void accept(Listener limiterListener) {
+      this.limiterListener = limiterListener;
+      limiterMetrics.requests.increment();
+      if (delegate.isCanceled()) { // possible when the request was queued
+        release(limiterListener::onIgnore);
+        complete();
+        return;
+      }
       try {
         delegate.enqueue(this);
-
-        // Need to wait here since the callback call will run asynchronously also.
-        // This ensures we don't exceed our throttle/queue limits.
-        await(latch);
       } catch (Throwable t) { // edge case: error during enqueue!
         propagateIfFatal(t);
-        callback.onError(t);
+        onError(t);
       }
     }
 
     @Override public void onSuccess(Void value) {
+      // usually we don't add metrics like this,
+      // but for now it is helpful to sanity check acquired vs erred.
+      limiterMetrics.requestsSucceeded.increment();
+      release(limiterListener::onSuccess);
       try {
-        // usually we don't add metrics like this,
-        // but for now it is helpful to sanity check acquired vs erred.
-        limiterMetrics.requestsSucceeded.increment();
-        limiterListener.onSuccess(); // NOTE: limiter could block and delay the caller's callback
         callback.onSuccess(value);
       } finally {
-        latch.countDown();
+        complete();
       }
     }
 
     @Override public void onError(Throwable t) {
+      throwable = t; // catch the throwable in case the invocation is blocking (Call.execute())
+      if (isOverCapacity.test(t)) {
+        limiterMetrics.requestsDropped.increment();
+        release(limiterListener::onDropped);
+      } else {
+        limiterMetrics.requestsIgnored.increment();
+        release(limiterListener::onIgnore);
+      }
       try {
-        throwable = t; // catch the throwable in case the invocation is blocking (Call.execute())
-        if (isOverCapacity.test(t)) {
-          limiterMetrics.requestsDropped.increment();
-          limiterListener.onDropped();
-        } else {
-          limiterMetrics.requestsIgnored.increment();
-          limiterListener.onIgnore();
-        }
-
-        // NOTE: the above limiter could block and delay the caller's callback
         callback.onError(t);
+      } finally {
+        complete();
+      }
+    }
+
+    /** Releases the permit and unblocks any caller of {@link #execute()}. */
+    void release(Runnable listenerMethod) {
+      try {
+        listenerMethod.run();
       } finally {
         latch.countDown();
       }
     }
 
+    /** Uses the freed permit to start the next queued request, if there is one. */
+    void complete() {
+      limiter.drain();
+    }
+
     @Override public String toString() {
-      return "EnqueueAndAwait{call=" + delegate + ", callback=" + callback + "}";
+      return "LimiterCallback{call=" + delegate + ", callback=" + callback + "}";
     }
   }
 
@@ -13,32 +13,25 @@
  */
 package zipkin2.server.internal.throttle;
 
-import brave.Tracer;
 import brave.Tracing;
 import brave.propagation.CurrentTraceContext;
-import com.linecorp.armeria.common.brave.RequestContextCurrentTraceContext;
 import com.netflix.concurrency.limits.Limit;
-import com.netflix.concurrency.limits.Limiter;
 import com.netflix.concurrency.limits.limit.Gradient2Limit;
 import com.netflix.concurrency.limits.limiter.AbstractLimiter;
+import com.netflix.concurrency.limits.limiter.SimpleLimiter;
 import io.micrometer.core.instrument.MeterRegistry;
-import io.micrometer.core.instrument.util.NamedThreadFactory;
 import java.io.IOException;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Objects;
-import java.util.Optional;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.Executor;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-import java.util.function.Consumer;
 import java.util.function.Predicate;
 import zipkin2.Call;
 import zipkin2.Span;
+import zipkin2.codec.Encoding;
 import zipkin2.internal.Nullable;
 import zipkin2.server.internal.brave.TracedCall;
+import zipkin2.storage.EncodedSpanConsumer;
 import zipkin2.storage.ForwardingStorageComponent;
 import zipkin2.storage.SpanConsumer;
 import zipkin2.storage.StorageComponent;
@@ -67,16 +60,28 @@ public final class ThrottledStorageComponent extends ForwardingStorageComponent
     clearTrace(new RejectedExecutionException("STORAGE_THROTTLE_MAX_QUEUE_SIZE reached"));
 
   final StorageComponent delegate;
-  final @Nullable Tracer tracer;
+  final @Nullable Tracing tracing;
   final @Nullable CurrentTraceContext currentTraceContext;
   final AbstractLimiter<Void> limiter;
-  final ThreadPoolExecutor executor;
+  final AsyncLimiter asyncLimiter;
   final LimiterMetrics limiterMetrics;
+  @Nullable final LoadShedder loadShedder;
 
   public ThrottledStorageComponent(StorageComponent delegate, MeterRegistry registry,
     @Nullable Tracing tracing, int minConcurrency, int maxConcurrency, int maxQueueSize) {
+    this(delegate, registry, tracing, minConcurrency, maxConcurrency, maxQueueSize, false, 0.0f);
+  }
+
+  /**
+   * @param shedByPriority when true, low priority spans are dropped while saturated, instead of
+   * waiting for the queue to fill and abandoning whole messages. See {@link LoadShedder}.
+   * @param timingSampleRate percentage of queued requests to record the wait of, from 0.0 to 1.0.
+   */
+  public ThrottledStorageComponent(StorageComponent delegate, MeterRegistry registry,
+    @Nullable Tracing tracing, int minConcurrency, int maxConcurrency, int maxQueueSize,
+    boolean shedByPriority, float timingSampleRate) {
     this.delegate = Objects.requireNonNull(delegate);
-    this.tracer = tracing != null ? tracing.tracer() : null;
+    this.tracing = tracing;
     this.currentTraceContext = tracing != null ? tracing.currentTraceContext() : null;
 
     Limit limit = Gradient2Limit.newBuilder()
@@ -86,40 +91,17 @@ public final class ThrottledStorageComponent extends ForwardingStorageComponent
       .maxConcurrency(maxConcurrency)
       .queueSize(0)
       .build();
-    this.limiter = new Builder().limit(limit).build();
-
-    // The size of the thread pool is managed by the limiter, so we initialize it with the lower
-    // bound (current limit), and later use change notification to resize it.
-    executor = new ThreadPoolExecutor(
-      limit.getLimit(),
-      limit.getLimit(),
-      0,
-      TimeUnit.DAYS,
-      createQueue(maxQueueSize),
-      new NamedThreadFactory("zipkin-throttle-pool") {
-        @Override public Thread newThread(Runnable runnable) {
-          return super.newThread(new Runnable() {
-            @Override public void run() {
-              RequestContextCurrentTraceContext.setCurrentThreadNotRequestThread(true);
-              runnable.run();
-            }
-
-            @Override public String toString() {
-              return runnable.toString();
-            }
-          });
-        }
-      },
-      (r, e) -> {
-        throw STORAGE_THROTTLE_MAX_QUEUE_SIZE;
-      });
-    limit.notifyOnChange(new ThreadPoolExecutorResizer(executor));
+    this.limiter = SimpleLimiter.newBuilder().limit(limit).build();
+    limiterMetrics = new LimiterMetrics(registry, timingSampleRate);
+    this.asyncLimiter =
+      new AsyncLimiter(limiter, maxQueueSize, currentTraceContext, limiterMetrics);
 
     ActuateThrottleMetrics metrics = new ActuateThrottleMetrics(registry);
-    metrics.bind(executor);
+    metrics.bind(limit, asyncLimiter);
     metrics.bind(limiter);
 
-    limiterMetrics = new LimiterMetrics(registry);
+    loadShedder =
+      shedByPriority ? new LoadShedder(limit, limiter, asyncLimiter, limiterMetrics) : null;
   }
 
   @Override protected StorageComponent delegate() {
@@ -127,11 +109,14 @@ public final class ThrottledStorageComponent extends ForwardingStorageComponent
   }
 
   @Override public SpanConsumer spanConsumer() {
-    return new ThrottledSpanConsumer(this);
+    SpanConsumer spanConsumer = delegate.spanConsumer();
+    if (spanConsumer instanceof EncodedSpanConsumer) {
+      return new ThrottledEncodedSpanConsumer(this, (EncodedSpanConsumer) spanConsumer);
+    }
+    return new ThrottledSpanConsumer(this, spanConsumer);
   }
 
   @Override public void close() throws IOException {
-    executor.shutdownNow();
     delegate.close();
   }
 
@@ -139,30 +124,38 @@ public final class ThrottledStorageComponent extends ForwardingStorageComponent
     return "Throttled{" + delegate.toString() + "}";
   }
 
-  static final class ThrottledSpanConsumer implements SpanConsumer {
+  static class ThrottledSpanConsumer implements SpanConsumer {
     final SpanConsumer delegate;
-    final Executor executor;
-    final Limiter<Void> limiter;
+    final AsyncLimiter limiter;
     final LimiterMetrics limiterMetrics;
     final Predicate<Throwable> isOverCapacity;
-    @Nullable final Tracer tracer;
-
-    ThrottledSpanConsumer(ThrottledStorageComponent throttledStorage) {
-      this.delegate = throttledStorage.delegate.spanConsumer();
-      this.executor = throttledStorage.currentTraceContext != null
-        ? throttledStorage.currentTraceContext.executor(throttledStorage.executor)
-        : throttledStorage.executor;
-      this.limiter = throttledStorage.limiter;
+    @Nullable final LoadShedder loadShedder;
+    @Nullable final Tracing tracing;
+
+    ThrottledSpanConsumer(ThrottledStorageComponent throttledStorage, SpanConsumer delegate) {
+      this.delegate = delegate;
+      this.limiter = throttledStorage.asyncLimiter;
       this.limiterMetrics = throttledStorage.limiterMetrics;
       this.isOverCapacity = throttledStorage::isOverCapacity;
-      this.tracer = throttledStorage.tracer;
+      this.loadShedder = throttledStorage.loadShedder;
+      this.tracing = throttledStorage.tracing;
     }
 
     @Override public Call<Void> accept(List<Span> spans) {
-      Call<Void> result = new ThrottledCall(
-        delegate.accept(spans), executor, limiter, limiterMetrics, isOverCapacity);
+      BitSet shed = loadShedder != null ? loadShedder.shed(spans) : null;
+      if (shed != null) {
+        spans = LoadShedder.retain(spans, shed);
+        if (spans.isEmpty()) return Call.create(null);
+      }
+      return throttle(delegate.accept(spans), spans);
+    }
+
+    Call<Void> throttle(Call<Void> delegateCall, List<Span> spans) {
+      Call<Void> result = new ThrottledCall(delegateCall, limiter, limiterMetrics, isOverCapacity,
+        () -> limiterMetrics.incrementSpansDropped(spans));
 
-      return tracer != null ? new TracedCall<>(tracer, result, "throttled-accept-spans") : result;
+      if (tracing == null) return result;
+      return TracedCall.create(tracing, result, "throttled-accept-spans");
     }
 
     @Override public String toString() {
@@ -170,71 +163,28 @@ public final class ThrottledStorageComponent extends ForwardingStorageComponent
     }
   }
 
-  static BlockingQueue<Runnable> createQueue(int maxSize) {
-    if (maxSize < 0) throw new IllegalArgumentException("maxSize < 0");
+  static final class ThrottledEncodedSpanConsumer extends ThrottledSpanConsumer
+    implements EncodedSpanConsumer {
+    final EncodedSpanConsumer encodedDelegate;
 
-    if (maxSize == 0) {
-      // 0 means we should be bounded but we can't create a queue with that size so use 1 instead.
-      maxSize = 1;
+    ThrottledEncodedSpanConsumer(ThrottledStorageComponent throttledStorage,
+      EncodedSpanConsumer delegate) {
+      super(throttledStorage, delegate);
+      this.encodedDelegate = delegate;
     }
 
-    return new LinkedBlockingQueue<>(maxSize);
-  }
-
-  static final class ThreadPoolExecutorResizer implements Consumer<Integer> {
-    final ThreadPoolExecutor executor;
-
-    ThreadPoolExecutorResizer(ThreadPoolExecutor executor) {
-      this.executor = executor;
+    @Override public Encoding encoding() {
+      return encodedDelegate.encoding();
     }
 
-    /**
-     * This is {@code synchronized} to ensure that we don't let the core/max pool sizes get out of
-     * sync; even for an instant.  The two need to be tightly coupled together to ensure that when
-     * our queue fills up we don't spin up extra Threads beyond our calculated limit.
-     *
-     * <p>There is also an unfortunate aspect where the {@code max} has to always be greater than
-     * {@code core} or an exception will be thrown.  So they have to be adjust appropriately
-     * relative to the direction the size is going.
-     */
-    @Override public synchronized void accept(Integer newValue) {
-      int previousValue = executor.getCorePoolSize();
-
-      int newValueInt = newValue;
-      if (previousValue < newValueInt) {
-        executor.setMaximumPoolSize(newValueInt);
-        executor.setCorePoolSize(newValueInt);
-      } else if (previousValue > newValueInt) {
-        executor.setCorePoolSize(newValueInt);
-        executor.setMaximumPoolSize(newValueInt);
+    @Override public Call<Void> accept(List<Span> spans, List<byte[]> encodedSpans) {
+      BitSet shed = loadShedder != null ? loadShedder.shed(spans) : null;
+      if (shed != null) {
+        spans = LoadShedder.retain(spans, shed);
+        if (spans.isEmpty()) return Call.create(null);
+        encodedSpans = LoadShedder.retain(encodedSpans, shed);
       }
-      // Note: no case for equals.  Why modify something that doesn't need modified?
-    }
-  }
-
-  static final class Builder extends AbstractLimiter.Builder<Builder> {
-    NonLimitingLimiter build() {
-      return new NonLimitingLimiter(this);
-    }
-
-    @Override protected Builder self() {
-      return this;
-    }
-  }
-
-  /**
-   * Unlike a normal Limiter, this will actually not prevent the creation of a {@link Listener} in
-   * {@link #acquire(java.lang.Void)}.  The point of this is to ensure that we can always derive an
-   * appropriate {@link Limit#getLimit() Limit} while the {@link #executor} handles actually
-   * limiting running requests.
-   */
-  static final class NonLimitingLimiter extends AbstractLimiter<Void> {
-    NonLimitingLimiter(AbstractLimiter.Builder<?> builder) {
-      super(builder);
-    }
-
-    @Override public Optional<Listener> acquire(Void context) {
-      return Optional.of(createListener());
+      return throttle(encodedDelegate.accept(spans, encodedSpans), spans);
     }
   }
 }
@@ -28,9 +28,14 @@ public final class ZipkinStorageThrottleProperties {
    */
   private int maxConcurrency;
   /**
-   * Maximum number of storage requests to buffer while waiting for open Thread. 0 = no buffering.
+   * Maximum number of storage requests to buffer while at the concurrency limit. 0 = no buffering.
    */
   private int maxQueueSize;
+  /**
+   * When true, low priority spans are dropped while storage is saturated, keeping debug, error and
+   * root spans.
+   */
+  private boolean shedByPriority;
 
   public boolean isEnabled() {
     return enabled;
@@ -63,4 +68,12 @@ public final class ZipkinStorageThrottleProperties {
   public void setMaxQueueSize(int maxQueueSize) {
     this.maxQueueSize = maxQueueSize;
   }
+
+  public boolean isShedByPriority() {
+    return shedByPriority;
+  }
+
+  public void setShedByPriority(boolean shedByPriority) {
+    this.shedByPriority = shedByPriority;
+  }
 }
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpMethod;
+import com.linecorp.armeria.common.HttpRequest;
+import com.linecorp.armeria.common.HttpRequestWriter;
+import com.linecorp.armeria.common.RequestHeaders;
+import io.airlift.compress.zstd.ZstdCompressor;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.compression.SnappyFrameEncoder;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Test;
+import zipkin2.codec.SpanBytesEncoder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static zipkin2.TestObjects.LOTS_OF_SPANS;
+
+public class ContentDecoderTest {
+  static final byte[] JSON =
+    SpanBytesEncoder.JSON_V2.encodeList(Arrays.asList(LOTS_OF_SPANS).subList(0, 100));
+  static final long MAX_BYTES = 10 * 1024 * 1024;
+  static final int ZSTD_MAX_BLOCK = 128 * 1024;
+
+  ByteBufAllocator alloc = ByteBufAllocator.DEFAULT;
+
+  @Test public void create_ignoresUnsupportedEncodings() {
+    assertThat(ContentDecoder.create(null, alloc, MAX_BYTES)).isNull();
+    assertThat(ContentDecoder.create("identity", alloc, MAX_BYTES)).isNull();
+  }
+
+  @Test public void gzip() throws IOException {
+    assertDecodesInChunks("gzip", gzip(JSON));
+  }
+
+  @Test public void snappy() {
+    assertDecodesInChunks("snappy", snappy(JSON));
+  }
+
+  @Test public void zstd() {
+    assertDecodesInChunks("zstd", zstd(JSON));
+  }
+
+  @Test public void zstd_unknownContentSize() {
+    assertDecodesInChunks("zstd", zstdWithoutContentSize(JSON));
+  }
+
+  /** The output grows until the frame fits, as the size isn't known up front. */
+  @Test public void zstd_unknownContentSize_highRatio() {
+    ContentDecoder decoder = ContentDecoder.create("zstd", alloc, MAX_BYTES);
+    decoder.decode(Unpooled.wrappedBuffer(zstdRepeated((byte) 'a', 300_000)));
+
+    ByteBuf decoded = decoder.finish();
+    try {
+      assertThat(decoded.readableBytes()).isEqualTo(300_000);
+      assertThat(decoded.forEachByte(b -> b == 'a')).isEqualTo(-1);
+    } finally {
+      decoded.release();
+    }
+  }
+
+  @Test public void gzip_tooLarge() throws IOException {
+    assertTooLarge("gzip", gzip(JSON), "Cannot gunzip spans larger than 1000 bytes");
+  }
+
+  @Test public void snappy_tooLarge() {
+    assertTooLarge("snappy", snappy(JSON), "Cannot decode snappy spans larger than 1000 bytes");
+  }
+
+  /** The content size in the frame header is checked before allocating for it. */
+  @Test public void zstd_tooLarge() {
+    assertTooLarge("zstd", zstd(JSON), "Cannot decode zstd spans larger than 1000 bytes");
+  }
+
+  @Test public void zstd_unknownContentSize_tooLarge() {
+    assertTooLarge("zstd", zstdRepeated((byte) 'a', 300_000),
+      "Cannot decode zstd spans larger than 1000 bytes");
+  }
+
+  @Test public void gzip_truncated() throws IOException {
+    byte[] gzip = gzip(JSON);
+    ContentDecoder decoder = ContentDecoder.create("gzip", alloc, MAX_BYTES);
+    decoder.decode(Unpooled.wrappedBuffer(gzip, 0, gzip.length / 2));
+
+    assertThatThrownBy(decoder::finish)
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Cannot gunzip spans");
+  }
+
+  @Test public void gzip_malformed() {
+    ContentDecoder decoder = ContentDecoder.create("gzip", alloc, MAX_BYTES);
+
+    assertThatThrownBy(() -> decoder.decode(Unpooled.wrappedBuffer(JSON)))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Cannot gunzip spans");
+  }
+
+  @Test public void zstd_malformed() {
+    ContentDecoder decoder = ContentDecoder.create("zstd", alloc, MAX_BYTES);
+    decoder.decode(Unpooled.wrappedBuffer(JSON));
+
+    assertThatThrownBy(decoder::finish)
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("Cannot decode zstd spans");
+  }
+
+  @Test public void decodeRequest() throws Exception {
+    byte[] gzip = gzip(JSON);
+    HttpRequestWriter req = HttpRequest.streaming(RequestHeaders.of(HttpMethod.POST, "/"));
+    req.write(HttpData.wrap(gzip, 0, 10));
+    req.write(HttpData.wrap(gzip, 10, gzip.length - 10));
+    req.close();
+
+    HttpData decoded = ContentDecoder.create("gzip", alloc, MAX_BYTES)
+      .decode(req, ImmediateEventExecutor.INSTANCE).get();
+    try {
+      assertThat(decoded.array()).containsExactly(JSON);
+    } finally {
+      ReferenceCountUtil.release(decoded);
+    }
+  }
+
+  @Test public void decodeRequest_empty() throws Exception {
+    HttpRequest req = HttpRequest.of(HttpMethod.POST, "/");
+
+    assertThat(ContentDecoder.create("gzip", alloc, MAX_BYTES)
+      .decode(req, ImmediateEventExecutor.INSTANCE).get()).isSameAs(HttpData.EMPTY_DATA);
+  }
+
+  void assertTooLarge(String encoding, byte[] compressed, String message) {
+    ContentDecoder decoder = ContentDecoder.create(encoding, alloc, 1000L);
+
+    assertThatThrownBy(() -> {
+      decoder.decode(Unpooled.wrappedBuffer(compressed));
+      decoder.finish().release();
+    }).isInstanceOf(IllegalArgumentException.class).hasMessage(message);
+  }
+
+  void assertDecodesInChunks(String encoding, byte[] compressed) {
+    ContentDecoder decoder = ContentDecoder.create(encoding, alloc, MAX_BYTES);
+    int chunkSize = compressed.length / 3;
+    for (int i = 0; i < compressed.length; i += chunkSize) {
+      decoder.decode(Unpooled.wrappedBuffer(compressed, i,
+        Math.min(chunkSize, compressed.length - i)));
+    }
+
+    ByteBuf decoded = decoder.finish();
+    try {
+      assertThat(ByteBufUtil.getBytes(decoded)).containsExactly(JSON);
+    } finally {
+      decoded.release();
+    }
+  }
+
+  static byte[] gzip(byte[] input) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(input);
+    }
+    return out.toByteArray();
+  }
+
+  static byte[] snappy(byte[] input) {
+    EmbeddedChannel channel = new EmbeddedChannel(new SnappyFrameEncoder());
+    channel.writeOutbound(Unpooled.wrappedBuffer(input));
+    channel.finish();
+    ByteBuf out = Unpooled.buffer();
+    for (ByteBuf encoded; (encoded = channel.readOutbound()) != null; ) {
+      out.writeBytes(encoded);
+      encoded.release();
+    }
+    return ByteBufUtil.getBytes(out);
+  }
+
+  /** Writes raw blocks, as a streaming compressor could, without the content size. */
+  static byte[] zstdWithoutContentSize(byte[] input) {
+    ByteArrayOutputStream out = zstdFrameHeaderWithoutContentSize();
+    for (int i = 0; i < input.length; i += ZSTD_MAX_BLOCK) {
+      int size = Math.min(ZSTD_MAX_BLOCK, input.length - i);
+      writeZstdBlockHeader(out, size, 0 /* raw */, i + size == input.length);
+      out.write(input, i, size);
+    }
+    return out.toByteArray();
+  }
+
+  /** Writes run-length blocks, which decompress to much more than their size. */
+  static byte[] zstdRepeated(byte value, int count) {
+    ByteArrayOutputStream out = zstdFrameHeaderWithoutContentSize();
+    for (int i = 0; i < count; i += ZSTD_MAX_BLOCK) {
+      int size = Math.min(ZSTD_MAX_BLOCK, count - i);
+      writeZstdBlockHeader(out, size, 1 /* RLE */, i + size == count);
+      out.write(value);
+    }
+    return out.toByteArray();
+  }
+
+  static ByteArrayOutputStream zstdFrameHeaderWithoutContentSize() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(0x28); // magic number, little-endian
+    out.write(0xb5);
+    out.write(0x2f);
+    out.write(0xfd);
+    out.write(0); // frame header descriptor: no content size, not a single segment, no checksum
+    out.write(10 << 3); // window descriptor: 1 MiB
+    return out;
+  }
+
+  static void writeZstdBlockHeader(ByteArrayOutputStream out, int size, int type, boolean last) {
+    int header = size << 3 | type << 1 | (last ? 1 : 0);
+    out.write(header);
+    out.write(header >>> 8);
+    out.write(header >>> 16);
+  }
+
+  static byte[] zstd(byte[] input) {
+    ZstdCompressor compressor = new ZstdCompressor();
+    byte[] out = new byte[compressor.maxCompressedLength(input.length)];
+    int length = compressor.compress(input, 0, input.length, out, 0, out.length);
+    return Arrays.copyOf(out, length);
+  }
+}
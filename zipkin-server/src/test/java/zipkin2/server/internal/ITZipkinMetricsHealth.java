@@ -199,6 +199,7 @@ public class ITZipkinMetricsHealth {
         , "counter.zipkin_collector.spans.http"
         , "counter.zipkin_collector.messages_dropped.http"
         , "counter.zipkin_collector.spans_dropped.http"
+        , "counter.zipkin_collector.spans_truncated.http"
       );
   }
 
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import com.linecorp.armeria.server.Server;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import zipkin.server.ZipkinServer;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.storage.InMemoryStorage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.TODAY;
+import static zipkin2.TestObjects.TRACE;
+import static zipkin2.server.internal.ITZipkinServer.url;
+
+/** Verifies that "zipkin.query.cache.enabled" doesn't hide traces that arrive late. */
+@SpringBootTest(
+  classes = ZipkinServer.class,
+  webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+  properties = {
+    "spring.config.name=zipkin-server",
+    "zipkin.query.cache.enabled=true"
+  }
+)
+@RunWith(SpringRunner.class)
+public class ITZipkinQueryResultCache {
+  static final String SEARCH = "/api/v2/traces?serviceName=frontend"
+    + "&endTs=" + (TODAY + TimeUnit.HOURS.toMillis(1))
+    + "&lookback=" + TimeUnit.DAYS.toMillis(1);
+
+  @Autowired InMemoryStorage storage;
+  @Autowired Server server;
+  OkHttpClient client = new OkHttpClient.Builder().followRedirects(false).build();
+
+  @Before public void init() {
+    storage.clear();
+  }
+
+  @Test public void emptySearchIsNotCached() throws Exception {
+    assertThat(get(SEARCH).body().string()).isEqualTo("[]");
+
+    Response post = post("/api/v2/spans", SpanBytesEncoder.JSON_V2.encodeList(TRACE));
+    assertThat(post.isSuccessful()).isTrue();
+
+    assertThat(get(SEARCH).body().string()).contains(TRACE.get(0).traceId());
+  }
+
+  Response get(String path) throws IOException {
+    return client.newCall(new Request.Builder()
+      .url(url(server, path))
+      .build()).execute();
+  }
+
+  Response post(String path, byte[] body) throws IOException {
+    return client.newCall(new Request.Builder()
+      .url(url(server, path))
+      .post(RequestBody.create(null, body))
+      .build()).execute();
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import com.linecorp.armeria.common.AggregatedHttpResponse;
+import com.linecorp.armeria.common.HttpHeaderNames;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import zipkin2.Span;
+import zipkin2.collector.InMemoryCollectorMetrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static zipkin2.TestObjects.CLIENT_SPAN;
+
+public class IngestQuotaTest {
+  static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  long nanoTime = 1L;
+
+  IngestQuota quota(String key, double rate, int burst, int maxKeys) {
+    return new IngestQuota(key, rate, burst, maxKeys, 2, registry, () -> nanoTime);
+  }
+
+  @Test public void create_disabledByZeroRate() {
+    IngestQuota quota = IngestQuota.create("client-address", 0, 0, 10, 10, registry);
+
+    assertThat(quota).isSameAs(IngestQuota.NOOP);
+    assertThat(quota.isPerRequest()).isFalse();
+    assertThat(quota.isPerLocalService()).isFalse();
+  }
+
+  @Test public void create_unsupportedKey() {
+    assertThatThrownBy(() -> IngestQuota.create("header:", 1, 0, 10, 10, registry))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessageStartingWith("Unsupported quota key: header:");
+  }
+
+  @Test public void tryAcquire_allowsBurstThenRefillsAtRate() {
+    IngestQuota quota = quota("client-address", 10, 5, 10);
+
+    for (int i = 0; i < 5; i++) {
+      assertThat(quota.tryAcquire("1.2.3.4")).isZero();
+    }
+    assertThat(quota.tryAcquire("1.2.3.4")).isEqualTo(SECOND / 10);
+
+    nanoTime += SECOND / 10; // one more token
+    assertThat(quota.tryAcquire("1.2.3.4")).isZero();
+    assertThat(quota.tryAcquire("1.2.3.4")).isPositive();
+  }
+
+  @Test public void tryAcquire_burstDefaultsToOneSecond() {
+    IngestQuota quota = quota("client-address", 3, 0, 10);
+
+    for (int i = 0; i < 3; i++) {
+      assertThat(quota.tryAcquire("1.2.3.4")).isZero();
+    }
+    assertThat(quota.tryAcquire("1.2.3.4")).isPositive();
+  }
+
+  @Test public void tryAcquire_keysAreIndependent() {
+    IngestQuota quota = quota("header:X-Tenant", 1, 1, 10);
+
+    assertThat(quota.tryAcquire("a")).isZero();
+    assertThat(quota.tryAcquire("a")).isPositive();
+    assertThat(quota.tryAcquire("b")).isZero();
+  }
+
+  @Test public void tryAcquire_removesFullBucketsWhenOverMaxKeys() {
+    IngestQuota quota = quota("client-address", 1, 1, 2);
+
+    assertThat(quota.tryAcquire("a")).isZero();
+    assertThat(quota.tryAcquire("b")).isZero();
+
+    // all buckets are in use, so new keys share a bucket
+    assertThat(quota.tryAcquire("c")).isZero();
+    assertThat(quota.tryAcquire("d")).isPositive();
+    assertThat(quota.buckets).containsOnlyKeys("a", "b");
+
+    nanoTime += SECOND; // a and b are full again
+    assertThat(quota.tryAcquire("d")).isZero();
+    assertThat(quota.buckets).containsOnlyKeys("d");
+  }
+
+  @Test public void exceeded_boundsKeyTag() {
+    IngestQuota quota = quota("client-address", 1, 1, 10);
+
+    quota.exceeded("http", "a").increment();
+    quota.exceeded("http", "b").increment();
+    quota.exceeded("http", "c").increment();
+    quota.exceeded("http", "d").increment();
+
+    assertThat(registry.get("zipkin_collector.quota_exceeded").counters())
+      .extracting(c -> c.getId().getTag("key"))
+      .containsOnly("a", "b", "other");
+    assertThat(registry.get("zipkin_collector.quota_exceeded").tag("key", "other").counter()
+      .count()).isEqualTo(2.0);
+  }
+
+  @Test public void filterByLocalService() {
+    IngestQuota quota = quota("local-service-name", 1, 1, 10);
+    InMemoryCollectorMetrics metrics = new InMemoryCollectorMetrics();
+    Span backend = CLIENT_SPAN.toBuilder().localEndpoint(
+      CLIENT_SPAN.localEndpoint().toBuilder().serviceName("backend").build()).build();
+    List<Span> spans = Arrays.asList(CLIENT_SPAN, CLIENT_SPAN, backend);
+
+    assertThat(quota.filterByLocalService(spans, "http", metrics))
+      .containsExactly(CLIENT_SPAN, backend);
+    assertThat(metrics.spans()).isEqualTo(1);
+    assertThat(metrics.spansDropped()).isEqualTo(1);
+    assertThat(registry.get("zipkin_collector.quota_exceeded")
+      .tag("key", CLIENT_SPAN.localServiceName()).counter().count()).isEqualTo(1.0);
+  }
+
+  @Test public void filterByLocalService_returnsInputWhenUnderQuota() {
+    IngestQuota quota = quota("local-service-name", 10, 10, 10);
+    List<Span> spans = Arrays.asList(CLIENT_SPAN, CLIENT_SPAN);
+
+    assertThat(quota.filterByLocalService(spans, "http", new InMemoryCollectorMetrics()))
+      .isSameAs(spans);
+  }
+
+  @Test public void tooManyRequests_roundsRetryAfterUp() {
+    AggregatedHttpResponse response =
+      IngestQuota.tooManyRequests(SECOND + 1).aggregate().join();
+
+    assertThat(response.status().code()).isEqualTo(429);
+    assertThat(response.headers().get(HttpHeaderNames.RETRY_AFTER)).isEqualTo("2");
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import com.linecorp.armeria.common.HttpMethod;
+import com.linecorp.armeria.common.HttpRequest;
+import com.linecorp.armeria.server.ServiceRequestContext;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.util.List;
+import org.junit.Test;
+import zipkin2.Call;
+import zipkin2.Span;
+import zipkin2.internal.QueryCost;
+
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static zipkin2.TestObjects.TRACE;
+
+public class QueryCostsTest {
+  SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+  /** Simulates storage that makes two backend calls to get a trace. */
+  Call<List<Span>> costlyCall = Call.create(TRACE).map(trace -> {
+    QueryCost cost = QueryCost.current();
+    for (int i = 0; i < 2; i++) {
+      cost.incrementCalls();
+      cost.addRows(trace.size());
+      cost.addBytes(100);
+    }
+    return trace;
+  });
+
+  @Test public void execute_recordsMetricsByOperation() throws IOException {
+    QueryCosts queryCosts = new QueryCosts(registry, 0, false);
+
+    assertThat(queryCosts.execute(null, "get-trace", "1", costlyCall)).isEqualTo(TRACE);
+
+    assertThat(registry.get("zipkin_query.duration").tag("operation", "get-trace").timer().count())
+      .isEqualTo(1);
+    assertThat(registry.get("zipkin_query.storage_calls").summary().totalAmount())
+      .isEqualTo(2.0);
+    assertThat(registry.get("zipkin_query.storage_rows").summary().totalAmount())
+      .isEqualTo(2.0 * TRACE.size());
+    assertThat(registry.get("zipkin_query.storage_bytes").summary().totalAmount())
+      .isEqualTo(200.0);
+    assertThat(QueryCost.current()).isNull(); // restored
+  }
+
+  @Test public void execute_recordsWhenStorageFails() {
+    QueryCosts queryCosts = new QueryCosts(registry, 0, false);
+    Call<List<Span>> failingCall = Call.create(singletonList(TRACE.get(0))).map(trace -> {
+      QueryCost.current().incrementCalls();
+      throw new IllegalStateException("storage is down");
+    });
+
+    assertThatThrownBy(() -> queryCosts.execute(null, "get-trace", "1", failingCall))
+      .hasMessage("storage is down");
+
+    assertThat(registry.get("zipkin_query.storage_calls").summary().totalAmount())
+      .isEqualTo(1.0);
+    assertThat(QueryCost.current()).isNull();
+  }
+
+  @Test public void execute_addsServerTimingHeaderWhenEnabled() throws IOException {
+    ServiceRequestContext ctx = ServiceRequestContext.of(HttpRequest.of(HttpMethod.GET, "/"));
+    new QueryCosts(registry, 0, false).execute(ctx, "get-trace", "1", costlyCall.clone());
+    assertThat(ctx.additionalResponseHeaders().get("server-timing")).isNull();
+
+    new QueryCosts(registry, 0, true).execute(ctx, "get-trace", "1", costlyCall.clone());
+    assertThat(ctx.additionalResponseHeaders().get("server-timing"))
+      .startsWith("storage;dur=")
+      .endsWith(";desc=\"calls=2 rows=" + 2 * TRACE.size() + " bytes=200\"");
+  }
+
+  @Test public void serverTiming() {
+    QueryCost cost = new QueryCost();
+    cost.incrementCalls();
+    cost.addRows(3);
+    cost.addBytes(512);
+
+    assertThat(QueryCosts.serverTiming(cost, 1_234_567L))
+      .isEqualTo("storage;dur=1.235;desc=\"calls=1 rows=3 bytes=512\"");
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import com.linecorp.armeria.common.AggregatedHttpResponse;
+import com.linecorp.armeria.common.HttpHeaderNames;
+import com.linecorp.armeria.common.HttpMethod;
+import com.linecorp.armeria.common.HttpRequest;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.RequestHeaders;
+import com.linecorp.armeria.server.ServiceRequestContext;
+import com.netflix.concurrency.limits.limit.FixedLimit;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Test;
+import zipkin2.storage.QueryRequest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+
+public class QueryLimiterTest {
+  static final AggregatedHttpResponse OK = AggregatedHttpResponse.of(HttpStatus.OK);
+
+  SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  CountDownLatch release = new CountDownLatch(1);
+  Thread holder;
+
+  @After public void releaseHolder() throws InterruptedException {
+    release.countDown();
+    if (holder != null) holder.join();
+  }
+
+  @Test public void weight_trace() {
+    assertThat(QueryLimiter.weight(QueryRequest.newBuilder()
+      .serviceName("frontend").endTs(1L).lookback(TimeUnit.DAYS.toMillis(1)).limit(10).build()))
+      .isEqualTo(1);
+  }
+
+  @Test public void weight_traces_costlyWithoutServiceName() {
+    assertThat(QueryLimiter.weight(QueryRequest.newBuilder()
+      .endTs(1L).lookback(TimeUnit.DAYS.toMillis(7)).limit(100).build()))
+      .isEqualTo(7 * 10 * 4);
+  }
+
+  @Test public void weight_dependencies_perDayOfLookback() {
+    assertThat(QueryLimiter.weight(1L)).isEqualTo(1);
+    assertThat(QueryLimiter.weight(TimeUnit.DAYS.toMillis(2) + 1)).isEqualTo(3);
+  }
+
+  @Test public void badKey() {
+    assertThatThrownBy(() -> limiter(1, 1, 1000L, "local-service-name"))
+      .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test public void submit_runsInlineUnderLimit() {
+    QueryLimiter limiter = limiter(2, 0, 1000L, "client-address");
+
+    assertThat(limiter.submit(request("a"), 1, () -> OK)).isCompletedWithValue(OK);
+    assertThat(limiter.inFlight()).isZero();
+  }
+
+  @Test public void submit_neverRunsQueryOnEventLoop() throws Exception {
+    QueryLimiter limiter = limiter(2, 0, 1000L, "client-address");
+    ServiceRequestContext ctx = request("a");
+    AtomicBoolean ranInEventLoop = new AtomicBoolean(true);
+
+    CompletableFuture<AggregatedHttpResponse> result = ctx.eventLoop().submit(
+      () -> limiter.submit(ctx, 1, () -> {
+        ranInEventLoop.set(ctx.eventLoop().inEventLoop());
+        return OK;
+      })).get();
+
+    assertThat(result.join()).isSameAs(OK);
+    assertThat(ranInEventLoop).isFalse();
+    assertThat(limiter.inFlight()).isZero();
+  }
+
+  @Test public void execute_neverRunsQueryOnEventLoop() throws Exception {
+    ServiceRequestContext ctx = request("a");
+    AtomicBoolean ranInEventLoop = new AtomicBoolean(true);
+
+    CompletableFuture<AggregatedHttpResponse> result = ctx.eventLoop().submit(
+      () -> QueryLimiter.execute(ctx, () -> {
+        ranInEventLoop.set(ctx.eventLoop().inEventLoop());
+        return OK;
+      })).get();
+
+    assertThat(result.join()).isSameAs(OK);
+    assertThat(ranInEventLoop).isFalse();
+  }
+
+  @Test public void execute_runsInlineOffEventLoop() {
+    assertThat(QueryLimiter.execute(request("a"), () -> OK)).isCompletedWithValue(OK);
+  }
+
+  @Test public void submit_admitsHeavyQueryAloneWhenIdle() {
+    QueryLimiter limiter = limiter(2, 0, 1000L, "client-address");
+
+    assertThat(limiter.submit(request("a"), 100, () -> OK)).isCompletedWithValue(OK);
+  }
+
+  @Test public void submit_propagatesError() {
+    QueryLimiter limiter = limiter(2, 0, 1000L, "client-address");
+
+    assertThat(limiter.submit(request("a"), 1, () -> {
+      throw new IllegalStateException("storage is down");
+    })).isCompletedExceptionally();
+    assertThat(limiter.inFlight()).isZero();
+  }
+
+  @Test public void submit_rejectsWhenQueueFull() {
+    QueryLimiter limiter = limiter(1, 0, 1000L, "client-address");
+    hold(limiter);
+
+    AggregatedHttpResponse response = limiter.submit(request("a"), 1, () -> OK).join();
+
+    assertThat(response.status()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+    assertThat(response.headers().get(HttpHeaderNames.RETRY_AFTER)).isEqualTo("1");
+    assertThat(registry.get("zipkin_query.throttle.requests_rejected").counter().count())
+      .isEqualTo(1.0);
+  }
+
+  @Test public void submit_rejectsAfterMaxWait() {
+    QueryLimiter limiter = limiter(1, 10, 50L, "client-address");
+    hold(limiter);
+
+    CompletableFuture<AggregatedHttpResponse> result = limiter.submit(request("a"), 1, () -> OK);
+    assertThat(limiter.queued()).isEqualTo(1);
+
+    assertThat(result.join().status()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+    assertThat(limiter.queued()).isZero();
+  }
+
+  @Test public void submit_clientsTakeTurns() {
+    QueryLimiter limiter = limiter(1, 10, 10_000L, "header:tenant");
+    hold(limiter);
+
+    List<String> order = Collections.synchronizedList(new ArrayList<>());
+    List<CompletableFuture<AggregatedHttpResponse>> results = new ArrayList<>();
+    for (String query : new String[] {"a1", "a2", "a3", "b1", "c1"}) {
+      results.add(limiter.submit(request(query.substring(0, 1)), 1, () -> {
+        order.add(query);
+        return OK;
+      }));
+    }
+    assertThat(limiter.queued()).isEqualTo(5);
+
+    release.countDown();
+    results.forEach(CompletableFuture::join);
+
+    // "a" submitted first, but doesn't hold up the others
+    assertThat(order).containsExactly("a1", "b1", "c1", "a2", "a3");
+  }
+
+  @Test public void submit_queuedQueryWaitsForCapacity() {
+    QueryLimiter limiter = limiter(2, 10, 10_000L, "client-address");
+    hold(limiter);
+
+    CompletableFuture<AggregatedHttpResponse> heavy = limiter.submit(request("a"), 2, () -> OK);
+    CompletableFuture<AggregatedHttpResponse> light = limiter.submit(request("a"), 1, () -> OK);
+
+    // even though there's room for the light query, it waits its turn
+    assertThat(limiter.inFlight()).isEqualTo(1);
+    assertThat(heavy).isNotDone();
+    assertThat(light).isNotDone();
+
+    release.countDown();
+    assertThat(heavy.join()).isSameAs(OK);
+    assertThat(light.join()).isSameAs(OK);
+  }
+
+  /** Runs a query in another thread until {@link #release} */
+  void hold(QueryLimiter limiter) {
+    holder = new Thread(() -> limiter.submit(request("holder"), 1, () -> {
+      release.await();
+      return OK;
+    }));
+    holder.start();
+    await().untilAsserted(() -> assertThat(limiter.inFlight()).isEqualTo(1));
+  }
+
+  QueryLimiter limiter(int limit, int maxQueueSize, long maxWaitMillis, String key) {
+    return new QueryLimiter(key, FixedLimit.of(limit), maxQueueSize, maxWaitMillis,
+      t -> false, registry);
+  }
+
+  static ServiceRequestContext request(String tenant) {
+    return ServiceRequestContext.of(
+      HttpRequest.of(RequestHeaders.of(HttpMethod.GET, "/", "tenant", tenant)));
+  }
+}
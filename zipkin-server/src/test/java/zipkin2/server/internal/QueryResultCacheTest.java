@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import zipkin2.Span;
+import zipkin2.storage.QueryRequest;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.TODAY;
+import static zipkin2.TestObjects.TRACE;
+
+public class QueryResultCacheTest {
+  static final long SETTLE_WINDOW = 1000L, TTL = 10_000L;
+  static final long TRACE_END = TODAY + 350L; // the root span finishes last
+
+  SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  long now = TRACE_END + SETTLE_WINDOW;
+  QueryResultCache cache = cache(1024);
+
+  @Test public void traceKey_normalizesTraceId() {
+    assertThat(QueryResultCache.traceKey("abc"))
+      .isEqualTo(QueryResultCache.traceKey("0000000000000abc"))
+      .isEqualTo("trace/0000000000000abc");
+  }
+
+  @Test public void traceKey_nullWhenInvalid() {
+    assertThat(QueryResultCache.traceKey("not a trace id")).isNull();
+  }
+
+  @Test public void tracesKey_truncatesEndTs() {
+    QueryRequest.Builder request = QueryRequest.newBuilder().serviceName("frontend")
+      .lookback(86400000L).limit(10);
+
+    assertThat(cache.tracesKey(request.endTs(TODAY + 1L).build()))
+      .isEqualTo(cache.tracesKey(request.endTs(TODAY + SETTLE_WINDOW - 1L).build()))
+      .isNotEqualTo(cache.tracesKey(request.endTs(TODAY + SETTLE_WINDOW).build()))
+      .isNotEqualTo(cache.tracesKey(request.endTs(TODAY + 1L).limit(20).build()));
+  }
+
+  @Test public void isSettled() {
+    assertThat(cache.isSettled(TRACE)).isTrue();
+
+    now--;
+    assertThat(cache.isSettled(TRACE)).isFalse();
+    assertThat(cache.areSettled(asList(TRACE.subList(1, 2), TRACE))).isFalse();
+  }
+
+  @Test public void areSettled_falseWhenEmpty() {
+    assertThat(cache.areSettled(emptyList())).isFalse();
+  }
+
+  @Test public void isSettled_falseWithoutTimestamps() {
+    Span span = TRACE.get(0).toBuilder().timestamp(0L).duration(0L).build();
+
+    assertThat(cache.isSettled(singletonList(span))).isFalse();
+  }
+
+  @Test public void get_hitsAndMisses() {
+    assertThat(cache.get("a")).isNull();
+    cache.put("a", new byte[10]);
+
+    assertThat(cache.get("a")).hasSize(10);
+    assertThat(registry.get("zipkin_query.cache.hits").counter().count()).isEqualTo(1.0);
+    assertThat(registry.get("zipkin_query.cache.misses").counter().count()).isEqualTo(1.0);
+  }
+
+  @Test public void get_expiresAfterTtl() {
+    cache.put("a", new byte[10]);
+
+    now += TTL;
+
+    assertThat(cache.get("a")).isNull();
+    assertThat(cache.bytes()).isZero();
+  }
+
+  @Test public void put_evictsLeastRecentlyUsedByWeight() {
+    long weight = QueryResultCache.weight("a", new byte[10]);
+    cache = cache(weight * 2);
+    cache.put("a", new byte[10]);
+    cache.put("b", new byte[10]);
+    cache.get("a"); // "b" is now the least recently used
+
+    cache.put("c", new byte[10]);
+
+    assertThat(cache.entries).containsOnlyKeys("a", "c");
+    assertThat(cache.bytes()).isEqualTo(weight * 2);
+    assertThat(registry.get("zipkin_query.cache.evictions").counter().count()).isEqualTo(1.0);
+  }
+
+  @Test public void put_replacesEntry() {
+    cache.put("a", new byte[10]);
+    cache.put("a", new byte[20]);
+
+    assertThat(cache.bytes()).isEqualTo(QueryResultCache.weight("a", new byte[20]));
+  }
+
+  @Test public void put_ignoresResultLargerThanCache() {
+    cache.put("a", new byte[10]);
+    cache.put("b", new byte[1024]);
+
+    assertThat(cache.entries).containsOnlyKeys("a");
+  }
+
+  QueryResultCache cache(long maxBytes) {
+    return new QueryResultCache(maxBytes, TTL, SETTLE_WINDOW, registry, () -> now);
+  }
+}
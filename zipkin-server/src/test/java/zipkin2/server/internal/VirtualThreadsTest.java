@@ -0,0 +1,36 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal;
+
+import java.util.concurrent.ExecutorService;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class VirtualThreadsTest {
+  @Test public void tryNewExecutor() throws Exception {
+    ExecutorService executor = VirtualThreads.tryNewExecutor("test-");
+    if (!VirtualThreads.isSupported()) { // fallback is up to the caller
+      assertThat(executor).isNull();
+      return;
+    }
+
+    try {
+      assertThat(executor.submit(() -> Thread.currentThread().getName()).get())
+        .isEqualTo("test-0");
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -29,11 +29,14 @@ import org.springframework.boot.test.util.TestPropertyValues;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.codec.SpanBytesEncoder;
 import zipkin2.server.internal.brave.TracingConfiguration;
 import zipkin2.storage.StorageComponent;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static zipkin2.TestObjects.CLIENT_SPAN;
 
 public class ZipkinServerConfigurationTest {
   AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
@@ -137,6 +140,27 @@ public class ZipkinServerConfigurationTest {
       .isEqualTo(false);
   }
 
+  @Test public void decodeCache_disabledOnClose() {
+    TestPropertyValues.of("zipkin.collector.decode-cache-entries:1000").applyTo(context);
+    context.register(
+      ArmeriaSpringActuatorAutoConfiguration.class,
+      EndpointAutoConfiguration.class,
+      PropertyPlaceholderAutoConfiguration.class,
+      ZipkinServerConfigurationTest.Config.class,
+      ZipkinServerConfiguration.class
+    );
+    context.refresh();
+
+    byte[] json = SpanBytesEncoder.JSON_V2.encode(CLIENT_SPAN);
+    assertThat(SpanBytesDecoder.JSON_V2.decodeOne(json).localEndpoint())
+      .isSameAs(SpanBytesDecoder.JSON_V2.decodeOne(json).localEndpoint());
+
+    context.close();
+
+    assertThat(SpanBytesDecoder.JSON_V2.decodeOne(json).localEndpoint())
+      .isNotSameAs(SpanBytesDecoder.JSON_V2.decodeOne(json).localEndpoint());
+  }
+
   @Configuration
   public static class Config {
     @Bean public HealthAggregator healthAggregator() {
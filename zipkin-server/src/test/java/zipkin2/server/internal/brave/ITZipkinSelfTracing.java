@@ -32,7 +32,6 @@ import zipkin.server.ZipkinServer;
 import zipkin2.Component;
 import zipkin2.Span;
 import zipkin2.codec.SpanBytesEncoder;
-import zipkin2.reporter.AsyncReporter;
 import zipkin2.storage.InMemoryStorage;
 import zipkin2.storage.QueryRequest;
 
@@ -59,7 +58,7 @@ import static zipkin2.server.internal.ITZipkinServer.url;
 @RunWith(SpringRunner.class)
 public class ITZipkinSelfTracing {
   @Autowired TracingStorageComponent storage;
-  @Autowired AsyncReporter<Span> reporter;
+  @Autowired SelfTracingReporter reporter;
   @Autowired Server server;
 
   OkHttpClient client = new OkHttpClient.Builder().followRedirects(false).build();
@@ -115,7 +114,7 @@ public class ITZipkinSelfTracing {
    */
   @Test public void toStringContainsOnlySummaryInformation() {
     assertThat(storage).hasToString("Traced{InMemoryStorage{}}");
-    assertThat(reporter).hasToString("AsyncReporter{StorageComponent}");
+    assertThat(reporter).hasToString("SelfTracingReporter{StorageComponent}");
   }
 
   List<List<Span>> awaitSpans(int count) {
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal.brave;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import zipkin2.Span;
+import zipkin2.collector.InMemoryCollectorMetrics;
+import zipkin2.server.internal.brave.SelfTracingReporter.RingBuffer;
+import zipkin2.storage.InMemoryStorage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+import static zipkin2.TestObjects.CLIENT_SPAN;
+import static zipkin2.TestObjects.TRACE;
+
+public class SelfTracingReporterTest {
+  InMemoryStorage storage = InMemoryStorage.newBuilder().build();
+  InMemoryCollectorMetrics metrics = new InMemoryCollectorMetrics();
+  SelfTracingReporter reporter;
+
+  @After public void close() {
+    if (reporter != null) reporter.close();
+  }
+
+  @Test public void ringBuffer_capacityMustBePowerOfTwo() {
+    assertThatThrownBy(() -> new RingBuffer(3))
+      .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test public void ringBuffer_offerThenDrain() {
+    RingBuffer buffer = new RingBuffer(4);
+    for (Span span : TRACE) assertThat(buffer.offer(span)).isTrue();
+
+    List<Span> drained = new ArrayList<>();
+    assertThat(buffer.drainTo(drained, 1)).isEqualTo(1);
+    assertThat(buffer.drainTo(drained, 10)).isEqualTo(TRACE.size() - 1);
+    assertThat(buffer.drainTo(drained, 10)).isZero();
+
+    assertThat(drained).isEqualTo(TRACE);
+  }
+
+  @Test public void ringBuffer_offerFalseWhenFull() {
+    RingBuffer buffer = new RingBuffer(2);
+    assertThat(buffer.offer(CLIENT_SPAN)).isTrue();
+    assertThat(buffer.offer(CLIENT_SPAN)).isTrue();
+    assertThat(buffer.offer(CLIENT_SPAN)).isFalse();
+
+    // draining frees slots for the next lap
+    buffer.drainTo(new ArrayList<>(), 1);
+    assertThat(buffer.offer(CLIENT_SPAN)).isTrue();
+    assertThat(buffer.offer(CLIENT_SPAN)).isFalse();
+  }
+
+  @Test public void messageTimeout_mustBePositive() {
+    assertThatThrownBy(() -> newReporter(0L))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("messageTimeoutNanos <= 0");
+  }
+
+  @Test public void report_storesWithoutEncoding() {
+    reporter = newReporter(TimeUnit.MILLISECONDS.toNanos(10));
+    TRACE.forEach(reporter::report);
+
+    await().untilAsserted(() -> assertThat(storage.acceptedSpanCount()).isEqualTo(TRACE.size()));
+    assertThat(storage.getTraces()).hasSize(1);
+    assertThat(storage.getTraces().get(0)).containsExactlyInAnyOrderElementsOf(TRACE);
+    assertThat(metrics.spans()).isEqualTo(TRACE.size());
+    assertThat(metrics.bytes()).isZero();
+  }
+
+  @Test public void flush_splitsBatches() {
+    reporter = newReporter(TimeUnit.DAYS.toNanos(1)); // only flush explicitly
+    int count = SelfTracingReporter.MAX_BATCH_SIZE + 1;
+    for (int i = 0; i < count; i++) {
+      reporter.report(CLIENT_SPAN.toBuilder().id(i + 1).build());
+    }
+
+    assertThat(reporter.flush()).isEqualTo(count);
+    assertThat(metrics.messages()).isEqualTo(2);
+    assertThat(storage.acceptedSpanCount()).isEqualTo(count);
+  }
+
+  @Test public void report_dropsWhenBufferFull() {
+    reporter = newReporter(TimeUnit.DAYS.toNanos(1)); // only flush explicitly
+    for (int i = 0; i <= SelfTracingReporter.BUFFER_CAPACITY; i++) reporter.report(CLIENT_SPAN);
+
+    assertThat(metrics.spansDropped()).isEqualTo(1);
+    assertThat(reporter.flush()).isEqualTo(SelfTracingReporter.BUFFER_CAPACITY);
+  }
+
+  @Test public void close_flushesBufferedSpans() {
+    reporter = newReporter(TimeUnit.DAYS.toNanos(1));
+    TRACE.forEach(reporter::report);
+
+    reporter.close();
+
+    assertThat(storage.acceptedSpanCount()).isEqualTo(TRACE.size());
+    reporter.report(CLIENT_SPAN); // ignored after close
+    assertThat(reporter.flush()).isZero();
+  }
+
+  SelfTracingReporter newReporter(long messageTimeoutNanos) {
+    return new SelfTracingReporter(() -> storage, () -> metrics, messageTimeoutNanos);
+  }
+}
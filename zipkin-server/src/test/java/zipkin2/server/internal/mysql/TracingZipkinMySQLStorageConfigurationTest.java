@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal.mysql;
+
+import brave.ScopedSpan;
+import brave.Tracing;
+import brave.propagation.ThreadLocalSpan;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sql.DataSource;
+import org.jooq.tools.jdbc.MockConnection;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.After;
+import org.junit.Test;
+import zipkin2.Span;
+import zipkin2.storage.mysql.v1.MySQLStorage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static zipkin2.TestObjects.TRACE;
+
+public class TracingZipkinMySQLStorageConfigurationTest {
+  List<Span> spans = new ArrayList<>();
+  Tracing tracing = Tracing.newBuilder().spanReporter(spans::add).build();
+  TracingZipkinMySQLStorageConfiguration config = new TracingZipkinMySQLStorageConfiguration();
+  MySQLStorage storage;
+
+  @After public void close() {
+    if (storage != null) storage.close();
+    tracing.close();
+  }
+
+  @Test public void writesAreTraced() throws Exception {
+    config.mysql = new ZipkinMySQLStorageProperties();
+    config.currentTraceContext = tracing.currentTraceContext();
+    config.threadLocalSpan = ThreadLocalSpan.create(tracing.tracer());
+
+    DataSource datasource = mock(DataSource.class);
+    when(datasource.getConnection()).thenAnswer(i -> new MockConnection(ctx -> {
+      MockResult[] results = new MockResult[ctx.batchBindings().length];
+      for (int j = 0; j < results.length; j++) results[j] = new MockResult(1, null);
+      return results;
+    }));
+    storage = MySQLStorage.newBuilder()
+      .datasource(datasource)
+      .executor(Runnable::run)
+      .listenerProvider(config.mysqlListener())
+      .build();
+
+    ScopedSpan parent = tracing.tracer().startScopedSpan("accept");
+    try {
+      storage.spanConsumer().accept(TRACE).execute();
+    } finally {
+      parent.finish();
+    }
+
+    assertThat(spans)
+      .filteredOn(s -> s.remoteServiceName() != null)
+      .extracting(Span::name)
+      .contains("insert");
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal.spill;
+
+import com.netflix.concurrency.limits.limit.FixedLimit;
+import com.netflix.concurrency.limits.limiter.SimpleLimiter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.server.internal.spill.SpillQueue.Message;
+import zipkin2.storage.InMemoryStorage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.TRACE;
+
+public class SpillDrainerTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+  SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  SpillQueue queue;
+  SpillDrainer drainer;
+
+  @Before public void open() throws IOException {
+    queue = SpillQueue.open(folder.getRoot().toPath(), 1 << 16, 4 << 16);
+    drainer = new SpillDrainer(queue, InMemoryStorage.newBuilder().build(),
+      SimpleLimiter.newBuilder().limit(FixedLimit.of(10)).build(), new SpillMetrics(registry));
+    queue.offer(SpanBytesEncoder.PROTO3.encodeList(TRACE), 1L);
+  }
+
+  @After public void close() {
+    queue.close();
+  }
+
+  @Test public void isTransient() {
+    assertThat(SpillDrainer.isTransient(new IOException())).isTrue();
+    assertThat(SpillDrainer.isTransient(new RuntimeException(new SocketTimeoutException())))
+      .isTrue();
+    assertThat(SpillDrainer.isTransient(new RejectedExecutionException())).isTrue();
+    assertThat(SpillDrainer.isTransient(new IllegalArgumentException("bad span"))).isFalse();
+  }
+
+  /** Otherwise, an outage would drop valid messages. */
+  @Test public void onError_transientErrorsDontCountAsAttempts() {
+    Message message = queue.poll();
+    for (int i = 0; i < SpillDrainer.MAX_ATTEMPTS + 1; i++) {
+      fail(message, new RejectedExecutionException("over capacity"));
+      fail(message, new SocketTimeoutException());
+    }
+
+    assertThat(queue.messages()).isEqualTo(1);
+    assertThat(queue.incrementAttempts(message)).isEqualTo(1);
+    assertThat(drainer.failed).isTrue(); // backs off
+  }
+
+  @Test public void onError_dropsAfterMaxAttempts() {
+    Message message = queue.poll();
+    for (int i = 0; i < SpillDrainer.MAX_ATTEMPTS; i++) {
+      fail(message, new IllegalArgumentException("bad span"));
+    }
+
+    assertThat(queue.isEmpty()).isTrue();
+    assertThat(registry.get("zipkin_storage.spill.messages_dropped").counter().count())
+      .isEqualTo(1.0);
+  }
+
+  void fail(Message message, Throwable error) {
+    synchronized (drainer) {
+      drainer.inFlight++;
+      drainer.succeededSinceRewind = true; // as if other messages were stored
+    }
+    drainer.new StoreCallback(message, drainer.limiter.acquire(null).get()).onError(error);
+  }
+}
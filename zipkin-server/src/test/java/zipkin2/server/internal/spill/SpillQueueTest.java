@@ -0,0 +1,192 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal.spill;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import zipkin2.server.internal.spill.SpillQueue.Message;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SpillQueueTest {
+  static final int SEGMENT_BYTES = 2 * (SpillQueue.HEADER_SIZE + 3); // two three-byte messages
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+  Path directory;
+  SpillQueue queue;
+
+  @Before public void open() throws IOException {
+    directory = folder.getRoot().toPath();
+    queue = SpillQueue.open(directory, SEGMENT_BYTES, 3 * SEGMENT_BYTES);
+  }
+
+  @After public void close() {
+    queue.close();
+  }
+
+  @Test public void offerThenPoll() {
+    assertThat(queue.isEmpty()).isTrue();
+    assertThat(queue.offer(bytes("foo"), 1L)).isTrue();
+    assertThat(queue.offer(bytes("bar"), 2L)).isTrue();
+
+    assertThat(queue.messages()).isEqualTo(2);
+    assertThat(queue.bytes()).isEqualTo(SEGMENT_BYTES);
+    assertThat(queue.oldestTimestamp()).isEqualTo(1L);
+
+    Message foo = queue.poll(), bar = queue.poll();
+    assertThat(string(foo)).isEqualTo("foo");
+    assertThat(string(bar)).isEqualTo("bar");
+    assertThat(queue.poll()).isNull();
+
+    queue.complete(foo);
+    assertThat(queue.oldestTimestamp()).isEqualTo(2L);
+    queue.complete(bar);
+    assertThat(queue.isEmpty()).isTrue();
+    assertThat(queue.oldestTimestamp()).isZero();
+  }
+
+  @Test public void offer_rollsSegments() {
+    for (int i = 0; i < 6; i++) {
+      assertThat(queue.offer(bytes("m" + i + "!"), i)).isTrue();
+    }
+    assertThat(queue.segmentCount).isEqualTo(3);
+    assertThat(directory.toFile().list()).hasSize(3);
+
+    for (int i = 0; i < 6; i++) {
+      assertThat(string(queue.poll())).isEqualTo("m" + i + "!");
+    }
+  }
+
+  @Test public void offer_falseWhenFull() {
+    for (int i = 0; i < 6; i++) queue.offer(bytes("foo"), i);
+
+    assertThat(queue.offer(bytes("foo"), 6L)).isFalse();
+    assertThat(queue.messages()).isEqualTo(6);
+  }
+
+  @Test public void offer_falseWhenLargerThanSegment() {
+    assertThat(queue.offer(new byte[SEGMENT_BYTES], 1L)).isFalse();
+  }
+
+  @Test public void complete_deletesSegmentsBehindHead() {
+    for (int i = 0; i < 5; i++) queue.offer(bytes("foo"), i);
+    Message[] messages = new Message[5];
+    for (int i = 0; i < 5; i++) messages[i] = queue.poll();
+
+    queue.complete(messages[1]); // out of order: the head stays on the first message
+    assertThat(queue.segmentCount).isEqualTo(3);
+
+    queue.complete(messages[0]);
+    queue.complete(messages[2]);
+    assertThat(queue.segmentCount).isEqualTo(2);
+    assertThat(directory.toFile().list()).hasSize(2);
+
+    // space is available again
+    assertThat(queue.offer(bytes("foo"), 5L)).isTrue();
+    assertThat(queue.offer(bytes("foo"), 6L)).isTrue();
+  }
+
+  @Test public void complete_unmapsDeletedSegments() {
+    queue.offer(bytes("foo"), 1L);
+    queue.offer(bytes("bar"), 2L);
+    queue.offer(bytes("baz"), 3L); // in the second segment
+    Message foo = queue.poll(), bar = queue.poll();
+    queue.complete(foo);
+    queue.complete(bar);
+    assertThat(foo.segment.deleted).isTrue();
+    assertThat(directory.toFile().list()).hasSize(1);
+
+    // a deleted segment's buffer is no longer read, as it may be unmapped
+    queue.complete(foo);
+    assertThat(queue.incrementAttempts(foo)).isZero();
+    assertThat(queue.messages()).isEqualTo(1);
+  }
+
+  @Test public void rewind_pollsPendingAgain() {
+    queue.offer(bytes("foo"), 1L);
+    queue.offer(bytes("bar"), 2L);
+    queue.offer(bytes("baz"), 3L);
+    Message foo = queue.poll(), bar = queue.poll();
+    queue.poll();
+    queue.complete(bar);
+
+    queue.rewind();
+
+    assertThat(string(queue.poll())).isEqualTo("foo");
+    assertThat(string(queue.poll())).isEqualTo("baz");
+    assertThat(queue.poll()).isNull();
+    assertThat(queue.incrementAttempts(foo)).isEqualTo(1);
+    assertThat(queue.incrementAttempts(foo)).isEqualTo(2);
+  }
+
+  @Test public void open_recoversPendingMessages() throws IOException {
+    queue.offer(bytes("foo"), 1L);
+    queue.offer(bytes("bar"), 2L);
+    queue.offer(bytes("baz"), 3L);
+    queue.complete(queue.poll());
+    queue.close();
+
+    queue = SpillQueue.open(directory, SEGMENT_BYTES, 3 * SEGMENT_BYTES);
+
+    assertThat(queue.messages()).isEqualTo(2);
+    assertThat(queue.oldestTimestamp()).isEqualTo(2L);
+    assertThat(string(queue.poll())).isEqualTo("bar");
+    assertThat(string(queue.poll())).isEqualTo("baz");
+    assertThat(queue.poll()).isNull();
+
+    // new messages go to a new segment
+    queue.offer(bytes("qux"), 4L);
+    assertThat(string(queue.poll())).isEqualTo("qux");
+  }
+
+  @Test public void open_deletesCompletedSegments() throws IOException {
+    queue.offer(bytes("foo"), 1L);
+    queue.complete(queue.poll());
+    queue.close();
+
+    queue = SpillQueue.open(directory, SEGMENT_BYTES, 3 * SEGMENT_BYTES);
+
+    assertThat(queue.isEmpty()).isTrue();
+    assertThat(directory.toFile().list()).hasSize(1); // the new segment
+  }
+
+  @Test public void open_dropsOldestSegmentsOverMax() throws IOException {
+    for (int i = 0; i < 6; i++) queue.offer(bytes("m" + i + "!"), i);
+    queue.close();
+
+    queue = SpillQueue.open(directory, SEGMENT_BYTES, 2 * SEGMENT_BYTES);
+
+    // one recovered segment is kept, leaving room for the new one
+    assertThat(queue.segmentCount).isEqualTo(2);
+    assertThat(directory.toFile().list()).hasSize(2);
+    assertThat(queue.droppedOnOpen).isEqualTo(4);
+    assertThat(queue.messages()).isEqualTo(2);
+    assertThat(queue.bytes()).isEqualTo(SEGMENT_BYTES);
+    assertThat(string(queue.poll())).isEqualTo("m4!");
+  }
+
+  static byte[] bytes(String string) {
+    return string.getBytes(UTF_8);
+  }
+
+  static String string(Message message) {
+    return new String(message.message, UTF_8);
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal.spill;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.storage.ForwardingStorageComponent;
+import zipkin2.storage.InMemoryStorage;
+import zipkin2.storage.SpanConsumer;
+import zipkin2.storage.StorageComponent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static zipkin2.TestObjects.TRACE;
+
+public class SpillingStorageComponentTest {
+  static final IOException DOWN = new IOException("storage is down");
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+  SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  InMemoryStorage inMemory = InMemoryStorage.newBuilder().build();
+  FlakyStorage flaky = new FlakyStorage();
+  SpillingStorageComponent storage;
+
+  @After public void close() throws IOException {
+    if (storage != null) storage.close();
+  }
+
+  @Test public void accept_storesDirectlyWhenQueueEmpty() throws IOException {
+    storage = spilling(1 << 16);
+
+    storage.spanConsumer().accept(TRACE).execute();
+
+    assertThat(inMemory.acceptedSpanCount()).isEqualTo(TRACE.size());
+    assertThat(storage.queue.isEmpty()).isTrue();
+  }
+
+  @Test public void accept_spillsUntilStorageRecovers() throws IOException {
+    storage = spilling(1 << 16);
+    flaky.down = true;
+
+    AtomicReference<Object> result = new AtomicReference<>();
+    storage.spanConsumer().accept(TRACE).enqueue(new CallbackResult(result));
+
+    assertThat(result.get()).isEqualTo("success"); // the collector doesn't see the failure
+    assertThat(storage.queue.messages()).isEqualTo(1);
+    assertThat(registry.get("zipkin_storage.spill.messages_spilled").counter().count())
+      .isEqualTo(1.0);
+
+    // while messages are queued, new ones are appended without trying storage
+    storage.spanConsumer().accept(TRACE).execute();
+    assertThat(storage.queue.messages()).isEqualTo(2);
+
+    flaky.down = false;
+    await().untilAsserted(() -> assertThat(storage.queue.isEmpty()).isTrue());
+    assertThat(inMemory.acceptedSpanCount()).isEqualTo(TRACE.size() * 2);
+    assertThat(registry.get("zipkin_storage.spill.messages_drained").counter().count())
+      .isEqualTo(2.0);
+  }
+
+  @Test public void accept_failsWhenMessageCantBeSpilled() throws IOException {
+    storage = spilling(SpillQueue.HEADER_SIZE + 1); // too small for any trace
+    flaky.down = true;
+
+    AtomicReference<Object> result = new AtomicReference<>();
+    storage.spanConsumer().accept(TRACE).enqueue(new CallbackResult(result));
+
+    assertThat(result.get()).isSameAs(DOWN);
+    assertThat(registry.get("zipkin_storage.spill.messages_dropped").counter().count())
+      .isEqualTo(1.0);
+  }
+
+  @Test public void open_drainsMessagesFromPreviousProcess() throws IOException {
+    storage = spilling(1 << 16);
+    flaky.down = true;
+    storage.spanConsumer().accept(TRACE).execute();
+    storage.drainer.close(); // simulate shutdown without the drainer catching up
+    storage.queue.close();
+
+    flaky.down = false;
+    storage = spilling(1 << 16);
+
+    await().untilAsserted(() -> assertThat(inMemory.acceptedSpanCount()).isEqualTo(TRACE.size()));
+  }
+
+  @Test public void toStringContainsOnlySummaryInformation() throws IOException {
+    storage = spilling(1 << 16);
+
+    assertThat(storage).hasToString("Spilling{InMemoryStorage{}}");
+  }
+
+  SpillingStorageComponent spilling(int segmentBytes) throws IOException {
+    return new SpillingStorageComponent(flaky, registry, folder.getRoot().toPath(), segmentBytes,
+      4L * segmentBytes, 2);
+  }
+
+  final class FlakyStorage extends ForwardingStorageComponent {
+    volatile boolean down;
+
+    @Override protected StorageComponent delegate() {
+      return inMemory;
+    }
+
+    @Override public SpanConsumer spanConsumer() {
+      return spans -> down ? new FailedCall() : inMemory.accept(spans);
+    }
+  }
+
+  static final class FailedCall extends Call.Base<Void> {
+    @Override protected Void doExecute() throws IOException {
+      throw DOWN;
+    }
+
+    @Override protected void doEnqueue(Callback<Void> callback) {
+      callback.onError(DOWN);
+    }
+
+    @Override public Call<Void> clone() {
+      return new FailedCall();
+    }
+  }
+
+  static final class CallbackResult implements Callback<Void> {
+    final AtomicReference<Object> result;
+
+    CallbackResult(AtomicReference<Object> result) {
+      this.result = result;
+    }
+
+    @Override public void onSuccess(Void value) {
+      result.set("success");
+    }
+
+    @Override public void onError(Throwable t) {
+      result.set(t);
+    }
+  }
+}
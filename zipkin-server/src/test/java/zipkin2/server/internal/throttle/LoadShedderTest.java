@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.server.internal.throttle;
+
+import com.netflix.concurrency.limits.limit.SettableLimit;
+import com.netflix.concurrency.limits.limiter.SimpleLimiter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import org.junit.Test;
+import zipkin2.Span;
+import zipkin2.server.internal.throttle.LoadShedder.Priority;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.CLIENT_SPAN;
+
+public class LoadShedderTest {
+  static final Span DEBUG = CLIENT_SPAN.toBuilder().debug(true).putTag("error", "").build();
+  static final Span ERROR = CLIENT_SPAN.toBuilder().putTag("error", "").build();
+  static final Span ROOT = CLIENT_SPAN.toBuilder().parentId(null).build();
+
+  SettableLimit limit = SettableLimit.startingAt(1);
+  SimpleLimiter<Void> limiter = SimpleLimiter.newBuilder().limit(limit).build();
+  AsyncLimiter asyncLimiter = new AsyncLimiter(limiter, 4, null);
+  SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  LimiterMetrics limiterMetrics = new LimiterMetrics(registry);
+  LoadShedder loadShedder = new LoadShedder(limit, limiter, asyncLimiter, limiterMetrics);
+
+  @Test public void priority() {
+    assertThat(LoadShedder.priority(DEBUG)).isEqualTo(Priority.DEBUG);
+    assertThat(LoadShedder.priority(ERROR)).isEqualTo(Priority.ERROR);
+    assertThat(LoadShedder.priority(ROOT)).isEqualTo(Priority.ROOT);
+    assertThat(LoadShedder.priority(CLIENT_SPAN)).isEqualTo(Priority.OTHER);
+  }
+
+  @Test public void shedRate_zeroUnderLimit() {
+    assertThat(loadShedder.shedRate()).isZero();
+    assertThat(loadShedder.shed(Arrays.asList(CLIENT_SPAN))).isNull();
+  }
+
+  @Test public void shedRate_growsWithQueueDepth() {
+    limiter.acquire(null); // now at the limit
+
+    assertThat(loadShedder.shedRate()).isEqualTo(0.25);
+    asyncLimiter.queueSize.set(1);
+    assertThat(loadShedder.shedRate()).isEqualTo(0.5);
+    asyncLimiter.queueSize.set(3); // three quarters full
+    assertThat(loadShedder.shedRate()).isEqualTo(1.0);
+    asyncLimiter.queueSize.set(4);
+    assertThat(loadShedder.shedRate()).isEqualTo(1.0);
+  }
+
+  @Test public void shedRate_oneWithoutQueue() {
+    asyncLimiter = new AsyncLimiter(limiter, 0, null);
+    loadShedder = new LoadShedder(limit, limiter, asyncLimiter, limiterMetrics);
+    limiter.acquire(null);
+
+    assertThat(loadShedder.shedRate()).isEqualTo(1.0);
+  }
+
+  @Test public void shed_keepsPrioritySpans() {
+    limiter.acquire(null);
+    asyncLimiter.queueSize.set(3);
+    List<Span> spans = Arrays.asList(DEBUG, CLIENT_SPAN, ERROR, ROOT, CLIENT_SPAN);
+
+    BitSet shed = loadShedder.shed(spans);
+
+    assertThat(LoadShedder.retain(spans, shed)).containsExactly(DEBUG, ERROR, ROOT);
+    assertThat(registry.get("zipkin_storage.throttle.spans_dropped").tag("priority", "other")
+      .counter().count()).isEqualTo(2.0);
+  }
+
+  @Test public void shed_isConsistentByTraceId() {
+    limiter.acquire(null); // 25% of traces
+    Span low = CLIENT_SPAN.toBuilder().traceId("0000000000000001").build();
+    Span high = CLIENT_SPAN.toBuilder().traceId("7fffffffffffffff").build();
+
+    assertThat(LoadShedder.retain(Arrays.asList(low, high, low), loadShedder.shed(
+      Arrays.asList(low, high, low)))).containsExactly(high);
+  }
+
+  @Test public void incrementSpansDropped_countsByPriority() {
+    limiterMetrics.incrementSpansDropped(Arrays.asList(DEBUG, ERROR, ERROR, ROOT, CLIENT_SPAN));
+
+    assertThat(registry.get("zipkin_storage.throttle.spans_dropped").counters())
+      .extracting(c -> c.getId().getTag("priority") + "=" + (int) c.count())
+      .containsOnly("debug=1", "error=2", "root=1", "other=1");
+  }
+}
@@ -18,18 +18,19 @@ import com.netflix.concurrency.limits.Limiter;
 import com.netflix.concurrency.limits.Limiter.Listener;
 import com.netflix.concurrency.limits.limit.SettableLimit;
 import com.netflix.concurrency.limits.limiter.SimpleLimiter;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.util.Optional;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
-import org.junit.After;
 import org.junit.Test;
 import zipkin2.Call;
 import zipkin2.Callback;
@@ -42,6 +43,7 @@ import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static zipkin2.server.internal.throttle.ThrottledCall.NOOP_CALLBACK;
@@ -55,23 +57,16 @@ public class ThrottledCallTest {
   Predicate<Throwable> isOverCapacity = RejectedExecutionException.class::isInstance;
 
   int numThreads = 1;
-  ExecutorService executor = Executors.newSingleThreadExecutor();
-
-  @After public void shutdownExecutor() {
-    executor.shutdown();
-  }
 
   @Test public void niceToString() {
     Call<Void> delegate = mock(Call.class);
     when(delegate.toString()).thenReturn("StoreSpansCall{}");
 
-    assertThat(new ThrottledCall(delegate, executor, limiter, limiterMetrics, isOverCapacity))
-      .hasToString("Throttled(StoreSpansCall{})");
+    assertThat(throttle(delegate)).hasToString("Throttled(StoreSpansCall{})");
   }
 
   @Test public void execute_isThrottled() throws Exception {
-    int queueSize = 1;
-    int totalTasks = numThreads + queueSize;
+    int totalTasks = numThreads + 1;
     limit.setLimit(totalTasks);
 
     Semaphore startLock = new Semaphore(numThreads);
@@ -84,15 +79,15 @@ public class ThrottledCallTest {
     waitLock.drainPermits();
     failLock.drainPermits();
 
-    // Step 2: saturate threads and fill queue
+    // Step 2: saturate the limit
     ExecutorService backgroundPool = Executors.newCachedThreadPool();
     for (int i = 0; i < totalTasks; i++) {
       backgroundPool.submit(() -> throttled.clone().execute());
     }
 
     try {
-      // Step 3: make sure the threads actually started
-      startLock.acquire(numThreads);
+      // Step 3: make sure the calls actually started
+      startLock.acquire(totalTasks);
 
       // Step 4: submit something beyond our limits
       Future<?> future = backgroundPool.submit(() -> {
@@ -116,7 +111,7 @@ public class ThrottledCallTest {
     } catch (ExecutionException t) {
       assertThat(t)
         .isInstanceOf(ExecutionException.class) // from future.get
-        .hasCauseInstanceOf(RejectedExecutionException.class);
+        .hasCause(STORAGE_THROTTLE_MAX_CONCURRENCY);
     } finally {
       waitLock.release(totalTasks);
       startLock.release(totalTasks);
@@ -129,8 +124,7 @@ public class ThrottledCallTest {
     FakeCall call = new FakeCall();
     call.overCapacity = true;
 
-    ThrottledCall throttle =
-      new ThrottledCall(call, executor, mockLimiter(listener), limiterMetrics, isOverCapacity);
+    ThrottledCall throttle = throttle(call, new AsyncLimiter(mockLimiter(listener), 0, null));
 
     try {
       throttle.execute();
@@ -140,45 +134,154 @@ public class ThrottledCallTest {
     }
   }
 
-  @Test public void execute_ignoresLimit_whenPoolFull() throws Exception {
-    Listener listener = mock(Listener.class);
-
-    ThrottledCall throttle = new ThrottledCall(new FakeCall(), mockExhaustedPool(),
-      mockLimiter(listener), limiterMetrics, isOverCapacity);
+  @Test public void execute_waitsForQueuedCall() throws Exception {
+    limit.setLimit(1);
+    AsyncLimiter asyncLimiter = new AsyncLimiter(limiter, 1, null);
+    DeferredCall first = new DeferredCall();
+    throttle(first, asyncLimiter).enqueue(NOOP_CALLBACK);
 
+    ExecutorService backgroundPool = Executors.newSingleThreadExecutor();
     try {
-      throttle.execute();
-      assertThat(true).isFalse(); // should raise a RejectedExecutionException
-    } catch (RejectedExecutionException e) {
-      verify(listener).onIgnore();
+      Future<Void> second =
+        backgroundPool.submit(() -> throttle(new FakeCall(), asyncLimiter).execute());
+      while (asyncLimiter.queueSize.get() == 0) Thread.yield();
+
+      // the second call must complete even though its caller is blocked
+      first.complete();
+      assertThat(second.get()).isNull();
+    } finally {
+      backgroundPool.shutdownNow();
     }
+    assertThat(limiter.getInflight()).isZero();
   }
 
-  @Test public void enqueue_isThrottled() throws Exception {
-    int queueSize = 1;
-    int totalTasks = numThreads + queueSize;
-    limit.setLimit(totalTasks);
+  @Test public void enqueue_isThrottled() {
+    limit.setLimit(numThreads);
 
-    Semaphore startLock = new Semaphore(numThreads);
-    Semaphore waitLock = new Semaphore(totalTasks);
-    ThrottledCall throttle = throttle(new LockedCall(startLock, waitLock));
+    DeferredCall inFlight = new DeferredCall();
+    throttle(inFlight).enqueue(NOOP_CALLBACK);
 
-    // Step 1: drain appropriate locks
-    startLock.drainPermits();
-    waitLock.drainPermits();
+    assertThatThrownBy(() -> throttle(new DeferredCall()).enqueue(NOOP_CALLBACK))
+      .isEqualTo(STORAGE_THROTTLE_MAX_CONCURRENCY);
+  }
+
+  @Test public void enqueue_notifiesWhenRejected() {
+    limit.setLimit(1);
+    throttle(new DeferredCall()).enqueue(NOOP_CALLBACK);
+
+    AtomicInteger rejected = new AtomicInteger();
+    ThrottledCall throttle = new ThrottledCall(new DeferredCall(),
+      new AsyncLimiter(limiter, 0, null), limiterMetrics, isOverCapacity,
+      rejected::incrementAndGet);
+
+    assertThatThrownBy(() -> throttle.enqueue(NOOP_CALLBACK))
+      .isEqualTo(STORAGE_THROTTLE_MAX_CONCURRENCY);
+    assertThat(rejected).hasValue(1);
+  }
+
+  @Test public void enqueue_queuesWithoutBlocking() {
+    limit.setLimit(1);
+    int queueSize = 2;
+    AsyncLimiter asyncLimiter = new AsyncLimiter(limiter, queueSize, null);
+
+    DeferredCall inFlight = new DeferredCall();
+    throttle(inFlight, asyncLimiter).enqueue(NOOP_CALLBACK);
+
+    DeferredCall queued1 = new DeferredCall(), queued2 = new DeferredCall();
+    throttle(queued1, asyncLimiter).enqueue(NOOP_CALLBACK);
+    throttle(queued2, asyncLimiter).enqueue(NOOP_CALLBACK);
+    assertThat(asyncLimiter.queueSize.get()).isEqualTo(queueSize);
+    assertThat(queued1.callback).isNull(); // not yet started
+
+    assertThatThrownBy(() -> throttle(new DeferredCall(), asyncLimiter).enqueue(NOOP_CALLBACK))
+      .isEqualTo(STORAGE_THROTTLE_MAX_QUEUE_SIZE);
+
+    // completion of the in-flight call starts the next in the queue
+    inFlight.complete();
+    assertThat(queued1.callback).isNotNull();
+    assertThat(queued2.callback).isNull();
+    assertThat(asyncLimiter.queueSize.get()).isEqualTo(1);
+
+    queued1.complete();
+    queued2.complete();
+    assertThat(asyncLimiter.queueSize.get()).isZero();
+    assertThat(limiter.getInflight()).isZero();
+  }
+
+  @Test public void enqueue_recordsQueueWait_onlyWhenQueued() {
+    limit.setLimit(1);
+    LimiterMetrics metrics = new LimiterMetrics(new SimpleMeterRegistry(), 1.0f);
+    Timer queueWait = metrics.queueWait;
+    AsyncLimiter asyncLimiter = new AsyncLimiter(limiter, 1, null, metrics);
+
+    DeferredCall inFlight = new DeferredCall(), queued = new DeferredCall();
+    throttle(inFlight, asyncLimiter).enqueue(NOOP_CALLBACK);
+    throttle(queued, asyncLimiter).enqueue(NOOP_CALLBACK);
+    assertThat(queueWait.count()).isZero();
+
+    inFlight.complete();
+    assertThat(queueWait.count()).isEqualTo(1);
+
+    queued.complete();
+    assertThat(queueWait.count()).isEqualTo(1);
+  }
+
+  @Test public void enqueue_recordsQueueWait_onlyWhenSampled() {
+    limit.setLimit(1);
+    // only a random float of exactly zero is sampled, which is a chance of one in 2^24
+    LimiterMetrics metrics = new LimiterMetrics(new SimpleMeterRegistry(), Float.MIN_VALUE);
+    AsyncLimiter asyncLimiter = new AsyncLimiter(limiter, 1, null, metrics);
+
+    DeferredCall inFlight = new DeferredCall(), queued = new DeferredCall();
+    throttle(inFlight, asyncLimiter).enqueue(NOOP_CALLBACK);
+    throttle(queued, asyncLimiter).enqueue(NOOP_CALLBACK);
+    inFlight.complete();
+
+    assertThat(metrics.queueWait.count()).isZero();
+  }
+
+  @Test public void queueWait_notRegisteredWhenTimingDisabled() {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    LimiterMetrics metrics = new LimiterMetrics(registry, 0.0f);
+
+    assertThat(metrics.queueWait).isNull();
+    assertThat(metrics.isTimingSampled()).isFalse();
+    assertThat(registry.find("zipkin_storage.throttle.queue_wait").timer()).isNull();
+  }
+
+  @Test public void enqueue_drainsSynchronousCallsWithoutRecursion() {
+    limit.setLimit(1);
+    int queueSize = 10_000; // would overflow the stack if each completion recursed
+    AsyncLimiter asyncLimiter = new AsyncLimiter(limiter, queueSize, null);
+
+    DeferredCall inFlight = new DeferredCall();
+    throttle(inFlight, asyncLimiter).enqueue(NOOP_CALLBACK);
 
-    // Step 2: saturate threads and fill queue
     Callback<Void> callback = mock(Callback.class);
-    for (int i = 0; i < totalTasks; i++) {
-      throttle.clone().enqueue(callback);
+    for (int i = 0; i < queueSize; i++) {
+      throttle(new FakeCall(), asyncLimiter).enqueue(callback);
     }
 
-    // Step 3: make sure the threads actually started
-    startLock.acquire(numThreads);
+    inFlight.complete();
+    verify(callback, times(queueSize)).onSuccess(null);
+    assertThat(asyncLimiter.queueSize.get()).isZero();
+    assertThat(limiter.getInflight()).isZero();
+  }
 
-    // Step 4: submit something beyond our limits and make sure it fails
-    assertThatThrownBy(() -> throttle.clone().enqueue(callback))
-      .isEqualTo(STORAGE_THROTTLE_MAX_CONCURRENCY);
+  @Test public void enqueue_skipsQueuedCall_whenCanceled() {
+    limit.setLimit(1);
+    AsyncLimiter asyncLimiter = new AsyncLimiter(limiter, 1, null);
+
+    DeferredCall inFlight = new DeferredCall();
+    throttle(inFlight, asyncLimiter).enqueue(NOOP_CALLBACK);
+
+    DeferredCall queued = new DeferredCall();
+    throttle(queued, asyncLimiter).enqueue(NOOP_CALLBACK);
+    queued.cancel();
+
+    inFlight.complete();
+    assertThat(queued.callback).isNull();
+    assertThat(limiter.getInflight()).isZero();
   }
 
   @Test public void enqueue_throttlesBack_whenStorageRejects() {
@@ -186,8 +289,7 @@ public class ThrottledCallTest {
     FakeCall call = new FakeCall();
     call.overCapacity = true;
 
-    ThrottledCall throttle =
-      new ThrottledCall(call, executor, mockLimiter(listener), limiterMetrics, isOverCapacity);
+    ThrottledCall throttle = throttle(call, new AsyncLimiter(mockLimiter(listener), 0, null));
 
     AwaitableCallback callback = new AwaitableCallback();
     throttle.enqueue(callback);
@@ -197,20 +299,64 @@ public class ThrottledCallTest {
     verify(listener).onDropped();
   }
 
-  @Test public void enqueue_ignoresLimit_whenPoolFull() {
+  @Test public void enqueue_releasesLimit_whenStorageSucceeds() {
     Listener listener = mock(Listener.class);
 
-    ThrottledCall throttle = new ThrottledCall(new FakeCall(), mockExhaustedPool(),
-      mockLimiter(listener), limiterMetrics, isOverCapacity);
+    ThrottledCall throttle =
+      throttle(new FakeCall(), new AsyncLimiter(mockLimiter(listener), 0, null));
+
+    Callback<Void> callback = mock(Callback.class);
+    throttle.enqueue(callback);
 
-    assertThatThrownBy(() -> throttle.enqueue(NOOP_CALLBACK))
-      .isEqualTo(STORAGE_THROTTLE_MAX_QUEUE_SIZE);
+    verify(listener).onSuccess();
+    verify(callback).onSuccess(null);
+  }
+
+  @Test public void enqueue_ignoresLimit_whenEnqueueFails() {
+    Listener listener = mock(Listener.class);
+    Call<Void> call = mock(Call.class);
+    doThrow(new IllegalStateException()).when(call).enqueue(any());
+
+    ThrottledCall throttle = throttle(call, new AsyncLimiter(mockLimiter(listener), 0, null));
+
+    Callback<Void> callback = mock(Callback.class);
+    throttle.enqueue(callback);
 
     verify(listener).onIgnore();
+    verify(callback).onError(any(IllegalStateException.class));
   }
 
   ThrottledCall throttle(Call<Void> delegate) {
-    return new ThrottledCall(delegate, executor, limiter, limiterMetrics, isOverCapacity);
+    return throttle(delegate, 0);
+  }
+
+  ThrottledCall throttle(Call<Void> delegate, int queueSize) {
+    return throttle(delegate, new AsyncLimiter(limiter, queueSize, null));
+  }
+
+  ThrottledCall throttle(Call<Void> delegate, AsyncLimiter asyncLimiter) {
+    return new ThrottledCall(delegate, asyncLimiter, limiterMetrics, isOverCapacity);
+  }
+
+  /** Completes only when {@link #complete()} is called, like a request to remote storage. */
+  static final class DeferredCall extends Call.Base<Void> {
+    Callback<Void> callback;
+
+    @Override public Void doExecute() {
+      throw new AssertionError("throttling never uses execute");
+    }
+
+    @Override public void doEnqueue(Callback<Void> callback) {
+      this.callback = callback;
+    }
+
+    void complete() {
+      callback.onSuccess(null);
+    }
+
+    @Override public DeferredCall clone() {
+      return new DeferredCall();
+    }
   }
 
   static final class LockedCall extends Call.Base<Void> {
@@ -246,13 +392,6 @@ public class ThrottledCallTest {
     }
   }
 
-  ExecutorService mockExhaustedPool() {
-    ExecutorService mock = mock(ExecutorService.class);
-    doThrow(STORAGE_THROTTLE_MAX_QUEUE_SIZE).when(mock).execute(any());
-    doThrow(STORAGE_THROTTLE_MAX_QUEUE_SIZE).when(mock).submit(any(Callable.class));
-    return mock;
-  }
-
   Limiter<Void> mockLimiter(Listener listener) {
     Limiter<Void> mock = mock(Limiter.class);
     when(mock.acquire(any())).thenReturn(Optional.of(listener));
@@ -19,15 +19,19 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import zipkin2.Component;
+import zipkin2.codec.Encoding;
 import zipkin2.internal.Nullable;
 import zipkin2.server.internal.throttle.ThrottledStorageComponent.ThrottledSpanConsumer;
+import zipkin2.storage.EncodedSpanConsumer;
 import zipkin2.storage.InMemoryStorage;
+import zipkin2.storage.SpanConsumer;
 import zipkin2.storage.StorageComponent;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class ThrottledStorageComponentTest {
   @Rule public ExpectedException expectedException = ExpectedException.none();
@@ -43,6 +47,19 @@ public class ThrottledStorageComponentTest {
       .isSameAs(throttle.spanConsumer().getClass());
   }
 
+  @Test public void spanConsumer_keepsEncodedSpanConsumer() {
+    EncodedSpanConsumer spanConsumer = mock(EncodedSpanConsumer.class);
+    when(spanConsumer.encoding()).thenReturn(Encoding.JSON);
+    StorageComponent storage = mock(StorageComponent.class);
+    when(storage.spanConsumer()).thenReturn(spanConsumer);
+
+    SpanConsumer throttled =
+      new ThrottledStorageComponent(storage, registry, tracing, 1, 2, 1).spanConsumer();
+
+    assertThat(throttled).isInstanceOf(EncodedSpanConsumer.class);
+    assertThat(((EncodedSpanConsumer) throttled).encoding()).isEqualTo(Encoding.JSON);
+  }
+
   @Test public void createComponent_withZeroSizedQueue() {
     int queueSize = 0;
     new ThrottledStorageComponent(delegate, registry, tracing, 1, 2, queueSize);
@@ -61,10 +61,12 @@ class CassandraSpanConsumer implements SpanConsumer { // not final for testing
       return;
     }
 
-    insertTraceByServiceSpan = new InsertTraceByServiceSpan.Factory(session, strictTraceId);
+    TraceIndexCache indexCache = storage.indexCache();
+    insertTraceByServiceSpan =
+      new InsertTraceByServiceSpan.Factory(session, strictTraceId, indexCache);
     if (metadata.hasRemoteService) {
       insertTraceByServiceRemoteService =
-        new InsertTraceByServiceRemoteService.Factory(session, strictTraceId);
+        new InsertTraceByServiceRemoteService.Factory(session, strictTraceId, indexCache);
       insertServiceRemoteService = new InsertServiceRemoteService.Factory(storage);
     } else {
       insertTraceByServiceRemoteService = null;
@@ -126,16 +128,19 @@ class CassandraSpanConsumer implements SpanConsumer { // not final for testing
       if (ts_micro == 0L) continue; // search is only valid with a timestamp, don't index w/o it!
       int bucket = durationIndexBucket(ts_micro); // duration index is milliseconds not microseconds
       long duration = s.durationAsLong() / 1000L;
-      traceByServiceSpans.add(
+      addTraceByServiceSpan(traceByServiceSpans,
         insertTraceByServiceSpan.newInput(service, span, bucket, ts_uuid, s.traceId(), duration));
       if (span.isEmpty()) continue;
 
       if (insertServiceRemoteService != null && remoteService != null) {
-        traceByServiceRemoteServices.add(
+        InsertTraceByServiceRemoteService.Input serviceRemoteService =
           insertTraceByServiceRemoteService.newInput(service, remoteService, bucket, ts_uuid,
-            s.traceId()));
+            s.traceId());
+        if (insertTraceByServiceRemoteService.shouldIndex(serviceRemoteService)) {
+          traceByServiceRemoteServices.add(serviceRemoteService);
+        }
       }
-      traceByServiceSpans.add( // Allows lookup without the span name
+      addTraceByServiceSpan(traceByServiceSpans, // Allows lookup without the span name
         insertTraceByServiceSpan.newInput(service, "", bucket, ts_uuid, s.traceId(), duration));
 
       if (insertAutocompleteValue != null) {
@@ -166,6 +171,11 @@ class CassandraSpanConsumer implements SpanConsumer { // not final for testing
     return calls.isEmpty() ? Call.create(null) : AggregateCall.newVoidCall(calls);
   }
 
+  void addTraceByServiceSpan(Set<InsertTraceByServiceSpan.Input> traceByServiceSpans,
+    InsertTraceByServiceSpan.Input input) {
+    if (insertTraceByServiceSpan.shouldIndex(input)) traceByServiceSpans.add(input);
+  }
+
   static long guessTimestamp(Span span) {
     assert 0L == span.timestampAsLong() : "method only for when span has no timestamp";
     for (Annotation annotation : span.annotations()) {
@@ -68,6 +68,8 @@ public abstract class CassandraStorage extends StorageComponent {
         .useSsl(false)
         .maxTraceCols(100000)
         .indexFetchMultiplier(3)
+        .indexCacheMax(100000)
+        .indexCacheTtl(60)
         .sessionFactory(SessionFactory.DEFAULT)
         .autocompleteKeys(Collections.emptyList())
         .autocompleteTtl((int) TimeUnit.HOURS.toMillis(1))
@@ -158,6 +160,30 @@ public abstract class CassandraStorage extends StorageComponent {
      */
     public abstract Builder indexFetchMultiplier(int indexFetchMultiplier);
 
+    /**
+     * Indicates the maximum trace index entries to cache. Zero disables the feature. Defaults to
+     * 100000.
+     *
+     * <p>This is used to obviate redundant inserts into {@link Schema#TABLE_TRACE_BY_SERVICE_SPAN}
+     * and {@link Schema#TABLE_TRACE_BY_SERVICE_REMOTE_SERVICE}. Entries are keyed by service, span
+     * or remote service name, bucket, trace ID and duration, so spans in a trace can share one.
+     *
+     * <p>This is bounded so that collectors that get large trace volume don't run out of memory
+     * before {@link #indexCacheTtl} passes. A good guess might be 3 x traces per indexCacheTtl,
+     * memory permitting.
+     */
+    public abstract Builder indexCacheMax(int indexCacheMax);
+
+    /**
+     * Indicates how long in seconds to cache trace index entries. Defaults to 1 minute. This is
+     * only read when {@link #indexCacheMax} is greater than zero.
+     *
+     * <p>You should pick a value that is longer than the gap between the root span's timestamp and
+     * its latest descendant span's timestamp. More simply, if 95% of your trace durations are under
+     * 1 minute, use 1 minute.
+     */
+    public abstract Builder indexCacheTtl(int indexCacheTtl);
+
     @Override
     public abstract CassandraStorage build();
 
@@ -187,6 +213,10 @@ public abstract class CassandraStorage extends StorageComponent {
 
   abstract int indexFetchMultiplier();
 
+  abstract int indexCacheMax();
+
+  abstract int indexCacheTtl();
+
   abstract boolean strictTraceId();
 
   abstract boolean searchEnabled();
@@ -235,6 +265,30 @@ public abstract class CassandraStorage extends StorageComponent {
     return new CassandraSpanConsumer(this);
   }
 
+  /** Returns null when {@link Builder#indexCacheMax(int)} is zero. */
+  @Memoized @Nullable TraceIndexCache indexCache() {
+    if (indexCacheMax() <= 0) return null;
+    return new TraceIndexCache(indexCacheMax(), indexCacheTtl());
+  }
+
+  /**
+   * Returns the count of trace index rows that were not written as they were already in the index
+   * cache. This is always zero when {@link Builder#indexCacheMax(int)} is zero.
+   */
+  public final long indexCacheHits() {
+    TraceIndexCache indexCache = indexCache();
+    return indexCache != null ? indexCache.hits() : 0L;
+  }
+
+  /**
+   * Returns the count of trace index rows that were written after consulting the index cache. This
+   * is always zero when {@link Builder#indexCacheMax(int)} is zero.
+   */
+  public final long indexCacheMisses() {
+    TraceIndexCache indexCache = indexCache();
+    return indexCache != null ? indexCache.misses() : 0L;
+  }
+
   @Memoized Schema.Metadata metadata() { // warn only once when schema problems exist
     return Schema.readMetadata(session());
   }
@@ -21,6 +21,8 @@ import com.datastax.driver.core.querybuilder.QueryBuilder;
 import com.google.auto.value.AutoValue;
 import java.util.UUID;
 import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.internal.Nullable;
 import zipkin2.storage.cassandra.internal.call.ResultSetFutureCall;
 
 import static zipkin2.storage.cassandra.Schema.TABLE_TRACE_BY_SERVICE_REMOTE_SERVICE;
@@ -43,8 +45,9 @@ final class InsertTraceByServiceRemoteService extends ResultSetFutureCall<Void>
     final Session session;
     final PreparedStatement preparedStatement;
     final boolean strictTraceId;
+    @Nullable final TraceIndexCache indexCache;
 
-    Factory(Session session, boolean strictTraceId) {
+    Factory(Session session, boolean strictTraceId, @Nullable TraceIndexCache indexCache) {
       this.session = session;
       this.preparedStatement =
         session.prepare(QueryBuilder.insertInto(TABLE_TRACE_BY_SERVICE_REMOTE_SERVICE)
@@ -54,6 +57,7 @@ final class InsertTraceByServiceRemoteService extends ResultSetFutureCall<Void>
           .value("ts", QueryBuilder.bindMarker("ts"))
           .value("trace_id", QueryBuilder.bindMarker("trace_id")));
       this.strictTraceId = strictTraceId;
+      this.indexCache = indexCache;
     }
 
     Input newInput(String service, String remote_service, int bucket, UUID ts, String trace_id) {
@@ -65,6 +69,21 @@ final class InsertTraceByServiceRemoteService extends ResultSetFutureCall<Void>
         !strictTraceId && trace_id.length() == 32 ? trace_id.substring(16) : trace_id);
     }
 
+    /** Returns false when the index cache says this input wouldn't change query results. */
+    boolean shouldIndex(Input input) {
+      if (indexCache == null) return true;
+      return indexCache.shouldIndex(cacheKey(input));
+    }
+
+    void invalidate(Input input) {
+      if (indexCache != null) indexCache.invalidate(cacheKey(input));
+    }
+
+    static TraceIndexCache.Key cacheKey(Input input) {
+      return TraceIndexCache.Key.create(TABLE_TRACE_BY_SERVICE_REMOTE_SERVICE,
+        input.service(), input.remote_service(), input.bucket(), input.trace_id(), 0L);
+    }
+
     Call<Void> create(Input input) {
       return new InsertTraceByServiceRemoteService(this, input);
     }
@@ -87,6 +106,28 @@ final class InsertTraceByServiceRemoteService extends ResultSetFutureCall<Void>
       .setString("trace_id", input.trace_id()));
   }
 
+  @Override protected Void doExecute() {
+    try {
+      return super.doExecute();
+    } catch (RuntimeException | Error e) {
+      factory.invalidate(input);
+      throw e;
+    }
+  }
+
+  @Override protected void doEnqueue(Callback<Void> callback) {
+    super.doEnqueue(new Callback<Void>() {
+      @Override public void onSuccess(Void value) {
+        callback.onSuccess(value);
+      }
+
+      @Override public void onError(Throwable t) {
+        factory.invalidate(input);
+        callback.onError(t);
+      }
+    });
+  }
+
   @Override public Void map(ResultSet input) {
     return null;
   }
@@ -22,6 +22,8 @@ import com.datastax.driver.core.querybuilder.QueryBuilder;
 import com.google.auto.value.AutoValue;
 import java.util.UUID;
 import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.internal.Nullable;
 import zipkin2.storage.cassandra.internal.call.ResultSetFutureCall;
 
 import static zipkin2.storage.cassandra.Schema.TABLE_TRACE_BY_SERVICE_SPAN;
@@ -47,8 +49,9 @@ final class InsertTraceByServiceSpan extends ResultSetFutureCall<Void> {
     final Session session;
     final PreparedStatement preparedStatement;
     final boolean strictTraceId;
+    @Nullable final TraceIndexCache indexCache;
 
-    Factory(Session session, boolean strictTraceId) {
+    Factory(Session session, boolean strictTraceId, @Nullable TraceIndexCache indexCache) {
       this.session = session;
       this.preparedStatement =
           session.prepare(
@@ -60,6 +63,7 @@ final class InsertTraceByServiceSpan extends ResultSetFutureCall<Void> {
                   .value("trace_id", QueryBuilder.bindMarker("trace_id"))
                   .value("duration", QueryBuilder.bindMarker("duration")));
       this.strictTraceId = strictTraceId;
+      this.indexCache = indexCache;
     }
 
     /**
@@ -77,6 +81,21 @@ final class InsertTraceByServiceSpan extends ResultSetFutureCall<Void> {
           durationMillis);
     }
 
+    /** Returns false when the index cache says this input wouldn't change query results. */
+    boolean shouldIndex(Input input) {
+      if (indexCache == null) return true;
+      return indexCache.shouldIndex(cacheKey(input));
+    }
+
+    void invalidate(Input input) {
+      if (indexCache != null) indexCache.invalidate(cacheKey(input));
+    }
+
+    static TraceIndexCache.Key cacheKey(Input input) {
+      return TraceIndexCache.Key.create(TABLE_TRACE_BY_SERVICE_SPAN,
+        input.service(), input.span(), input.bucket(), input.trace_id(), input.duration());
+    }
+
     Call<Void> create(Input input) {
       return new InsertTraceByServiceSpan(this, input);
     }
@@ -108,6 +127,28 @@ final class InsertTraceByServiceSpan extends ResultSetFutureCall<Void> {
     return factory.session.executeAsync(bound);
   }
 
+  @Override protected Void doExecute() {
+    try {
+      return super.doExecute();
+    } catch (RuntimeException | Error e) {
+      factory.invalidate(input);
+      throw e;
+    }
+  }
+
+  @Override protected void doEnqueue(Callback<Void> callback) {
+    super.doEnqueue(new Callback<Void>() {
+      @Override public void onSuccess(Void value) {
+        callback.onSuccess(value);
+      }
+
+      @Override public void onError(Throwable t) {
+        factory.invalidate(input);
+        callback.onError(t);
+      }
+    });
+  }
+
   @Override public Void map(ResultSet input) {
     return null;
   }
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.cassandra;
+
+import com.google.auto.value.AutoValue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Suppresses redundant writes to {@link Schema#TABLE_TRACE_BY_SERVICE_SPAN} and {@link
+ * Schema#TABLE_TRACE_BY_SERVICE_REMOTE_SERVICE}.
+ *
+ * <p>Many spans in a trace share the same index keys. Queries filter rows by duration, so a row is
+ * only redundant when one for the same trace has the same duration. For example, suppressing a row
+ * shorter than one already indexed would hide the trace from {@link
+ * zipkin2.storage.QueryRequest#maxDuration()} queries. Hence, the duration is part of the key.
+ *
+ * <p>Rows are also filtered by timestamp, and a suppressed row can have a different one than the
+ * row already indexed. This only changes results of queries whose time window includes one but not
+ * the other, which is unusual as both are from the same trace.
+ *
+ * <p>This is bounded by entry count, and entries expire after a TTL, similar to {@link
+ * zipkin2.internal.DelayLimiter}.
+ */
+final class TraceIndexCache {
+
+  @AutoValue abstract static class Key {
+    static Key create(String table, String service, String span, int bucket, String trace_id,
+      long duration) {
+      return new AutoValue_TraceIndexCache_Key(table, service, span, bucket, trace_id, duration);
+    }
+
+    abstract String table();
+
+    abstract String service();
+
+    /** The span name or remote service name, depending on {@link #table()} */
+    abstract String span();
+
+    abstract int bucket();
+
+    abstract String trace_id();
+
+    /** Duration in milliseconds, or zero if the table doesn't index it. */
+    abstract long duration();
+
+    Key() {
+    }
+  }
+
+  static class Ticker { // not final for tests
+    long read() {
+      return System.nanoTime();
+    }
+  }
+
+  final Ticker ticker;
+  final ConcurrentHashMap<Key, Entry> cache = new ConcurrentHashMap<>();
+  final DelayQueue<Entry> expirations = new DelayQueue<>();
+  final long ttlNanos, maxEntries;
+  final LongAdder hits = new LongAdder(), misses = new LongAdder();
+
+  TraceIndexCache(int maxEntries, int ttlSeconds) {
+    this(new Ticker(), maxEntries, ttlSeconds);
+  }
+
+  TraceIndexCache(Ticker ticker, int maxEntries, int ttlSeconds) {
+    if (maxEntries <= 0) throw new IllegalArgumentException("maxEntries <= 0");
+    if (ttlSeconds <= 0) throw new IllegalArgumentException("ttlSeconds <= 0");
+    this.ticker = ticker;
+    this.maxEntries = maxEntries;
+    this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+  }
+
+  /** Returns true if a row for this key should be written, as it wasn't indexed recently. */
+  boolean shouldIndex(Key key) {
+    cleanupExpiredEntries();
+
+    Entry entry = cache.get(key);
+    if (entry == null) {
+      Entry newEntry = new Entry(ticker, key, ticker.read() + ttlNanos);
+      entry = cache.putIfAbsent(key, newEntry);
+      if (entry == null) {
+        expirations.offer(newEntry);
+
+        // If we added an entry, it could make us go over the max size.
+        if (expirations.size() > maxEntries) removeOneEntry();
+
+        misses.increment();
+        return true;
+      } // otherwise, we lost a race and the other thread's entry is in use
+    }
+
+    hits.increment();
+    return false;
+  }
+
+  /** Call this when a write failed, so that the next span for the same key is indexed again. */
+  void invalidate(Key key) {
+    Entry entry = cache.remove(key);
+    if (entry != null) expirations.remove(entry);
+  }
+
+  /** Count of rows not written because their key was already indexed. */
+  long hits() {
+    return hits.sum();
+  }
+
+  /** Count of rows written because their key wasn't cached. */
+  long misses() {
+    return misses.sum();
+  }
+
+  void clear() {
+    cache.clear();
+    expirations.clear();
+  }
+
+  void removeOneEntry() {
+    Entry eldest;
+    while ((eldest = expirations.peek()) != null) { // loop unless empty
+      if (expirations.remove(eldest)) { // check for lost race
+        cache.remove(eldest.key, eldest);
+        break; // to ensure we don't remove two!
+      }
+    }
+  }
+
+  void cleanupExpiredEntries() {
+    Entry expired;
+    while ((expired = expirations.poll()) != null) {
+      cache.remove(expired.key, expired);
+    }
+  }
+
+  static final class Entry implements Delayed {
+    final Ticker ticker;
+    final Key key;
+    final long expiration;
+
+    Entry(Ticker ticker, Key key, long expiration) {
+      this.ticker = ticker;
+      this.key = key;
+      this.expiration = expiration;
+    }
+
+    @Override public long getDelay(TimeUnit unit) {
+      return unit.convert(expiration - ticker.read(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override public int compareTo(Delayed o) {
+      return Long.signum(expiration - ((Entry) o).expiration);
+    }
+  }
+}
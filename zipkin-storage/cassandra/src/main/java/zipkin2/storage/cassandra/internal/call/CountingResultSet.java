@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.cassandra.internal.call;
+
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.ExecutionInfo;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.util.Iterator;
+import java.util.List;
+import zipkin2.internal.QueryCost;
+
+/**
+ * Adds rows to a {@link QueryCost} as they are read. Unlike {@link
+ * ResultSet#getAvailableWithoutFetching()}, this includes rows of pages fetched while iterating.
+ */
+final class CountingResultSet implements ResultSet {
+  final ResultSet delegate;
+  final QueryCost cost;
+
+  CountingResultSet(ResultSet delegate, QueryCost cost) {
+    this.delegate = delegate;
+    this.cost = cost;
+  }
+
+  @Override public Row one() {
+    Row result = delegate.one();
+    if (result != null) cost.addRows(1);
+    return result;
+  }
+
+  @Override public List<Row> all() {
+    List<Row> result = delegate.all();
+    cost.addRows(result.size());
+    return result;
+  }
+
+  @Override public Iterator<Row> iterator() {
+    Iterator<Row> delegate = this.delegate.iterator();
+    return new Iterator<Row>() {
+      @Override public boolean hasNext() {
+        return delegate.hasNext();
+      }
+
+      @Override public Row next() {
+        Row result = delegate.next();
+        cost.addRows(1);
+        return result;
+      }
+
+      @Override public void remove() {
+        delegate.remove();
+      }
+    };
+  }
+
+  @Override public ColumnDefinitions getColumnDefinitions() {
+    return delegate.getColumnDefinitions();
+  }
+
+  @Override public boolean wasApplied() {
+    return delegate.wasApplied();
+  }
+
+  @Override public boolean isExhausted() {
+    return delegate.isExhausted();
+  }
+
+  @Override public boolean isFullyFetched() {
+    return delegate.isFullyFetched();
+  }
+
+  @Override public int getAvailableWithoutFetching() {
+    return delegate.getAvailableWithoutFetching();
+  }
+
+  @Override public ListenableFuture<ResultSet> fetchMoreResults() {
+    return delegate.fetchMoreResults();
+  }
+
+  @Override public ExecutionInfo getExecutionInfo() {
+    return delegate.getExecutionInfo();
+  }
+
+  @Override public List<ExecutionInfo> getAllExecutionInfo() {
+    return delegate.getAllExecutionInfo();
+  }
+
+  @Override public String toString() {
+    return delegate.toString();
+  }
+}
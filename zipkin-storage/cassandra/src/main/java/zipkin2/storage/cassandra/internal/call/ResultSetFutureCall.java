@@ -25,6 +25,8 @@ import com.google.common.util.concurrent.Uninterruptibles;
 import java.util.concurrent.ExecutionException;
 import zipkin2.Call;
 import zipkin2.Callback;
+import zipkin2.internal.Nullable;
+import zipkin2.internal.QueryCost;
 
 /**
  * Future call pattern that takes advantage of special 'get' hooks on {@link
@@ -40,17 +42,20 @@ public abstract class ResultSetFutureCall<V> extends Call.Base<V>
 
   @Override
   protected V doExecute() {
-    return map(getUninterruptibly(future = newFuture()));
+    ResultSet resultSet = getUninterruptibly(future = newFuture());
+    return map(countRows(resultSet, QueryCost.current()));
   }
 
   @Override
   protected void doEnqueue(Callback<V> callback) {
+    // The callback runs on a driver thread, so read the cost of the query enqueuing this call
+    QueryCost cost = QueryCost.current();
     // Similar to Futures.addCallback except doesn't double-wrap
     class CallbackListener implements Runnable {
       @Override
       public void run() {
         try {
-          callback.onSuccess(map(getUninterruptibly(future)));
+          callback.onSuccess(map(countRows(getUninterruptibly(future), cost)));
         } catch (Throwable t) {
           propagateIfFatal(t);
           callback.onError(t);
@@ -78,6 +83,16 @@ public abstract class ResultSetFutureCall<V> extends Call.Base<V>
     return maybeFuture != null && maybeFuture.isCancelled();
   }
 
+  /**
+   * Counts rows as {@link #map(Object)} reads them, as opposed to only those of the first page.
+   * Rows not read by the mapper aren't counted.
+   */
+  static ResultSet countRows(ResultSet resultSet, @Nullable QueryCost cost) {
+    if (cost == null) return resultSet;
+    cost.incrementCalls();
+    return new CountingResultSet(resultSet, cost);
+  }
+
   /** @see zipkin2.storage.StorageComponent#isOverCapacity(java.lang.Throwable) */
   public static boolean isOverCapacity(Throwable e) {
     return e instanceof QueryConsistencyException ||
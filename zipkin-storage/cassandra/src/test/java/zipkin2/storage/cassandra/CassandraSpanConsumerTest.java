@@ -24,6 +24,7 @@ import zipkin2.Span;
 import zipkin2.storage.cassandra.internal.call.DeduplicatingVoidCallFactory;
 import zipkin2.storage.cassandra.internal.call.ResultSetFutureCall;
 
+import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.tuple;
@@ -227,6 +228,62 @@ public class CassandraSpanConsumerTest {
       .isInstanceOf(ResultSetFutureCall.class);
   }
 
+  @Test
+  public void traceByServiceSpan_dedupesSameTrace() {
+    Span span = spanWithoutAnnotationsOrTags;
+    Span child = span.toBuilder().parentId(span.id()).id("2").build(); // same duration
+
+    Call<Void> call = consumer.accept(asList(span, child));
+
+    assertEnclosedCalls(call)
+      .filteredOn(c -> c instanceof InsertTraceByServiceSpan)
+      .extracting("input.span", "input.duration")
+      .containsExactly(tuple(span.name(), 207L), tuple("", 207L));
+  }
+
+  @Test
+  public void traceByServiceSpan_indexesLongerDurationInSameTrace() {
+    Span span = spanWithoutAnnotationsOrTags;
+    Span child = span.toBuilder().parentId(span.id()).id("2").duration(300000L).build();
+
+    Call<Void> call = consumer.accept(asList(span, child));
+
+    assertEnclosedCalls(call)
+      .filteredOn(c -> c instanceof InsertTraceByServiceSpan)
+      .extracting("input.span", "input.duration")
+      .containsExactly(
+        tuple(span.name(), 207L), tuple("", 207L), tuple(span.name(), 300L), tuple("", 300L));
+  }
+
+  /** Otherwise, a max duration query wouldn't find the trace by its shorter span. */
+  @Test
+  public void traceByServiceSpan_indexesShorterDurationInSameTrace() {
+    Span span = spanWithoutAnnotationsOrTags;
+    Span child = span.toBuilder().parentId(span.id()).id("2").duration(1000L).build();
+
+    Call<Void> call = consumer.accept(asList(span, child));
+
+    assertEnclosedCalls(call)
+      .filteredOn(c -> c instanceof InsertTraceByServiceSpan)
+      .extracting("input.span", "input.duration")
+      .containsExactly(
+        tuple(span.name(), 207L), tuple("", 207L), tuple(span.name(), 1L), tuple("", 1L));
+  }
+
+  @Test
+  public void traceByServiceSpan_indexCacheDisabled() {
+    consumer = spanConsumer(CassandraStorage.newBuilder().indexCacheMax(0));
+
+    Span span = spanWithoutAnnotationsOrTags;
+    Span child = span.toBuilder().parentId(span.id()).id("2").build();
+
+    Call<Void> call = consumer.accept(asList(span, child));
+
+    assertEnclosedCalls(call)
+      .filteredOn(c -> c instanceof InsertTraceByServiceSpan)
+      .hasSize(4);
+  }
+
   @Test
   public void searchDisabled_doesntIndex() {
     consumer = spanConsumer(CassandraStorage.newBuilder().searchEnabled(false));
@@ -20,12 +20,15 @@ import org.junit.jupiter.api.TestInfo;
 import zipkin2.Span;
 import zipkin2.TestObjects;
 import zipkin2.storage.ITStorage;
+import zipkin2.storage.QueryRequest;
 import zipkin2.storage.SpanConsumer;
 import zipkin2.storage.StorageComponent;
 
 import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.DAY;
 import static zipkin2.TestObjects.FRONTEND;
+import static zipkin2.TestObjects.TODAY;
 
 abstract class ITSpanConsumer extends ITStorage<CassandraStorage> {
 
@@ -96,6 +99,33 @@ abstract class ITSpanConsumer extends ITStorage<CassandraStorage> {
 
   }
 
+  /** Skipping redundant indexing mustn't hide a trace from max duration queries. */
+  @Test public void indexesShorterSpansInATrace() throws IOException {
+    Span parent = TestObjects.CLIENT_SPAN.toBuilder().kind(Span.Kind.SERVER).build();
+    Span child = parent.toBuilder()
+      .parentId(parent.id())
+      .id("2")
+      .kind(Span.Kind.CLIENT)
+      .clearAnnotations()
+      .timestamp(parent.timestampAsLong() + 1000L)
+      .duration(2000L) // much shorter than the parent, which is indexed first
+      .build();
+
+    accept(storage.spanConsumer(), parent, child);
+
+    QueryRequest request = QueryRequest.newBuilder()
+      .serviceName(FRONTEND.serviceName())
+      .minDuration(1000L)
+      .maxDuration(3000L)
+      .endTs(TODAY + DAY)
+      .lookback(DAY)
+      .limit(10)
+      .build();
+    assertThat(storage.spanStore().getTraces(request).execute())
+      .extracting(t -> t.get(0).traceId())
+      .containsExactly(parent.traceId());
+  }
+
   @Test
   public void insertTags_SelectTags_CalculateCount() throws IOException {
     Span[] trace = new Span[101];
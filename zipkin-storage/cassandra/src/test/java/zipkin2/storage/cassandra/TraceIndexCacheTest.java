@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.cassandra;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.storage.cassandra.Schema.TABLE_TRACE_BY_SERVICE_REMOTE_SERVICE;
+import static zipkin2.storage.cassandra.Schema.TABLE_TRACE_BY_SERVICE_SPAN;
+
+public class TraceIndexCacheTest {
+  static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+  long nanoTime;
+  TraceIndexCache.Ticker ticker = new TraceIndexCache.Ticker() {
+    @Override long read() {
+      return nanoTime;
+    }
+  };
+  TraceIndexCache cache = new TraceIndexCache(ticker, 1000, 3);
+
+  TraceIndexCache.Key key = key("frontend", "get", 1, "a", 10L);
+
+  @Test public void suppressesSameKey() {
+    assertThat(cache.shouldIndex(key)).isTrue();
+    assertThat(cache.shouldIndex(key)).isFalse();
+    assertThat(cache.shouldIndex(key)).isFalse();
+
+    assertThat(cache.hits()).isEqualTo(2);
+    assertThat(cache.misses()).isEqualTo(1);
+  }
+
+  /** Durations are part of the key, so that both min and max duration queries find the trace. */
+  @Test public void indexesOtherDurations() {
+    assertThat(cache.shouldIndex(key)).isTrue();
+    assertThat(cache.shouldIndex(key("frontend", "get", 1, "a", 11L))).isTrue();
+    assertThat(cache.shouldIndex(key("frontend", "get", 1, "a", 5L))).isTrue();
+    assertThat(cache.shouldIndex(key("frontend", "get", 1, "a", 5L))).isFalse();
+
+    assertThat(cache.hits()).isEqualTo(1);
+    assertThat(cache.misses()).isEqualTo(3);
+  }
+
+  @Test public void keysAreIndependent() {
+    assertThat(cache.shouldIndex(key)).isTrue();
+    assertThat(cache.shouldIndex(key("frontend", "", 1, "a", 10L))).isTrue();
+    assertThat(cache.shouldIndex(key("frontend", "get", 2, "a", 10L))).isTrue();
+    assertThat(cache.shouldIndex(key("frontend", "get", 1, "b", 10L))).isTrue();
+    assertThat(cache.shouldIndex(TraceIndexCache.Key.create(
+      TABLE_TRACE_BY_SERVICE_REMOTE_SERVICE, "frontend", "get", 1, "a", 10L))).isTrue();
+  }
+
+  @Test public void expiresAfterTtl() {
+    nanoTime = NANOS_PER_SECOND;
+    assertThat(cache.shouldIndex(key)).isTrue();
+
+    nanoTime = NANOS_PER_SECOND * 2;
+    assertThat(cache.shouldIndex(key)).isFalse();
+
+    nanoTime = NANOS_PER_SECOND * 5;
+    assertThat(cache.shouldIndex(key)).isTrue();
+  }
+
+  @Test public void invalidate() {
+    assertThat(cache.shouldIndex(key)).isTrue();
+    cache.invalidate(key);
+
+    assertThat(cache.shouldIndex(key)).isTrue();
+  }
+
+  @Test(timeout = 1000L)
+  public void maxEntries() {
+    cache = new TraceIndexCache(1000, 60);
+
+    for (int i = 0; i < 10_000; i++) {
+      assertThat(cache.shouldIndex(key("frontend", "get", i, "a", 0L))).isTrue();
+    }
+
+    // verify internal state
+    assertThat(cache.cache)
+      .hasSameSizeAs(cache.expirations)
+      .hasSize(1000);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void maxEntries_cantBeZero() {
+    new TraceIndexCache(0, 60);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void ttl_cantBeZero() {
+    new TraceIndexCache(1000, 0);
+  }
+
+  static TraceIndexCache.Key key(String service, String span, int bucket, String traceId,
+    long duration) {
+    return TraceIndexCache.Key.create(
+      TABLE_TRACE_BY_SERVICE_SPAN, service, span, bucket, traceId, duration);
+  }
+}
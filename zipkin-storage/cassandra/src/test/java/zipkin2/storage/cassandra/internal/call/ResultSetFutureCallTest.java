@@ -14,13 +14,16 @@
 package zipkin2.storage.cassandra.internal.call;
 
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
 import com.datastax.driver.core.exceptions.BusyConnectionException;
 import com.datastax.driver.core.exceptions.BusyPoolException;
 import com.datastax.driver.core.exceptions.QueryConsistencyException;
 import java.net.InetSocketAddress;
+import java.util.Arrays;
 import java.util.concurrent.Future;
 import org.junit.Test;
 import zipkin2.Callback;
+import zipkin2.internal.QueryCost;
 
 import static com.google.common.util.concurrent.JdkFutureAdapters.listenInPoolThread;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -87,6 +90,60 @@ public class ResultSetFutureCallTest {
     verifyNoMoreInteractions(callback);
   }
 
+  @Test public void execute_countsRowsAsMapped() throws Exception {
+    mapAllRows(3);
+
+    QueryCost cost = new QueryCost();
+    QueryCost previous = cost.makeCurrent();
+    try {
+      call.execute();
+    } finally {
+      QueryCost.restore(previous);
+    }
+
+    assertThat(cost.calls()).isEqualTo(1);
+    assertThat(cost.rows()).isEqualTo(3);
+  }
+
+  /** The callback runs on another thread, so the cost is read when enqueued. */
+  @Test public void enqueue_countsRowsAsMapped() throws Exception {
+    mapAllRows(3);
+
+    QueryCost cost = new QueryCost();
+    QueryCost previous = cost.makeCurrent();
+    try {
+      call.enqueue(callback);
+    } finally {
+      QueryCost.restore(previous);
+    }
+
+    verify(callback).onSuccess(any(ResultSet.class));
+    assertThat(cost.calls()).isEqualTo(1);
+    assertThat(cost.rows()).isEqualTo(3);
+  }
+
+  @Test public void execute_doesntWrapWithoutCost() throws Exception {
+    mapAllRows(3);
+
+    assertThat(call.execute()).isSameAs(resultSet);
+  }
+
+  /** Like a mapper, reads all rows of the result set, which may span multiple pages. */
+  void mapAllRows(int count) throws Exception {
+    Row[] rows = new Row[count];
+    for (int i = 0; i < count; i++) rows[i] = mock(Row.class);
+    when(resultSet.iterator()).thenAnswer(i -> Arrays.asList(rows).iterator());
+    when(call.newFuture()).thenReturn(listenInPoolThread(future));
+    when(call.map(any(ResultSet.class))).thenAnswer(i -> {
+      ResultSet input = i.getArgument(0);
+      for (Row row : input) assertThat(row).isNotNull();
+      return input;
+    });
+
+    when(future.isDone()).thenReturn(true);
+    when(future.get()).thenReturn(resultSet);
+  }
+
   // below are load related exceptions which should result in a backoff of storage requests
   @Test public void isOverCapacity() {
     InetSocketAddress sa = InetSocketAddress.createUnresolved("host", 9402);
@@ -13,6 +13,7 @@
  */
 package zipkin2.elasticsearch;
 
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -20,17 +21,19 @@ import java.util.Map;
 import java.util.Set;
 import zipkin2.Call;
 import zipkin2.Span;
+import zipkin2.codec.Encoding;
 import zipkin2.elasticsearch.internal.BulkCallBuilder;
 import zipkin2.elasticsearch.internal.BulkIndexWriter;
 import zipkin2.elasticsearch.internal.IndexNameFormatter;
 import zipkin2.internal.DelayLimiter;
-import zipkin2.storage.SpanConsumer;
+import zipkin2.internal.Nullable;
+import zipkin2.storage.EncodedSpanConsumer;
 
 import static zipkin2.elasticsearch.ElasticsearchAutocompleteTags.AUTOCOMPLETE;
 import static zipkin2.elasticsearch.ElasticsearchSpanStore.SPAN;
 import static zipkin2.internal.Platform.SHORT_STRING_LENGTH;
 
-class ElasticsearchSpanConsumer implements SpanConsumer { // not final for testing
+class ElasticsearchSpanConsumer implements EncodedSpanConsumer { // not final for testing
 
   final ElasticsearchStorage es;
   final Set<String> autocompleteKeys;
@@ -56,14 +59,24 @@ class ElasticsearchSpanConsumer implements SpanConsumer { // not final for testi
   }
 
   @Override public Call<Void> accept(List<Span> spans) {
+    return accept(spans, null);
+  }
+
+  /** Spans are stored as JSON, so those received as JSON needn't be re-encoded. */
+  @Override public Encoding encoding() {
+    return Encoding.JSON;
+  }
+
+  @Override public Call<Void> accept(List<Span> spans, @Nullable List<byte[]> encodedSpans) {
     if (spans.isEmpty()) return Call.create(null);
     BulkSpanIndexer indexer = new BulkSpanIndexer(this);
-    indexSpans(indexer, spans);
+    indexSpans(indexer, spans, encodedSpans);
     return indexer.newCall();
   }
 
-  void indexSpans(BulkSpanIndexer indexer, List<Span> spans) {
-    for (Span span : spans) {
+  void indexSpans(BulkSpanIndexer indexer, List<Span> spans, @Nullable List<byte[]> encodedSpans) {
+    for (int i = 0, length = spans.size(); i < length; i++) {
+      Span span = spans.get(i);
       final long indexTimestamp; // which index to store this span into
       if (span.timestampAsLong() != 0L) {
         indexTimestamp = span.timestampAsLong() / 1000L;
@@ -74,7 +87,7 @@ class ElasticsearchSpanConsumer implements SpanConsumer { // not final for testi
       } else {
         indexTimestamp = System.currentTimeMillis();
       }
-      indexer.add(indexTimestamp, span);
+      indexer.add(indexTimestamp, span, encodedSpans != null ? encodedSpans.get(i) : null);
       if (searchEnabled && !span.tags().isEmpty()) {
         indexer.addAutocompleteValues(indexTimestamp, span);
       }
@@ -87,17 +100,25 @@ class ElasticsearchSpanConsumer implements SpanConsumer { // not final for testi
     final ElasticsearchSpanConsumer consumer;
     final List<AutocompleteContext> pendingAutocompleteContexts = new ArrayList<>();
     final BulkIndexWriter<Span> spanWriter;
+    final BulkIndexWriter<Map.Entry<Span, byte[]>> encodedSpanWriter;
 
     BulkSpanIndexer(ElasticsearchSpanConsumer consumer) {
       this.bulkCallBuilder = new BulkCallBuilder(consumer.es, consumer.es.version(), "index-span");
       this.consumer = consumer;
       this.spanWriter =
         consumer.searchEnabled ? BulkIndexWriter.SPAN : BulkIndexWriter.SPAN_SEARCH_DISABLED;
+      this.encodedSpanWriter = consumer.searchEnabled
+        ? BulkIndexWriter.ENCODED_SPAN : BulkIndexWriter.ENCODED_SPAN_SEARCH_DISABLED;
     }
 
-    void add(long indexTimestamp, Span span) {
+    void add(long indexTimestamp, Span span, @Nullable byte[] json) {
       String index = consumer.formatTypeAndTimestampForInsert(SPAN, indexTimestamp);
-      bulkCallBuilder.index(index, SPAN, span, spanWriter);
+      if (json != null) {
+        bulkCallBuilder.index(index, SPAN, new SimpleImmutableEntry<>(span, json),
+          encodedSpanWriter);
+      } else {
+        bulkCallBuilder.index(index, SPAN, span, spanWriter);
+      }
     }
 
     void addAutocompleteValues(long indexTimestamp, Span span) {
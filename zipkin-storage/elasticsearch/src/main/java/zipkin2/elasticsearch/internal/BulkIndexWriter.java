@@ -25,6 +25,7 @@ import java.util.Map;
 import zipkin2.Annotation;
 import zipkin2.Endpoint;
 import zipkin2.Span;
+import zipkin2.codec.Encoding;
 
 import static zipkin2.internal.Platform.SHORT_STRING_LENGTH;
 
@@ -47,6 +48,22 @@ public abstract class BulkIndexWriter<T> {
     }
   };
 
+  /** Like {@link #SPAN}, except copying the span's {@link Encoding#JSON} encoding, as received. */
+  public static final BulkIndexWriter<Map.Entry<Span, byte[]>> ENCODED_SPAN =
+    new BulkIndexWriter<Map.Entry<Span, byte[]>>() {
+      @Override public String writeDocument(Map.Entry<Span, byte[]> input,
+        ByteBufOutputStream sink) {
+        return write(input.getKey(), input.getValue(), true, sink);
+      }
+    };
+  public static final BulkIndexWriter<Map.Entry<Span, byte[]>> ENCODED_SPAN_SEARCH_DISABLED =
+    new BulkIndexWriter<Map.Entry<Span, byte[]>>() {
+      @Override public String writeDocument(Map.Entry<Span, byte[]> input,
+        ByteBufOutputStream sink) {
+        return write(input.getKey(), input.getValue(), false, sink);
+      }
+    };
+
   public static final BulkIndexWriter<Map.Entry<String, String>> AUTOCOMPLETE =
     new BulkIndexWriter<Map.Entry<String, String>>() {
       @Override public String writeDocument(Map.Entry<String, String> input,
@@ -77,6 +94,10 @@ public abstract class BulkIndexWriter<T> {
    *
    * <p>Ex {@code curl -s localhost:9200/zipkin:span-2017-08-11/_search?q=_q:error=500}
    *
+   * <p>This writes directly into the pooled buffer with Jackson, as opposed to {@link
+   * zipkin2.codec.SpanBytesEncoder}. The document ID hashes these bytes, so changing the encoder
+   * would duplicate documents when the same span is written before and after an upgrade.
+   *
    * @param searchEnabled encodes timestamp_millis and _q when non-empty
    */
   static String write(Span span, boolean searchEnabled, ByteBufOutputStream sink) {
@@ -121,8 +142,39 @@ public abstract class BulkIndexWriter<T> {
       throw new AssertionError(e); // No I/O writing to a Buffer.
     }
 
+    return documentId(span, sink.buffer(), startIndex);
+  }
+
+  /**
+   * Like {@link #write(Span, boolean, ByteBufOutputStream)}, except the span fields are copied
+   * from its JSON encoding, as opposed to re-encoded. The search fields are spliced in after the
+   * opening brace, so the document has the same fields as if the span were re-encoded.
+   *
+   * @param json a {@linkplain zipkin2.internal.LazySpan#isNormalized() normalized} JSON object
+   */
+  static String write(Span span, byte[] json, boolean searchEnabled, ByteBufOutputStream sink) {
+    ByteBuf buffer = sink.buffer();
+    int startIndex = buffer.writerIndex();
+    if (searchEnabled) {
+      try (JsonGenerator writer = JsonSerializers.jsonGenerator(sink)) {
+        writer.writeStartObject();
+        addSearchFields(span, writer);
+        writer.writeEndObject();
+      } catch (IOException e) {
+        throw new AssertionError(e); // No I/O writing to a Buffer.
+      }
+      buffer.writerIndex(buffer.writerIndex() - 1); // drop the closing brace
+      if (buffer.writerIndex() - startIndex > 1) buffer.writeByte(',');
+      buffer.writeBytes(json, 1, json.length - 1); // skip the opening brace
+    } else {
+      buffer.writeBytes(json);
+    }
+    return documentId(span, buffer, startIndex);
+  }
+
+  static String documentId(Span span, ByteBuf buffer, int startIndex) {
     // get a slice representing the document we just wrote so that we can make a content hash
-    ByteBuf slice = sink.buffer().slice(startIndex, sink.buffer().writerIndex() - startIndex);
+    ByteBuf slice = buffer.slice(startIndex, buffer.writerIndex() - startIndex);
 
     return span.traceId() + '-' + md5(slice);
   }
@@ -45,6 +45,7 @@ import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Supplier;
 import zipkin2.Call;
 import zipkin2.Callback;
+import zipkin2.internal.QueryCost;
 
 import static zipkin2.elasticsearch.internal.JsonSerializers.JSON_FACTORY;
 import static zipkin2.elasticsearch.internal.JsonSerializers.OBJECT_MAPPER;
@@ -172,6 +173,11 @@ public final class HttpCall<V> extends Call.Base<V> {
       Exceptions.throwUnsafely(e.getCause());
       return null;  // Unreachable
     }
+    QueryCost cost = QueryCost.current();
+    if (cost != null) {
+      cost.incrementCalls();
+      cost.addBytes(response.content().length());
+    }
     return parseResponse(response, bodyConverter);
   }
 
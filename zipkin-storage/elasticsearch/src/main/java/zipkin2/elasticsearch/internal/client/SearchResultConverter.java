@@ -21,6 +21,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.function.Supplier;
 import zipkin2.elasticsearch.internal.JsonSerializers.ObjectParser;
+import zipkin2.internal.QueryCost;
 
 import static zipkin2.elasticsearch.internal.JsonReaders.enterPath;
 
@@ -41,10 +42,14 @@ public class SearchResultConverter<T> implements HttpCall.BodyConverter<List<T>>
     if (hits == null || !hits.isExpectedStartArrayToken()) return Collections.emptyList();
 
     List<T> result = new ArrayList<>();
+    int hitCount = 0;
     while (hits.nextToken() != JsonToken.END_ARRAY) {
+      hitCount++;
       JsonParser source = enterPath(hits, "_source");
       if (source != null) result.add(adapter.parse(source));
     }
+    QueryCost cost = QueryCost.current();
+    if (cost != null) cost.addRows(hitCount);
     return result.isEmpty() ? Collections.emptyList() : result;
   }
 }
@@ -17,11 +17,15 @@ import io.netty.buffer.ByteBufOutputStream;
 import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
 import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.List;
 import org.junit.Before;
 import org.junit.Test;
 import zipkin2.Span;
 import zipkin2.Span.Kind;
 import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.internal.LazySpan;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static zipkin2.TestObjects.CLIENT_SPAN;
@@ -137,4 +141,51 @@ public class BulkIndexWriterTest {
     assertThat(buffer.buffer().toString(StandardCharsets.UTF_8))
       .startsWith("{\"traceId\":\"");
   }
+
+  @Test public void encodedSpan_sameAsReencoded() {
+    byte[] json = SpanBytesEncoder.JSON_V2.encode(STABLE_SPAN);
+
+    String id = BulkIndexWriter.ENCODED_SPAN.writeDocument(
+      new SimpleImmutableEntry<>(STABLE_SPAN, json), buffer);
+
+    ByteBufOutputStream reencoded = new ByteBufOutputStream(Unpooled.buffer());
+    assertThat(id).isEqualTo(BulkIndexWriter.SPAN.writeDocument(STABLE_SPAN, reencoded));
+    assertThat(buffer.buffer()).isEqualTo(reencoded.buffer());
+  }
+
+  /** Only spans the same as the encoder would write are stored verbatim, so documents match. */
+  @Test public void encodedSpan_sameAsReencoded_whenNormalized() {
+    String span = new String(SpanBytesEncoder.JSON_V2.encode(STABLE_SPAN), StandardCharsets.UTF_8);
+    String multiLine = span.replace(",\"", ",\n  \"");
+    byte[] list = ("[" + span + "," + multiLine + "]").getBytes(StandardCharsets.UTF_8);
+
+    List<LazySpan> lazySpans = LazySpan.indexList(SpanBytesDecoder.JSON_V2, list);
+    assertThat(lazySpans).extracting(LazySpan::isNormalized).containsExactly(true, false);
+
+    LazySpan lazy = lazySpans.get(0);
+    String id = BulkIndexWriter.ENCODED_SPAN.writeDocument(
+      new SimpleImmutableEntry<>(lazy.toSpan(), lazy.encodedBytes()), buffer);
+
+    ByteBufOutputStream reencoded = new ByteBufOutputStream(Unpooled.buffer());
+    assertThat(id).isEqualTo(BulkIndexWriter.SPAN.writeDocument(STABLE_SPAN, reencoded));
+    assertThat(buffer.buffer()).isEqualTo(reencoded.buffer());
+  }
+
+  @Test public void encodedSpan_skipsSearchFieldsWhenNoData() {
+    Span span = Span.newBuilder().traceId("20").id("22").localEndpoint(FRONTEND).build();
+    byte[] json = SpanBytesEncoder.JSON_V2.encode(span);
+
+    BulkIndexWriter.ENCODED_SPAN.writeDocument(new SimpleImmutableEntry<>(span, json), buffer);
+
+    assertThat(ByteBufUtil.getBytes(buffer.buffer())).containsExactly(json);
+  }
+
+  @Test public void encodedSpanSearchDisabled_copiesJson() {
+    byte[] json = SpanBytesEncoder.JSON_V2.encode(CLIENT_SPAN);
+
+    BulkIndexWriter.ENCODED_SPAN_SEARCH_DISABLED.writeDocument(
+      new SimpleImmutableEntry<>(CLIENT_SPAN, json), buffer);
+
+    assertThat(ByteBufUtil.getBytes(buffer.buffer())).containsExactly(json);
+  }
 }
@@ -26,6 +26,7 @@ import org.jooq.SelectConditionStep;
 import zipkin2.DependencyLink;
 import zipkin2.Span;
 import zipkin2.internal.DependencyLinker;
+import zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinSpans;
 
 import static zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinAnnotations.ZIPKIN_ANNOTATIONS;
 import static zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinSpans.ZIPKIN_SPANS;
@@ -33,11 +34,39 @@ import static zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinSpans.ZIP
 final class AggregateDependencies implements Function<DSLContext, List<DependencyLink>> {
   final Schema schema;
   final long startTsBegin, startTsEnd;
+  final long firstStartTsBegin, firstStartTsEnd;
+
+  /**
+   * Returns links of traces with a span in the interval, but none before it. This attributes each
+   * trace to exactly one interval, so that results of adjacent intervals can be summed without
+   * counting a trace twice.
+   */
+  static AggregateDependencies startedIn(Schema schema, long startTsBegin, long startTsEnd) {
+    return new AggregateDependencies(
+      schema, startTsBegin, startTsEnd, startTsBegin, Long.MAX_VALUE);
+  }
+
+  /** Returns links of traces with a span in the interval, and a span before {@code startTs}. */
+  static AggregateDependencies startedBefore(Schema schema, long startTsBegin, long startTsEnd,
+    long startTs) {
+    return new AggregateDependencies(schema, startTsBegin, startTsEnd, Long.MIN_VALUE, startTs);
+  }
 
   AggregateDependencies(Schema schema, long startTsBegin, long startTsEnd) {
+    this(schema, startTsBegin, startTsEnd, Long.MIN_VALUE, Long.MAX_VALUE);
+  }
+
+  /**
+   * @param firstStartTsBegin inclusive lower bound of the first span in a trace
+   * @param firstStartTsEnd exclusive upper bound of the first span in a trace
+   */
+  AggregateDependencies(Schema schema, long startTsBegin, long startTsEnd, long firstStartTsBegin,
+    long firstStartTsEnd) {
     this.schema = schema;
     this.startTsBegin = startTsBegin;
     this.startTsEnd = startTsEnd;
+    this.firstStartTsBegin = firstStartTsBegin;
+    this.firstStartTsEnd = firstStartTsEnd;
   }
 
   @Override
@@ -49,6 +78,19 @@ final class AggregateDependencies implements Function<DSLContext, List<Dependenc
       .where(startTsBegin == startTsEnd
         ? ZIPKIN_SPANS.START_TS.lessOrEqual(startTsEnd)
         : ZIPKIN_SPANS.START_TS.between(startTsBegin, startTsEnd));
+    ZipkinSpans earlier = ZIPKIN_SPANS.as("earlier");
+    if (firstStartTsBegin != Long.MIN_VALUE) {
+      traceIDs = traceIDs.andNotExists(context.selectOne()
+        .from(earlier)
+        .where(earlier.TRACE_ID.eq(ZIPKIN_SPANS.TRACE_ID))
+        .and(earlier.START_TS.lessThan(firstStartTsBegin)));
+    }
+    if (firstStartTsEnd != Long.MAX_VALUE) {
+      traceIDs = traceIDs.andExists(context.selectOne()
+        .from(earlier)
+        .where(earlier.TRACE_ID.eq(ZIPKIN_SPANS.TRACE_ID))
+        .and(earlier.START_TS.lessThan(firstStartTsEnd)));
+    }
     // Lazy fetching the cursor prevents us from buffering the whole dataset in memory.
     Cursor<Record> cursor = context.selectDistinct(schema.dependencyLinkerFields)
       // left joining allows us to keep a mapping of all span ids, not just ones that have
@@ -90,6 +132,8 @@ final class AggregateDependencies implements Function<DSLContext, List<Dependenc
       + startTsBegin
       + ", startTsEnd="
       + startTsEnd
+      + (firstStartTsBegin != Long.MIN_VALUE ? ", firstStartTsBegin=" + firstStartTsBegin : "")
+      + (firstStartTsEnd != Long.MAX_VALUE ? ", firstStartTsEnd=" + firstStartTsEnd : "")
       + '}';
   }
 }
@@ -22,6 +22,7 @@ import javax.sql.DataSource;
 import org.jooq.DSLContext;
 import zipkin2.Call;
 import zipkin2.Callback;
+import zipkin2.internal.QueryCost;
 
 /** Uncancelable call built with an executor */
 final class DataSourceCall<V> extends Call.Base<V> {
@@ -52,6 +53,8 @@ final class DataSourceCall<V> extends Call.Base<V> {
 
   @Override
   protected final V doExecute() throws IOException {
+    QueryCost cost = QueryCost.current();
+    if (cost != null) cost.incrementCalls();
     try (Connection conn = factory.datasource.getConnection()) {
       DSLContext context = factory.context.get(conn);
       return queryFunction.apply(context);
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.mysql.v1;
+
+import java.util.List;
+import org.jooq.BatchBindStep;
+import org.jooq.DSLContext;
+import org.jooq.DataType;
+import org.jooq.Field;
+import org.jooq.Query;
+import org.jooq.Table;
+
+import static org.jooq.impl.DSL.val;
+
+/**
+ * Writes rows with multi-row {@code INSERT ... VALUES (...),(...)} statements, instead of one jOOQ
+ * query per row.
+ *
+ * <p>Values are supplied as a flat list, in column order, so that no per-row object graph is
+ * needed. Rows are split into statements of at most {@link #maxRowsPerStatement}. As the SQL of a
+ * full statement never changes, it is prepared once per call and re-bound for each full chunk,
+ * which also lets drivers that cache prepared statements reuse them across calls.
+ *
+ * <p>Statements are run through the {@link DSLContext}, not its connection, so that {@link
+ * org.jooq.ExecuteListener execute listeners}, such as self-tracing, see them.
+ */
+final class MultiRowInsert {
+  /**
+   * Default rows per statement. This is a balance between round-trips and packet size: each
+   * annotation value can be up to 64KiB, and the statement must fit into {@code
+   * max_allowed_packet}.
+   */
+  static final int DEFAULT_MAX_ROWS_PER_STATEMENT = 100;
+
+  static MultiRowInsert insertIgnore(Table<?> table, List<Field<?>> columns) {
+    return new MultiRowInsert("INSERT IGNORE INTO ", table, columns, "",
+      DEFAULT_MAX_ROWS_PER_STATEMENT);
+  }
+
+  /**
+   * @param assignments the part after {@code ON DUPLICATE KEY UPDATE}, typically referencing
+   * {@code VALUES(column)}.
+   */
+  static MultiRowInsert onDuplicateKeyUpdate(Table<?> table, List<Field<?>> columns,
+    String assignments) {
+    return new MultiRowInsert("INSERT INTO ", table, columns,
+      " ON DUPLICATE KEY UPDATE " + assignments, DEFAULT_MAX_ROWS_PER_STATEMENT);
+  }
+
+  final String prefix, suffix, rowPlaceholders, fullStatement;
+  final DataType<?>[] dataTypes;
+  final int maxRowsPerStatement;
+
+  MultiRowInsert(String verb, Table<?> table, List<Field<?>> columns, String suffix,
+    int maxRowsPerStatement) {
+    if (maxRowsPerStatement <= 0) throw new IllegalArgumentException("maxRowsPerStatement <= 0");
+    StringBuilder prefix = new StringBuilder(verb).append(table.getName()).append(" (");
+    StringBuilder rowPlaceholders = new StringBuilder().append('(');
+    dataTypes = new DataType<?>[columns.size()];
+    for (int i = 0; i < dataTypes.length; i++) {
+      Field<?> column = columns.get(i);
+      if (i > 0) {
+        prefix.append(", ");
+        rowPlaceholders.append(", ");
+      }
+      prefix.append(column.getName());
+      rowPlaceholders.append('?');
+      dataTypes[i] = column.getDataType();
+    }
+    this.prefix = prefix.append(") VALUES ").toString();
+    this.rowPlaceholders = rowPlaceholders.append(')').toString();
+    this.suffix = suffix;
+    this.maxRowsPerStatement = maxRowsPerStatement;
+    this.fullStatement = sql(maxRowsPerStatement);
+  }
+
+  int columnCount() {
+    return dataTypes.length;
+  }
+
+  String sql(int rowCount) {
+    if (rowCount == maxRowsPerStatement && fullStatement != null) return fullStatement;
+    StringBuilder result = new StringBuilder(
+      prefix.length() + rowCount * (rowPlaceholders.length() + 2) + suffix.length());
+    result.append(prefix);
+    for (int i = 0; i < rowCount; i++) {
+      if (i > 0) result.append(", ");
+      result.append(rowPlaceholders);
+    }
+    return result.append(suffix).toString();
+  }
+
+  /** Inserts all rows in the input, which is a flat list of values in column order. */
+  void execute(DSLContext create, List<Object> values) {
+    int columnCount = columnCount();
+    if (values.size() % columnCount != 0) {
+      throw new IllegalArgumentException(
+        "values.size() isn't a multiple of columnCount " + columnCount);
+    }
+    int rowCount = values.size() / columnCount;
+    if (rowCount == 0) return;
+
+    int fullChunks = rowCount / maxRowsPerStatement, remainder = rowCount % maxRowsPerStatement;
+    int chunkSize = maxRowsPerStatement * columnCount, valueIndex = 0;
+    if (fullChunks > 0) {
+      Query statement = create.query(fullStatement, bindings(values, valueIndex, chunkSize));
+      if (fullChunks > 1) {
+        BatchBindStep batch = create.batch(statement);
+        for (int i = 0; i < fullChunks; i++, valueIndex += chunkSize) {
+          batch = batch.bind(values.subList(valueIndex, valueIndex + chunkSize).toArray());
+        }
+        batch.execute();
+      } else {
+        statement.execute();
+        valueIndex += chunkSize;
+      }
+    }
+    if (remainder > 0) {
+      create.query(sql(remainder), bindings(values, valueIndex, remainder * columnCount))
+        .execute();
+    }
+  }
+
+  /** Binds values with the type of their column, so that nulls and blobs are bound correctly. */
+  Object[] bindings(List<Object> values, int valueIndex, int length) {
+    Object[] result = new Object[length];
+    for (int i = 0; i < length; i++) {
+      result[i] = val(values.get(valueIndex + i), dataTypes[i % dataTypes.length]);
+    }
+    return result;
+  }
+
+  @Override public String toString() {
+    return prefix + rowPlaceholders + suffix;
+  }
+}
@@ -15,15 +15,10 @@ package zipkin2.storage.mysql.v1;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.function.Function;
 import org.jooq.DSLContext;
-import org.jooq.InsertSetMoreStep;
-import org.jooq.Query;
-import org.jooq.Record;
-import org.jooq.TableField;
+import org.jooq.Field;
 import zipkin2.Call;
 import zipkin2.Endpoint;
 import zipkin2.Span;
@@ -55,6 +50,68 @@ final class MySQLSpanConsumer implements SpanConsumer {
     return dataSourceCallFactory.create(new BatchInsertSpans(spans, schema));
   }
 
+  /**
+   * Creates an insert into {@code zipkin_spans} whose columns are written by {@link
+   * BatchInsertSpans#addSpan}.
+   *
+   * <p>As all rows in a multi-row insert share the same update clause, empty values, written
+   * when a name is absent, and null values don't overwrite existing data. The start_ts is
+   * tentative when {@link Span#shared()}, so it is only updated when {@code authoritativeStartTs}.
+   */
+  static MultiRowInsert insertSpans(Schema schema, boolean authoritativeStartTs) {
+    List<Field<?>> columns = new ArrayList<>();
+    if (schema.hasTraceIdHigh) columns.add(ZIPKIN_SPANS.TRACE_ID_HIGH);
+    columns.add(ZIPKIN_SPANS.TRACE_ID);
+    columns.add(ZIPKIN_SPANS.ID);
+    columns.add(ZIPKIN_SPANS.NAME);
+    if (schema.hasRemoteServiceName) columns.add(ZIPKIN_SPANS.REMOTE_SERVICE_NAME);
+    columns.add(ZIPKIN_SPANS.PARENT_ID);
+    columns.add(ZIPKIN_SPANS.DEBUG);
+    columns.add(ZIPKIN_SPANS.START_TS);
+    columns.add(ZIPKIN_SPANS.DURATION);
+
+    StringBuilder assignments = new StringBuilder();
+    updateUnlessEmpty(assignments, ZIPKIN_SPANS.NAME);
+    if (schema.hasRemoteServiceName) {
+      updateUnlessEmpty(assignments, ZIPKIN_SPANS.REMOTE_SERVICE_NAME);
+    }
+    updateUnlessNull(assignments, ZIPKIN_SPANS.PARENT_ID);
+    if (authoritativeStartTs) updateUnlessNull(assignments, ZIPKIN_SPANS.START_TS);
+    updateUnlessNull(assignments, ZIPKIN_SPANS.DURATION);
+    return MultiRowInsert.onDuplicateKeyUpdate(ZIPKIN_SPANS, columns, assignments.toString());
+  }
+
+  /** Creates an insert into {@code zipkin_annotations} written by {@link BatchInsertSpans}. */
+  static MultiRowInsert insertAnnotations(Schema schema) {
+    List<Field<?>> columns = new ArrayList<>();
+    if (schema.hasTraceIdHigh) columns.add(ZIPKIN_ANNOTATIONS.TRACE_ID_HIGH);
+    columns.add(ZIPKIN_ANNOTATIONS.TRACE_ID);
+    columns.add(ZIPKIN_ANNOTATIONS.SPAN_ID);
+    columns.add(ZIPKIN_ANNOTATIONS.A_KEY);
+    columns.add(ZIPKIN_ANNOTATIONS.A_VALUE);
+    columns.add(ZIPKIN_ANNOTATIONS.A_TYPE);
+    columns.add(ZIPKIN_ANNOTATIONS.A_TIMESTAMP);
+    columns.add(ZIPKIN_ANNOTATIONS.ENDPOINT_IPV4);
+    if (schema.hasIpv6) columns.add(ZIPKIN_ANNOTATIONS.ENDPOINT_IPV6);
+    columns.add(ZIPKIN_ANNOTATIONS.ENDPOINT_PORT);
+    columns.add(ZIPKIN_ANNOTATIONS.ENDPOINT_SERVICE_NAME);
+    return MultiRowInsert.insertIgnore(ZIPKIN_ANNOTATIONS, columns);
+  }
+
+  static void updateUnlessEmpty(StringBuilder assignments, Field<?> column) {
+    String name = column.getName();
+    if (assignments.length() > 0) assignments.append(", ");
+    assignments.append(name).append(" = IF(VALUES(").append(name).append(") = '', ")
+      .append(name).append(", VALUES(").append(name).append("))");
+  }
+
+  static void updateUnlessNull(StringBuilder assignments, Field<?> column) {
+    String name = column.getName();
+    if (assignments.length() > 0) assignments.append(", ");
+    assignments.append(name).append(" = COALESCE(VALUES(").append(name).append("), ")
+      .append(name).append(')');
+  }
+
   static final class BatchInsertSpans implements Function<DSLContext, Void> {
     final List<Span> spans;
     final Schema schema;
@@ -66,119 +123,85 @@ final class MySQLSpanConsumer implements SpanConsumer {
 
     @Override
     public Void apply(DSLContext create) {
-      List<Query> inserts = new ArrayList<>();
+      // Values are flattened in column order of the corresponding insert
+      List<Object> spanValues = new ArrayList<>(), sharedSpanValues = new ArrayList<>();
+      List<Object> annotationValues = new ArrayList<>();
       V2SpanConverter v2SpanConverter = V2SpanConverter.create();
 
       for (Span v2 : spans) {
-        Endpoint ep = v2.localEndpoint();
-        long timestamp = v2.timestampAsLong();
-
         V1Span v1Span = v2SpanConverter.convert(v2);
+        long traceIdHigh = schema.hasTraceIdHigh ? v1Span.traceIdHigh() : 0L;
 
-        long traceId, spanId;
-        InsertSetMoreStep<Record> insertSpan =
-            create
-                .insertInto(ZIPKIN_SPANS)
-                .set(ZIPKIN_SPANS.TRACE_ID, traceId = v1Span.traceId())
-                .set(ZIPKIN_SPANS.ID, spanId = v1Span.id())
-                .set(ZIPKIN_SPANS.DEBUG, v1Span.debug());
-
-        Map<TableField<Record, ?>, Object> updateFields = new LinkedHashMap<>();
-        if (timestamp != 0L) {
-          // tentatively we can use even a shared timestamp
-          insertSpan.set(ZIPKIN_SPANS.START_TS, timestamp);
-          // replace any tentative timestamp with the authoritative one.
-          if (!Boolean.TRUE.equals(v2.shared())) updateFields.put(ZIPKIN_SPANS.START_TS, timestamp);
-        }
-
-        updateName(v1Span.name(), ZIPKIN_SPANS.NAME, insertSpan, updateFields);
-        if (schema.hasRemoteServiceName) {
-          updateName(v2.remoteServiceName(), ZIPKIN_SPANS.REMOTE_SERVICE_NAME, insertSpan, updateFields);
-        }
-
-        long duration = v1Span.duration();
-        if (duration != 0L) {
-          insertSpan.set(ZIPKIN_SPANS.DURATION, duration);
-          updateFields.put(ZIPKIN_SPANS.DURATION, duration);
-        }
+        // a shared span's timestamp is tentative: it shouldn't replace the authoritative one
+        addSpan(Boolean.TRUE.equals(v2.shared()) ? sharedSpanValues : spanValues, v2, v1Span,
+          traceIdHigh);
+        addAnnotations(annotationValues, v2, v1Span, traceIdHigh);
+      }
 
-        if (v1Span.parentId() != 0) {
-          insertSpan.set(ZIPKIN_SPANS.PARENT_ID, v1Span.parentId());
-          updateFields.put(ZIPKIN_SPANS.PARENT_ID, v1Span.parentId());
-        }
+      schema.insertSpans.execute(create, spanValues);
+      schema.insertSharedSpans.execute(create, sharedSpanValues);
+      schema.insertAnnotations.execute(create, annotationValues);
+      return null;
+    }
 
-        long traceIdHigh = schema.hasTraceIdHigh ? v1Span.traceIdHigh() : 0L;
-        if (traceIdHigh != 0L) {
-          insertSpan.set(ZIPKIN_SPANS.TRACE_ID_HIGH, traceIdHigh);
-        }
+    /** Adds values in the same order as {@link MySQLSpanConsumer#insertSpans(Schema, boolean)} */
+    void addSpan(List<Object> values, Span v2, V1Span v1Span, long traceIdHigh) {
+      if (schema.hasTraceIdHigh) values.add(traceIdHigh);
+      values.add(v1Span.traceId());
+      values.add(v1Span.id());
+      values.add(nameOrEmpty(v1Span.name()));
+      if (schema.hasRemoteServiceName) values.add(nameOrEmpty(v2.remoteServiceName()));
+      values.add(v1Span.parentId() != 0L ? v1Span.parentId() : null);
+      values.add(v1Span.debug());
+      long timestamp = v2.timestampAsLong();
+      values.add(timestamp != 0L ? timestamp : null);
+      long duration = v1Span.duration();
+      values.add(duration != 0L ? duration : null);
+    }
 
-        inserts.add(
-            updateFields.isEmpty()
-                ? insertSpan.onDuplicateKeyIgnore()
-                : insertSpan.onDuplicateKeyUpdate().set(updateFields));
-
-        int ipv4 =
-            ep != null && ep.ipv4Bytes() != null ? ByteBuffer.wrap(ep.ipv4Bytes()).getInt() : 0;
-        for (V1Annotation a : v1Span.annotations()) {
-          InsertSetMoreStep<Record> insert =
-              create
-                  .insertInto(ZIPKIN_ANNOTATIONS)
-                  .set(ZIPKIN_ANNOTATIONS.TRACE_ID, traceId)
-                  .set(ZIPKIN_ANNOTATIONS.SPAN_ID, spanId)
-                  .set(ZIPKIN_ANNOTATIONS.A_KEY, a.value())
-                  .set(ZIPKIN_ANNOTATIONS.A_TYPE, -1)
-                  .set(ZIPKIN_ANNOTATIONS.A_TIMESTAMP, a.timestamp());
-          if (traceIdHigh != 0L) {
-            insert.set(ZIPKIN_ANNOTATIONS.TRACE_ID_HIGH, traceIdHigh);
-          }
-          addEndpoint(insert, ep, ipv4);
-          inserts.add(insert.onDuplicateKeyIgnore());
-        }
+    void addAnnotations(List<Object> values, Span v2, V1Span v1Span, long traceIdHigh) {
+      Endpoint ep = v2.localEndpoint();
+      int ipv4 =
+          ep != null && ep.ipv4Bytes() != null ? ByteBuffer.wrap(ep.ipv4Bytes()).getInt() : 0;
+      for (V1Annotation a : v1Span.annotations()) {
+        addAnnotation(values, v1Span, traceIdHigh, a.value(), null, -1, a.timestamp(), ep, ipv4);
+      }
 
-        for (V1BinaryAnnotation ba : v1Span.binaryAnnotations()) {
-          InsertSetMoreStep<Record> insert =
-              create
-                  .insertInto(ZIPKIN_ANNOTATIONS)
-                  .set(ZIPKIN_ANNOTATIONS.TRACE_ID, traceId)
-                  .set(ZIPKIN_ANNOTATIONS.SPAN_ID, spanId)
-                  .set(ZIPKIN_ANNOTATIONS.A_KEY, ba.key())
-                  .set(ZIPKIN_ANNOTATIONS.A_TYPE, ba.type())
-                  .set(ZIPKIN_ANNOTATIONS.A_TIMESTAMP, timestamp);
-          if (traceIdHigh != 0) {
-            insert.set(ZIPKIN_ANNOTATIONS.TRACE_ID_HIGH, traceIdHigh);
-          }
-          if (ba.stringValue() != null) {
-            insert.set(ZIPKIN_ANNOTATIONS.A_VALUE, ba.stringValue().getBytes(UTF_8));
-            addEndpoint(insert, ep, ipv4);
-          } else { // add the address annotation
-            insert.set(ZIPKIN_ANNOTATIONS.A_VALUE, ONE);
-            Endpoint nextEp = ba.endpoint();
-            addEndpoint(
-                insert,
-                nextEp,
-                nextEp.ipv4Bytes() != null ? ByteBuffer.wrap(nextEp.ipv4Bytes()).getInt() : 0);
-          }
-          inserts.add(insert.onDuplicateKeyIgnore());
+      long timestamp = v2.timestampAsLong();
+      for (V1BinaryAnnotation ba : v1Span.binaryAnnotations()) {
+        if (ba.stringValue() != null) {
+          addAnnotation(values, v1Span, traceIdHigh, ba.key(), ba.stringValue().getBytes(UTF_8),
+            ba.type(), timestamp, ep, ipv4);
+        } else { // add the address annotation
+          Endpoint nextEp = ba.endpoint();
+          addAnnotation(values, v1Span, traceIdHigh, ba.key(), ONE, ba.type(), timestamp, nextEp,
+            nextEp.ipv4Bytes() != null ? ByteBuffer.wrap(nextEp.ipv4Bytes()).getInt() : 0);
         }
       }
-      create.batch(inserts).execute();
-      return null;
     }
 
-    void addEndpoint(InsertSetMoreStep<Record> insert, Endpoint ep, int ipv4) {
-      if (ep == null) return;
-      // old code wrote empty service names
-      String serviceName = ep.serviceName() != null ? ep.serviceName() : "";
-      insert.set(ZIPKIN_ANNOTATIONS.ENDPOINT_SERVICE_NAME, serviceName);
-      if (ipv4 != 0) {
-        insert.set(ZIPKIN_ANNOTATIONS.ENDPOINT_IPV4, ipv4);
-      }
-      if (ep.ipv6Bytes() != null && schema.hasIpv6) {
-        insert.set(ZIPKIN_ANNOTATIONS.ENDPOINT_IPV6, ep.ipv6Bytes());
-      }
-      if (ep.portAsInt() != 0) {
-        insert.set(ZIPKIN_ANNOTATIONS.ENDPOINT_PORT, (short) ep.portAsInt());
+    /** Adds values in the same order as {@link MySQLSpanConsumer#insertAnnotations(Schema)} */
+    void addAnnotation(List<Object> values, V1Span v1Span, long traceIdHigh, String key,
+      @Nullable byte[] value, int type, long timestamp, @Nullable Endpoint ep, int ipv4) {
+      if (schema.hasTraceIdHigh) values.add(traceIdHigh);
+      values.add(v1Span.traceId());
+      values.add(v1Span.id());
+      values.add(key);
+      values.add(value);
+      values.add(type);
+      values.add(timestamp);
+      if (ep == null) {
+        values.add(null); // endpoint_ipv4
+        if (schema.hasIpv6) values.add(null);
+        values.add(null); // endpoint_port
+        values.add(null); // endpoint_service_name
+        return;
       }
+      values.add(ipv4 != 0 ? ipv4 : null);
+      if (schema.hasIpv6) values.add(ep.ipv6Bytes());
+      values.add(ep.portAsInt() != 0 ? (short) ep.portAsInt() : null);
+      // old code wrote empty service names
+      values.add(ep.serviceName() != null ? ep.serviceName() : "");
     }
 
     @Override
@@ -187,14 +210,8 @@ final class MySQLSpanConsumer implements SpanConsumer {
     }
   }
 
-  static void updateName(@Nullable String name, TableField<Record, String> column,
-    InsertSetMoreStep<Record> insertSpan, Map<TableField<Record, ?>, Object> updateFields) {
-    if (name != null && !name.equals("unknown")) {
-      insertSpan.set(column, name);
-      updateFields.put(column, name);
-    } else {
-      // old code wrote empty span name
-      insertSpan.set(column, "");
-    }
+  static String nameOrEmpty(@Nullable String name) {
+    // old code wrote empty span name
+    return name != null && !name.equals("unknown") ? name : "";
   }
 }
@@ -30,7 +30,7 @@ final class MySQLSpanStore implements SpanStore, ServiceAndSpanNames {
 
   final DataSourceCall.Factory dataSourceCallFactory;
   final Schema schema;
-  final boolean strictTraceId, searchEnabled;
+  final boolean strictTraceId, searchEnabled, dependencyRollup;
   final SelectSpansAndAnnotations.Factory selectFromSpansAndAnnotationsFactory;
   final Call.Mapper<List<Span>, List<List<Span>>> groupByTraceId;
   final DataSourceCall<List<String>> getServiceNamesCall;
@@ -40,6 +40,7 @@ final class MySQLSpanStore implements SpanStore, ServiceAndSpanNames {
     this.schema = schema;
     this.strictTraceId = storage.strictTraceId;
     this.searchEnabled = storage.searchEnabled;
+    this.dependencyRollup = storage.dependencyRollup;
     this.selectFromSpansAndAnnotationsFactory =
       new SelectSpansAndAnnotations.Factory(schema, strictTraceId);
     this.groupByTraceId = GroupByTraceId.create(strictTraceId);
@@ -93,6 +94,11 @@ final class MySQLSpanStore implements SpanStore, ServiceAndSpanNames {
     if (schema.hasPreAggregatedDependencies) {
       return dataSourceCallFactory.create(new SelectDependencies(schema, getDays(endTs, lookback)));
     }
+    // The hourly table isn't updated unless rollup is enabled, so it could be stale or empty
+    if (dependencyRollup && schema.hasDependenciesHourly) {
+      return dataSourceCallFactory.create(
+        new SelectDependenciesHourly(schema, endTs - lookback, endTs));
+    }
     return dataSourceCallFactory.create(
       new AggregateDependencies(schema, endTs * 1000 - lookback * 1000, endTs * 1000));
   }
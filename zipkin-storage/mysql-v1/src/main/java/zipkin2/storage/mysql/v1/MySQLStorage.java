@@ -18,6 +18,9 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import javax.sql.DataSource;
 import org.jooq.ExecuteListenerProvider;
 import org.jooq.conf.Settings;
@@ -31,6 +34,7 @@ import zipkin2.storage.StorageComponent;
 
 import static zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinAnnotations.ZIPKIN_ANNOTATIONS;
 import static zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinDependencies.ZIPKIN_DEPENDENCIES;
+import static zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinDependenciesHourly.ZIPKIN_DEPENDENCIES_HOURLY;
 import static zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinSpans.ZIPKIN_SPANS;
 
 public final class MySQLStorage extends StorageComponent {
@@ -39,7 +43,7 @@ public final class MySQLStorage extends StorageComponent {
   }
 
   public static final class Builder extends StorageComponent.Builder {
-    boolean strictTraceId = true, searchEnabled = true;
+    boolean strictTraceId = true, searchEnabled = true, dependencyRollup;
     private DataSource datasource;
     private Settings settings = new Settings().withRenderSchema(false);
     private ExecuteListenerProvider listenerProvider;
@@ -79,6 +83,19 @@ public final class MySQLStorage extends StorageComponent {
       return this;
     }
 
+    /**
+     * When true, a background thread periodically rolls up completed hours into {@code
+     * zipkin_dependencies_hourly}. This makes {@link SpanStore#getDependencies(long, long)} read
+     * pre-aggregated rows instead of scanning spans in the whole lookback. Defaults to false.
+     *
+     * <p>This is not needed when the zipkin-dependencies Spark job populates {@code
+     * zipkin_dependencies}, as that table takes precedence.
+     */
+    public Builder dependencyRollup(boolean dependencyRollup) {
+      this.dependencyRollup = dependencyRollup;
+      return this;
+    }
+
     public Builder executor(Executor executor) {
       if (executor == null) throw new NullPointerException("executor == null");
       this.executor = executor;
@@ -99,9 +116,12 @@ public final class MySQLStorage extends StorageComponent {
   final DataSource datasource;
   final DataSourceCall.Factory dataSourceCallFactory;
   final DSLContexts context;
-  final boolean strictTraceId, searchEnabled;
+  final boolean strictTraceId, searchEnabled, dependencyRollup;
   final List<String> autocompleteKeys;
   volatile Schema schema;
+  /** Runs {@link RollupDependencies}, or null when disabled. Guarded by this */
+  @Nullable ScheduledExecutorService rollupScheduler;
+  boolean closeCalled; // guarded by this
 
   MySQLStorage(MySQLStorage.Builder builder) {
     datasource = builder.datasource;
@@ -112,6 +132,7 @@ public final class MySQLStorage extends StorageComponent {
     dataSourceCallFactory = new DataSourceCall.Factory(datasource, context, executor);
     strictTraceId = builder.strictTraceId;
     searchEnabled = builder.searchEnabled;
+    dependencyRollup = builder.dependencyRollup;
     autocompleteKeys = builder.autocompleteKeys;
   }
 
@@ -125,7 +146,18 @@ public final class MySQLStorage extends StorageComponent {
     if (schema == null) {
       synchronized (this) {
         if (schema == null) {
-          schema = new Schema(datasource, context, strictTraceId);
+          Schema schema = new Schema(datasource, context, strictTraceId);
+          if (dependencyRollup && schema.hasDependenciesHourly && !closeCalled) {
+            rollupScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+              Thread thread = new Thread(r, "zipkin-mysql-dependency-rollup");
+              thread.setDaemon(true);
+              return thread;
+            });
+            rollupScheduler.scheduleWithFixedDelay(
+              new RollupDependencies(schema, dataSourceCallFactory, System::currentTimeMillis),
+              0, RollupDependencies.RUN_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+          }
+          this.schema = schema;
         }
       }
     }
@@ -161,8 +193,10 @@ public final class MySQLStorage extends StorageComponent {
     return "MySQLStorage{datasource=" + datasource + "}";
   }
 
-  @Override public void close() {
-    // didn't open the DataSource or executor
+  @Override public synchronized void close() {
+    // didn't open the DataSource or executor, only the rollup scheduler
+    closeCalled = true;
+    if (rollupScheduler != null) rollupScheduler.shutdownNow();
   }
 
   /** Visible for testing */
@@ -171,6 +205,9 @@ public final class MySQLStorage extends StorageComponent {
       context.get(conn).truncate(ZIPKIN_SPANS).execute();
       context.get(conn).truncate(ZIPKIN_ANNOTATIONS).execute();
       context.get(conn).truncate(ZIPKIN_DEPENDENCIES).execute();
+      if (schema().hasDependenciesHourly) {
+        context.get(conn).truncate(ZIPKIN_DEPENDENCIES_HOURLY).execute();
+      }
     } catch (SQLException | RuntimeException e) {
       throw new AssertionError(e);
     }
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.mysql.v1;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jooq.DSLContext;
+import zipkin2.Call;
+import zipkin2.DependencyLink;
+
+import static java.util.Arrays.asList;
+import static org.jooq.impl.DSL.max;
+import static zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinDependenciesHourly.ZIPKIN_DEPENDENCIES_HOURLY;
+
+/**
+ * Incrementally aggregates dependency links into {@code zipkin_dependencies_hourly}, so that
+ * {@link MySQLSpanStore#getDependencies(long, long)} can sum pre-aggregated rows instead of
+ * scanning every span in the lookback.
+ *
+ * <p>Each run aggregates complete hours after the last one rolled up. An hour is only rolled up
+ * {@link #SETTLE_MILLIS} after it ends, as its traces may still be reported. A trace belongs to the
+ * hour its first span started in, and all of its spans are linked, even those in later hours. Rows
+ * are overwritten, not incremented, so rolling up the same hour twice, for example by two servers
+ * sharing a database, doesn't double-count.
+ *
+ * <p>This is scheduled by {@link MySQLStorage} every {@link #RUN_INTERVAL_MILLIS}, so that the
+ * write path is never delayed by a rollup.
+ */
+final class RollupDependencies implements Function<DSLContext, Integer>, Runnable {
+  static final Logger LOG = Logger.getLogger(RollupDependencies.class.getName());
+  static final long HOUR = TimeUnit.HOURS.toMillis(1);
+  /** How long after the end of an hour until its traces are considered complete */
+  static final long SETTLE_MILLIS = TimeUnit.MINUTES.toMillis(15);
+  /** When nothing was rolled up yet, start this far back */
+  static final long INITIAL_LOOKBACK = TimeUnit.DAYS.toMillis(1);
+  /** Bounds the time a run holds a connection when catching up */
+  static final int MAX_HOURS_PER_RUN = 6;
+  static final long RUN_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  static long floorHour(long epochMillis) {
+    return epochMillis - (epochMillis % HOUR);
+  }
+
+  final Schema schema;
+  final DataSourceCall.Factory factory;
+  final LongSupplier clock;
+  final MultiRowInsert upsert;
+  /** Epoch millis of the next hour to roll up, or -1 if not yet read. Accessed serially */
+  long nextHour = -1L;
+
+  RollupDependencies(Schema schema, DataSourceCall.Factory factory, LongSupplier clock) {
+    this.schema = schema;
+    this.factory = factory;
+    this.clock = clock;
+    this.upsert = MultiRowInsert.onDuplicateKeyUpdate(ZIPKIN_DEPENDENCIES_HOURLY,
+      asList(ZIPKIN_DEPENDENCIES_HOURLY.HOUR_TS, ZIPKIN_DEPENDENCIES_HOURLY.PARENT,
+        ZIPKIN_DEPENDENCIES_HOURLY.CHILD, ZIPKIN_DEPENDENCIES_HOURLY.CALL_COUNT,
+        ZIPKIN_DEPENDENCIES_HOURLY.ERROR_COUNT),
+      "call_count = VALUES(call_count), error_count = VALUES(error_count)");
+  }
+
+  /** Runs on the scheduler thread. Errors are logged, so that the next run is still scheduled. */
+  @Override public void run() {
+    try {
+      int hours = factory.create(this).execute();
+      if (hours > 0 && LOG.isLoggable(Level.FINE)) {
+        LOG.fine("rolled up dependency links for " + hours + " hours");
+      }
+    } catch (Throwable t) {
+      Call.propagateIfFatal(t);
+      LOG.log(Level.WARNING, "error rolling up dependency links", t);
+    }
+  }
+
+  /** Returns the count of hours rolled up. */
+  @Override public Integer apply(DSLContext context) {
+    long now = clock.getAsLong();
+    if (nextHour == -1L) {
+      Long lastHour =
+        context.select(max(ZIPKIN_DEPENDENCIES_HOURLY.HOUR_TS)).from(ZIPKIN_DEPENDENCIES_HOURLY)
+          .fetchOne().value1();
+      nextHour = lastHour != null ? lastHour + HOUR : floorHour(now - INITIAL_LOOKBACK);
+    }
+
+    int hours = 0;
+    while (hours < MAX_HOURS_PER_RUN && nextHour + HOUR + SETTLE_MILLIS <= now) {
+      List<DependencyLink> links = AggregateDependencies.startedIn(
+        schema, nextHour * 1000, (nextHour + HOUR) * 1000 - 1).apply(context);
+      write(context, nextHour, links);
+      nextHour += HOUR;
+      hours++;
+    }
+    return hours;
+  }
+
+  void write(DSLContext context, long hour, List<DependencyLink> links) {
+    if (links.isEmpty()) return;
+    List<Object> values = new ArrayList<>(links.size() * upsert.columnCount());
+    for (DependencyLink link : links) {
+      values.add(hour);
+      values.add(link.parent());
+      values.add(link.child());
+      values.add(link.callCount());
+      values.add(link.errorCount());
+    }
+    upsert.execute(context, values);
+  }
+
+  @Override public String toString() {
+    return "RollupDependencies{nextHour=" + nextHour + "}";
+  }
+}
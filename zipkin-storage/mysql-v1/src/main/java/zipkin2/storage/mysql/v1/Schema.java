@@ -15,15 +15,14 @@ package zipkin2.storage.mysql.v1;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 import javax.sql.DataSource;
 import org.jooq.Condition;
 import org.jooq.Field;
 import org.jooq.Record;
-import org.jooq.Result;
 import org.jooq.Row2;
-import org.jooq.SelectOffsetStep;
 import org.jooq.TableField;
 import zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinAnnotations;
 
@@ -41,14 +40,18 @@ final class Schema {
   final List<Field<?>> dependencyLinkFields;
   final boolean hasTraceIdHigh;
   final boolean hasPreAggregatedDependencies;
+  final boolean hasDependenciesHourly;
   final boolean hasIpv6;
   final boolean hasErrorCount;
   final boolean hasRemoteServiceName;
   final boolean strictTraceId;
+  /** Span inserts that do or don't replace a tentative start_ts, and annotation inserts */
+  final MultiRowInsert insertSpans, insertSharedSpans, insertAnnotations;
 
   Schema(DataSource datasource, DSLContexts context, boolean strictTraceId) {
     hasTraceIdHigh = HasTraceIdHigh.test(datasource, context);
     hasPreAggregatedDependencies = HasPreAggregatedDependencies.test(datasource, context);
+    hasDependenciesHourly = HasDependenciesHourly.test(datasource, context);
     hasIpv6 = HasIpv6.test(datasource, context);
     hasErrorCount = HasErrorCount.test(datasource, context);
     hasRemoteServiceName = HasRemoteServiceName.test(datasource, context);
@@ -83,6 +86,9 @@ final class Schema {
     if (!hasErrorCount) {
       dependencyLinkFields.remove(ZIPKIN_DEPENDENCIES.ERROR_COUNT);
     }
+    insertSpans = MySQLSpanConsumer.insertSpans(this, true);
+    insertSharedSpans = MySQLSpanConsumer.insertSpans(this, false);
+    insertAnnotations = MySQLSpanConsumer.insertAnnotations(this);
   }
 
   Condition joinCondition(ZipkinAnnotations annotationTable) {
@@ -105,17 +111,25 @@ final class Schema {
     return new ArrayList<>(Arrays.asList(elements));
   }
 
-  Condition spanTraceIdCondition(SelectOffsetStep<? extends Record> traceIdQuery) {
-    if (hasTraceIdHigh && strictTraceId) {
-      Result<? extends Record> result = traceIdQuery.fetch();
-      List<Row2<Long, Long>> traceIds = new ArrayList<>(result.size());
-      for (Record r : result) {
-        traceIds.add(row(r.get(ZIPKIN_SPANS.TRACE_ID_HIGH), r.get(ZIPKIN_SPANS.TRACE_ID)));
+  /** Returns true if trace IDs are compared on all 128-bits, as opposed to the lower 64. */
+  boolean hasStrictTraceIdHigh() {
+    return hasTraceIdHigh && strictTraceId;
+  }
+
+  Condition spanTraceIdCondition(Collection<Pair> traceIds) {
+    if (hasStrictTraceIdHigh()) {
+      List<Row2<Long, Long>> result = new ArrayList<>(traceIds.size());
+      for (Pair traceId128 : traceIds) {
+        result.add(row(traceId128.left, traceId128.right));
       }
-      return row(ZIPKIN_SPANS.TRACE_ID_HIGH, ZIPKIN_SPANS.TRACE_ID).in(traceIds);
+      return row(ZIPKIN_SPANS.TRACE_ID_HIGH, ZIPKIN_SPANS.TRACE_ID).in(result);
     } else {
-      List<Long> traceIds = traceIdQuery.fetch(ZIPKIN_SPANS.TRACE_ID);
-      return ZIPKIN_SPANS.TRACE_ID.in(traceIds);
+      Long[] result = new Long[traceIds.size()];
+      int i = 0;
+      for (Pair traceId128 : traceIds) {
+        result[i++] = traceId128.right;
+      }
+      return ZIPKIN_SPANS.TRACE_ID.in(result);
     }
   }
 
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.mysql.v1;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.Record2;
+import zipkin2.DependencyLink;
+import zipkin2.internal.DependencyLinker;
+
+import static org.jooq.impl.DSL.max;
+import static org.jooq.impl.DSL.min;
+import static org.jooq.impl.DSL.sum;
+import static zipkin2.storage.mysql.v1.RollupDependencies.HOUR;
+import static zipkin2.storage.mysql.v1.RollupDependencies.SETTLE_MILLIS;
+import static zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinDependenciesHourly.ZIPKIN_DEPENDENCIES_HOURLY;
+
+/**
+ * Sums hours rolled up by {@link RollupDependencies}, and aggregates traces that didn't start in
+ * those hours on demand. When nothing in the interval was rolled up, this falls back to {@link
+ * AggregateDependencies}.
+ *
+ * <p>The result approximates {@link AggregateDependencies} for the interval. To avoid scanning the
+ * whole interval again, traces that started before the rolled up hours are only read until {@link
+ * RollupDependencies#SETTLE_MILLIS} after those hours begin. Spans of such traces that are later
+ * than that aren't linked. As the settle margin is how long a trace is expected to take to report,
+ * these are rare.
+ */
+final class SelectDependenciesHourly implements Function<DSLContext, List<DependencyLink>> {
+  final Schema schema;
+  final long beginMillis, endMillis;
+
+  SelectDependenciesHourly(Schema schema, long beginMillis, long endMillis) {
+    this.schema = schema;
+    this.beginMillis = beginMillis;
+    this.endMillis = endMillis;
+  }
+
+  @Override public List<DependencyLink> apply(DSLContext context) {
+    // Only hours entirely inside the interval are read from the rollup table
+    long firstHour = RollupDependencies.floorHour(beginMillis + HOUR - 1);
+    Record2<Long, Long> range = context.select(
+      min(ZIPKIN_DEPENDENCIES_HOURLY.HOUR_TS), max(ZIPKIN_DEPENDENCIES_HOURLY.HOUR_TS))
+      .from(ZIPKIN_DEPENDENCIES_HOURLY)
+      .where(ZIPKIN_DEPENDENCIES_HOURLY.HOUR_TS.between(firstHour, endMillis - HOUR))
+      .fetchOne();
+    if (range.value1() == null) {
+      return new AggregateDependencies(schema, beginMillis * 1000, endMillis * 1000).apply(context);
+    }
+    long rolledBegin = range.value1(), rolledEnd = range.value2() + HOUR;
+
+    List<DependencyLink> unmerged = new ArrayList<>(context
+      .select(ZIPKIN_DEPENDENCIES_HOURLY.PARENT, ZIPKIN_DEPENDENCIES_HOURLY.CHILD,
+        sum(ZIPKIN_DEPENDENCIES_HOURLY.CALL_COUNT), sum(ZIPKIN_DEPENDENCIES_HOURLY.ERROR_COUNT))
+      .from(ZIPKIN_DEPENDENCIES_HOURLY)
+      .where(ZIPKIN_DEPENDENCIES_HOURLY.HOUR_TS.between(rolledBegin, rolledEnd - HOUR))
+      .groupBy(ZIPKIN_DEPENDENCIES_HOURLY.PARENT, ZIPKIN_DEPENDENCIES_HOURLY.CHILD)
+      .fetch((Record l) -> DependencyLink.newBuilder()
+        .parent(l.get(0, String.class))
+        .child(l.get(1, String.class))
+        .callCount(l.get(2, Long.class))
+        .errorCount(l.get(3, Long.class) != null ? l.get(3, Long.class) : 0L)
+        .build()));
+
+    // The rolled up hours include traces that started in them. Traces in the interval that
+    // started before or after those hours are aggregated on demand, each counted once. Only the
+    // head and tail of the interval are scanned, not the rolled up hours in between.
+    long headEnd = Math.min(rolledBegin + SETTLE_MILLIS, endMillis);
+    unmerged.addAll(AggregateDependencies.startedBefore(
+      schema, beginMillis * 1000, headEnd * 1000, rolledBegin * 1000).apply(context));
+    if (rolledEnd <= endMillis) {
+      unmerged.addAll(AggregateDependencies.startedIn(
+        schema, rolledEnd * 1000, endMillis * 1000).apply(context));
+    }
+    return DependencyLinker.merge(unmerged);
+  }
+
+  @Override public String toString() {
+    return "SelectDependenciesHourly{beginMillis="
+      + beginMillis
+      + ", endMillis="
+      + endMillis
+      + '}';
+  }
+}
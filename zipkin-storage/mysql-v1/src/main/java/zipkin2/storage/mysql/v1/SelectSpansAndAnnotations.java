@@ -14,18 +14,25 @@
 package zipkin2.storage.mysql.v1;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import org.jooq.Condition;
+import org.jooq.Cursor;
 import org.jooq.DSLContext;
+import org.jooq.Field;
 import org.jooq.Record;
+import org.jooq.Result;
 import org.jooq.Row3;
 import org.jooq.SelectConditionStep;
-import org.jooq.SelectField;
-import org.jooq.SelectOffsetStep;
+import org.jooq.SelectHavingStep;
+import org.jooq.SelectLimitStep;
+import org.jooq.SortField;
 import org.jooq.TableOnConditionStep;
 import zipkin2.Endpoint;
 import zipkin2.Span;
@@ -46,6 +53,11 @@ import static zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinAnnotatio
 import static zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinSpans.ZIPKIN_SPANS;
 
 abstract class SelectSpansAndAnnotations implements Function<DSLContext, List<Span>> {
+  /** Maximum trace IDs read per query when finding traces matching a {@link QueryRequest}. */
+  static final int TRACE_ID_PAGE_SIZE = 100;
+  /** Maximum traces whose spans and annotations are loaded per query. */
+  static final int TRACE_ID_CHUNK_SIZE = 50;
+
   static final class Factory {
     final Schema schema;
     final boolean strictTraceId;
@@ -60,8 +72,9 @@ abstract class SelectSpansAndAnnotations implements Function<DSLContext, List<Sp
       long finalTraceIdHigh = traceIdHigh;
       return new SelectSpansAndAnnotations(schema) {
         @Override
-        Condition traceIdCondition(DSLContext context) {
-          return schema.spanTraceIdCondition(finalTraceIdHigh, traceIdLow);
+        List<Condition> traceIdConditions(DSLContext context) {
+          return Collections.singletonList(
+            schema.spanTraceIdCondition(finalTraceIdHigh, traceIdLow));
         }
       };
     }
@@ -73,8 +86,15 @@ abstract class SelectSpansAndAnnotations implements Function<DSLContext, List<Sp
       }
       return new SelectSpansAndAnnotations(schema) {
         @Override
-        Condition traceIdCondition(DSLContext context) {
-          return schema.spanTraceIdCondition(toTraceIdQuery(context, request));
+        List<Condition> traceIdConditions(DSLContext context) {
+          List<Pair> traceIds = selectTraceIds(context, request);
+          List<Condition> result = new ArrayList<>();
+          for (int i = 0; i < traceIds.size(); i += TRACE_ID_CHUNK_SIZE) {
+            List<Pair> chunk =
+              traceIds.subList(i, Math.min(i + TRACE_ID_CHUNK_SIZE, traceIds.size()));
+            result.add(schema.spanTraceIdCondition(chunk));
+          }
+          return result;
         }
       };
     }
@@ -86,55 +106,73 @@ abstract class SelectSpansAndAnnotations implements Function<DSLContext, List<Sp
     this.schema = schema;
   }
 
-  abstract Condition traceIdCondition(DSLContext context);
+  /** Returns one condition per chunk of traces to load. */
+  abstract List<Condition> traceIdConditions(DSLContext context);
 
   @Override
   public List<Span> apply(DSLContext context) {
+    V1SpanConverter converter = V1SpanConverter.create();
+    List<Span> allSpans = new ArrayList<>();
+    for (Condition traceIdCondition : traceIdConditions(context)) {
+      addSpans(context, traceIdCondition, converter, allSpans);
+    }
+    return allSpans;
+  }
+
+  /**
+   * Loads the spans and annotations matching the condition. Both queries are streamed, so at most
+   * one chunk of traces is buffered at a time.
+   */
+  void addSpans(DSLContext context, Condition traceIdCondition, V1SpanConverter converter,
+    List<Span> allSpans) {
     final Map<Pair, List<V1Span.Builder>> spansWithoutAnnotations;
     final Map<Row3<Long, Long, Long>, List<Record>> dbAnnotations;
 
-    spansWithoutAnnotations =
-        context
-            .select(schema.spanFields)
-            .from(ZIPKIN_SPANS)
-            .where(traceIdCondition(context))
-            .stream()
-            .map(
-                r ->
-                    V1Span.newBuilder()
-                        .traceIdHigh(maybeGet(r, ZIPKIN_SPANS.TRACE_ID_HIGH, 0L))
-                        .traceId(r.getValue(ZIPKIN_SPANS.TRACE_ID))
-                        .name(r.getValue(ZIPKIN_SPANS.NAME))
-                        .id(r.getValue(ZIPKIN_SPANS.ID))
-                        .parentId(maybeGet(r, ZIPKIN_SPANS.PARENT_ID, 0L))
-                        .timestamp(maybeGet(r, ZIPKIN_SPANS.START_TS, 0L))
-                        .duration(maybeGet(r, ZIPKIN_SPANS.DURATION, 0L))
-                        .debug(r.getValue(ZIPKIN_SPANS.DEBUG)))
-            .collect(
-                groupingBy(
-                    s -> new Pair(s.traceIdHigh(), s.traceId()),
-                    LinkedHashMap::new,
-                    Collectors.toList()));
+    try (Cursor<Record> cursor = context
+      .select(schema.spanFields)
+      .from(ZIPKIN_SPANS)
+      .where(traceIdCondition)
+      .fetchLazy()) {
+      spansWithoutAnnotations =
+        cursor.stream()
+          .map(
+            r ->
+              V1Span.newBuilder()
+                .traceIdHigh(maybeGet(r, ZIPKIN_SPANS.TRACE_ID_HIGH, 0L))
+                .traceId(r.getValue(ZIPKIN_SPANS.TRACE_ID))
+                .name(r.getValue(ZIPKIN_SPANS.NAME))
+                .id(r.getValue(ZIPKIN_SPANS.ID))
+                .parentId(maybeGet(r, ZIPKIN_SPANS.PARENT_ID, 0L))
+                .timestamp(maybeGet(r, ZIPKIN_SPANS.START_TS, 0L))
+                .duration(maybeGet(r, ZIPKIN_SPANS.DURATION, 0L))
+                .debug(r.getValue(ZIPKIN_SPANS.DEBUG)))
+          .collect(
+            groupingBy(
+              s -> new Pair(s.traceIdHigh(), s.traceId()),
+              LinkedHashMap::new,
+              Collectors.toList()));
+    }
+    if (spansWithoutAnnotations.isEmpty()) return;
 
-    dbAnnotations =
-        context
-            .select(schema.annotationFields)
-            .from(ZIPKIN_ANNOTATIONS)
-            .where(schema.annotationsTraceIdCondition(spansWithoutAnnotations.keySet()))
-            .orderBy(ZIPKIN_ANNOTATIONS.A_TIMESTAMP.asc(), ZIPKIN_ANNOTATIONS.A_KEY.asc())
-            .stream()
-            .collect(
-                groupingBy(
-                    (Record a) ->
-                        row(
-                            maybeGet(a, ZIPKIN_ANNOTATIONS.TRACE_ID_HIGH, 0L),
-                            a.getValue(ZIPKIN_ANNOTATIONS.TRACE_ID),
-                            a.getValue(ZIPKIN_ANNOTATIONS.SPAN_ID)),
-                    LinkedHashMap::new,
-                    Collectors.toList())); // LinkedHashMap preserves order while grouping
+    try (Cursor<Record> cursor = context
+      .select(schema.annotationFields)
+      .from(ZIPKIN_ANNOTATIONS)
+      .where(schema.annotationsTraceIdCondition(spansWithoutAnnotations.keySet()))
+      .orderBy(ZIPKIN_ANNOTATIONS.A_TIMESTAMP.asc(), ZIPKIN_ANNOTATIONS.A_KEY.asc())
+      .fetchLazy()) {
+      dbAnnotations =
+        cursor.stream()
+          .collect(
+            groupingBy(
+              (Record a) ->
+                row(
+                  maybeGet(a, ZIPKIN_ANNOTATIONS.TRACE_ID_HIGH, 0L),
+                  a.getValue(ZIPKIN_ANNOTATIONS.TRACE_ID),
+                  a.getValue(ZIPKIN_ANNOTATIONS.SPAN_ID)),
+              LinkedHashMap::new,
+              Collectors.toList())); // LinkedHashMap preserves order while grouping
+    }
 
-    V1SpanConverter converter = V1SpanConverter.create();
-    List<Span> allSpans = new ArrayList<>(spansWithoutAnnotations.size());
     for (List<V1Span.Builder> spans : spansWithoutAnnotations.values()) {
       for (V1Span.Builder span : spans) {
         Row3<Long, Long, Long> key = row(span.traceIdHigh(), span.traceId(), span.id());
@@ -147,7 +185,6 @@ abstract class SelectSpansAndAnnotations implements Function<DSLContext, List<Sp
         converter.convert(span.build(), allSpans);
       }
     }
-    return allSpans;
   }
 
   static void processAnnotationRecord(Record a, V1Span.Builder span, @Nullable Endpoint endpoint) {
@@ -183,8 +220,45 @@ abstract class SelectSpansAndAnnotations implements Function<DSLContext, List<Sp
     }
   }
 
-  SelectOffsetStep<? extends Record> toTraceIdQuery(DSLContext context, QueryRequest request) {
-    long endTs = request.endTs() * 1000;
+  /**
+   * Returns up to {@link QueryRequest#limit()} trace IDs, most recent first.
+   *
+   * <p>Instead of one query with a potentially large limit, trace IDs are read in pages of at most
+   * {@link #TRACE_ID_PAGE_SIZE}, ordered by (max(start_ts), trace ID). Each page continues after
+   * the last key of the previous, and also lowers the upper bound of start_ts to the last
+   * max(start_ts) seen. This means each page scans less of the index on start_ts. As InnoDB
+   * secondary indexes include the primary key, that index covers the trace ID columns read here.
+   *
+   * <p>Lowering the start_ts bound can return a trace again, with a lower max(start_ts), when it
+   * has spans on both sides of the bound. Such duplicates are skipped.
+   */
+  List<Pair> selectTraceIds(DSLContext context, QueryRequest request) {
+    boolean strictTraceIdHigh = schema.hasStrictTraceIdHigh();
+    long endTs = request.endTs() * 1000, beginTs = endTs - request.lookback() * 1000;
+    Set<Pair> result = new LinkedHashSet<>();
+    Object[] lastKey = null;
+    while (result.size() < request.limit()) {
+      int pageSize = Math.min(request.limit() - result.size(), TRACE_ID_PAGE_SIZE);
+      Result<Record> page =
+        toTraceIdQuery(context, request, beginTs, endTs, lastKey).limit(pageSize).fetch();
+      for (Record r : page) {
+        long traceIdHigh = strictTraceIdHigh ? maybeGet(r, ZIPKIN_SPANS.TRACE_ID_HIGH, 0L) : 0L;
+        result.add(new Pair(traceIdHigh, r.getValue(ZIPKIN_SPANS.TRACE_ID)));
+      }
+      if (page.size() < pageSize) break;
+
+      lastKey = page.get(page.size() - 1).intoArray();
+      endTs = (Long) lastKey[0];
+    }
+    return new ArrayList<>(result);
+  }
+
+  /**
+   * Selects the trace ID columns grouped by trace, after the sort key {@code after}, if present.
+   * The sort key is max(start_ts) followed by {@link Schema#spanIdFields}.
+   */
+  SelectLimitStep<Record> toTraceIdQuery(DSLContext context, QueryRequest request, long beginTs,
+    long endTs, @Nullable Object[] after) {
 
     TableOnConditionStep<?> table =
         ZIPKIN_SPANS.join(ZIPKIN_ANNOTATIONS).on(schema.joinCondition(ZIPKIN_ANNOTATIONS));
@@ -215,11 +289,12 @@ abstract class SelectSpansAndAnnotations implements Function<DSLContext, List<Sp
       }
     }
 
-    List<SelectField<?>> distinctFields = new ArrayList<>(schema.spanIdFields);
-    distinctFields.add(max(ZIPKIN_SPANS.START_TS));
-    SelectConditionStep<Record> dsl = context.selectDistinct(distinctFields)
+    List<Field<?>> sortKey = new ArrayList<>();
+    sortKey.add(max(ZIPKIN_SPANS.START_TS));
+    sortKey.addAll(schema.spanIdFields);
+    SelectConditionStep<Record> dsl = context.selectDistinct(sortKey)
       .from(table)
-      .where(ZIPKIN_SPANS.START_TS.between(endTs - request.lookback() * 1000, endTs));
+      .where(ZIPKIN_SPANS.START_TS.between(beginTs, endTs));
 
     if (request.serviceName() != null) {
       dsl.and(localServiceNameCondition()
@@ -239,9 +314,11 @@ abstract class SelectSpansAndAnnotations implements Function<DSLContext, List<Sp
     } else if (request.minDuration() != null) {
       dsl.and(ZIPKIN_SPANS.DURATION.greaterOrEqual(request.minDuration()));
     }
-    return dsl.groupBy(schema.spanIdFields)
-        .orderBy(max(ZIPKIN_SPANS.START_TS).desc())
-        .limit(request.limit());
+    List<SortField<?>> orderBy = new ArrayList<>(sortKey.size());
+    for (Field<?> field : sortKey) orderBy.add(field.desc());
+    SelectHavingStep<Record> grouped = dsl.groupBy(schema.spanIdFields);
+    if (after == null) return grouped.orderBy(orderBy);
+    return grouped.having(row(sortKey).lessThan(after)).orderBy(orderBy);
   }
 
   static TableOnConditionStep<?> maybeOnService(
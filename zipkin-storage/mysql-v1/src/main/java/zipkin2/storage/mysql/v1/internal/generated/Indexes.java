@@ -12,6 +12,7 @@ import org.jooq.impl.Internal;
 
 import zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinAnnotations;
 import zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinDependencies;
+import zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinDependenciesHourly;
 import zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinSpans;
 
 
@@ -47,6 +48,7 @@ public class Indexes {
     public static final Index ZIPKIN_ANNOTATIONS_TRACE_ID_HIGH_5 = Indexes0.ZIPKIN_ANNOTATIONS_TRACE_ID_HIGH_5;
     public static final Index ZIPKIN_ANNOTATIONS_TRACE_ID_HIGH_6 = Indexes0.ZIPKIN_ANNOTATIONS_TRACE_ID_HIGH_6;
     public static final Index ZIPKIN_DEPENDENCIES_PRIMARY = Indexes0.ZIPKIN_DEPENDENCIES_PRIMARY;
+    public static final Index ZIPKIN_DEPENDENCIES_HOURLY_PRIMARY = Indexes0.ZIPKIN_DEPENDENCIES_HOURLY_PRIMARY;
     public static final Index ZIPKIN_SPANS_NAME = Indexes0.ZIPKIN_SPANS_NAME;
     public static final Index ZIPKIN_SPANS_NAME_2 = Indexes0.ZIPKIN_SPANS_NAME_2;
     public static final Index ZIPKIN_SPANS_PRIMARY = Indexes0.ZIPKIN_SPANS_PRIMARY;
@@ -77,6 +79,7 @@ public class Indexes {
         public static Index ZIPKIN_ANNOTATIONS_TRACE_ID_HIGH_5 = Internal.createIndex("trace_id_high_5", ZipkinAnnotations.ZIPKIN_ANNOTATIONS, new OrderField[] { ZipkinAnnotations.ZIPKIN_ANNOTATIONS.TRACE_ID_HIGH, ZipkinAnnotations.ZIPKIN_ANNOTATIONS.TRACE_ID, ZipkinAnnotations.ZIPKIN_ANNOTATIONS.SPAN_ID }, false);
         public static Index ZIPKIN_ANNOTATIONS_TRACE_ID_HIGH_6 = Internal.createIndex("trace_id_high_6", ZipkinAnnotations.ZIPKIN_ANNOTATIONS, new OrderField[] { ZipkinAnnotations.ZIPKIN_ANNOTATIONS.TRACE_ID_HIGH, ZipkinAnnotations.ZIPKIN_ANNOTATIONS.TRACE_ID }, false);
         public static Index ZIPKIN_DEPENDENCIES_PRIMARY = Internal.createIndex("PRIMARY", ZipkinDependencies.ZIPKIN_DEPENDENCIES, new OrderField[] { ZipkinDependencies.ZIPKIN_DEPENDENCIES.DAY, ZipkinDependencies.ZIPKIN_DEPENDENCIES.PARENT, ZipkinDependencies.ZIPKIN_DEPENDENCIES.CHILD }, true);
+        public static Index ZIPKIN_DEPENDENCIES_HOURLY_PRIMARY = Internal.createIndex("PRIMARY", ZipkinDependenciesHourly.ZIPKIN_DEPENDENCIES_HOURLY, new OrderField[] { ZipkinDependenciesHourly.ZIPKIN_DEPENDENCIES_HOURLY.HOUR_TS, ZipkinDependenciesHourly.ZIPKIN_DEPENDENCIES_HOURLY.PARENT, ZipkinDependenciesHourly.ZIPKIN_DEPENDENCIES_HOURLY.CHILD }, true);
         public static Index ZIPKIN_SPANS_NAME = Internal.createIndex("name", ZipkinSpans.ZIPKIN_SPANS, new OrderField[] { ZipkinSpans.ZIPKIN_SPANS.NAME }, false);
         public static Index ZIPKIN_SPANS_NAME_2 = Internal.createIndex("name_2", ZipkinSpans.ZIPKIN_SPANS, new OrderField[] { ZipkinSpans.ZIPKIN_SPANS.NAME }, false);
         public static Index ZIPKIN_SPANS_PRIMARY = Internal.createIndex("PRIMARY", ZipkinSpans.ZIPKIN_SPANS, new OrderField[] { ZipkinSpans.ZIPKIN_SPANS.TRACE_ID_HIGH, ZipkinSpans.ZIPKIN_SPANS.TRACE_ID, ZipkinSpans.ZIPKIN_SPANS.ID }, true);
@@ -12,6 +12,7 @@ import org.jooq.impl.Internal;
 
 import zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinAnnotations;
 import zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinDependencies;
+import zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinDependenciesHourly;
 import zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinSpans;
 
 
@@ -41,6 +42,7 @@ public class Keys {
     public static final UniqueKey<Record> KEY_ZIPKIN_ANNOTATIONS_TRACE_ID_HIGH = UniqueKeys0.KEY_ZIPKIN_ANNOTATIONS_TRACE_ID_HIGH;
     public static final UniqueKey<Record> KEY_ZIPKIN_ANNOTATIONS_TRACE_ID_HIGH_4 = UniqueKeys0.KEY_ZIPKIN_ANNOTATIONS_TRACE_ID_HIGH_4;
     public static final UniqueKey<Record> KEY_ZIPKIN_DEPENDENCIES_PRIMARY = UniqueKeys0.KEY_ZIPKIN_DEPENDENCIES_PRIMARY;
+    public static final UniqueKey<Record> KEY_ZIPKIN_DEPENDENCIES_HOURLY_PRIMARY = UniqueKeys0.KEY_ZIPKIN_DEPENDENCIES_HOURLY_PRIMARY;
     public static final UniqueKey<Record> KEY_ZIPKIN_SPANS_PRIMARY = UniqueKeys0.KEY_ZIPKIN_SPANS_PRIMARY;
 
     // -------------------------------------------------------------------------
@@ -56,6 +58,7 @@ public class Keys {
         public static final UniqueKey<Record> KEY_ZIPKIN_ANNOTATIONS_TRACE_ID_HIGH = Internal.createUniqueKey(ZipkinAnnotations.ZIPKIN_ANNOTATIONS, "KEY_zipkin_annotations_trace_id_high", ZipkinAnnotations.ZIPKIN_ANNOTATIONS.TRACE_ID_HIGH, ZipkinAnnotations.ZIPKIN_ANNOTATIONS.TRACE_ID, ZipkinAnnotations.ZIPKIN_ANNOTATIONS.SPAN_ID, ZipkinAnnotations.ZIPKIN_ANNOTATIONS.A_KEY, ZipkinAnnotations.ZIPKIN_ANNOTATIONS.A_TIMESTAMP);
         public static final UniqueKey<Record> KEY_ZIPKIN_ANNOTATIONS_TRACE_ID_HIGH_4 = Internal.createUniqueKey(ZipkinAnnotations.ZIPKIN_ANNOTATIONS, "KEY_zipkin_annotations_trace_id_high_4", ZipkinAnnotations.ZIPKIN_ANNOTATIONS.TRACE_ID_HIGH, ZipkinAnnotations.ZIPKIN_ANNOTATIONS.TRACE_ID, ZipkinAnnotations.ZIPKIN_ANNOTATIONS.SPAN_ID, ZipkinAnnotations.ZIPKIN_ANNOTATIONS.A_KEY, ZipkinAnnotations.ZIPKIN_ANNOTATIONS.A_TIMESTAMP);
         public static final UniqueKey<Record> KEY_ZIPKIN_DEPENDENCIES_PRIMARY = Internal.createUniqueKey(ZipkinDependencies.ZIPKIN_DEPENDENCIES, "KEY_zipkin_dependencies_PRIMARY", ZipkinDependencies.ZIPKIN_DEPENDENCIES.DAY, ZipkinDependencies.ZIPKIN_DEPENDENCIES.PARENT, ZipkinDependencies.ZIPKIN_DEPENDENCIES.CHILD);
+        public static final UniqueKey<Record> KEY_ZIPKIN_DEPENDENCIES_HOURLY_PRIMARY = Internal.createUniqueKey(ZipkinDependenciesHourly.ZIPKIN_DEPENDENCIES_HOURLY, "KEY_zipkin_dependencies_hourly_PRIMARY", ZipkinDependenciesHourly.ZIPKIN_DEPENDENCIES_HOURLY.HOUR_TS, ZipkinDependenciesHourly.ZIPKIN_DEPENDENCIES_HOURLY.PARENT, ZipkinDependenciesHourly.ZIPKIN_DEPENDENCIES_HOURLY.CHILD);
         public static final UniqueKey<Record> KEY_ZIPKIN_SPANS_PRIMARY = Internal.createUniqueKey(ZipkinSpans.ZIPKIN_SPANS, "KEY_zipkin_spans_PRIMARY", ZipkinSpans.ZIPKIN_SPANS.TRACE_ID_HIGH, ZipkinSpans.ZIPKIN_SPANS.TRACE_ID, ZipkinSpans.ZIPKIN_SPANS.ID);
     }
 }
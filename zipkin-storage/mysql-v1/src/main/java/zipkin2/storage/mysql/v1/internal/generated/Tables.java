@@ -8,6 +8,7 @@ import javax.annotation.Generated;
 
 import zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinAnnotations;
 import zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinDependencies;
+import zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinDependenciesHourly;
 import zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinSpans;
 
 
@@ -34,6 +35,11 @@ public class Tables {
      */
     public static final ZipkinDependencies ZIPKIN_DEPENDENCIES = zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinDependencies.ZIPKIN_DEPENDENCIES;
 
+    /**
+     * The table <code>zipkin.zipkin_dependencies_hourly</code>.
+     */
+    public static final ZipkinDependenciesHourly ZIPKIN_DEPENDENCIES_HOURLY = zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinDependenciesHourly.ZIPKIN_DEPENDENCIES_HOURLY;
+
     /**
      * The table <code>zipkin.zipkin_spans</code>.
      */
@@ -16,6 +16,7 @@ import org.jooq.impl.SchemaImpl;
 
 import zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinAnnotations;
 import zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinDependencies;
+import zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinDependenciesHourly;
 import zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinSpans;
 
 
@@ -49,6 +50,11 @@ public class Zipkin extends SchemaImpl {
      */
     public final ZipkinDependencies ZIPKIN_DEPENDENCIES = zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinDependencies.ZIPKIN_DEPENDENCIES;
 
+    /**
+     * The table <code>zipkin.zipkin_dependencies_hourly</code>.
+     */
+    public final ZipkinDependenciesHourly ZIPKIN_DEPENDENCIES_HOURLY = zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinDependenciesHourly.ZIPKIN_DEPENDENCIES_HOURLY;
+
     /**
      * The table <code>zipkin.zipkin_spans</code>.
      */
@@ -81,6 +87,7 @@ public class Zipkin extends SchemaImpl {
         return Arrays.<Table<?>>asList(
             ZipkinAnnotations.ZIPKIN_ANNOTATIONS,
             ZipkinDependencies.ZIPKIN_DEPENDENCIES,
+            ZipkinDependenciesHourly.ZIPKIN_DEPENDENCIES_HOURLY,
             ZipkinSpans.ZIPKIN_SPANS);
     }
 }
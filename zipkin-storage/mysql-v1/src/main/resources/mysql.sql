@@ -60,3 +60,12 @@ CREATE TABLE IF NOT EXISTS zipkin_dependencies (
   `error_count` BIGINT,
   PRIMARY KEY (`day`, `parent`, `child`)
 ) ENGINE=InnoDB ROW_FORMAT=COMPRESSED CHARACTER SET=utf8 COLLATE utf8_general_ci;
+
+CREATE TABLE IF NOT EXISTS zipkin_dependencies_hourly (
+  `hour_ts` BIGINT NOT NULL COMMENT 'Epoch millis of the hour the traces started in',
+  `parent` VARCHAR(255) NOT NULL,
+  `child` VARCHAR(255) NOT NULL,
+  `call_count` BIGINT,
+  `error_count` BIGINT,
+  PRIMARY KEY (`hour_ts`, `parent`, `child`)
+) ENGINE=InnoDB ROW_FORMAT=COMPRESSED CHARACTER SET=utf8 COLLATE utf8_general_ci;
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.mysql.v1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.jooq.DSLContext;
+import org.jooq.ExecuteContext;
+import org.jooq.Field;
+import org.jooq.conf.Settings;
+import org.jooq.impl.DefaultExecuteListener;
+import org.jooq.impl.DefaultExecuteListenerProvider;
+import org.jooq.tools.jdbc.MockConnection;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinSpans.ZIPKIN_SPANS;
+
+public class MultiRowInsertTest {
+  List<Field<?>> columns = Arrays.asList(ZIPKIN_SPANS.TRACE_ID, ZIPKIN_SPANS.NAME);
+
+  List<String> sql = new ArrayList<>();
+  List<List<Object>> bindings = new ArrayList<>();
+  List<String> listened = new ArrayList<>();
+  DSLContexts contexts = new DSLContexts(new Settings().withRenderSchema(false),
+    new DefaultExecuteListenerProvider(new DefaultExecuteListener() {
+      @Override public void executeEnd(ExecuteContext ctx) {
+        listened.add(ctx.sql());
+      }
+    }));
+  DSLContext context = contexts.get(new MockConnection(ctx -> {
+    sql.add(ctx.sql());
+    Object[][] batchBindings = ctx.batchBindings();
+    MockResult[] results = new MockResult[batchBindings.length];
+    for (int i = 0; i < batchBindings.length; i++) {
+      bindings.add(Arrays.asList(batchBindings[i]));
+      results[i] = new MockResult(batchBindings[i].length / columns.size(), null);
+    }
+    return results;
+  }));
+
+  @Test public void sql_insertIgnore() {
+    MultiRowInsert insert = MultiRowInsert.insertIgnore(ZIPKIN_SPANS, columns);
+
+    assertThat(insert.sql(2)).isEqualTo(
+      "INSERT IGNORE INTO zipkin_spans (trace_id, name) VALUES (?, ?), (?, ?)");
+  }
+
+  @Test public void sql_onDuplicateKeyUpdate() {
+    MultiRowInsert insert =
+      MultiRowInsert.onDuplicateKeyUpdate(ZIPKIN_SPANS, columns, "name = VALUES(name)");
+
+    assertThat(insert.sql(1)).isEqualTo("INSERT INTO zipkin_spans (trace_id, name) VALUES (?, ?)"
+      + " ON DUPLICATE KEY UPDATE name = VALUES(name)");
+  }
+
+  @Test public void execute_chunksByRowCount() {
+    MultiRowInsert insert = new MultiRowInsert("INSERT INTO ", ZIPKIN_SPANS, columns, "", 2);
+
+    List<Object> values = new ArrayList<>();
+    for (long i = 1; i <= 5; i++) {
+      values.add(i);
+      values.add(i == 3 ? null : "get");
+    }
+    insert.execute(context, values);
+
+    // two full statements batched, then a statement for the remaining row
+    assertThat(sql).containsExactly(insert.sql(2), insert.sql(1));
+    assertThat(bindings).containsExactly(
+      Arrays.asList(1L, "get", 2L, "get"),
+      Arrays.asList(3L, null, 4L, "get"),
+      Arrays.asList(5L, "get"));
+  }
+
+  /** Self-tracing is an execute listener, so statements must not bypass jOOQ */
+  @Test public void execute_notifiesListeners() {
+    MultiRowInsert insert = new MultiRowInsert("INSERT INTO ", ZIPKIN_SPANS, columns, "", 2);
+
+    insert.execute(context, Arrays.asList(1L, "get", 2L, "get", 3L, "get", 4L, "get", 5L, "get"));
+
+    assertThat(listened).containsExactly(insert.sql(2), insert.sql(1));
+  }
+
+  @Test public void execute_emptyDoesNothing() {
+    MultiRowInsert insert = MultiRowInsert.insertIgnore(ZIPKIN_SPANS, columns);
+
+    insert.execute(context, new ArrayList<>());
+
+    assertThat(sql).isEmpty();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void execute_valuesMustMatchColumns() {
+    MultiRowInsert insert = MultiRowInsert.insertIgnore(ZIPKIN_SPANS, columns);
+
+    insert.execute(context, Arrays.asList(1L));
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.mysql.v1;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record1;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.conf.Settings;
+import org.jooq.conf.StatementType;
+import org.jooq.impl.DSL;
+import org.jooq.tools.jdbc.MockConnection;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.Test;
+import zipkin2.DependencyLink;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.jooq.impl.DSL.max;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static zipkin2.storage.mysql.v1.RollupDependencies.HOUR;
+import static zipkin2.storage.mysql.v1.RollupDependencies.INITIAL_LOOKBACK;
+import static zipkin2.storage.mysql.v1.RollupDependencies.MAX_HOURS_PER_RUN;
+import static zipkin2.storage.mysql.v1.RollupDependencies.SETTLE_MILLIS;
+import static zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinDependenciesHourly.ZIPKIN_DEPENDENCIES_HOURLY;
+
+public class RollupDependenciesTest {
+  static final long TODAY = TimeUnit.DAYS.toMillis(18000);
+  static final DSLContext CREATE = DSL.using(SQLDialect.MYSQL);
+
+  // inline values so that assertions can read the SQL
+  Settings settings =
+    new Settings().withRenderSchema(false).withStatementType(StatementType.STATIC_STATEMENT);
+  DSLContexts contexts = new DSLContexts(settings, null);
+  Schema schema = new Schema(mock(DataSource.class), contexts, true);
+
+  long now = TODAY;
+  Long lastHour; // null when nothing was rolled up yet
+  List<String> sql = new ArrayList<>();
+  DSLContext context = contexts.get(new MockConnection(ctx -> {
+    sql.add(ctx.sql());
+    if (ctx.sql().contains("max(")) {
+      return new MockResult[] {new MockResult(1, lastHourResult())};
+    }
+    return new MockResult[] {new MockResult(0, CREATE.newResult(
+      schema.dependencyLinkerFields.toArray(new Field<?>[0])))};
+  }));
+
+  RollupDependencies rollup = new RollupDependencies(schema, null, () -> now);
+
+  @Test public void floorHour() {
+    assertThat(RollupDependencies.floorHour(TODAY + HOUR - 1)).isEqualTo(TODAY);
+    assertThat(RollupDependencies.floorHour(TODAY + HOUR)).isEqualTo(TODAY + HOUR);
+  }
+
+  @Test public void apply_startsAtInitialLookback() {
+    now = TODAY + INITIAL_LOOKBACK;
+
+    assertThat(rollup.apply(context)).isEqualTo(MAX_HOURS_PER_RUN);
+
+    assertThat(rollup.nextHour).isEqualTo(TODAY + MAX_HOURS_PER_RUN * HOUR);
+    assertThat(sql).hasSize(1 + MAX_HOURS_PER_RUN);
+  }
+
+  /** Each hour includes whole traces that started in it, even if they continue after the hour. */
+  @Test public void apply_aggregatesTracesThatStartedInTheHour() {
+    lastHour = TODAY;
+    now = TODAY + 2 * HOUR + SETTLE_MILLIS;
+
+    assertThat(rollup.apply(context)).isEqualTo(1);
+
+    long hourMicros = (TODAY + HOUR) * 1000;
+    assertThat(sql.get(1))
+      .contains("between " + hourMicros + " and " + (hourMicros + HOUR * 1000 - 1))
+      .contains("not exists")
+      .contains("`earlier`.`start_ts` < " + hourMicros);
+  }
+
+  @Test public void apply_skipsHoursThatMayStillHaveSpans() {
+    lastHour = TODAY;
+    now = TODAY + 2 * HOUR + SETTLE_MILLIS - 1;
+
+    assertThat(rollup.apply(context)).isZero();
+    assertThat(rollup.nextHour).isEqualTo(TODAY + HOUR);
+  }
+
+  @Test public void apply_readsLastHourOnce() {
+    lastHour = TODAY;
+    now = TODAY + 2 * HOUR + SETTLE_MILLIS;
+    rollup.apply(context);
+    sql.clear();
+
+    now += HOUR;
+    assertThat(rollup.apply(context)).isEqualTo(1);
+
+    assertThat(sql).hasSize(1).noneMatch(s -> s.contains("max("));
+  }
+
+  @Test public void write_upsertsHour() {
+    rollup.write(context, TODAY, asList(DependencyLink.newBuilder()
+      .parent("frontend").child("backend").callCount(2L).errorCount(1L).build()));
+
+    assertThat(sql).containsExactly("INSERT INTO zipkin_dependencies_hourly"
+      + " (hour_ts, parent, child, call_count, error_count)"
+      + " VALUES (" + TODAY + ", 'frontend', 'backend', 2, 1)"
+      + " ON DUPLICATE KEY UPDATE"
+      + " call_count = VALUES(call_count), error_count = VALUES(error_count)");
+  }
+
+  @Test public void write_emptyDoesNothing() {
+    rollup.write(context, TODAY, new ArrayList<>());
+
+    assertThat(sql).isEmpty();
+  }
+
+  /** Errors are logged instead of thrown, as a thrown error would cancel the schedule. */
+  @Test public void run_doesntPropagateErrors() throws SQLException {
+    DataSource dataSource = mock(DataSource.class);
+    when(dataSource.getConnection()).thenThrow(new SQLException("foo"));
+
+    new RollupDependencies(schema, new DataSourceCall.Factory(dataSource, contexts, Runnable::run),
+      () -> now).run();
+  }
+
+  Result<?> lastHourResult() {
+    Field<Long> maxHour = max(ZIPKIN_DEPENDENCIES_HOURLY.HOUR_TS);
+    Result<Record1<Long>> result = CREATE.newResult(maxHour);
+    result.add(CREATE.newRecord(maxHour).values(lastHour));
+    return result;
+  }
+}
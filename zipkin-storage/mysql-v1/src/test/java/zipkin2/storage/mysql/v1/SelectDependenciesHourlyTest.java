@@ -0,0 +1,174 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage.mysql.v1;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.jooq.AggregateFunction;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record2;
+import org.jooq.Record4;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.conf.Settings;
+import org.jooq.conf.StatementType;
+import org.jooq.impl.DSL;
+import org.jooq.tools.jdbc.MockConnection;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.Test;
+import zipkin2.DependencyLink;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.jooq.impl.DSL.max;
+import static org.jooq.impl.DSL.min;
+import static org.jooq.impl.DSL.sum;
+import static org.mockito.Mockito.mock;
+import static zipkin2.storage.mysql.v1.RollupDependencies.HOUR;
+import static zipkin2.storage.mysql.v1.RollupDependencies.SETTLE_MILLIS;
+import static zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinDependenciesHourly.ZIPKIN_DEPENDENCIES_HOURLY;
+
+public class SelectDependenciesHourlyTest {
+  static final long TODAY = TimeUnit.DAYS.toMillis(18000);
+  static final long HALF_HOUR = HOUR / 2;
+  static final DSLContext CREATE = DSL.using(SQLDialect.MYSQL);
+
+  // inline values so that assertions can read the SQL
+  Settings settings =
+    new Settings().withRenderSchema(false).withStatementType(StatementType.STATIC_STATEMENT);
+  DSLContexts contexts = new DSLContexts(settings, null);
+  Schema schema = new Schema(mock(DataSource.class), contexts, true);
+
+  // null when no hours in the interval were rolled up
+  Long firstRolledHour, lastRolledHour;
+  List<String> sql = new ArrayList<>();
+  DSLContext context = contexts.get(new MockConnection(ctx -> {
+    sql.add(ctx.sql());
+    if (ctx.sql().contains("min(")) {
+      return new MockResult[] {new MockResult(1, rolledHoursResult())};
+    } else if (ctx.sql().contains("sum(")) {
+      return new MockResult[] {new MockResult(1, rolledLinksResult())};
+    }
+    return new MockResult[] {new MockResult(0, CREATE.newResult(
+      schema.dependencyLinkerFields.toArray(new Field<?>[0])))};
+  }));
+
+  long beginMillis = TODAY - HALF_HOUR, endMillis = TODAY + 3 * HOUR + HALF_HOUR;
+
+  @Test public void onlyReadsHoursInsideTheInterval() {
+    new SelectDependenciesHourly(schema, beginMillis, endMillis).apply(context);
+
+    assertThat(sql.get(0))
+      .contains("between " + TODAY + " and " + (TODAY + 2 * HOUR + HALF_HOUR));
+  }
+
+  @Test public void aggregatesOnDemandWhenNothingRolledUp() {
+    new SelectDependenciesHourly(schema, beginMillis, endMillis).apply(context);
+
+    assertThat(sql).hasSize(2);
+    assertThat(sql.get(1))
+      .contains("between " + beginMillis * 1000 + " and " + endMillis * 1000)
+      .doesNotContain("exists");
+  }
+
+  @Test public void sumsRolledUpHours() {
+    firstRolledHour = TODAY;
+    lastRolledHour = TODAY + HOUR;
+
+    List<DependencyLink> links =
+      new SelectDependenciesHourly(schema, beginMillis, endMillis).apply(context);
+
+    assertThat(sql.get(1)).contains("between " + TODAY + " and " + (TODAY + HOUR));
+    assertThat(links).containsExactly(DependencyLink.newBuilder()
+      .parent("frontend").child("backend").callCount(2L).errorCount(1L).build());
+  }
+
+  /**
+   * Like the on-demand linker, this includes traces that started before the interval, as long as
+   * they have a span in it. These aren't in the rolled up hours, so are aggregated on demand.
+   */
+  @Test public void aggregatesTracesThatStartedBeforeRolledUpHours() {
+    firstRolledHour = TODAY;
+    lastRolledHour = TODAY + HOUR;
+
+    new SelectDependenciesHourly(schema, beginMillis, endMillis).apply(context);
+
+    assertThat(sql.get(2))
+      .contains("between " + beginMillis * 1000 + " and " + (TODAY + SETTLE_MILLIS) * 1000)
+      .doesNotContain("not exists")
+      .contains("exists")
+      .contains("`earlier`.`start_ts` < " + TODAY * 1000);
+  }
+
+  /** Even when the interval begins on an hour, a trace could have started before it. */
+  @Test public void aggregatesTracesThatStartedBeforeRolledUpHours_intervalBeginsOnHour() {
+    beginMillis = TODAY;
+    firstRolledHour = TODAY;
+    lastRolledHour = TODAY + HOUR;
+
+    new SelectDependenciesHourly(schema, beginMillis, endMillis).apply(context);
+
+    assertThat(sql.get(2))
+      .contains("between " + TODAY * 1000 + " and " + (TODAY + SETTLE_MILLIS) * 1000)
+      .contains("`earlier`.`start_ts` < " + TODAY * 1000);
+  }
+
+  /** Spans in the rolled up hours are only read from the rollup table, not scanned again. */
+  @Test public void doesntAggregateRolledUpHoursOnDemand() {
+    firstRolledHour = TODAY;
+    lastRolledHour = TODAY + HOUR;
+
+    new SelectDependenciesHourly(schema, beginMillis, endMillis).apply(context);
+
+    assertThat(sql).hasSize(4);
+    assertThat(sql).noneMatch(
+      s -> s.contains("between " + beginMillis * 1000 + " and " + endMillis * 1000));
+  }
+
+  @Test public void aggregatesTracesThatStartedAfterRolledUpHours() {
+    firstRolledHour = TODAY;
+    lastRolledHour = TODAY + HOUR;
+
+    new SelectDependenciesHourly(schema, beginMillis, endMillis).apply(context);
+
+    long rolledEndMicros = (TODAY + 2 * HOUR) * 1000;
+    assertThat(sql).hasSize(4);
+    assertThat(sql.get(3))
+      .contains("between " + rolledEndMicros + " and " + endMillis * 1000)
+      .contains("not exists")
+      .contains("`earlier`.`start_ts` < " + rolledEndMicros);
+  }
+
+  Result<?> rolledHoursResult() {
+    AggregateFunction<Long> min = min(ZIPKIN_DEPENDENCIES_HOURLY.HOUR_TS);
+    AggregateFunction<Long> max = max(ZIPKIN_DEPENDENCIES_HOURLY.HOUR_TS);
+    Result<Record2<Long, Long>> result = CREATE.newResult(min, max);
+    result.add(CREATE.newRecord(min, max).values(firstRolledHour, lastRolledHour));
+    return result;
+  }
+
+  Result<?> rolledLinksResult() {
+    AggregateFunction<BigDecimal> callCount = sum(ZIPKIN_DEPENDENCIES_HOURLY.CALL_COUNT);
+    AggregateFunction<BigDecimal> errorCount = sum(ZIPKIN_DEPENDENCIES_HOURLY.ERROR_COUNT);
+    Result<Record4<String, String, BigDecimal, BigDecimal>> result = CREATE.newResult(
+      ZIPKIN_DEPENDENCIES_HOURLY.PARENT, ZIPKIN_DEPENDENCIES_HOURLY.CHILD, callCount, errorCount);
+    result.add(CREATE.newRecord(
+      ZIPKIN_DEPENDENCIES_HOURLY.PARENT, ZIPKIN_DEPENDENCIES_HOURLY.CHILD, callCount, errorCount)
+      .values("frontend", "backend", BigDecimal.valueOf(2), BigDecimal.valueOf(1)));
+    return result;
+  }
+}
@@ -13,19 +13,55 @@
  */
 package zipkin2.storage.mysql.v1;
 
+import javax.sql.DataSource;
 import org.jooq.Record4;
 import org.jooq.SQLDialect;
+import org.jooq.conf.ParamType;
+import org.jooq.conf.Settings;
 import org.jooq.impl.DSL;
 import org.junit.Test;
 import zipkin2.Endpoint;
+import zipkin2.storage.QueryRequest;
 import zipkin2.v1.V1Annotation;
 import zipkin2.v1.V1BinaryAnnotation;
 import zipkin2.v1.V1Span;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
 import static zipkin2.storage.mysql.v1.internal.generated.tables.ZipkinAnnotations.ZIPKIN_ANNOTATIONS;
 
 public class SelectSpansAndAnnotationsTest {
+  Settings settings = new Settings().withRenderSchema(false);
+  Schema schema = new Schema(mock(DataSource.class), new DSLContexts(settings, null), true);
+  QueryRequest request = QueryRequest.newBuilder().endTs(2L).lookback(1L).limit(10).build();
+
+  @Test
+  public void toTraceIdQuery_firstPage() {
+    SelectSpansAndAnnotations select =
+      new SelectSpansAndAnnotations.Factory(schema, true).create(request);
+
+    String sql = select.toTraceIdQuery(DSL.using(SQLDialect.MYSQL, settings), request, 1000L,
+      2000L, null).getSQL(ParamType.INLINED);
+
+    assertThat(sql)
+      .contains("between 1000 and 2000")
+      .doesNotContain("having")
+      .endsWith("order by max(`zipkin_spans`.`start_ts`) desc, `zipkin_spans`.`trace_id` desc");
+  }
+
+  @Test
+  public void toTraceIdQuery_continuesAfterLastKey() {
+    SelectSpansAndAnnotations select =
+      new SelectSpansAndAnnotations.Factory(schema, true).create(request);
+
+    String sql = select.toTraceIdQuery(DSL.using(SQLDialect.MYSQL, settings), request, 1000L,
+      1500L, new Object[] {1500L, 3L}).getSQL(ParamType.INLINED);
+
+    assertThat(sql)
+      .contains("between 1000 and 1500")
+      .contains("having (max(`zipkin_spans`.`start_ts`), `zipkin_spans`.`trace_id`) < (1500, 3)");
+  }
+
   @Test
   public void processAnnotationRecord_nulls() {
     Record4<Integer, Long, String, byte[]> annotationRecord =
@@ -17,6 +17,7 @@ import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.io.StreamCorruptedException;
 import java.nio.charset.Charset;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -24,16 +25,18 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.RandomAccess;
 import java.util.TreeMap;
 import java.util.logging.Logger;
 import zipkin2.codec.SpanBytesDecoder;
 import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.internal.HexCodec;
 import zipkin2.internal.Nullable;
 import zipkin2.internal.Platform;
 
 import static java.lang.String.format;
 import static java.util.logging.Level.FINEST;
-import static zipkin2.internal.HexCodec.HEX_DIGITS;
+import static zipkin2.internal.HexCodec.lowerHexToUnsignedLong;
 
 /**
  * A span is a single-host view of an operation. A trace is a series of spans (often RPC calls)
@@ -79,17 +82,56 @@ public final class Span implements Serializable { // for Spark and Flink jobs
    *
    * <p>Some systems downgrade trace identifiers to 64bit by dropping the left-most 16 characters.
    * For example, {@code 4e441824ec2b6a44ffdc9bb9a6453df3} becomes {@code ffdc9bb9a6453df3}.
+   *
+   * @see #traceIdHigh()
+   * @see #traceIdLow()
    */
   public String traceId() {
-    return traceId;
+    String result = traceIdString;
+    if (result == null) traceIdString = result = toLowerHex(traceIdHigh, traceIdLow);
+    return result;
+  }
+
+  /**
+   * Upper 64-bits of the {@link #traceId()}, or zero if it is a 64-bit trace ID.
+   *
+   * <p>Using this method will avoid parsing or allocation, so is encouraged when processing IDs
+   * numerically, such as for sampling or storage.
+   */
+  public long traceIdHigh() {
+    return traceIdHigh;
+  }
+
+  /**
+   * Lower 64-bits of the {@link #traceId()}.
+   *
+   * <p>Using this method will avoid parsing or allocation, so is encouraged when processing IDs
+   * numerically, such as for sampling or storage.
+   */
+  public long traceIdLow() {
+    return traceIdLow;
   }
 
   /**
    * The parent's {@link #id} or null if this the root span in a trace.
    *
    * <p>This is the same encoding as {@link #id}. For example {@code ffdc9bb9a6453df3}
+   *
+   * @see #parentIdAsLong()
    */
   @Nullable public String parentId() {
+    if (parentId == 0L) return null;
+    String result = parentIdString;
+    if (result == null) parentIdString = result = toLowerHex(parentId);
+    return result;
+  }
+
+  /**
+   * Like {@link #parentId()} except returns a primitive where zero implies absent.
+   *
+   * <p>Using this method will avoid parsing or allocation, so is encouraged when copying data.
+   */
+  public long parentIdAsLong() {
     return parentId;
   }
 
@@ -99,8 +141,21 @@ public final class Span implements Serializable { // for Spark and Flink jobs
    * <p>Encoded as 16 lowercase hex characters. For example {@code ffdc9bb9a6453df3}
    *
    * <p>A span is uniquely identified in storage by ({@linkplain #traceId}, {@linkplain #id()}).
+   *
+   * @see #idAsLong()
    */
   public String id() {
+    String result = idString;
+    if (result == null) idString = result = toLowerHex(id);
+    return result;
+  }
+
+  /**
+   * Like {@link #id()} except returns a primitive, which is never zero.
+   *
+   * <p>Using this method will avoid parsing or allocation, so is encouraged when copying data.
+   */
+  public long idAsLong() {
     return id;
   }
 
@@ -284,7 +339,9 @@ public final class Span implements Serializable { // for Spark and Flink jobs
   }
 
   public static final class Builder {
-    String traceId, parentId, id;
+    long traceIdHigh, traceIdLow, parentId, id; // zero means null
+    // lower-hex forms of the above when they were set as strings, to avoid re-encoding them later
+    String traceIdString, parentIdString, idString;
     Kind kind;
     String name;
     long timestamp, duration; // zero means null
@@ -294,9 +351,8 @@ public final class Span implements Serializable { // for Spark and Flink jobs
     int flags = 0; // bit field for timestamp and duration
 
     public Builder clear() {
-      traceId = null;
-      parentId = null;
-      id = null;
+      traceIdHigh = traceIdLow = parentId = id = 0L;
+      traceIdString = parentIdString = idString = null;
       kind = null;
       name = null;
       timestamp = 0L;
@@ -311,9 +367,13 @@ public final class Span implements Serializable { // for Spark and Flink jobs
 
     @Override public Builder clone() {
       Builder result = new Builder();
-      result.traceId = traceId;
+      result.traceIdHigh = traceIdHigh;
+      result.traceIdLow = traceIdLow;
       result.parentId = parentId;
       result.id = id;
+      result.traceIdString = traceIdString;
+      result.parentIdString = parentIdString;
+      result.idString = idString;
       result.kind = kind;
       result.name = name;
       result.timestamp = timestamp;
@@ -331,9 +391,13 @@ public final class Span implements Serializable { // for Spark and Flink jobs
     }
 
     Builder(Span source) {
-      traceId = source.traceId;
+      traceIdHigh = source.traceIdHigh;
+      traceIdLow = source.traceIdLow;
       parentId = source.parentId;
       id = source.id;
+      traceIdString = source.traceIdString;
+      parentIdString = source.parentIdString;
+      idString = source.idString;
       kind = source.kind;
       name = source.name;
       timestamp = source.timestamp;
@@ -356,9 +420,19 @@ public final class Span implements Serializable { // for Spark and Flink jobs
      * not use this to merge spans that occur on different hosts.
      */
     public Builder merge(Span source) {
-      if (traceId == null) traceId = source.traceId;
-      if (id == null) id = source.id;
-      if (parentId == null) parentId = source.parentId;
+      if (traceIdHigh == 0L && traceIdLow == 0L) {
+        traceIdHigh = source.traceIdHigh;
+        traceIdLow = source.traceIdLow;
+        traceIdString = source.traceIdString;
+      }
+      if (id == 0L) {
+        id = source.id;
+        idString = source.idString;
+      }
+      if (parentId == 0L) {
+        parentId = source.parentId;
+        parentIdString = source.parentIdString;
+      }
       if (kind == null) kind = source.kind;
       if (name == null) name = source.name;
       if (timestamp == 0L) timestamp = source.timestamp;
@@ -400,12 +474,31 @@ public final class Span implements Serializable { // for Spark and Flink jobs
      * @see Span#id()
      */
     public Builder traceId(String traceId) {
-      this.traceId = normalizeTraceId(traceId);
+      if (traceId == null) throw new NullPointerException("traceId == null");
+      int length = traceId.length();
+      if (length == 16 || length == 32) { // parse directly, as usual lengths needn't be padded
+        long high, low;
+        try {
+          high = length == 32 ? lowerHexToUnsignedLong(traceId, 0) : 0L;
+          low = lowerHexToUnsignedLong(traceId, length - 16);
+        } catch (NumberFormatException e) {
+          throw isntLowerHex(traceId);
+        }
+        if (high == 0L && low == 0L) throw new IllegalArgumentException("traceId is all zeros");
+        this.traceIdHigh = high;
+        this.traceIdLow = low;
+        this.traceIdString = high != 0L || length == 16 ? traceId : null;
+        return this;
+      }
+      traceId = normalizeTraceId(traceId);
+      this.traceIdHigh = traceId.length() == 32 ? lowerHexToUnsignedLong(traceId, 0) : 0L;
+      this.traceIdLow = lowerHexToUnsignedLong(traceId);
+      this.traceIdString = traceId;
       return this;
     }
 
     /**
-     * Encodes 64 or 128 bits from the input into a hex trace ID.
+     * Sets 64 or 128 bits of the trace ID, without encoding them as hex.
      *
      * @param high Upper 64bits of the trace ID. Zero means the trace ID is 64-bit.
      * @param low Lower 64bits of the trace ID.
@@ -413,25 +506,21 @@ public final class Span implements Serializable { // for Spark and Flink jobs
      */
     public Builder traceId(long high, long low) {
       if (high == 0L && low == 0L) throw new IllegalArgumentException("empty trace ID");
-      char[] data = Platform.shortStringBuffer();
-      int pos = 0;
-      if (high != 0L) {
-        writeHexLong(data, pos, high);
-        pos += 16;
-      }
-      writeHexLong(data, pos, low);
-      this.traceId = new String(data, 0, high != 0L ? 32 : 16);
+      this.traceIdHigh = high;
+      this.traceIdLow = low;
+      this.traceIdString = null;
       return this;
     }
 
     /**
-     * Encodes 64 bits from the input into a hex parent ID. Unsets the {@link Span#parentId()} if
-     * the input is 0.
+     * Sets 64 bits of the parent ID, without encoding them as hex. Unsets the {@link
+     * Span#parentId()} if the input is 0.
      *
-     * @see Span#parentId()
+     * @see Span#parentIdAsLong()
      */
     public Builder parentId(long parentId) {
-      this.parentId = parentId != 0L ? toLowerHex(parentId) : null;
+      this.parentId = parentId;
+      this.parentIdString = null;
       return this;
     }
 
@@ -440,30 +529,27 @@ public final class Span implements Serializable { // for Spark and Flink jobs
      * @see Span#parentId()
      */
     public Builder parentId(@Nullable String parentId) {
-      if (parentId == null) {
-        this.parentId = null;
-        return this;
-      }
+      if (parentId == null) return parentId(0L);
       int length = parentId.length();
       if (length == 0) throw new IllegalArgumentException("parentId is empty");
       if (length > 16) throw new IllegalArgumentException("parentId.length > 16");
-      if (validateHexAndReturnZeroPrefix(parentId) == length) {
-        this.parentId = null;
-      } else {
-        this.parentId = length < 16 ? padLeft(parentId, 16) : parentId;
-      }
+      long value = parseLowerHex(parentId);
+      if (value == 0L) return parentId(0L);
+      this.parentId = value;
+      this.parentIdString = length == 16 ? parentId : null;
       return this;
     }
 
     /**
-     * Encodes 64 bits from the input into a hex span ID.
+     * Sets 64 bits of the span ID, without encoding them as hex.
      *
      * @throws IllegalArgumentException if the input is zero
-     * @see Span#id()
+     * @see Span#idAsLong()
      */
     public Builder id(long id) {
       if (id == 0L) throw new IllegalArgumentException("empty id");
-      this.id = toLowerHex(id);
+      this.id = id;
+      this.idString = null;
       return this;
     }
 
@@ -476,10 +562,10 @@ public final class Span implements Serializable { // for Spark and Flink jobs
       int length = id.length();
       if (length == 0) throw new IllegalArgumentException("id is empty");
       if (length > 16) throw new IllegalArgumentException("id.length > 16");
-      if (validateHexAndReturnZeroPrefix(id) == 16) {
-        throw new IllegalArgumentException("id is all zeros");
-      }
-      this.id = length < 16 ? padLeft(id, 16) : id;
+      long value = parseLowerHex(id);
+      if (value == 0L) throw new IllegalArgumentException("id is all zeros");
+      this.id = value;
+      this.idString = length == 16 ? id : null;
       return this;
     }
 
@@ -605,21 +691,23 @@ public final class Span implements Serializable { // for Spark and Flink jobs
 
     public Span build() {
       String missing = "";
-      if (traceId == null) missing += " traceId";
-      if (id == null) missing += " id";
+      if (traceIdHigh == 0L && traceIdLow == 0L) missing += " traceId";
+      if (id == 0L) missing += " id";
       if (!"".equals(missing)) throw new IllegalStateException("Missing :" + missing);
-      if (id.equals(parentId)) { // edge case, so don't require a logger field
+      if (id == parentId) { // edge case, so don't require a logger field
         Logger logger = Logger.getLogger(Span.class.getName());
         if (logger.isLoggable(FINEST)) {
-          logger.fine(format("undoing circular dependency: traceId=%s, spanId=%s", traceId, id));
+          logger.fine(format("undoing circular dependency: traceId=%s, spanId=%s",
+            toLowerHex(traceIdHigh, traceIdLow), toLowerHex(id)));
         }
-        parentId = null;
+        parentId(0L);
       }
       // shared is for the server side, unset it if accidentally set on the client side
       if ((flags & FLAG_SHARED) == FLAG_SHARED && kind == Kind.CLIENT) {
         Logger logger = Logger.getLogger(Span.class.getName());
         if (logger.isLoggable(FINEST)) {
-          logger.fine(format("removing shared flag on client: traceId=%s, spanId=%s", traceId, id));
+          logger.fine(format("removing shared flag on client: traceId=%s, spanId=%s",
+            toLowerHex(traceIdHigh, traceIdLow), toLowerHex(id)));
         }
         shared(null);
       }
@@ -675,67 +763,97 @@ public final class Span implements Serializable { // for Spark and Flink jobs
   }
 
   static String toLowerHex(long v) {
-    char[] data = Platform.shortStringBuffer();
-    writeHexLong(data, 0, v);
-    return new String(data, 0, 16);
+    return HexCodec.toLowerHex(0L, v);
   }
 
-  /** Inspired by {@code okio.Buffer.writeLong} */
-  static void writeHexLong(char[] data, int pos, long v) {
-    writeHexByte(data, pos + 0, (byte) ((v >>> 56L) & 0xff));
-    writeHexByte(data, pos + 2, (byte) ((v >>> 48L) & 0xff));
-    writeHexByte(data, pos + 4, (byte) ((v >>> 40L) & 0xff));
-    writeHexByte(data, pos + 6, (byte) ((v >>> 32L) & 0xff));
-    writeHexByte(data, pos + 8, (byte) ((v >>> 24L) & 0xff));
-    writeHexByte(data, pos + 10, (byte) ((v >>> 16L) & 0xff));
-    writeHexByte(data, pos + 12, (byte) ((v >>> 8L) & 0xff));
-    writeHexByte(data, pos + 14, (byte) (v & 0xff));
+  static String toLowerHex(long high, long low) {
+    return HexCodec.toLowerHex(high, low);
   }
 
-  static void writeHexByte(char[] data, int pos, byte b) {
-    data[pos + 0] = HEX_DIGITS[(b >> 4) & 0xf];
-    data[pos + 1] = HEX_DIGITS[b & 0xf];
+  static int validateHexAndReturnZeroPrefix(String id) {
+    int zeros = HexCodec.lowerHexZeroPrefix(id);
+    if (zeros == -1) throw isntLowerHex(id);
+    return zeros;
   }
 
-  static int validateHexAndReturnZeroPrefix(String id) {
-    int zeros = 0;
-    boolean inZeroPrefix = id.charAt(0) == '0';
-    for (int i = 0, length = id.length(); i < length; i++) {
-      char c = id.charAt(i);
-      if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
-        throw new IllegalArgumentException(id + " should be lower-hex encoded with no prefix");
-      }
-      if (c != '0') {
-        inZeroPrefix = false;
-      } else if (inZeroPrefix) {
-        zeros++;
-      }
+  /** Validates and parses an ID of at most 16 characters in one pass. */
+  static long parseLowerHex(String id) {
+    try {
+      return lowerHexToUnsignedLong(id, 0);
+    } catch (NumberFormatException e) {
+      throw isntLowerHex(id);
     }
-    return zeros;
   }
 
+  static IllegalArgumentException isntLowerHex(String id) {
+    return new IllegalArgumentException(id + " should be lower-hex encoded with no prefix");
+  }
+
+  /**
+   * Returns an unmodifiable copy of the input, sorted and without duplicates. The input is a
+   * builder's scratch list, which is sorted and deduped in place. As decoded data is almost always
+   * in order already, this usually only allocates the result.
+   */
   static <T extends Comparable<? super T>> List<T> sortedList(@Nullable List<T> in) {
     if (in == null || in.isEmpty()) return Collections.emptyList();
     if (in.size() == 1) return Collections.singletonList(in.get(0));
-    Object[] array = in.toArray();
-    Arrays.sort(array);
-
-    // dedupe
-    int j = 0, i = 1;
-    while (i < array.length) {
-      if (!array[i].equals(array[j])) {
-        array[++j] = array[i];
+    if (!isSortedAndDistinct(in)) {
+      Collections.sort(in);
+
+      // dedupe
+      int j = 0, i = 1, length = in.size();
+      while (i < length) {
+        T next = in.get(i);
+        if (!next.equals(in.get(j))) in.set(++j, next);
+        i++;
       }
-      i++;
+      if (j + 1 < length) in.subList(j + 1, length).clear();
+      if (j == 0) return Collections.singletonList(in.get(0));
     }
+    return new UnmodifiableArrayList<>(in.toArray());
+  }
+
+  static <T extends Comparable<? super T>> boolean isSortedAndDistinct(List<T> in) {
+    for (int i = 1, length = in.size(); i < length; i++) {
+      if (in.get(i - 1).compareTo(in.get(i)) >= 0) return false;
+    }
+    return true;
+  }
+
+  /** Like {@code unmodifiableList(asList(array))}, except one object instead of two. */
+  static final class UnmodifiableArrayList<T> extends AbstractList<T>
+    implements RandomAccess, Serializable {
+    private static final long serialVersionUID = 0L;
+
+    final Object[] array;
+
+    UnmodifiableArrayList(Object[] array) {
+      this.array = array;
+    }
+
+    @Override public T get(int index) {
+      return (T) array[index];
+    }
+
+    @Override public int size() {
+      return array.length;
+    }
+  }
 
-    List result = Arrays.asList(i == j + 1 ? array : Arrays.copyOf(array, j + 1));
-    return Collections.unmodifiableList(result);
+  static Map<String, String> tags(@Nullable TreeMap<String, String> in) {
+    if (in == null || in.isEmpty()) return Collections.emptyMap();
+    if (in.size() == 1) {
+      Map.Entry<String, String> entry = in.firstEntry();
+      return Collections.singletonMap(entry.getKey(), entry.getValue());
+    }
+    return new LinkedHashMap<>(in);
   }
 
   // Custom impl to reduce GC churn and Kryo which cannot handle AutoValue subclass
   // See https://github.com/openzipkin/zipkin/issues/1879
-  final String traceId, parentId, id;
+  final long traceIdHigh, traceIdLow, parentId, id; // zero means null, saving 3 object references
+  // Lazy lower-hex forms of the above. Racy initialization is safe as String is immutable.
+  transient String traceIdString, parentIdString, idString;
   final Kind kind;
   final String name;
   final long timestamp, duration; // zero means null, saving 2 object references
@@ -745,10 +863,14 @@ public final class Span implements Serializable { // for Spark and Flink jobs
   final int flags; // bit field for timestamp and duration, saving 2 object references
 
   Span(Builder builder) {
-    traceId = builder.traceId;
+    traceIdHigh = builder.traceIdHigh;
+    traceIdLow = builder.traceIdLow;
     // prevent self-referencing spans
-    parentId = builder.id.equals(builder.parentId) ? null : builder.parentId;
+    parentId = builder.id == builder.parentId ? 0L : builder.parentId;
     id = builder.id;
+    traceIdString = builder.traceIdString;
+    parentIdString = parentId != 0L ? builder.parentIdString : null;
+    idString = builder.idString;
     kind = builder.kind;
     name = builder.name;
     timestamp = builder.timestamp;
@@ -756,7 +878,7 @@ public final class Span implements Serializable { // for Spark and Flink jobs
     localEndpoint = builder.localEndpoint;
     remoteEndpoint = builder.remoteEndpoint;
     annotations = sortedList(builder.annotations);
-    tags = builder.tags == null ? Collections.emptyMap() : new LinkedHashMap<>(builder.tags);
+    tags = tags(builder.tags);
     flags = builder.flags;
   }
 
@@ -764,9 +886,10 @@ public final class Span implements Serializable { // for Spark and Flink jobs
     if (o == this) return true;
     if (!(o instanceof Span)) return false;
     Span that = (Span) o;
-    return traceId.equals(that.traceId)
-      && (parentId == null ? that.parentId == null : parentId.equals(that.parentId))
-      && id.equals(that.id)
+    return traceIdHigh == that.traceIdHigh
+      && traceIdLow == that.traceIdLow
+      && parentId == that.parentId
+      && id == that.id
       && (kind == null ? that.kind == null : kind.equals(that.kind))
       && (name == null ? that.name == null : name.equals(that.name))
       && timestamp == that.timestamp
@@ -783,11 +906,13 @@ public final class Span implements Serializable { // for Spark and Flink jobs
   @Override public int hashCode() {
     int h = 1;
     h *= 1000003;
-    h ^= traceId.hashCode();
+    h ^= (int) ((traceIdHigh >>> 32) ^ traceIdHigh);
+    h *= 1000003;
+    h ^= (int) ((traceIdLow >>> 32) ^ traceIdLow);
     h *= 1000003;
-    h ^= (parentId == null) ? 0 : parentId.hashCode();
+    h ^= (int) ((parentId >>> 32) ^ parentId);
     h *= 1000003;
-    h ^= id.hashCode();
+    h ^= (int) ((id >>> 32) ^ id);
     h *= 1000003;
     h ^= (kind == null) ? 0 : kind.hashCode();
     h *= 1000003;
@@ -13,6 +13,8 @@
  */
 package zipkin2.codec;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.List;
 import zipkin2.Span;
 import zipkin2.internal.JsonCodec;
@@ -20,6 +22,7 @@ import zipkin2.internal.Proto3Codec;
 import zipkin2.internal.V1JsonSpanWriter;
 import zipkin2.internal.V1ThriftSpanWriter;
 import zipkin2.internal.V2SpanWriter;
+import zipkin2.internal.WriteBuffer;
 
 /** Limited interface needed by those writing span reporters */
 @SuppressWarnings("ImmutableEnumChecker") // because span is immutable
@@ -50,6 +53,21 @@ public enum SpanBytesEncoder implements BytesEncoder<Span> {
     public int encodeList(List<Span> spans, byte[] out, int pos) {
       return JsonCodec.writeList(new V1JsonSpanWriter(), spans, out, pos);
     }
+
+    @Override
+    public int sizeInBytes(List<Span> spans) {
+      return JsonCodec.sizeInBytes(new V1JsonSpanWriter(), spans);
+    }
+
+    @Override
+    void write(Span span, WriteBuffer buffer) {
+      new V1JsonSpanWriter().write(span, buffer);
+    }
+
+    @Override
+    void writeList(List<Span> spans, WriteBuffer buffer) {
+      JsonCodec.writeList(new V1JsonSpanWriter(), spans, buffer);
+    }
   },
   /** Corresponds to the Zipkin v1 thrift format */
   THRIFT {
@@ -77,6 +95,21 @@ public enum SpanBytesEncoder implements BytesEncoder<Span> {
     public int encodeList(List<Span> spans, byte[] out, int pos) {
       return new V1ThriftSpanWriter().writeList(spans, out, pos);
     }
+
+    @Override
+    public int sizeInBytes(List<Span> spans) {
+      return new V1ThriftSpanWriter().sizeInBytes(spans);
+    }
+
+    @Override
+    void write(Span span, WriteBuffer buffer) {
+      new V1ThriftSpanWriter().write(span, buffer);
+    }
+
+    @Override
+    void writeList(List<Span> spans, WriteBuffer buffer) {
+      new V1ThriftSpanWriter().writeList(spans, buffer);
+    }
   },
   /** Corresponds to the Zipkin v2 json format */
   JSON_V2 {
@@ -106,6 +139,21 @@ public enum SpanBytesEncoder implements BytesEncoder<Span> {
     public int encodeList(List<Span> spans, byte[] out, int pos) {
       return JsonCodec.writeList(writer, spans, out, pos);
     }
+
+    @Override
+    public int sizeInBytes(List<Span> spans) {
+      return JsonCodec.sizeInBytes(writer, spans);
+    }
+
+    @Override
+    void write(Span span, WriteBuffer buffer) {
+      writer.write(span, buffer);
+    }
+
+    @Override
+    void writeList(List<Span> spans, WriteBuffer buffer) {
+      JsonCodec.writeList(writer, spans, buffer);
+    }
   },
   PROTO3 {
     final Proto3Codec codec = new Proto3Codec();
@@ -134,8 +182,69 @@ public enum SpanBytesEncoder implements BytesEncoder<Span> {
     public int encodeList(List<Span> spans, byte[] out, int pos) {
       return codec.writeList(spans, out, pos);
     }
+
+    @Override
+    public int sizeInBytes(List<Span> spans) {
+      return codec.sizeInBytes(spans);
+    }
+
+    @Override
+    void write(Span span, WriteBuffer buffer) {
+      codec.write(span, buffer);
+    }
+
+    @Override
+    void writeList(List<Span> spans, WriteBuffer buffer) {
+      codec.writeList(spans, buffer);
+    }
   };
 
   /** Allows you to encode a list of spans onto a specific offset. For example, when nesting */
   public abstract int encodeList(List<Span> spans, byte[] out, int pos);
+
+  /** Returns the size of {@link #encodeList(List)} without encoding it. */
+  public abstract int sizeInBytes(List<Span> spans);
+
+  /**
+   * Encodes the span at the position of the buffer, advancing it. This allows encoding directly
+   * into pooled or direct memory, instead of into a temporary array.
+   *
+   * <p>For example, to write into a Netty {@code ByteBuf}, encode into {@code
+   * buf.nioBuffer(buf.writerIndex(), size)}, then advance the writer index by the result. This
+   * shares memory with the {@code ByteBuf}, as long as it is not a composite.
+   *
+   * @return the count of bytes written, which is the same as {@link #sizeInBytes(Object)}
+   * @throws BufferOverflowException if fewer bytes remain in the buffer than needed. In this case,
+   * nothing is written.
+   */
+  public int encode(Span span, ByteBuffer out) {
+    int sizeInBytes = sizeInBytes(span);
+    write(span, wrap(out, sizeInBytes));
+    return sizeInBytes;
+  }
+
+  /**
+   * Like {@link #encode(Span, ByteBuffer)}, except writes the same bytes as {@link
+   * #encodeList(List)}.
+   */
+  public int encodeList(List<Span> spans, ByteBuffer out) {
+    int sizeInBytes = sizeInBytes(spans);
+    writeList(spans, wrap(out, sizeInBytes));
+    return sizeInBytes;
+  }
+
+  abstract void write(Span span, WriteBuffer buffer);
+
+  abstract void writeList(List<Span> spans, WriteBuffer buffer);
+
+  static WriteBuffer wrap(ByteBuffer out, int sizeInBytes) {
+    if (out.remaining() < sizeInBytes) throw new BufferOverflowException();
+    if (!out.hasArray()) return WriteBuffer.wrap(out);
+
+    // Writing the backing array directly is faster than ByteBuffer.put, but doesn't advance the
+    // position. As we know the size in advance, we advance the position before writing.
+    int pos = out.position();
+    out.position(pos + sizeInBytes);
+    return WriteBuffer.wrap(out.array(), out.arrayOffset() + pos);
+  }
 }
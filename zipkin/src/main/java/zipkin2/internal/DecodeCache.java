@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import zipkin2.Endpoint;
+
+import static zipkin2.internal.JsonCodec.UTF_8;
+
+/**
+ * Optional cache that shares values decoded from spans, such as service names, span names, tags
+ * and endpoints. In typical deployments, most of these repeat from a small set of distinct values.
+ * Sharing them lowers the allocation rate of decoding and the memory retained by storage that
+ * holds spans, such as {@code InMemoryStorage}.
+ *
+ * <p>UTF-8 strings read by {@link ReadBuffer}, used by the proto3 and thrift codecs, are keyed by
+ * their encoded bytes: a hit returns a cached string without decoding a new one. JSON is decoded by
+ * a character-based reader, so strings read from JSON and endpoints are shared by equality.
+ *
+ * <p>Each table is direct-mapped: a value replaces any other in its slot, so memory is bounded by
+ * the count of entries. Entries are immutable, so lookups are thread-safe without locking. Racing
+ * writes to the same slot only mean a value may be decoded again.
+ *
+ * <p>This is disabled by default. Call {@link #enable(int)} before decoding to use it.
+ */
+public final class DecodeCache {
+  /** Encoded strings longer than this are not cached, as they are less likely to repeat. */
+  static final int MAX_KEY_LENGTH = 64;
+
+  static volatile DecodeCache instance;
+
+  /**
+   * Enables sharing of decoded values, bounded by {@code maxEntries} per type of value. This
+   * replaces any cache previously enabled.
+   */
+  public static void enable(int maxEntries) {
+    if (maxEntries <= 0) throw new IllegalArgumentException("maxEntries <= 0");
+    instance = new DecodeCache(maxEntries);
+  }
+
+  /** Disables sharing, releasing any values cached. */
+  public static void disable() {
+    instance = null;
+  }
+
+  @Nullable static DecodeCache get() {
+    return instance;
+  }
+
+  /** Returns the shared instance equal to the input, or the input if disabled. */
+  @Nullable static String shareString(@Nullable String value) {
+    DecodeCache cache = instance;
+    if (cache == null || value == null || value.length() > MAX_KEY_LENGTH) return value;
+    return cache.share(cache.strings, value);
+  }
+
+  /** Returns the shared instance equal to the input, or the input if disabled. */
+  @Nullable static Endpoint shareEndpoint(@Nullable Endpoint value) {
+    DecodeCache cache = instance;
+    if (cache == null || value == null) return value;
+    return cache.share(cache.endpoints, value);
+  }
+
+  final int mask;
+  final Utf8Entry[] utf8;
+  final Object[] strings, endpoints;
+
+  DecodeCache(int maxEntries) {
+    int size = Integer.highestOneBit(maxEntries);
+    if (size < maxEntries) size <<= 1; // round up to a power of two
+    mask = size - 1;
+    utf8 = new Utf8Entry[size];
+    strings = new Object[size];
+    endpoints = new Object[size];
+  }
+
+  /** Returns a string decoded from the UTF-8 bytes, reusing a cached instance if possible. */
+  String utf8(byte[] bytes, int offset, int length) {
+    if (length > MAX_KEY_LENGTH) return new String(bytes, offset, length, UTF_8);
+    int hash = 1;
+    for (int i = offset, end = offset + length; i < end; i++) hash = 31 * hash + bytes[i];
+
+    int slot = spread(hash) & mask;
+    Utf8Entry entry = utf8[slot];
+    if (entry != null && entry.hash == hash && entry.matches(bytes, offset, length)) {
+      return entry.value;
+    }
+    byte[] key = new byte[length];
+    System.arraycopy(bytes, offset, key, 0, length);
+    String value = new String(key, UTF_8);
+    utf8[slot] = new Utf8Entry(hash, key, value);
+    return value;
+  }
+
+  @SuppressWarnings("unchecked") <T> T share(Object[] table, T value) {
+    int slot = spread(value.hashCode()) & mask;
+    Object existing = table[slot];
+    if (value.equals(existing)) return (T) existing;
+    table[slot] = value;
+    return value;
+  }
+
+  /** Mixes high bits into low ones, as only the low bits select a slot. */
+  static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  static final class Utf8Entry {
+    final int hash;
+    final byte[] bytes;
+    final String value;
+
+    Utf8Entry(int hash, byte[] bytes, String value) {
+      this.hash = hash;
+      this.bytes = bytes;
+      this.value = value;
+    }
+
+    boolean matches(byte[] other, int offset, int length) {
+      if (bytes.length != length) return false;
+      for (int i = 0; i < length; i++) {
+        if (bytes[i] != other[offset + i]) return false;
+      }
+      return true;
+    }
+  }
+}
@@ -18,6 +18,10 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import zipkin2.DependencyLink;
 import zipkin2.Span;
@@ -33,12 +37,15 @@ import static java.util.logging.Level.FINE;
  * that record their {@link Span#remoteEndpoint()} are included, as this accounts for uninstrumented
  * services. Spans with {@link Span#kind()} unset, but {@link Span#remoteEndpoint()} set are treated
  * the same as client spans.
+ *
+ * <p>This is not thread-safe. To use multiple cores, see {@link #putTraces(List, ExecutorService,
+ * int)}. To checkpoint a long aggregation, serialize the result of {@link #link()}. To resume, pass
+ * that to {@link #putLinks(Iterable)} of a new linker.
  */
 public final class DependencyLinker {
   final Logger logger;
   final SpanNode.Builder builder;
-  final Map<Pair, Long> callCounts = new LinkedHashMap<>();
-  final Map<Pair, Long> errorCounts = new LinkedHashMap<>();
+  final Map<Pair, Counts> linkCounts = new LinkedHashMap<>();
 
   public DependencyLinker() {
     this(Logger.getLogger(DependencyLinker.class.getName()));
@@ -149,6 +156,78 @@ public final class DependencyLinker {
     return this;
   }
 
+  /**
+   * Links traces in parallel, by splitting them into up to {@code parallelism} slices. Each slice
+   * is processed on the executor by its own linker, so that tasks share no state. The partial
+   * results are then added to this linker, which can continue to accept traces.
+   *
+   * <p>Any executor service can be used, including a {@code ForkJoinPool}.
+   *
+   * @param traces lists of spans where each list has the same trace id
+   * @param parallelism maximum count of tasks to submit, usually the count of available cores
+   */
+  public DependencyLinker putTraces(List<? extends List<Span>> traces, ExecutorService executor,
+    int parallelism) {
+    if (executor == null) throw new NullPointerException("executor == null");
+    if (parallelism <= 0) throw new IllegalArgumentException("parallelism <= 0");
+    int size = traces.size();
+    if (size == 0) return this;
+
+    int sliceSize = (size + parallelism - 1) / parallelism;
+    List<Callable<DependencyLinker>> tasks = new ArrayList<>();
+    for (int i = 0; i < size; i += sliceSize) {
+      tasks.add(new LinkTraces(logger, traces.subList(i, Math.min(i + sliceSize, size))));
+    }
+
+    try {
+      // merge in slice order, so that the order of links is the same as linking serially
+      for (Future<DependencyLinker> partial : executor.invokeAll(tasks)) {
+        putCounts(partial.get().linkCounts);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted linking traces", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw new IllegalStateException(cause);
+    }
+    return this;
+  }
+
+  static final class LinkTraces implements Callable<DependencyLinker> {
+    final Logger logger;
+    final List<? extends List<Span>> traces;
+
+    LinkTraces(Logger logger, List<? extends List<Span>> traces) {
+      this.logger = logger;
+      this.traces = traces;
+    }
+
+    @Override public DependencyLinker call() {
+      DependencyLinker linker = new DependencyLinker(logger);
+      for (List<Span> trace : traces) linker.putTrace(trace);
+      return linker;
+    }
+  }
+
+  /**
+   * Adds links previously returned by {@link #link()}, for example, a checkpoint or the result of
+   * another linker.
+   */
+  public DependencyLinker putLinks(Iterable<DependencyLink> links) {
+    putLinks(linkCounts, links);
+    return this;
+  }
+
+  void putCounts(Map<Pair, Counts> partial) {
+    for (Map.Entry<Pair, Counts> entry : partial.entrySet()) {
+      Counts counts = entry.getValue();
+      counts(linkCounts, entry.getKey()).add(counts.callCount, counts.errorCount);
+    }
+  }
+
   Span firstRemoteAncestor(SpanNode current) {
     SpanNode ancestor = current.parent();
     while (ancestor != null) {
@@ -166,57 +245,57 @@ public final class DependencyLinker {
     if (logger.isLoggable(FINE)) {
       logger.fine("incrementing " + (isError ? "error " : "") + "link " + parent + " -> " + child);
     }
-    Pair key = new Pair(parent, child);
-    if (callCounts.containsKey(key)) {
-      callCounts.put(key, callCounts.get(key) + 1);
-    } else {
-      callCounts.put(key, 1L);
-    }
-    if (!isError) return;
-    if (errorCounts.containsKey(key)) {
-      errorCounts.put(key, errorCounts.get(key) + 1);
-    } else {
-      errorCounts.put(key, 1L);
-    }
+    counts(linkCounts, new Pair(parent, child)).add(1L, isError ? 1L : 0L);
   }
 
   public List<DependencyLink> link() {
-    return link(callCounts, errorCounts);
+    return link(linkCounts);
   }
 
   /** links are merged by mapping to parent/child and summing corresponding links */
   public static List<DependencyLink> merge(Iterable<DependencyLink> in) {
-    Map<Pair, Long> callCounts = new LinkedHashMap<>();
-    Map<Pair, Long> errorCounts = new LinkedHashMap<>();
-
-    for (DependencyLink link : in) {
-      Pair parentChild = new Pair(link.parent(), link.child());
-      long callCount = callCounts.containsKey(parentChild) ? callCounts.get(parentChild) : 0L;
-      callCount += link.callCount();
-      callCounts.put(parentChild, callCount);
-      long errorCount = errorCounts.containsKey(parentChild) ? errorCounts.get(parentChild) : 0L;
-      errorCount += link.errorCount();
-      errorCounts.put(parentChild, errorCount);
+    Map<Pair, Counts> linkCounts = new LinkedHashMap<>();
+    putLinks(linkCounts, in);
+    return link(linkCounts);
+  }
+
+  static void putLinks(Map<Pair, Counts> linkCounts, Iterable<DependencyLink> links) {
+    for (DependencyLink link : links) {
+      counts(linkCounts, new Pair(link.parent(), link.child()))
+        .add(link.callCount(), link.errorCount());
     }
+  }
 
-    return link(callCounts, errorCounts);
+  static Counts counts(Map<Pair, Counts> linkCounts, Pair parentChild) {
+    Counts result = linkCounts.get(parentChild);
+    if (result == null) linkCounts.put(parentChild, result = new Counts());
+    return result;
   }
 
-  static List<DependencyLink> link(Map<Pair, Long> callCounts,
-    Map<Pair, Long> errorCounts) {
-    List<DependencyLink> result = new ArrayList<>(callCounts.size());
-    for (Map.Entry<Pair, Long> entry : callCounts.entrySet()) {
+  static List<DependencyLink> link(Map<Pair, Counts> linkCounts) {
+    List<DependencyLink> result = new ArrayList<>(linkCounts.size());
+    for (Map.Entry<Pair, Counts> entry : linkCounts.entrySet()) {
       Pair parentChild = entry.getKey();
       result.add(DependencyLink.newBuilder()
         .parent(parentChild.left)
         .child(parentChild.right)
-        .callCount(entry.getValue())
-        .errorCount(errorCounts.containsKey(parentChild) ? errorCounts.get(parentChild) : 0L)
+        .callCount(entry.getValue().callCount)
+        .errorCount(entry.getValue().errorCount)
         .build());
     }
     return result;
   }
 
+  /** Mutable counts, which avoid boxing a new value for each link added. */
+  static final class Counts {
+    long callCount, errorCount;
+
+    void add(long callCount, long errorCount) {
+      this.callCount += callCount;
+      this.errorCount += errorCount;
+    }
+  }
+
   static final class Pair {
     final String left, right;
 
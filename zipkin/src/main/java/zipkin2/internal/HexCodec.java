@@ -13,12 +13,31 @@
  */
 package zipkin2.internal;
 
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
 // code originally imported from zipkin.Util
 public final class HexCodec {
   public static final char[] HEX_DIGITS = {
     '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
   };
 
+  static final Charset ASCII = Charset.forName("US-ASCII");
+
+  /** The value of each ASCII lower-hex digit, or -1 for other characters. */
+  static final byte[] DIGIT_VALUES = new byte[128];
+  /** Two lower-hex characters for each byte value, so that a byte is formatted in one lookup. */
+  static final char[] HEX_PAIRS = new char[512];
+
+  static {
+    Arrays.fill(DIGIT_VALUES, (byte) -1);
+    for (int i = 0; i < 16; i++) DIGIT_VALUES[HEX_DIGITS[i]] = (byte) i;
+    for (int b = 0; b < 256; b++) {
+      HEX_PAIRS[b << 1] = HEX_DIGITS[b >> 4];
+      HEX_PAIRS[(b << 1) + 1] = HEX_DIGITS[b & 0xf];
+    }
+  }
+
   /**
    * Parses a 1 to 32 character lower-hex string with no prefix into an unsigned long, tossing any
    * bits higher than 64.
@@ -39,20 +58,101 @@ public final class HexCodec {
    */
   public static long lowerHexToUnsignedLong(String lowerHex, int index) {
     long result = 0;
+    int invalid = 0; // negative if any digit was invalid: checked once, as opposed to per digit
     for (int endIndex = Math.min(index + 16, lowerHex.length()); index < endIndex; index++) {
-      char c = lowerHex.charAt(index);
-      result <<= 4;
-      if (c >= '0' && c <= '9') {
-        result |= c - '0';
-      } else if (c >= 'a' && c <= 'f') {
-        result |= c - 'a' + 10;
-      } else {
-        throw isntLowerHexLong(lowerHex);
-      }
+      int digit = digitValue(lowerHex.charAt(index));
+      invalid |= digit;
+      result = (result << 4) | (digit & 0xf);
     }
+    if (invalid < 0) throw isntLowerHexLong(lowerHex);
     return result;
   }
 
+  /**
+   * Like {@link #lowerHexToUnsignedLong(String, int)}, except parsing up to 16 ASCII characters in
+   * the range, which avoids allocating a string.
+   */
+  public static long lowerHexToUnsignedLong(byte[] lowerHex, int beginIndex, int endIndex) {
+    long result = 0;
+    int invalid = 0;
+    for (int i = beginIndex; i < endIndex; i++) {
+      int digit = digitValue(lowerHex[i] & 0xff);
+      invalid |= digit;
+      result = (result << 4) | (digit & 0xf);
+    }
+    if (invalid < 0) {
+      throw isntLowerHexLong(new String(lowerHex, beginIndex, endIndex - beginIndex, ASCII));
+    }
+    return result;
+  }
+
+  /**
+   * Returns the count of leading zeros in the lower-hex string, or -1 if it isn't lower-hex.
+   */
+  public static int lowerHexZeroPrefix(String lowerHex) {
+    int length = lowerHex.length(), zeros = 0;
+    while (zeros < length && lowerHex.charAt(zeros) == '0') zeros++;
+    int invalid = 0;
+    for (int i = zeros; i < length; i++) invalid |= digitValue(lowerHex.charAt(i));
+    return invalid < 0 ? -1 : zeros;
+  }
+
+  /**
+   * Returns the value of a lower-hex digit, or a negative number if the character isn't one. This
+   * has no branches: {@code (127 - c) >> 31} is all ones for non-ASCII characters.
+   */
+  static int digitValue(int c) {
+    return DIGIT_VALUES[c & 0x7f] | ((127 - c) >> 31);
+  }
+
+  /** Returns a 16 or 32 character lower-hex string, depending on if the high bits are set. */
+  public static String toLowerHex(long high, long low) {
+    char[] data = Platform.shortStringBuffer();
+    int pos = 0;
+    if (high != 0L) {
+      writeHexLong(data, pos, high);
+      pos += 16;
+    }
+    writeHexLong(data, pos, low);
+    return new String(data, 0, high != 0L ? 32 : 16);
+  }
+
+  /** Inspired by {@code okio.Buffer.writeLong} */
+  static void writeHexLong(char[] data, int pos, long v) {
+    writeHexByte(data, pos + 0, (int) (v >>> 56L));
+    writeHexByte(data, pos + 2, (int) (v >>> 48L));
+    writeHexByte(data, pos + 4, (int) (v >>> 40L));
+    writeHexByte(data, pos + 6, (int) (v >>> 32L));
+    writeHexByte(data, pos + 8, (int) (v >>> 24L));
+    writeHexByte(data, pos + 10, (int) (v >>> 16L));
+    writeHexByte(data, pos + 12, (int) (v >>> 8L));
+    writeHexByte(data, pos + 14, (int) v);
+  }
+
+  static void writeHexByte(char[] data, int pos, int b) {
+    int pair = (b & 0xff) << 1;
+    data[pos + 0] = HEX_PAIRS[pair];
+    data[pos + 1] = HEX_PAIRS[pair + 1];
+  }
+
+  /** Like {@link #writeHexLong(char[], int, long)}, except writing ASCII bytes. */
+  static void writeHexLong(byte[] data, int pos, long v) {
+    writeHexByte(data, pos + 0, (int) (v >>> 56L));
+    writeHexByte(data, pos + 2, (int) (v >>> 48L));
+    writeHexByte(data, pos + 4, (int) (v >>> 40L));
+    writeHexByte(data, pos + 6, (int) (v >>> 32L));
+    writeHexByte(data, pos + 8, (int) (v >>> 24L));
+    writeHexByte(data, pos + 10, (int) (v >>> 16L));
+    writeHexByte(data, pos + 12, (int) (v >>> 8L));
+    writeHexByte(data, pos + 14, (int) v);
+  }
+
+  static void writeHexByte(byte[] data, int pos, int b) {
+    int pair = (b & 0xff) << 1;
+    data[pos + 0] = (byte) HEX_PAIRS[pair];
+    data[pos + 1] = (byte) HEX_PAIRS[pair + 1];
+  }
+
   static NumberFormatException isntLowerHexLong(String lowerHex) {
     throw new NumberFormatException(
         lowerHex + " should be a 1 to 32 character lower-hex string with no prefix");
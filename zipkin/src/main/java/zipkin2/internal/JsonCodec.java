@@ -79,6 +79,16 @@ public final class JsonCodec {
       return delegate.nextString();
     }
 
+    /** Like {@link #nextString()}, but shares the result when {@link DecodeCache} is enabled. */
+    String nextSharedString() throws IOException {
+      return DecodeCache.shareString(delegate.nextString());
+    }
+
+    /** Like {@link #nextName()}, but shares the result when {@link DecodeCache} is enabled. */
+    String nextSharedName() throws IOException {
+      return DecodeCache.shareString(delegate.nextName());
+    }
+
     public void skipValue() throws IOException {
       delegate.skipValue();
     }
@@ -152,7 +162,7 @@ public final class JsonCodec {
     }
   }
 
-  static <T> int sizeInBytes(WriteBuffer.Writer<T> writer, List<T> value) {
+  public static <T> int sizeInBytes(WriteBuffer.Writer<T> writer, List<T> value) {
     int length = value.size();
     int sizeInBytes = 2; // []
     if (length > 1) sizeInBytes += length - 1; // comma to join elements
@@ -0,0 +1,974 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+import zipkin2.codec.BytesDecoder;
+import zipkin2.codec.Encoding;
+import zipkin2.codec.SpanBytesDecoder;
+
+import static zipkin2.internal.Proto3Fields.Field;
+import static zipkin2.internal.Proto3ZipkinFields.EndpointField;
+import static zipkin2.internal.Proto3Fields.WIRETYPE_LENGTH_DELIMITED;
+import static zipkin2.internal.Proto3ZipkinFields.SpanField;
+import static zipkin2.internal.V2SpanReader.ENDPOINT_READER;
+
+/**
+ * A view of one span in an encoded list, which decodes fields on access as opposed to up-front.
+ *
+ * <p>Indexing is one pass over the input, recording where each span and its commonly used fields
+ * start. This allows decisions such as sampling to be made without materializing a {@link Span}.
+ * The encoded bytes of each span are also available, which allows storage to skip re-encoding
+ * when its format is the same as what was received.
+ *
+ * <p>Only {@link SpanBytesDecoder#PROTO3} and {@link SpanBytesDecoder#JSON_V2} are supported, as
+ * they encode exactly one object per span.
+ *
+ * <p>Fields are decoded on each call. When many are needed, use {@link #toSpan()} instead. This
+ * type is not thread-safe: it is intended to be used by the thread that indexed it.
+ */
+public abstract class LazySpan {
+  static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /** Returns true if {@link #indexList(BytesDecoder, byte[])} accepts this decoder. */
+  public static boolean isSupported(BytesDecoder<Span> decoder) {
+    return decoder == SpanBytesDecoder.PROTO3 || decoder == SpanBytesDecoder.JSON_V2;
+  }
+
+  /**
+   * Indexes each span in a list encoded with the given decoder's format, without decoding them.
+   *
+   * @throws IllegalArgumentException if the decoder isn't supported or the input is malformed
+   */
+  public static List<LazySpan> indexList(BytesDecoder<Span> decoder, byte[] spans) {
+    if (decoder == SpanBytesDecoder.PROTO3) return Proto3LazySpan.indexList(spans);
+    if (decoder == SpanBytesDecoder.JSON_V2) return JsonLazySpan.indexList(spans);
+    throw new IllegalArgumentException("Unsupported decoder: " + decoder);
+  }
+
+  final byte[] bytes;
+  final int offset;
+  int length;
+  Span span;
+
+  LazySpan(byte[] bytes, int offset) {
+    this.bytes = bytes;
+    this.offset = offset;
+  }
+
+  /** The format of {@link #encodedBytes()} */
+  public abstract Encoding encoding();
+
+  /** Returns the size of {@link #encodedBytes()} without copying them. */
+  public int encodedLength() {
+    return length;
+  }
+
+  /**
+   * Returns a copy of this span as received, which is the same as {@link
+   * zipkin2.codec.SpanBytesEncoder#encode(Span)} in the same format, except fields aren't
+   * normalized.
+   */
+  public byte[] encodedBytes() {
+    byte[] result = new byte[length];
+    System.arraycopy(bytes, offset, result, 0, length);
+    return result;
+  }
+
+  /** Copies {@link #encodedBytes()} into the destination, returning the position after them. */
+  public int writeEncodedBytes(byte[] destination, int pos) {
+    System.arraycopy(bytes, offset, destination, pos, length);
+    return pos + length;
+  }
+
+  /** @see Span#traceIdHigh() */
+  public abstract long traceIdHigh();
+
+  /** @see Span#traceIdLow() */
+  public abstract long traceIdLow();
+
+  /** @see Span#traceId() */
+  public String traceId() {
+    return HexCodec.toLowerHex(traceIdHigh(), traceIdLow());
+  }
+
+  /** @see Span#idAsLong() */
+  public abstract long idAsLong();
+
+  /** @see Span#parentIdAsLong() */
+  public abstract long parentIdAsLong();
+
+  /** @see Span#name() */
+  @Nullable public abstract String name();
+
+  /** @see Span#timestampAsLong() */
+  public abstract long timestampAsLong();
+
+  /** @see Span#localEndpoint() */
+  @Nullable public abstract Endpoint localEndpoint();
+
+  /** @see Span#remoteEndpoint() */
+  @Nullable public abstract Endpoint remoteEndpoint();
+
+  /** @see Span#localServiceName() */
+  @Nullable public String localServiceName() {
+    Endpoint localEndpoint = localEndpoint();
+    return localEndpoint != null ? localEndpoint.serviceName() : null;
+  }
+
+  /** @see Span#remoteServiceName() */
+  @Nullable public String remoteServiceName() {
+    Endpoint remoteEndpoint = remoteEndpoint();
+    return remoteEndpoint != null ? remoteEndpoint.serviceName() : null;
+  }
+
+  /** True when {@link Span#debug()} would return true. */
+  public abstract boolean debug();
+
+  /**
+   * Returns true when fields normalized on decode are already normalized in {@link
+   * #encodedBytes()}. This means storage can write those bytes without risk of values that don't
+   * match queries, such as an upper-case service name or an unpadded ID.
+   *
+   * <p>Specifically, IDs are fixed-width lower-hex, and the span name and service names are
+   * lower-case. In JSON, the bytes must also be exactly what {@link
+   * zipkin2.codec.SpanBytesEncoder#JSON_V2} would write: compact, in the same field order, and
+   * without values decoding drops, such as an empty endpoint or a zero timestamp.
+   *
+   * <p>This is conservative: when false, the span should be re-encoded from {@link #toSpan()}.
+   */
+  public abstract boolean isNormalized();
+
+  /** True if the range has at least one printable ASCII character and none are upper-case. */
+  static boolean isLowerCaseAscii(byte[] bytes, int begin, int end) {
+    if (begin == end) return false;
+    for (int i = begin; i < end; i++) {
+      byte b = bytes[i];
+      if (b < ' ' || b > '~' || (b >= 'A' && b <= 'Z')) return false;
+    }
+    return true;
+  }
+
+  /** Decodes the whole span on first call. */
+  public Span toSpan() {
+    Span result = span;
+    if (result == null) span = result = decode();
+    return result;
+  }
+
+  abstract Span decode();
+
+  /** Same normalization as {@link Span.Builder#name(String)} */
+  @Nullable static String normalizeName(@Nullable String name) {
+    return name == null || name.isEmpty() ? null : name.toLowerCase(Locale.ROOT);
+  }
+
+  @Override public String toString() {
+    return new String(encodedBytes(), UTF_8);
+  }
+
+  static final class Proto3LazySpan extends LazySpan {
+    static List<LazySpan> indexList(byte[] spans) {
+      ReadBuffer buffer = ReadBuffer.wrap(spans);
+      List<LazySpan> result = new ArrayList<>();
+      try {
+        while (buffer.available() > 0) {
+          Proto3LazySpan span = new Proto3LazySpan(spans, buffer.pos());
+          int key = buffer.readVarint32();
+          if (Field.wireType(key, span.offset) != WIRETYPE_LENGTH_DELIMITED) {
+            throw new IllegalArgumentException("Malformed: span at byte " + span.offset);
+          }
+          int length = buffer.readVarint32();
+          buffer.require(length);
+          int endPos = buffer.pos() + length;
+          while (buffer.pos() < endPos) {
+            span.index(buffer);
+          }
+          span.length = endPos - span.offset;
+          result.add(span);
+        }
+      } catch (RuntimeException e) {
+        throw Proto3Codec.exceptionReading("List<Span>", e);
+      }
+      return result;
+    }
+
+    // positions after the field key, or -1 if absent
+    int traceIdPos = -1, parentIdPos = -1, idPos = -1, namePos = -1, timestampPos = -1;
+    int localEndpointPos = -1, remoteEndpointPos = -1, debugPos = -1;
+
+    Proto3LazySpan(byte[] bytes, int offset) {
+      super(bytes, offset);
+    }
+
+    void index(ReadBuffer buffer) {
+      int keyPos = buffer.pos();
+      int key = buffer.readVarint32();
+      int valuePos = buffer.pos();
+      switch (key) {
+        case SpanField.TRACE_ID_KEY:
+          traceIdPos = valuePos;
+          break;
+        case SpanField.PARENT_ID_KEY:
+          parentIdPos = valuePos;
+          break;
+        case SpanField.ID_KEY:
+          idPos = valuePos;
+          break;
+        case SpanField.NAME_KEY:
+          namePos = valuePos;
+          break;
+        case SpanField.TIMESTAMP_KEY:
+          timestampPos = valuePos;
+          break;
+        case SpanField.LOCAL_ENDPOINT_KEY:
+          localEndpointPos = valuePos;
+          break;
+        case SpanField.REMOTE_ENDPOINT_KEY:
+          remoteEndpointPos = valuePos;
+          break;
+        case SpanField.DEBUG_KEY:
+          debugPos = valuePos;
+          break;
+        default:
+      }
+      if (!Field.skipValue(buffer, Field.wireType(key, keyPos))) {
+        throw new IllegalArgumentException("Truncated: field at byte " + keyPos);
+      }
+    }
+
+    @Override public Encoding encoding() {
+      return Encoding.PROTO3;
+    }
+
+    /** Returns a buffer positioned at the given field value, bounded by the end of this span */
+    ReadBuffer at(int pos) {
+      return ReadBuffer.wrap(bytes, pos, offset + length - pos);
+    }
+
+    @Override public long traceIdHigh() {
+      if (traceIdPos == -1) return 0L;
+      ReadBuffer buffer = at(traceIdPos);
+      int length = buffer.readVarint32();
+      if (length == 16) return buffer.readLong();
+      if (length == 8) return 0L;
+      return toSpan().traceIdHigh(); // unusual length: defer to normal validation
+    }
+
+    @Override public long traceIdLow() {
+      if (traceIdPos == -1) return 0L;
+      ReadBuffer buffer = at(traceIdPos);
+      int length = buffer.readVarint32();
+      if (length == 16) buffer.skip(8);
+      if (length == 16 || length == 8) return buffer.readLong();
+      return toSpan().traceIdLow();
+    }
+
+    @Override public long idAsLong() {
+      return readId(idPos);
+    }
+
+    @Override public long parentIdAsLong() {
+      return readId(parentIdPos);
+    }
+
+    long readId(int pos) {
+      if (pos == -1) return 0L;
+      ReadBuffer buffer = at(pos);
+      if (buffer.readVarint32() == 8) return buffer.readLong();
+      Span span = toSpan();
+      return pos == idPos ? span.idAsLong() : span.parentIdAsLong();
+    }
+
+    @Override @Nullable public String name() {
+      if (namePos == -1) return null;
+      return normalizeName(SpanField.NAME.readLengthPrefixAndValue(at(namePos)));
+    }
+
+    @Override public long timestampAsLong() {
+      if (timestampPos == -1) return 0L;
+      long result = SpanField.TIMESTAMP.readValue(at(timestampPos));
+      return result > 0L ? result : 0L;
+    }
+
+    @Override @Nullable public Endpoint localEndpoint() {
+      if (localEndpointPos == -1) return null;
+      return SpanField.LOCAL_ENDPOINT.readLengthPrefixAndValue(at(localEndpointPos));
+    }
+
+    @Override @Nullable public Endpoint remoteEndpoint() {
+      if (remoteEndpointPos == -1) return null;
+      return SpanField.REMOTE_ENDPOINT.readLengthPrefixAndValue(at(remoteEndpointPos));
+    }
+
+    @Override public boolean debug() {
+      return debugPos != -1 && SpanField.DEBUG.read(at(debugPos));
+    }
+
+    @Override public boolean isNormalized() {
+      return (isFixedWidthId(traceIdPos, 8) || isFixedWidthId(traceIdPos, 16))
+        && isFixedWidthId(idPos, 8)
+        && (parentIdPos == -1 || isFixedWidthId(parentIdPos, 8))
+        && (namePos == -1 || isLowerCaseString(at(namePos)))
+        && isNormalizedEndpoint(localEndpointPos)
+        && isNormalizedEndpoint(remoteEndpointPos);
+    }
+
+    /** The decoder pads shorter IDs and drops a zero high trace ID, so neither is normalized. */
+    boolean isFixedWidthId(int pos, int length) {
+      if (pos == -1) return false;
+      ReadBuffer buffer = at(pos);
+      return buffer.readVarint32() == length && buffer.readLong() != 0L;
+    }
+
+    boolean isLowerCaseString(ReadBuffer buffer) {
+      int length = buffer.readVarint32(), begin = bufferOffset(buffer);
+      buffer.skip(length);
+      return isLowerCaseAscii(bytes, begin, begin + length);
+    }
+
+    boolean isNormalizedEndpoint(int pos) {
+      if (pos == -1) return true;
+      ReadBuffer buffer = at(pos);
+      int endPos = buffer.readVarint32() + buffer.pos();
+      while (buffer.pos() < endPos) {
+        int keyPos = buffer.pos(), key = buffer.readVarint32();
+        if (key == EndpointField.SERVICE_NAME_KEY) {
+          if (!isLowerCaseString(buffer)) return false;
+        } else if (!Field.skipValue(buffer, Field.wireType(key, keyPos))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /** Positions from {@link #at(int)} are relative, so this converts one back to an offset. */
+    int bufferOffset(ReadBuffer buffer) {
+      return offset + length - buffer.available();
+    }
+
+    @Override Span decode() {
+      return Proto3Codec.readOne(ReadBuffer.wrap(bytes, offset, length));
+    }
+
+    @Override public String toString() {
+      return "Proto3LazySpan{" + traceId() + "/" + HexCodec.toLowerHex(0L, idAsLong()) + "}";
+    }
+  }
+
+  static final class JsonLazySpan extends LazySpan {
+    static List<LazySpan> indexList(byte[] spans) {
+      List<LazySpan> result = new ArrayList<>();
+      try {
+        int i = skipWhitespace(spans, 0);
+        i = expect(spans, i, '[');
+        if (peek(spans, i) == ']') {
+          i++;
+        } else {
+          while (true) {
+            JsonLazySpan span = new JsonLazySpan(spans, i);
+            i = span.index(spans, i);
+            result.add(span);
+            i = skipWhitespace(spans, i);
+            if (peek(spans, i) == ',') {
+              i = skipWhitespace(spans, i + 1);
+              continue;
+            }
+            i = expect(spans, i, ']');
+            break;
+          }
+        }
+        if (i != spans.length) throw malformed(i);
+      } catch (RuntimeException e) {
+        throw JsonCodec.exceptionReading("List<Span>", e);
+      }
+      return result;
+    }
+
+    // positions of field values, or -1 if absent or null
+    int traceIdPos = -1, parentIdPos = -1, idPos = -1, namePos = -1, timestampPos = -1;
+    int localEndpointPos = -1, remoteEndpointPos = -1, debugPos = -1, durationPos = -1;
+    boolean hasOtherFields; // true when a field isn't one written by SpanBytesEncoder.JSON_V2
+
+    JsonLazySpan(byte[] bytes, int offset) {
+      super(bytes, offset);
+    }
+
+    /** Indexes the object starting at the position, returning the position after it. */
+    int index(byte[] bytes, int i) {
+      i = expect(bytes, i, '{');
+      if (peek(bytes, i) == '}') {
+        length = i + 1 - offset;
+        return i + 1;
+      }
+      while (true) {
+        int keyStart = i + 1, keyEnd = endOfString(bytes, expectPeek(bytes, i, '"'));
+        i = expect(bytes, skipWhitespace(bytes, keyEnd + 1), ':');
+        if (peek(bytes, i) != 'n') indexField(bytes, keyStart, keyEnd, i); // skip null
+        i = skipWhitespace(bytes, skipValue(bytes, i));
+        if (peek(bytes, i) == ',') {
+          i = skipWhitespace(bytes, i + 1);
+          continue;
+        }
+        if (peek(bytes, i) != '}') throw malformed(i);
+        length = i + 1 - offset;
+        return i + 1;
+      }
+    }
+
+    void indexField(byte[] bytes, int keyStart, int keyEnd, int valuePos) {
+      switch (keyEnd - keyStart) { // switch on length to reduce comparisons
+        case 2:
+          if (matches(bytes, keyStart, "id")) {
+            idPos = valuePos;
+            return;
+          }
+          break;
+        case 4:
+          if (matches(bytes, keyStart, "name")) {
+            namePos = valuePos;
+            return;
+          }
+          if (matches(bytes, keyStart, "kind") || matches(bytes, keyStart, "tags")) return;
+          break;
+        case 5:
+          if (matches(bytes, keyStart, "debug")) {
+            debugPos = valuePos;
+            return;
+          }
+          break;
+        case 6:
+          if (matches(bytes, keyStart, "shared")) return;
+          break;
+        case 7:
+          if (matches(bytes, keyStart, "traceId")) {
+            traceIdPos = valuePos;
+            return;
+          }
+          break;
+        case 8:
+          if (matches(bytes, keyStart, "parentId")) {
+            parentIdPos = valuePos;
+            return;
+          }
+          if (matches(bytes, keyStart, "duration")) {
+            durationPos = valuePos;
+            return;
+          }
+          break;
+        case 9:
+          if (matches(bytes, keyStart, "timestamp")) {
+            timestampPos = valuePos;
+            return;
+          }
+          break;
+        case 11:
+          if (matches(bytes, keyStart, "annotations")) return;
+          break;
+        case 13:
+          if (matches(bytes, keyStart, "localEndpoint")) {
+            localEndpointPos = valuePos;
+            return;
+          }
+          break;
+        case 14:
+          if (matches(bytes, keyStart, "remoteEndpoint")) {
+            remoteEndpointPos = valuePos;
+            return;
+          }
+          break;
+        default:
+      }
+      hasOtherFields = true;
+    }
+
+    @Override public Encoding encoding() {
+      return Encoding.JSON;
+    }
+
+    @Override public long traceIdHigh() {
+      if (traceIdPos == -1) return 0L;
+      int end = endOfString(bytes, traceIdPos), length = end - traceIdPos - 1;
+      if (length <= 16 || length > 32 || hasEscape(traceIdPos + 1, end)) {
+        return toSpan().traceIdHigh();
+      }
+      return parseHex(traceIdPos + 1, end - 16); // all zeros means a 64-bit trace ID
+    }
+
+    @Override public long traceIdLow() {
+      if (traceIdPos == -1) return 0L;
+      int end = endOfString(bytes, traceIdPos), length = end - traceIdPos - 1;
+      if (length == 0 || length > 32 || hasEscape(traceIdPos + 1, end)) {
+        return toSpan().traceIdLow();
+      }
+      return parseHex(Math.max(traceIdPos + 1, end - 16), end);
+    }
+
+    @Override public long idAsLong() {
+      return readId(idPos);
+    }
+
+    @Override public long parentIdAsLong() {
+      return readId(parentIdPos);
+    }
+
+    long readId(int pos) {
+      if (pos == -1) return 0L;
+      int end = endOfString(bytes, pos), length = end - pos - 1;
+      if (length == 0 || length > 16 || hasEscape(pos + 1, end)) {
+        Span span = toSpan();
+        return pos == idPos ? span.idAsLong() : span.parentIdAsLong();
+      }
+      return parseHex(pos + 1, end);
+    }
+
+    @Override @Nullable public String name() {
+      if (namePos == -1) return null;
+      return normalizeName(readString(namePos));
+    }
+
+    @Override public long timestampAsLong() {
+      if (timestampPos == -1) return 0L;
+      long result = 0L;
+      int i = timestampPos;
+      for (int length = bytes.length; i < length; i++) {
+        byte b = bytes[i];
+        if (b < '0' || b > '9') break;
+        result = result * 10 + (b - '0');
+      }
+      if (i == timestampPos || i - timestampPos > 18 || !isValueEnd(bytes, i)) {
+        return toSpan().timestampAsLong(); // negative, fractional or otherwise unusual
+      }
+      return result;
+    }
+
+    @Override @Nullable public Endpoint localEndpoint() {
+      return readEndpoint(localEndpointPos);
+    }
+
+    @Override @Nullable public Endpoint remoteEndpoint() {
+      return readEndpoint(remoteEndpointPos);
+    }
+
+    @Nullable Endpoint readEndpoint(int pos) {
+      if (pos == -1) return null;
+      JsonCodec.JsonReader reader = reader(pos);
+      try {
+        return ENDPOINT_READER.fromJson(reader);
+      } catch (Exception e) {
+        throw JsonCodec.exceptionReading("Endpoint", e);
+      }
+    }
+
+    @Override public boolean debug() {
+      return debugPos != -1 && bytes[debugPos] == 't';
+    }
+
+    @Override public boolean isNormalized() {
+      return !hasOtherFields && new CanonicalJson(bytes, offset, offset + length).isSpan();
+    }
+
+    @Override Span decode() {
+      return JsonCodec.readOne(new V2SpanReader(), ReadBuffer.wrap(bytes, offset, length));
+    }
+
+    JsonCodec.JsonReader reader(int pos) {
+      return new JsonCodec.JsonReader(ReadBuffer.wrap(bytes, pos, offset + length - pos));
+    }
+
+    String readString(int pos) {
+      int end = endOfString(bytes, pos);
+      if (!hasEscape(pos + 1, end)) return new String(bytes, pos + 1, end - pos - 1, UTF_8);
+      try {
+        return reader(pos).nextString();
+      } catch (IOException e) {
+        throw JsonCodec.exceptionReading("String", e);
+      }
+    }
+
+    boolean hasEscape(int begin, int end) {
+      for (int i = begin; i < end; i++) {
+        if (bytes[i] == '\\') return true;
+      }
+      return false;
+    }
+
+    long parseHex(int begin, int end) {
+      try {
+        return HexCodec.lowerHexToUnsignedLong(bytes, begin, end);
+      } catch (NumberFormatException e) {
+        return invalidHex(begin, end);
+      }
+    }
+
+    long invalidHex(int begin, int end) {
+      throw new IllegalArgumentException(
+        new String(bytes, begin, end - begin, UTF_8) + " should be lower-hex encoded with no prefix");
+    }
+
+    static int skipValue(byte[] bytes, int i) {
+      switch (peek(bytes, i)) {
+        case '"':
+          return endOfString(bytes, i) + 1;
+        case '{':
+        case '[':
+          int depth = 0;
+          for (int length = bytes.length; i < length; i++) {
+            byte b = bytes[i];
+            if (b == '"') {
+              i = endOfString(bytes, i);
+            } else if (b == '{' || b == '[') {
+              depth++;
+            } else if ((b == '}' || b == ']') && --depth == 0) {
+              return i + 1;
+            }
+          }
+          throw malformed(i);
+        default: // number or literal
+          int start = i;
+          while (i < bytes.length && !isValueEnd(bytes, i)) i++;
+          if (i == start) throw malformed(i);
+          return i;
+      }
+    }
+
+    static boolean isValueEnd(byte[] bytes, int i) {
+      if (i == bytes.length) return true;
+      byte b = bytes[i];
+      return b == ',' || b == '}' || b == ']' || isWhitespace(b);
+    }
+
+    /** Returns the position of the closing quote of the string starting at the position. */
+    static int endOfString(byte[] bytes, int i) {
+      for (int j = i + 1, length = bytes.length; j < length; j++) {
+        byte b = bytes[j];
+        if (b == '\\') {
+          j++;
+        } else if (b == '"') {
+          return j;
+        }
+      }
+      throw malformed(i);
+    }
+
+    static boolean matches(byte[] bytes, int pos, String ascii) {
+      for (int i = 0, length = ascii.length(); i < length; i++) {
+        if (bytes[pos + i] != ascii.charAt(i)) return false;
+      }
+      return true;
+    }
+
+    static int skipWhitespace(byte[] bytes, int i) {
+      while (i < bytes.length && isWhitespace(bytes[i])) i++;
+      return i;
+    }
+
+    static boolean isWhitespace(byte b) {
+      return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    static byte peek(byte[] bytes, int i) {
+      if (i >= bytes.length) throw malformed(i);
+      return bytes[i];
+    }
+
+    /** Returns the position of the expected byte, which must be next. */
+    static int expectPeek(byte[] bytes, int i, char expected) {
+      if (peek(bytes, i) != expected) throw malformed(i);
+      return i;
+    }
+
+    /** Consumes the expected byte and any whitespace after it. */
+    static int expect(byte[] bytes, int i, char expected) {
+      return skipWhitespace(bytes, expectPeek(bytes, i, expected) + 1);
+    }
+
+    static IllegalArgumentException malformed(int i) {
+      return new IllegalArgumentException("Malformed: at byte " + i);
+    }
+  }
+
+  /**
+   * Checks a JSON span is in the form written by {@link V2SpanWriter}: compact, with fields in the
+   * same order, and no values that decoding would drop or change. To keep this simple, strings
+   * can't have escapes. Anything unusual returns false, which results in re-encoding.
+   */
+  static final class CanonicalJson {
+    static final String[] KINDS = {"\"CLIENT\"", "\"SERVER\"", "\"PRODUCER\"", "\"CONSUMER\""};
+
+    final byte[] bytes;
+    final int end;
+    int pos;
+
+    CanonicalJson(byte[] bytes, int begin, int end) {
+      this.bytes = bytes;
+      this.pos = begin;
+      this.end = end;
+    }
+
+    boolean isSpan() {
+      if (!literal("{\"traceId\":") || !(id(32) || id(16))) return false;
+      int parentIdPos = -1;
+      if (literal(",\"parentId\":")) {
+        parentIdPos = pos;
+        if (!id(16)) return false;
+      }
+      if (!literal(",\"id\":")) return false;
+      int idPos = pos;
+      if (!id(16)) return false;
+      // the decoder drops a parent ID that's the same as the span ID
+      if (parentIdPos != -1 && regionMatches(parentIdPos, idPos, 18)) return false;
+      int kind = -1;
+      if (literal(",\"kind\":") && (kind = kind()) == -1) return false;
+      if (literal(",\"name\":") && !string(true)) return false;
+      if (literal(",\"timestamp\":") && !positiveInteger()) return false;
+      if (literal(",\"duration\":") && !positiveInteger()) return false;
+      if (literal(",\"localEndpoint\":") && !endpoint()) return false;
+      if (literal(",\"remoteEndpoint\":") && !endpoint()) return false;
+      if (literal(",\"annotations\":[") && !annotations()) return false;
+      if (literal(",\"tags\":{") && !tags()) return false;
+      literal(",\"debug\":true");
+      // the decoder drops the shared flag from client spans
+      if (literal(",\"shared\":true") && kind == 0) return false;
+      return literal("}") && pos == end;
+    }
+
+    /** Fixed-width lower-hex, where the first 16 characters aren't all zeros. */
+    boolean id(int length) {
+      if (end - pos < length + 2 || bytes[pos] != '"' || bytes[pos + length + 1] != '"') {
+        return false;
+      }
+      boolean leadingZeros = true;
+      for (int i = pos + 1, idEnd = pos + 1 + length; i < idEnd; i++) {
+        byte b = bytes[i];
+        if ((b < '0' || b > '9') && (b < 'a' || b > 'f')) return false;
+        if (b != '0' && i <= pos + 16) leadingZeros = false;
+      }
+      if (leadingZeros) return false;
+      pos += length + 2;
+      return true;
+    }
+
+    /** Returns the index into {@link #KINDS} or -1 if not a kind. */
+    int kind() {
+      for (int i = 0; i < KINDS.length; i++) {
+        if (literal(KINDS[i])) return i;
+      }
+      return -1;
+    }
+
+    /**
+     * A string without escapes, where any non-ASCII characters are valid UTF-8 that the encoder
+     * wouldn't escape. If lower-case is required, it must also be non-empty, printable ASCII.
+     */
+    boolean string(boolean lowerCase) {
+      if (pos == end || bytes[pos] != '"') return false;
+      int begin = pos + 1, i = begin;
+      while (i < end && bytes[i] != '"') {
+        byte b = bytes[i];
+        if (b >= 0) {
+          if (b < ' ' || b == '\\') return false;
+          i++;
+        } else {
+          int length = utf8Length(i);
+          if (length == 0) return false;
+          i += length;
+        }
+      }
+      if (i >= end) return false;
+      if (lowerCase && !isLowerCaseAscii(bytes, begin, i)) return false;
+      pos = i + 1;
+      return true;
+    }
+
+    /** Returns the length of a valid multi-byte UTF-8 character at the position, or zero. */
+    int utf8Length(int i) {
+      int lead = bytes[i] & 0xff, length;
+      int min = 0x80, max = 0xbf; // range of the second byte
+      if (lead >= 0xc2 && lead <= 0xdf) {
+        length = 2;
+      } else if (lead >= 0xe0 && lead <= 0xef) {
+        length = 3;
+        if (lead == 0xe0) min = 0xa0; // overlong
+        if (lead == 0xed) max = 0x9f; // surrogate
+      } else if (lead >= 0xf0 && lead <= 0xf4) {
+        length = 4;
+        if (lead == 0xf0) min = 0x90; // overlong
+        if (lead == 0xf4) max = 0x8f; // above U+10FFFF
+      } else {
+        return 0;
+      }
+      if (end - i < length) return 0;
+      int second = bytes[i + 1] & 0xff;
+      if (second < min || second > max) return 0;
+      for (int j = i + 2; j < i + length; j++) {
+        if ((bytes[j] & 0xc0) != 0x80) return 0;
+      }
+      // the encoder escapes U+2028 and U+2029 as they are line terminators in JavaScript
+      if (lead == 0xe2 && second == 0x80 && (bytes[i + 2] & 0xfe) == 0xa8) return 0;
+      return length;
+    }
+
+    /** Returns the length of the digits, or zero unless a positive integer without padding. */
+    int digits() {
+      int i = pos;
+      while (i < end && bytes[i] >= '0' && bytes[i] <= '9') i++;
+      int length = i - pos;
+      if (length == 0 || length > 18 || bytes[pos] == '0') return 0;
+      return length;
+    }
+
+    boolean positiveInteger() {
+      int length = digits();
+      pos += length;
+      return length != 0;
+    }
+
+    boolean endpoint() {
+      if (!literal("{")) return false;
+      boolean wroteField = false;
+      if (literal("\"serviceName\":")) {
+        if (!string(true)) return false;
+        wroteField = true;
+      }
+      if (literal(wroteField ? ",\"ipv4\":" : "\"ipv4\":")) {
+        if (!ipv4()) return false;
+        wroteField = true;
+      }
+      if (literal(wroteField ? ",\"ipv6\":" : "\"ipv6\":")) {
+        if (!ipv6()) return false;
+        wroteField = true;
+      }
+      if (literal(wroteField ? ",\"port\":" : "\"port\":")) {
+        int length = digits();
+        if (length == 0 || length > 5 || parseInt(pos, pos + length) > 0xffff) return false;
+        pos += length;
+        wroteField = true;
+      }
+      return wroteField && literal("}"); // the decoder drops empty endpoints
+    }
+
+    /** A dotted quad without leading zeros, as {@link zipkin2.Endpoint#ipv4()} returns. */
+    boolean ipv4() {
+      if (!literal("\"")) return false;
+      for (int octet = 0; octet < 4; octet++) {
+        if (octet > 0 && !literal(".")) return false;
+        int i = pos;
+        while (i < end && i - pos < 4 && bytes[i] >= '0' && bytes[i] <= '9') i++;
+        int length = i - pos;
+        if (length == 0 || length > 3 || length > 1 && bytes[pos] == '0') return false;
+        if (parseInt(pos, i) > 255) return false;
+        pos = i;
+      }
+      return literal("\"");
+    }
+
+    /** IPv6 has many textual forms, so this compares against what the endpoint would return. */
+    boolean ipv6() {
+      int begin = pos;
+      if (!string(false)) return false;
+      String ipv6 = new String(bytes, begin + 1, pos - begin - 2, UTF_8);
+      return ipv6.equals(Endpoint.newBuilder().ip(ipv6).build().ipv6());
+    }
+
+    /** Annotations are sorted and unique, with positive timestamps and non-empty values. */
+    boolean annotations() {
+      int previousTimestamp = -1, previousValue = -1;
+      do {
+        if (!literal("{\"timestamp\":")) return false;
+        int timestamp = pos;
+        if (!positiveInteger() || !literal(",\"value\":")) return false;
+        int value = pos;
+        if (!string(false) || pos - value == 2 || !literal("}")) return false;
+        if (previousTimestamp != -1) {
+          int compare = compareIntegers(previousTimestamp, timestamp);
+          if (compare == 0) compare = compareStrings(previousValue, value);
+          if (compare >= 0) return false;
+        }
+        previousTimestamp = timestamp;
+        previousValue = value;
+      } while (literal(","));
+      return literal("]");
+    }
+
+    /** Tags are sorted by key, which is unique and non-empty. */
+    boolean tags() {
+      int previousKey = -1;
+      do {
+        int key = pos;
+        if (!string(false) || pos - key == 2 || !literal(":") || !string(false)) return false;
+        if (previousKey != -1 && compareStrings(previousKey, key) >= 0) return false;
+        previousKey = key;
+      } while (literal(","));
+      return literal("}");
+    }
+
+    boolean literal(String ascii) {
+      if (end - pos < ascii.length() || !JsonLazySpan.matches(bytes, pos, ascii)) return false;
+      pos += ascii.length();
+      return true;
+    }
+
+    boolean regionMatches(int a, int b, int length) {
+      for (int i = 0; i < length; i++) {
+        if (bytes[a + i] != bytes[b + i]) return false;
+      }
+      return true;
+    }
+
+    int parseInt(int begin, int end) {
+      int result = 0;
+      for (int i = begin; i < end; i++) result = result * 10 + (bytes[i] - '0');
+      return result;
+    }
+
+    /** Compares integers at the positions, which have no leading zeros. */
+    int compareIntegers(int a, int b) {
+      int aEnd = a, bEnd = b;
+      while (bytes[aEnd] >= '0' && bytes[aEnd] <= '9') aEnd++;
+      while (bytes[bEnd] >= '0' && bytes[bEnd] <= '9') bEnd++;
+      if (aEnd - a != bEnd - b) return (aEnd - a) - (bEnd - b);
+      return compareStrings(a - 1, b - 1, aEnd - a);
+    }
+
+    /**
+     * Compares quoted strings at the positions, as {@link String#compareTo} would. As UTF-8 and
+     * UTF-16 don't sort the same, this returns zero when the first difference isn't ASCII.
+     */
+    int compareStrings(int a, int b) {
+      for (int i = 1; ; i++) {
+        byte x = bytes[a + i], y = bytes[b + i];
+        if (x == y) {
+          if (x == '"') return 0;
+          continue;
+        }
+        if (x < 0 || y < 0) return 0;
+        return x == '"' ? -1 : y == '"' ? 1 : x - y;
+      }
+    }
+
+    int compareStrings(int a, int b, int length) {
+      for (int i = 1; i <= length; i++) {
+        if (bytes[a + i] != bytes[b + i]) return bytes[a + i] - bytes[b + i];
+      }
+      return 0;
+    }
+  }
+}
@@ -29,10 +29,28 @@ public final class Proto3Codec {
     return writer.sizeInBytes(input);
   }
 
+  public int sizeInBytes(List<Span> spans) {
+    int sizeInBytes = 0;
+    for (int i = 0, length = spans.size(); i < length; i++) {
+      sizeInBytes += writer.sizeInBytes(spans.get(i));
+    }
+    return sizeInBytes;
+  }
+
   public byte[] write(Span span) {
     return writer.write(span);
   }
 
+  public void write(Span span, WriteBuffer buffer) {
+    writer.write(span, buffer);
+  }
+
+  public void writeList(List<Span> spans, WriteBuffer buffer) {
+    for (int i = 0, length = spans.size(); i < length; i++) {
+      writer.write(spans.get(i), buffer);
+    }
+  }
+
   public byte[] writeList(List<Span> spans) {
     return writer.writeList(spans);
   }
@@ -65,8 +83,9 @@ public final class Proto3Codec {
     int length = buffer.available();
     if (length == 0) return false;
     try {
+      Span.Builder builder = Span.newBuilder(); // reused for each span in the list
       while (buffer.pos() < length) {
-        Span span = SPAN.read(buffer);
+        Span span = SPAN.read(buffer, builder);
         if (span == null) return false;
         out.add(span);
       }
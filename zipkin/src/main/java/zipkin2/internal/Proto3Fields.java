@@ -185,6 +185,34 @@ final class Proto3Fields {
     }
   }
 
+  /**
+   * Writes the same bytes as {@link HexField}, except from 64 or 128-bit identifiers, avoiding a
+   * round-trip through lower-hex. The value is big-endian, and absent when all bits are zero.
+   */
+  static class IdField extends Field {
+    IdField(int key) {
+      super(key);
+      assert wireType == WIRETYPE_LENGTH_DELIMITED;
+    }
+
+    int sizeInBytes(long high, long low) {
+      if (high == 0L && low == 0L) return 0;
+      return sizeOfLengthDelimitedField(high != 0L ? 16 : 8);
+    }
+
+    void write(WriteBuffer b, long high, long low) {
+      if (high == 0L && low == 0L) return;
+      b.writeByte(key);
+      if (high != 0L) {
+        b.writeByte(16); // length prefix
+        b.writeLong(high);
+      } else {
+        b.writeByte(8); // length prefix
+      }
+      b.writeLong(low);
+    }
+  }
+
   static class Utf8Field extends LengthDelimitedField<String> {
     Utf8Field(int key) {
       super(key);
@@ -28,7 +28,7 @@ import static zipkin2.internal.Proto3Fields.Field.fieldNumber;
 import static zipkin2.internal.Proto3Fields.Field.skipValue;
 import static zipkin2.internal.Proto3Fields.Field.wireType;
 import static zipkin2.internal.Proto3Fields.Fixed64Field;
-import static zipkin2.internal.Proto3Fields.HexField;
+import static zipkin2.internal.Proto3Fields.IdField;
 import static zipkin2.internal.Proto3Fields.LengthDelimitedField;
 import static zipkin2.internal.Proto3Fields.VarintField;
 import static zipkin2.internal.Proto3Fields.WIRETYPE_FIXED64;
@@ -97,7 +97,7 @@ final class Proto3ZipkinFields {
             logAndSkip(buffer, nextKey);
         }
       }
-      return builder.build();
+      return DecodeCache.shareEndpoint(builder.build());
     }
   }
 
@@ -225,9 +225,9 @@ final class Proto3ZipkinFields {
     static final int DEBUG_KEY = (12 << 3) | WIRETYPE_VARINT;
     static final int SHARED_KEY = (13 << 3) | WIRETYPE_VARINT;
 
-    static final HexField TRACE_ID = new HexField(TRACE_ID_KEY);
-    static final HexField PARENT_ID = new HexField(PARENT_ID_KEY);
-    static final HexField ID = new HexField(ID_KEY);
+    static final IdField TRACE_ID = new IdField(TRACE_ID_KEY);
+    static final IdField PARENT_ID = new IdField(PARENT_ID_KEY);
+    static final IdField ID = new IdField(ID_KEY);
     static final VarintField KIND = new VarintField(KIND_KEY);
     static final Utf8Field NAME = new Utf8Field(NAME_KEY);
     static final Fixed64Field TIMESTAMP = new Fixed64Field(TIMESTAMP_KEY);
@@ -244,9 +244,9 @@ final class Proto3ZipkinFields {
     }
 
     @Override int sizeOfValue(Span span) {
-      int sizeOfSpan = TRACE_ID.sizeInBytes(span.traceId());
-      sizeOfSpan += PARENT_ID.sizeInBytes(span.parentId());
-      sizeOfSpan += ID.sizeInBytes(span.id());
+      int sizeOfSpan = TRACE_ID.sizeInBytes(span.traceIdHigh(), span.traceIdLow());
+      sizeOfSpan += PARENT_ID.sizeInBytes(0L, span.parentIdAsLong());
+      sizeOfSpan += ID.sizeInBytes(0L, span.idAsLong());
       sizeOfSpan += KIND.sizeInBytes(span.kind() != null ? 1 : 0);
       sizeOfSpan += NAME.sizeInBytes(span.name());
       sizeOfSpan += TIMESTAMP.sizeInBytes(span.timestampAsLong());
@@ -274,9 +274,9 @@ final class Proto3ZipkinFields {
     }
 
     @Override void writeValue(WriteBuffer b, Span value) {
-      TRACE_ID.write(b, value.traceId());
-      PARENT_ID.write(b, value.parentId());
-      ID.write(b, value.id());
+      TRACE_ID.write(b, value.traceIdHigh(), value.traceIdLow());
+      PARENT_ID.write(b, 0L, value.parentIdAsLong());
+      ID.write(b, 0L, value.idAsLong());
       KIND.write(b, toByte(value.kind()));
       NAME.write(b, value.name());
       TIMESTAMP.write(b, value.timestampAsLong());
@@ -301,6 +301,37 @@ final class Proto3ZipkinFields {
       SpanField.SHARED.write(b, Boolean.TRUE.equals(value.shared()));
     }
 
+    // IDs are usually 8 or 16 bytes: read those as longs, falling back to hex for validation
+    static void readTraceId(ReadBuffer buffer, Span.Builder builder) {
+      int length = buffer.readVarint32();
+      if (length == 16) {
+        long high = buffer.readLong();
+        builder.traceId(high, buffer.readLong());
+      } else if (length == 8) {
+        builder.traceId(0L, buffer.readLong());
+      } else if (length != 0) {
+        builder.traceId(buffer.readBytesAsHex(length));
+      }
+    }
+
+    static void readParentId(ReadBuffer buffer, Span.Builder builder) {
+      int length = buffer.readVarint32();
+      if (length == 8) {
+        builder.parentId(buffer.readLong());
+      } else if (length != 0) {
+        builder.parentId(buffer.readBytesAsHex(length));
+      }
+    }
+
+    static void readId(ReadBuffer buffer, Span.Builder builder) {
+      int length = buffer.readVarint32();
+      if (length == 8) {
+        builder.id(buffer.readLong());
+      } else if (length != 0) {
+        builder.id(buffer.readBytesAsHex(length));
+      }
+    }
+
     // in java, there's no zero index for unknown
     int toByte(Span.Kind kind) {
       return kind != null ? kind.ordinal() + 1 : 0;
@@ -311,23 +342,37 @@ final class Proto3ZipkinFields {
       return readLengthPrefixAndValue(buffer);
     }
 
+    /**
+     * Like {@link #read(ReadBuffer)}, except clears and reuses the builder, so that its scratch
+     * collections are recycled when reading a list of spans.
+     */
+    Span read(ReadBuffer buffer, Span.Builder builder) {
+      buffer.readVarint32(); // toss the key
+      int length = buffer.readVarint32();
+      if (length == 0) return null;
+      return readValue(buffer, length, builder.clear());
+    }
+
     @Override Span readValue(ReadBuffer buffer, int length) {
+      return readValue(buffer, length, Span.newBuilder());
+    }
+
+    Span readValue(ReadBuffer buffer, int length, Span.Builder builder) {
       buffer.require(length); // more convenient to check up-front vs partially read
       int endPos = buffer.pos() + length;
 
       // now, we are in the span fields
-      Span.Builder builder = Span.newBuilder();
       while (buffer.pos() < endPos) {
         int nextKey = buffer.readVarint32();
         switch (nextKey) {
           case TRACE_ID_KEY:
-            builder.traceId(TRACE_ID.readLengthPrefixAndValue(buffer));
+            readTraceId(buffer, builder);
             break;
           case PARENT_ID_KEY:
-            builder.parentId(PARENT_ID.readLengthPrefixAndValue(buffer));
+            readParentId(buffer, builder);
             break;
           case ID_KEY:
-            builder.id(ID.readLengthPrefixAndValue(buffer));
+            readId(buffer, builder);
             break;
           case KIND_KEY:
             int kind = buffer.readVarint32();
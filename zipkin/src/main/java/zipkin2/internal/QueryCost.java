@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+/**
+ * Accumulates the work storage did to answer a query: count of backend calls, rows or documents
+ * read, and bytes read, when the backend reports them.
+ *
+ * <p>Storage implementations add to the {@linkplain #current() current} cost when a backend call
+ * completes. The current cost is per thread, so only work done on the thread executing the query
+ * is counted. This is the case when a query is {@linkplain zipkin2.Call#execute() executed}, but
+ * not necessarily for callbacks of {@linkplain zipkin2.Call#enqueue(zipkin2.Callback) enqueued}
+ * calls, unless the storage reads the current cost when the call is enqueued.
+ *
+ * <p>Costs are only read after the query completes, by the thread that executed it.
+ */
+public final class QueryCost {
+  static final ThreadLocal<QueryCost> CURRENT = new ThreadLocal<QueryCost>();
+
+  /** Returns the cost of the query executing on this thread, or null if it isn't accounted. */
+  @Nullable public static QueryCost current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Makes this the current cost of this thread, returning the previous one. Pass the result to
+   * {@link #restore(QueryCost)} when the query completes.
+   */
+  @Nullable public QueryCost makeCurrent() {
+    QueryCost previous = CURRENT.get();
+    CURRENT.set(this);
+    return previous;
+  }
+
+  /** Restores the current cost from before {@link #makeCurrent()}. */
+  public static void restore(@Nullable QueryCost previous) {
+    if (previous == null) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(previous);
+    }
+  }
+
+  int calls;
+  long rows, bytes;
+
+  /** Called when a request to the storage backend completes. */
+  public void incrementCalls() {
+    calls++;
+  }
+
+  /** Adds the count of rows or documents read from the storage backend. */
+  public void addRows(long quantity) {
+    rows += quantity;
+  }
+
+  /** Adds the count of bytes read from the storage backend. */
+  public void addBytes(long quantity) {
+    bytes += quantity;
+  }
+
+  public int calls() {
+    return calls;
+  }
+
+  public long rows() {
+    return rows;
+  }
+
+  public long bytes() {
+    return bytes;
+  }
+
+  @Override public String toString() {
+    return "QueryCost{calls=" + calls + ", rows=" + rows + ", bytes=" + bytes + "}";
+  }
+}
@@ -17,7 +17,6 @@ import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
-import static zipkin2.internal.HexCodec.HEX_DIGITS;
 import static zipkin2.internal.JsonCodec.UTF_8;
 
 /** Read operations do bounds checks, as typically more errors occur reading than writing. */
@@ -127,10 +126,29 @@ public abstract class ReadBuffer extends InputStream {
       return new String(readBytes(length), UTF_8);
     }
 
+    @Override final String readUtf8(DecodeCache cache, int length) {
+      return cache.utf8(readBytes(length), 0, length);
+    }
+
     @Override public int pos() {
       return buf.position();
     }
 
+    @Override boolean skipIfEqual(byte[] bytes, int length) {
+      if (available() < length) return false;
+      for (int i = 0, pos = buf.position(); i < length; i++) {
+        if (buf.get(pos + i) != bytes[i]) return false;
+      }
+      buf.position(buf.position() + length);
+      return true;
+    }
+
+    @Override void copyLastRead(byte[] destination, int length) {
+      for (int i = 0, pos = buf.position() - length; i < length; i++) {
+        destination[i] = buf.get(pos + i);
+      }
+    }
+
     @Override public int read(byte[] dst, int offset, int length) {
       if (available() == 0) return -1;
       int toRead = checkReadArguments(dst, offset, length);
@@ -197,6 +215,12 @@ public abstract class ReadBuffer extends InputStream {
       return result;
     }
 
+    @Override final String readUtf8(DecodeCache cache, int length) {
+      String result = cache.utf8(buf, offset, length);
+      offset += length;
+      return result;
+    }
+
     @Override short readShort() {
       require(2);
       return (short) ((buf[offset++] & 0xff) << 8 | (buf[offset++] & 0xff));
@@ -235,6 +259,19 @@ public abstract class ReadBuffer extends InputStream {
       return offset - arrayOffset;
     }
 
+    @Override boolean skipIfEqual(byte[] bytes, int length) {
+      if (available() < length) return false;
+      for (int i = 0; i < length; i++) {
+        if (buf[offset + i] != bytes[i]) return false;
+      }
+      offset += length;
+      return true;
+    }
+
+    @Override void copyLastRead(byte[] destination, int length) {
+      System.arraycopy(buf, offset - length, destination, 0, length);
+    }
+
     @Override public long skip(long maxCount) {
       int toSkip = Math.min(available(), (int) maxCount);
       offset += toSkip;
@@ -280,6 +317,8 @@ public abstract class ReadBuffer extends InputStream {
   final String readUtf8(int length) {
     if (length == 0) return ""; // ex error tag with no value
     require(length);
+    DecodeCache cache = DecodeCache.get();
+    if (cache != null && length <= DecodeCache.MAX_KEY_LENGTH) return readUtf8(cache, length);
     if (length > Platform.SHORT_STRING_LENGTH) return doReadUtf8(length);
 
     // Speculatively assume all 7-bit ASCII characters.. common in normal tags and names
@@ -294,8 +333,20 @@ public abstract class ReadBuffer extends InputStream {
 
   abstract String doReadUtf8(int length);
 
+  /** Reads a string, reusing an instance previously decoded from the same bytes if possible. */
+  abstract String readUtf8(DecodeCache cache, int length);
+
   abstract int pos();
 
+  /**
+   * Skips the next bytes if they are the same as the input, for example to reuse a value already
+   * decoded from them. Otherwise, returns false without changing the position.
+   */
+  abstract boolean skipIfEqual(byte[] bytes, int length);
+
+  /** Copies the bytes most recently read, which end at the current position. */
+  abstract void copyLastRead(byte[] destination, int length);
+
   abstract short readShort();
 
   abstract int readInt();
@@ -318,9 +369,7 @@ public abstract class ReadBuffer extends InputStream {
     char[] result = Platform.shortStringBuffer();
     int hexLength = length * 2;
     for (int i = 0; i < hexLength; i += 2) {
-      byte b = readByteUnsafe();
-      result[i + 0] = HEX_DIGITS[(b >> 4) & 0xf];
-      result[i + 1] = HEX_DIGITS[b & 0xf];
+      HexCodec.writeHexByte(result, i, readByteUnsafe());
     }
     return new String(result, 0, hexLength);
   }
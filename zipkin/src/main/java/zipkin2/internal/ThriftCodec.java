@@ -19,8 +19,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import zipkin2.Span;
-import zipkin2.v1.V1Span;
-import zipkin2.v1.V1SpanConverter;
 
 import static zipkin2.internal.ThriftField.TYPE_BOOL;
 import static zipkin2.internal.ThriftField.TYPE_BYTE;
@@ -39,6 +37,8 @@ import static zipkin2.internal.ThriftField.TYPE_STRUCT;
 public final class ThriftCodec {
   // break vs recursing infinitely when skipping data
   static final int MAX_SKIP_DEPTH = 2147483647;
+  /** The smallest valid span is a trace ID, span ID and stop byte: 2 * (3 + 8) + 1 */
+  static final int MIN_SPAN_SIZE_IN_BYTES = 23;
 
   final V1ThriftSpanWriter writer = new V1ThriftSpanWriter();
 
@@ -62,8 +62,7 @@ public final class ThriftCodec {
   public static boolean read(ReadBuffer buffer, Collection<Span> out) {
     if (buffer.available() == 0) return false;
     try {
-      V1Span v1Span = new V1ThriftSpanReader().read(buffer);
-      V1SpanConverter.create().convert(v1Span, out);
+      new V1ThriftSpanReader().read(buffer, out);
       return true;
     } catch (Exception e) {
       throw exceptionReading("Span", e);
@@ -74,9 +73,8 @@ public final class ThriftCodec {
   public static Span readOne(ReadBuffer buffer) {
     if (buffer.available() == 0) return null;
     try {
-      V1Span v1Span = new V1ThriftSpanReader().read(buffer);
       List<Span> out = new ArrayList<>(1);
-      V1SpanConverter.create().convert(v1Span, out);
+      new V1ThriftSpanReader().read(buffer, out);
       return out.get(0);
     } catch (Exception e) {
       throw exceptionReading("Span", e);
@@ -89,11 +87,14 @@ public final class ThriftCodec {
     try {
       int listLength = readListLength(buffer);
       if (listLength == 0) return false;
+      // Most v1 spans convert to one v2 span. Don't trust the header beyond the data available.
+      if (out instanceof ArrayList) {
+        int expected = Math.min(listLength, length / MIN_SPAN_SIZE_IN_BYTES);
+        ((ArrayList<Span>) out).ensureCapacity(out.size() + expected);
+      }
       V1ThriftSpanReader reader = new V1ThriftSpanReader();
-      V1SpanConverter converter = V1SpanConverter.create();
       for (int i = 0; i < listLength; i++) {
-        V1Span v1Span = reader.read(buffer);
-        converter.convert(v1Span, out);
+        reader.read(buffer, out);
       }
     } catch (Exception e) {
       throw exceptionReading("List<Span>", e);
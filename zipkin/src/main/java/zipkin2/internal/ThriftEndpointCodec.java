@@ -33,10 +33,10 @@ final class ThriftEndpointCodec {
     Endpoint.Builder result = Endpoint.newBuilder();
 
     while (true) {
-      ThriftField thriftField = ThriftField.read(buffer);
-      if (thriftField.type == TYPE_STOP) break;
+      int key = ThriftField.readKey(buffer);
+      if (key == TYPE_STOP) break;
 
-      if (thriftField.isEqualTo(IPV4)) {
+      if (key == IPV4.key) {
         int ipv4 = buffer.readInt();
         if (ipv4 != 0) {
           result.parseIp( // allocation is ok here as Endpoint.ipv4Bytes would anyway
@@ -47,17 +47,17 @@ final class ThriftEndpointCodec {
               (byte) (ipv4 & 0xff)
             });
         }
-      } else if (thriftField.isEqualTo(PORT)) {
+      } else if (key == PORT.key) {
         result.port(buffer.readShort() & 0xFFFF);
-      } else if (thriftField.isEqualTo(SERVICE_NAME)) {
+      } else if (key == SERVICE_NAME.key) {
         result.serviceName(buffer.readUtf8(buffer.readInt()));
-      } else if (thriftField.isEqualTo(IPV6)) {
+      } else if (key == IPV6.key) {
         result.parseIp(buffer.readBytes(buffer.readInt()));
       } else {
-        skip(buffer, thriftField.type);
+        skip(buffer, ThriftField.type(key));
       }
     }
-    return result.build();
+    return DecodeCache.shareEndpoint(result.build());
   }
 
   static int sizeInBytes(Endpoint value) {
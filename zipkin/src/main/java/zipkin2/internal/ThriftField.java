@@ -30,10 +30,13 @@ final class ThriftField {
 
   final byte type;
   final int id;
+  /** The type and id packed into an int, for comparison with {@link #readKey(ReadBuffer)}. */
+  final int key;
 
   ThriftField(byte type, int id) {
     this.type = type;
     this.id = id;
+    this.key = key(type, id);
   }
 
   void write(WriteBuffer buffer) {
@@ -48,6 +51,23 @@ final class ThriftField {
     return new ThriftField(type, type == TYPE_STOP ? TYPE_STOP : bytes.readShort());
   }
 
+  /**
+   * Like {@link #read(ReadBuffer)}, except returns the {@link #key} of the field instead of
+   * allocating an object for it. {@link #TYPE_STOP} is returned at the end of a struct.
+   */
+  static int readKey(ReadBuffer bytes) {
+    byte type = bytes.readByte();
+    return type == TYPE_STOP ? TYPE_STOP : key(type, bytes.readShort());
+  }
+
+  static byte type(int key) {
+    return (byte) (key >>> 16);
+  }
+
+  static int key(byte type, int id) {
+    return (type & 0xff) << 16 | (id & 0xffff);
+  }
+
   boolean isEqualTo(ThriftField that) {
     return this.type == that.type && this.id == that.id;
   }
@@ -69,7 +69,7 @@ public final class V1JsonSpanReader implements JsonReaderAdapter<V1Span> {
 
       // read any optional fields
       if (nextName.equals("name")) {
-        builder.name(reader.nextString());
+        builder.name(reader.nextSharedString());
       } else if (nextName.equals("parentId")) {
         builder.parentId(reader.nextString());
       } else if (nextName.equals("timestamp")) {
@@ -105,7 +105,7 @@ public final class V1JsonSpanReader implements JsonReaderAdapter<V1Span> {
       if (nextName.equals("timestamp")) {
         timestamp = reader.nextLong();
       } else if (nextName.equals("value")) {
-        value = reader.nextString();
+        value = reader.nextSharedString();
       } else if (nextName.equals("endpoint") && !reader.peekNull()) {
         endpoint = ENDPOINT_READER.fromJson(reader);
       } else {
@@ -138,10 +138,10 @@ public final class V1JsonSpanReader implements JsonReaderAdapter<V1Span> {
       }
 
       if (nextName.equals("key")) {
-        key = reader.nextString();
+        key = reader.nextSharedString();
       } else if (nextName.equals("value")) {
         if (reader.peekString()) {
-          stringValue = reader.nextString();
+          stringValue = reader.nextSharedString();
         } else if (reader.peekBoolean()) {
           booleanValue = reader.nextBoolean();
         } else {
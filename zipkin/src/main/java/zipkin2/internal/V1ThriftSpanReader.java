@@ -13,8 +13,12 @@
  */
 package zipkin2.internal;
 
+import java.util.Collection;
 import zipkin2.Endpoint;
+import zipkin2.Span;
+import zipkin2.Span.Kind;
 import zipkin2.v1.V1Span;
+import zipkin2.v1.V1SpanConverter;
 
 import static zipkin2.internal.ThriftCodec.readListLength;
 import static zipkin2.internal.ThriftCodec.skip;
@@ -34,137 +38,455 @@ import static zipkin2.internal.V1ThriftSpanWriter.TIMESTAMP;
 import static zipkin2.internal.V1ThriftSpanWriter.TRACE_ID;
 import static zipkin2.internal.V1ThriftSpanWriter.TRACE_ID_HIGH;
 
+/**
+ * Reads v1 thrift spans into flat arrays, which are reused across spans.
+ *
+ * <p>Most spans are reported by one tracer and describe one side of an RPC, or a local operation.
+ * {@link #read(ReadBuffer, Collection)} converts these directly to a {@link Span}, without
+ * allocating a {@link V1Span} or its annotations. Anything else, such as a span shared between
+ * client and server, or with messaging annotations, falls back to {@link V1SpanConverter}.
+ */
 public final class V1ThriftSpanReader {
   static final String ONE = Character.toString((char) 1);
+  static final Endpoint EMPTY_ENDPOINT = Endpoint.newBuilder().build();
 
   public static V1ThriftSpanReader create() {
     return new V1ThriftSpanReader();
   }
 
-  V1Span.Builder builder = V1Span.newBuilder();
+  long traceIdHigh, traceId, parentId, id, timestamp, duration;
+  String name;
+  Boolean debug;
+
+  int annotationCount;
+  long[] annotationTimestamps = new long[4];
+  String[] annotationValues = new String[4];
+  Endpoint[] annotationEndpoints = new Endpoint[4];
+
+  int binaryAnnotationCount;
+  String[] binaryAnnotationKeys = new String[4];
+  String[] binaryAnnotationValues = new String[4]; // null when an address annotation
+  Endpoint[] binaryAnnotationEndpoints = new Endpoint[4];
+
+  // Thrift repeats the endpoint on each annotation: reuse the last two decoded when bytes match
+  final Endpoint[] endpoints = new Endpoint[2];
+  final byte[][] endpointBytes = {new byte[64], new byte[64]};
+  final int[] endpointLengths = new int[2];
+  int nextEndpointSlot;
+
+  // lazy as only needed when spans are unusual or the caller wants v1 spans
+  V1Span.Builder v1Builder;
+  V1SpanConverter converter;
+  final Span.Builder spanBuilder = Span.newBuilder();
 
   public V1Span read(ReadBuffer buffer) {
-    if (builder == null) {
-      builder = V1Span.newBuilder();
-    } else {
-      builder.clear();
+    readFields(buffer);
+    return toV1Span();
+  }
+
+  /** Reads one v1 span, adding the v2 spans it converts to into the output. */
+  public void read(ReadBuffer buffer, Collection<Span> out) {
+    readFields(buffer);
+    if (traceId == 0L) throw new IllegalArgumentException("traceId == 0");
+    if (id == 0L) throw new IllegalArgumentException("id == 0");
+
+    Span span = convertSingleEndpoint();
+    if (span != null) {
+      out.add(span);
+      return;
     }
+    if (converter == null) converter = V1SpanConverter.create();
+    converter.convert(toV1Span(), out);
+  }
 
-    ThriftField thriftField;
+  void readFields(ReadBuffer buffer) {
+    traceIdHigh = traceId = parentId = id = timestamp = duration = 0L;
+    name = null;
+    debug = null;
+    clearAnnotations();
 
     while (true) {
-      thriftField = ThriftField.read(buffer);
-      if (thriftField.type == TYPE_STOP) break;
-
-      if (thriftField.isEqualTo(TRACE_ID_HIGH)) {
-        builder.traceIdHigh(buffer.readLong());
-      } else if (thriftField.isEqualTo(TRACE_ID)) {
-        builder.traceId(buffer.readLong());
-      } else if (thriftField.isEqualTo(NAME)) {
-        builder.name(buffer.readUtf8(buffer.readInt()));
-      } else if (thriftField.isEqualTo(ID)) {
-        builder.id(buffer.readLong());
-      } else if (thriftField.isEqualTo(PARENT_ID)) {
-        builder.parentId(buffer.readLong());
-      } else if (thriftField.isEqualTo(ANNOTATIONS)) {
+      int key = ThriftField.readKey(buffer);
+      if (key == TYPE_STOP) break;
+
+      if (key == TRACE_ID_HIGH.key) {
+        traceIdHigh = buffer.readLong();
+      } else if (key == TRACE_ID.key) {
+        traceId = buffer.readLong();
+      } else if (key == NAME.key) {
+        name = buffer.readUtf8(buffer.readInt());
+      } else if (key == ID.key) {
+        id = buffer.readLong();
+      } else if (key == PARENT_ID.key) {
+        parentId = buffer.readLong();
+      } else if (key == ANNOTATIONS.key) {
         int length = readListLength(buffer);
+        ensureAnnotationCapacity(annotationCount + boundedLength(length, buffer));
         for (int i = 0; i < length; i++) {
-          AnnotationReader.read(buffer, builder);
+          readAnnotation(buffer);
         }
-      } else if (thriftField.isEqualTo(BINARY_ANNOTATIONS)) {
+      } else if (key == BINARY_ANNOTATIONS.key) {
         int length = readListLength(buffer);
+        ensureBinaryAnnotationCapacity(binaryAnnotationCount + boundedLength(length, buffer));
         for (int i = 0; i < length; i++) {
-          BinaryAnnotationReader.read(buffer, builder);
+          readBinaryAnnotation(buffer);
         }
-      } else if (thriftField.isEqualTo(DEBUG)) {
-        builder.debug(buffer.readByte() == 1);
-      } else if (thriftField.isEqualTo(TIMESTAMP)) {
-        builder.timestamp(buffer.readLong());
-      } else if (thriftField.isEqualTo(DURATION)) {
-        builder.duration(buffer.readLong());
+      } else if (key == DEBUG.key) {
+        debug = buffer.readByte() == 1;
+      } else if (key == TIMESTAMP.key) {
+        timestamp = buffer.readLong();
+      } else if (key == DURATION.key) {
+        duration = buffer.readLong();
       } else {
-        skip(buffer, thriftField.type);
+        skip(buffer, ThriftField.type(key));
       }
     }
+  }
 
-    return builder.build();
+  /** Don't trust a list header to size arrays: each element is at least one byte. */
+  static int boundedLength(int length, ReadBuffer buffer) {
+    return length < 0 ? 0 : Math.min(length, buffer.available());
   }
 
-  static final class AnnotationReader {
-    static final ThriftField TIMESTAMP = new ThriftField(TYPE_I64, 1);
-    static final ThriftField VALUE = new ThriftField(TYPE_STRING, 2);
-    static final ThriftField ENDPOINT = new ThriftField(TYPE_STRUCT, 3);
+  static final ThriftField ANNOTATION_TIMESTAMP = new ThriftField(TYPE_I64, 1);
+  static final ThriftField ANNOTATION_VALUE = new ThriftField(TYPE_STRING, 2);
+  static final ThriftField ANNOTATION_ENDPOINT = new ThriftField(TYPE_STRUCT, 3);
 
-    static void read(ReadBuffer buffer, V1Span.Builder builder) {
-      long timestamp = 0;
-      String value = null;
-      Endpoint endpoint = null;
+  void readAnnotation(ReadBuffer buffer) {
+    long timestamp = 0;
+    String value = null;
+    Endpoint endpoint = null;
 
-      ThriftField thriftField;
-      while (true) {
-        thriftField = ThriftField.read(buffer);
-        if (thriftField.type == TYPE_STOP) break;
+    while (true) {
+      int key = ThriftField.readKey(buffer);
+      if (key == TYPE_STOP) break;
 
-        if (thriftField.isEqualTo(TIMESTAMP)) {
-          timestamp = buffer.readLong();
-        } else if (thriftField.isEqualTo(VALUE)) {
-          value = buffer.readUtf8(buffer.readInt());
-        } else if (thriftField.isEqualTo(ENDPOINT)) {
-          endpoint = ThriftEndpointCodec.read(buffer);
-        } else {
-          skip(buffer, thriftField.type);
-        }
+      if (key == ANNOTATION_TIMESTAMP.key) {
+        timestamp = buffer.readLong();
+      } else if (key == ANNOTATION_VALUE.key) {
+        value = buffer.readUtf8(buffer.readInt());
+      } else if (key == ANNOTATION_ENDPOINT.key) {
+        endpoint = readEndpoint(buffer);
+      } else {
+        skip(buffer, ThriftField.type(key));
       }
+    }
+
+    if (timestamp == 0 || value == null) return;
+    if (EMPTY_ENDPOINT.equals(endpoint)) endpoint = null;
+    ensureAnnotationCapacity(annotationCount + 1);
+    annotationTimestamps[annotationCount] = timestamp;
+    annotationValues[annotationCount] = value;
+    annotationEndpoints[annotationCount++] = endpoint;
+  }
+
+  static final ThriftField BINARY_ANNOTATION_KEY = new ThriftField(TYPE_STRING, 1);
+  static final ThriftField BINARY_ANNOTATION_VALUE = new ThriftField(TYPE_STRING, 2);
+  static final ThriftField BINARY_ANNOTATION_TYPE = new ThriftField(TYPE_I32, 3);
+  static final ThriftField BINARY_ANNOTATION_ENDPOINT = new ThriftField(TYPE_STRUCT, 4);
+
+  void readBinaryAnnotation(ReadBuffer buffer) {
+    String key = null;
+    String value = null;
+    Endpoint endpoint = null;
+    boolean isBoolean = false;
+    boolean isString = false;
+
+    while (true) {
+      int fieldKey = ThriftField.readKey(buffer);
+      if (fieldKey == TYPE_STOP) break;
 
-      if (timestamp == 0 || value == null) return;
-      builder.addAnnotation(timestamp, value, endpoint);
-    }
-  }
-
-  static final class BinaryAnnotationReader {
-    static final ThriftField KEY = new ThriftField(TYPE_STRING, 1);
-    static final ThriftField VALUE = new ThriftField(TYPE_STRING, 2);
-    static final ThriftField TYPE = new ThriftField(TYPE_I32, 3);
-    static final ThriftField ENDPOINT = new ThriftField(TYPE_STRUCT, 4);
-
-    static void read(ReadBuffer buffer, V1Span.Builder builder) {
-      String key = null;
-      String value = null;
-      Endpoint endpoint = null;
-      boolean isBoolean = false;
-      boolean isString = false;
-
-      while (true) {
-        ThriftField thriftField = ThriftField.read(buffer);
-        if (thriftField.type == TYPE_STOP) break;
-        if (thriftField.isEqualTo(KEY)) {
-          key = buffer.readUtf8(buffer.readInt());
-        } else if (thriftField.isEqualTo(VALUE)) {
-          value = buffer.readUtf8(buffer.readInt());
-        } else if (thriftField.isEqualTo(TYPE)) {
-          switch (buffer.readInt()) {
-            case 0:
-              isBoolean = true;
-              break;
-            case 6:
-              isString = true;
-              break;
-          }
-        } else if (thriftField.isEqualTo(ENDPOINT)) {
-          endpoint = ThriftEndpointCodec.read(buffer);
-        } else {
-          skip(buffer, thriftField.type);
+      if (fieldKey == BINARY_ANNOTATION_KEY.key) {
+        key = buffer.readUtf8(buffer.readInt());
+      } else if (fieldKey == BINARY_ANNOTATION_VALUE.key) {
+        value = buffer.readUtf8(buffer.readInt());
+      } else if (fieldKey == BINARY_ANNOTATION_TYPE.key) {
+        switch (buffer.readInt()) {
+          case 0:
+            isBoolean = true;
+            break;
+          case 6:
+            isString = true;
+            break;
         }
+      } else if (fieldKey == BINARY_ANNOTATION_ENDPOINT.key) {
+        endpoint = readEndpoint(buffer);
+      } else {
+        skip(buffer, ThriftField.type(fieldKey));
+      }
+    }
+
+    if (key == null || value == null) return;
+    if (EMPTY_ENDPOINT.equals(endpoint)) endpoint = null;
+    if (isString) {
+      addBinaryAnnotation(key, value, endpoint);
+    } else if (isBoolean && ONE.equals(value) && endpoint != null) {
+      if (key.equals("sa") || key.equals("ca") || key.equals("ma")) {
+        addBinaryAnnotation(key, null, endpoint);
+      }
+    }
+  }
+
+  Endpoint readEndpoint(ReadBuffer buffer) {
+    for (int i = 0; i < 2; i++) {
+      Endpoint endpoint = endpoints[i];
+      if (endpoint != null && buffer.skipIfEqual(endpointBytes[i], endpointLengths[i])) {
+        return endpoint;
+      }
+    }
+
+    int start = buffer.pos();
+    Endpoint result = ThriftEndpointCodec.read(buffer);
+    int length = buffer.pos() - start, slot = nextEndpointSlot;
+    nextEndpointSlot = slot ^ 1;
+    if (length > endpointBytes[slot].length) {
+      endpoints[slot] = null; // unusually large, so don't bother caching it
+      return result;
+    }
+    buffer.copyLastRead(endpointBytes[slot], length);
+    endpointLengths[slot] = length;
+    endpoints[slot] = result;
+    return result;
+  }
+
+  void addBinaryAnnotation(String key, @Nullable String value, @Nullable Endpoint endpoint) {
+    ensureBinaryAnnotationCapacity(binaryAnnotationCount + 1);
+    binaryAnnotationKeys[binaryAnnotationCount] = key;
+    binaryAnnotationValues[binaryAnnotationCount] = value;
+    binaryAnnotationEndpoints[binaryAnnotationCount++] = endpoint;
+  }
+
+  /**
+   * Returns the result of {@link V1SpanConverter} when all endpoints in the span are the same and
+   * it is at most one side of an RPC. Otherwise, returns null, as the span may convert to multiple
+   * v2 spans, or the result depends on the order of annotations.
+   */
+  @Nullable Span convertSingleEndpoint() {
+    Endpoint local = null;
+    int cs = -1, sr = -1, ss = -1, cr = -1, ws = -1, wr = -1; // indexes of core annotations
+    for (int i = 0; i < annotationCount; i++) {
+      Endpoint endpoint = annotationEndpoints[i];
+      if (endpoint == null) continue; // core annotations require an endpoint
+      if (local == null) {
+        local = endpoint;
+      } else if (!local.equals(endpoint)) {
+        return null;
+      }
+
+      String value = annotationValues[i];
+      if (value.length() != 2) continue;
+      if (value.equals("cs")) {
+        if (cs != -1) return null;
+        cs = i;
+      } else if (value.equals("sr")) {
+        if (sr != -1) return null;
+        sr = i;
+      } else if (value.equals("ss")) {
+        if (ss != -1) return null;
+        ss = i;
+      } else if (value.equals("cr")) {
+        if (cr != -1) return null;
+        cr = i;
+      } else if (value.equals("ws")) { // without messaging, wire annotations are kept as-is
+        if (ws != -1) return null;
+        ws = i;
+      } else if (value.equals("wr")) {
+        if (wr != -1) return null;
+        wr = i;
+      } else if (value.equals("ms") || value.equals("mr")) {
+        return null;
+      }
+    }
+
+    boolean client = cs != -1 || cr != -1, server = sr != -1 || ss != -1;
+    if (client && server) return null;
+
+    Endpoint ca = null, sa = null;
+    for (int i = 0; i < binaryAnnotationCount; i++) {
+      String key = binaryAnnotationKeys[i];
+      Endpoint endpoint = binaryAnnotationEndpoints[i];
+      // the converter treats these keys as addresses regardless of type. the last one wins
+      if (key.equals("ca")) {
+        ca = endpoint;
+        continue;
+      } else if (key.equals("sa")) {
+        sa = endpoint;
+        continue;
+      } else if (key.equals("ma")) {
+        continue; // only used with messaging annotations
+      }
+      if (endpoint == null) continue;
+      if (local == null) {
+        local = endpoint;
+      } else if (!local.equals(endpoint)) {
+        return null;
+      }
+    }
+
+    boolean noCoreAnnotations = !client && !server;
+    // the client address becomes the local endpoint of a span, which may not be this one
+    if (noCoreAnnotations && ca != null && sa != null) return null;
+
+    Span.Builder result = spanBuilder.clear()
+      .traceId(traceIdHigh, traceId)
+      .parentId(parentId)
+      .id(id)
+      .name(name)
+      .debug(debug)
+      .localEndpoint(local);
+    if (client) result.kind(Kind.CLIENT);
+    if (server) result.kind(Kind.SERVER);
+
+    for (int i = 0; i < annotationCount; i++) {
+      if (i == cs || i == sr || i == ss || i == cr) continue;
+      result.addAnnotation(annotationTimestamps[i], annotationValues[i]);
+    }
+
+    // When bridging between event and span model, you can end up missing a start annotation
+    boolean hasCs = cs != -1, hasSr = sr != -1;
+    long csTimestamp = hasCs ? annotationTimestamps[cs] : 0L;
+    long srTimestamp = hasSr ? annotationTimestamps[sr] : 0L;
+    if (!hasCs && cr != -1 && endTimestampReflectsSpanDuration(annotationTimestamps[cr])) {
+      hasCs = true;
+      csTimestamp = timestamp;
+    }
+    if (!hasSr && ss != -1 && endTimestampReflectsSpanDuration(annotationTimestamps[ss])) {
+      hasSr = true;
+      srTimestamp = timestamp;
+    }
+
+    if (hasCs && cr != -1) {
+      maybeTimestampDuration(result, csTimestamp, annotationTimestamps[cr]);
+    } else if (hasSr && ss != -1) {
+      maybeTimestampDuration(result, srTimestamp, annotationTimestamps[ss]);
+    } else { // the span is incomplete. revert special-casing
+      if (client) {
+        if (hasCs) result.timestamp(csTimestamp);
+        if (cr != -1) result.addAnnotation(annotationTimestamps[cr], "cr");
+      } else if (server) {
+        if (hasSr) result.timestamp(srTimestamp);
+        if (ss != -1) result.addAnnotation(annotationTimestamps[ss], "ss");
       }
-      if (key == null || value == null) return;
-      if (isString) {
-        builder.addBinaryAnnotation(key, value, endpoint);
-      } else if (isBoolean && ONE.equals(value) && endpoint != null) {
-        if (key.equals("sa") || key.equals("ca") || key.equals("ma")) {
-          builder.addBinaryAnnotation(key, endpoint);
+      if (timestamp != 0L) result.timestamp(timestamp).duration(duration);
+    }
+
+    // Without a client side, an absent timestamp implies the span is shared
+    if (!hasCs && hasSr && (timestamp == 0L || (ss != -1 && duration == 0L))) {
+      result.shared(true);
+    }
+
+    for (int i = 0; i < binaryAnnotationCount; i++) {
+      String key = binaryAnnotationKeys[i], value = binaryAnnotationValues[i];
+      if (key.equals("ca") || key.equals("sa") || key.equals("ma")) continue;
+      // don't add marker "lc" tags
+      if (key.equals("lc") && value.isEmpty()) continue;
+      result.putTag(key, value);
+    }
+
+    if (noCoreAnnotations && (ca != null || sa != null)) {
+      if (sa != null) {
+        // "sa" is a default for a remote address, don't make it a client span
+        result.remoteEndpoint(sa);
+      } else { // treat it like a server
+        result.kind(Kind.SERVER).remoteEndpoint(ca);
+      }
+    } else {
+      if (ca != null && server && !ca.equals(local)) {
+        // Remove the service name of a Finagle "ca" to prevent creating loopback links
+        if (equal(ca.serviceName(), local.serviceName())) {
+          ca = ca.toBuilder().serviceName(null).build();
         }
+        result.remoteEndpoint(ca);
+      }
+      if (sa != null && client) result.remoteEndpoint(sa);
+    }
+    return result.build();
+  }
+
+  boolean endTimestampReflectsSpanDuration(long endTimestamp) {
+    return timestamp != 0L && duration != 0L && timestamp + duration == endTimestamp;
+  }
+
+  void maybeTimestampDuration(Span.Builder result, long begin, long end) {
+    if (timestamp != 0L && duration != 0L) {
+      result.timestamp(timestamp).duration(duration);
+    } else {
+      result.timestamp(begin).duration(end - begin);
+    }
+  }
+
+  V1Span toV1Span() {
+    if (v1Builder == null) {
+      v1Builder = V1Span.newBuilder();
+    } else {
+      v1Builder.clear();
+    }
+    v1Builder.traceIdHigh(traceIdHigh)
+      .traceId(traceId)
+      .parentId(parentId)
+      .id(id)
+      .name(name)
+      .debug(debug)
+      .timestamp(timestamp)
+      .duration(duration);
+    for (int i = 0; i < annotationCount; i++) {
+      v1Builder.addAnnotation(annotationTimestamps[i], annotationValues[i], annotationEndpoints[i]);
+    }
+    for (int i = 0; i < binaryAnnotationCount; i++) {
+      String value = binaryAnnotationValues[i];
+      if (value == null) {
+        v1Builder.addBinaryAnnotation(binaryAnnotationKeys[i], binaryAnnotationEndpoints[i]);
+      } else {
+        v1Builder.addBinaryAnnotation(binaryAnnotationKeys[i], value, binaryAnnotationEndpoints[i]);
       }
     }
+    return v1Builder.build();
+  }
+
+  void clearAnnotations() {
+    // release references so that a large span doesn't pin strings until the next one
+    for (int i = 0; i < annotationCount; i++) {
+      annotationValues[i] = null;
+      annotationEndpoints[i] = null;
+    }
+    for (int i = 0; i < binaryAnnotationCount; i++) {
+      binaryAnnotationKeys[i] = null;
+      binaryAnnotationValues[i] = null;
+      binaryAnnotationEndpoints[i] = null;
+    }
+    annotationCount = binaryAnnotationCount = 0;
+  }
+
+  void ensureAnnotationCapacity(int capacity) {
+    if (capacity <= annotationTimestamps.length) return;
+    int newCapacity = Math.max(capacity, annotationTimestamps.length * 2);
+    long[] timestamps = new long[newCapacity];
+    String[] values = new String[newCapacity];
+    Endpoint[] endpoints = new Endpoint[newCapacity];
+    System.arraycopy(annotationTimestamps, 0, timestamps, 0, annotationCount);
+    System.arraycopy(annotationValues, 0, values, 0, annotationCount);
+    System.arraycopy(annotationEndpoints, 0, endpoints, 0, annotationCount);
+    annotationTimestamps = timestamps;
+    annotationValues = values;
+    annotationEndpoints = endpoints;
+  }
+
+  void ensureBinaryAnnotationCapacity(int capacity) {
+    if (capacity <= binaryAnnotationKeys.length) return;
+    int newCapacity = Math.max(capacity, binaryAnnotationKeys.length * 2);
+    String[] keys = new String[newCapacity];
+    String[] values = new String[newCapacity];
+    Endpoint[] endpoints = new Endpoint[newCapacity];
+    System.arraycopy(binaryAnnotationKeys, 0, keys, 0, binaryAnnotationCount);
+    System.arraycopy(binaryAnnotationValues, 0, values, 0, binaryAnnotationCount);
+    System.arraycopy(binaryAnnotationEndpoints, 0, endpoints, 0, binaryAnnotationCount);
+    binaryAnnotationKeys = keys;
+    binaryAnnotationValues = values;
+    binaryAnnotationEndpoints = endpoints;
+  }
+
+  static boolean equal(Object a, Object b) {
+    return a == b || (a != null && a.equals(b));
   }
 
   V1ThriftSpanReader() {
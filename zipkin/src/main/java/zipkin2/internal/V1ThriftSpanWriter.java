@@ -174,6 +174,14 @@ public final class V1ThriftSpanWriter implements WriteBuffer.Writer<Span> {
     return result;
   }
 
+  public int sizeInBytes(List<Span> spans) {
+    return spans.isEmpty() ? 0 : ThriftCodec.listSizeInBytes(this, spans);
+  }
+
+  public void writeList(List<Span> spans, WriteBuffer buffer) {
+    if (!spans.isEmpty()) ThriftCodec.writeList(this, spans, buffer);
+  }
+
   public int writeList(List<Span> spans, byte[] out, int pos) {
     int lengthOfSpans = spans.size();
     if (lengthOfSpans == 0) return 0;
@@ -48,7 +48,7 @@ public final class V2SpanReader implements JsonReaderAdapter<Span> {
       } else if (nextName.equals("kind")) {
         builder.kind(Span.Kind.valueOf(reader.nextString()));
       } else if (nextName.equals("name")) {
-        builder.name(reader.nextString());
+        builder.name(reader.nextSharedString());
       } else if (nextName.equals("timestamp")) {
         builder.timestamp(reader.nextLong());
       } else if (nextName.equals("duration")) {
@@ -68,7 +68,7 @@ public final class V2SpanReader implements JsonReaderAdapter<Span> {
             if (nextName.equals("timestamp")) {
               timestamp = reader.nextLong();
             } else if (nextName.equals("value")) {
-              value = reader.nextString();
+              value = reader.nextSharedString();
             } else {
               reader.skipValue();
             }
@@ -83,11 +83,11 @@ public final class V2SpanReader implements JsonReaderAdapter<Span> {
       } else if (nextName.equals("tags")) {
         reader.beginObject();
         while (reader.hasNext()) {
-          String key = reader.nextName();
+          String key = reader.nextSharedName();
           if (reader.peekNull()) {
             throw new IllegalArgumentException("No value at " + reader.getPath());
           }
-          builder.putTag(key, reader.nextString());
+          builder.putTag(key, reader.nextSharedString());
         }
         reader.endObject();
       } else if (nextName.equals("debug")) {
@@ -118,7 +118,7 @@ public final class V2SpanReader implements JsonReaderAdapter<Span> {
           continue;
         }
         if (nextName.equals("serviceName")) {
-          result.serviceName(reader.nextString());
+          result.serviceName(reader.nextSharedString());
           readField = true;
         } else if (nextName.equals("ipv4") || nextName.equals("ipv6")) {
           result.parseIp(reader.nextString());
@@ -131,7 +131,7 @@ public final class V2SpanReader implements JsonReaderAdapter<Span> {
         }
       }
       reader.endObject();
-      return readField ? result.build() : null;
+      return readField ? DecodeCache.shareEndpoint(result.build()) : null;
     }
 
     @Override public String toString() {
@@ -27,8 +27,8 @@ import static zipkin2.internal.WriteBuffer.asciiSizeInBytes;
 public final class V2SpanWriter implements WriteBuffer.Writer<Span> {
   @Override public int sizeInBytes(Span value) {
     int sizeInBytes = 13; // {"traceId":""
-    sizeInBytes += value.traceId().length();
-    if (value.parentId() != null) {
+    sizeInBytes += value.traceIdHigh() != 0L ? 32 : 16;
+    if (value.parentIdAsLong() != 0L) {
       sizeInBytes += 30; // ,"parentId":"0123456789abcdef"
     }
     sizeInBytes += 24; // ,"id":"0123456789abcdef"
@@ -86,15 +86,17 @@ public final class V2SpanWriter implements WriteBuffer.Writer<Span> {
 
   @Override public void write(Span value, WriteBuffer b) {
     b.writeAscii("{\"traceId\":\"");
-    b.writeAscii(value.traceId());
+    // write IDs from their packed form, as opposed to deriving a string for each
+    if (value.traceIdHigh() != 0L) b.writeLongHex(value.traceIdHigh());
+    b.writeLongHex(value.traceIdLow());
     b.writeByte('"');
-    if (value.parentId() != null) {
+    if (value.parentIdAsLong() != 0L) {
       b.writeAscii(",\"parentId\":\"");
-      b.writeAscii(value.parentId());
+      b.writeLongHex(value.parentIdAsLong());
       b.writeByte('"');
     }
     b.writeAscii(",\"id\":\"");
-    b.writeAscii(value.id());
+    b.writeLongHex(value.idAsLong());
     b.writeByte('"');
     if (value.kind() != null) {
       b.writeAscii(",\"kind\":\"");
@@ -13,14 +13,21 @@
  */
 package zipkin2.internal;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
 import static zipkin2.internal.HexCodec.HEX_DIGITS;
 
 /**
  * Writes are unsafe as they do no bounds checks. This means you should take care to allocate or
  * wrap an array at least as big as you need prior to writing. As it is possible to calculate size
  * prior to writing, overrunning a buffer is a programming error.
+ *
+ * <p>This can also target a {@link ByteBuffer}, such as pooled direct memory or a view of a Netty
+ * {@code ByteBuf}, so that callers don't need to encode into a temporary array first. Writes to a
+ * {@link ByteBuffer} are bounds checked by it, but overrunning it is still a programming error.
  */
-public final class WriteBuffer {
+public abstract class WriteBuffer {
   public interface Writer<T> {
     int sizeInBytes(T value);
 
@@ -32,59 +39,106 @@ public final class WriteBuffer {
   }
 
   public static WriteBuffer wrap(byte[] bytes, int pos) {
-    return new WriteBuffer(bytes, pos);
+    return new Array(bytes, pos);
   }
 
-  final byte[] buf;
-  int pos;
-
-  WriteBuffer(byte[] buf, int pos) {
-    this.buf = buf;
-    this.pos = pos;
+  /**
+   * Writes starting at the buffer's position, advancing it. When the buffer has an accessible
+   * array, it is faster to {@linkplain #wrap(byte[], int) wrap that} instead.
+   */
+  public static WriteBuffer wrap(ByteBuffer buffer) {
+    return new Buff(buffer);
   }
 
-  public void writeByte(int v) {
-    buf[pos++] = (byte) (v & 0xff);
-  }
+  static final class Array extends WriteBuffer {
+    final byte[] buf;
+    int pos;
 
-  public void write(byte[] v) {
-    System.arraycopy(v, 0, buf, pos, v.length);
-    pos += v.length;
-  }
+    Array(byte[] buf, int pos) {
+      this.buf = buf;
+      this.pos = pos;
+    }
 
-  void writeBackwards(long v) {
-    int lastPos = pos + asciiSizeInBytes(v); // We write backwards from right to left.
-    pos = lastPos;
-    while (v != 0) {
-      int digit = (int) (v % 10);
-      buf[--lastPos] = (byte) HEX_DIGITS[digit];
-      v /= 10;
+    @Override public void writeByte(int v) {
+      buf[pos++] = (byte) (v & 0xff);
     }
-  }
 
-  /** Inspired by {@code okio.Buffer.writeLong} */
-  void writeLongHex(long v) {
-    int pos = this.pos;
-    writeHexByte(buf, pos + 0, (byte) ((v >>> 56L) & 0xff));
-    writeHexByte(buf, pos + 2, (byte) ((v >>> 48L) & 0xff));
-    writeHexByte(buf, pos + 4, (byte) ((v >>> 40L) & 0xff));
-    writeHexByte(buf, pos + 6, (byte) ((v >>> 32L) & 0xff));
-    writeHexByte(buf, pos + 8, (byte) ((v >>> 24L) & 0xff));
-    writeHexByte(buf, pos + 10, (byte) ((v >>> 16L) & 0xff));
-    writeHexByte(buf, pos + 12, (byte) ((v >>> 8L) & 0xff));
-    writeHexByte(buf, pos + 14, (byte) (v & 0xff));
-    this.pos = pos + 16;
+    @Override public void write(byte[] v) {
+      System.arraycopy(v, 0, buf, pos, v.length);
+      pos += v.length;
+    }
+
+    @Override void writeBackwards(long v) {
+      int lastPos = pos + asciiSizeInBytes(v); // We write backwards from right to left.
+      pos = lastPos;
+      while (v != 0) {
+        int digit = (int) (v % 10);
+        buf[--lastPos] = (byte) HEX_DIGITS[digit];
+        v /= 10;
+      }
+    }
+
+    @Override void writeLongHex(long v) {
+      HexCodec.writeHexLong(buf, pos, v);
+      pos += 16;
+    }
+
+    @Override int pos() {
+      return pos;
+    }
   }
 
-  static void writeHexByte(byte[] data, int pos, byte b) {
-    data[pos + 0] = (byte) HEX_DIGITS[(b >> 4) & 0xf];
-    data[pos + 1] = (byte) HEX_DIGITS[b & 0xf];
+  static final class Buff extends WriteBuffer {
+    final ByteBuffer buf;
+    byte[] hex; // lazy as only used in json
+
+    Buff(ByteBuffer buf) {
+      this.buf = buf;
+    }
+
+    @Override public void writeByte(int v) {
+      buf.put((byte) (v & 0xff));
+    }
+
+    @Override public void write(byte[] v) {
+      buf.put(v);
+    }
+
+    @Override void writeBackwards(long v) {
+      int lastPos = buf.position() + asciiSizeInBytes(v); // We write backwards from right to left.
+      if (lastPos > buf.limit()) throw new BufferOverflowException();
+      buf.position(lastPos);
+      while (v != 0) {
+        int digit = (int) (v % 10);
+        buf.put(--lastPos, (byte) HEX_DIGITS[digit]);
+        v /= 10;
+      }
+    }
+
+    @Override void writeLongHex(long v) {
+      if (hex == null) hex = new byte[16];
+      HexCodec.writeHexLong(hex, 0, v);
+      buf.put(hex);
+    }
+
+    @Override int pos() {
+      return buf.position();
+    }
   }
 
-  final int pos() {
-    return pos;
+  WriteBuffer() {
   }
 
+  public abstract void writeByte(int v);
+
+  public abstract void write(byte[] v);
+
+  abstract void writeBackwards(long v);
+
+  abstract void writeLongHex(long v);
+
+  abstract int pos();
+
   public void writeAscii(String v) {
     for (int i = 0, length = v.length(); i < length; i++) {
       writeByte(v.charAt(i) & 0xff);
@@ -180,6 +234,17 @@ public final class WriteBuffer {
     writeByte((byte) v);
   }
 
+  void writeLong(long v) {
+    writeByte((byte) ((v >> 56) & 0xff));
+    writeByte((byte) ((v >> 48) & 0xff));
+    writeByte((byte) ((v >> 40) & 0xff));
+    writeByte((byte) ((v >> 32) & 0xff));
+    writeByte((byte) ((v >> 24) & 0xff));
+    writeByte((byte) ((v >> 16) & 0xff));
+    writeByte((byte) ((v >> 8) & 0xff));
+    writeByte((byte) (v & 0xff));
+  }
+
   void writeLongLe(long v) {
     writeByte((byte) (v & 0xff));
     writeByte((byte) ((v >> 8) & 0xff));
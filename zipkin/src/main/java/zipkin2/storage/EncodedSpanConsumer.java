@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.storage;
+
+import java.util.List;
+import zipkin2.Call;
+import zipkin2.Span;
+import zipkin2.codec.Encoding;
+
+/**
+ * Optional capability of a {@link SpanConsumer} that stores spans in a wire format. When a
+ * collector receives spans in the same {@link #encoding()}, it can pass the bytes it received, so
+ * that storage can copy them instead of re-encoding each span.
+ *
+ * <p>Wrappers of a span consumer should implement this only when their delegate does.
+ */
+public interface EncodedSpanConsumer extends SpanConsumer {
+  /** The format of encoded spans passed to {@link #accept(List, List)}. */
+  Encoding encoding();
+
+  /**
+   * Like {@link #accept(List)}, except with the encoded form of each span, as received.
+   *
+   * @param encodedSpans the same size as {@code spans}. An element is null when the span needs to
+   * be re-encoded, for example when its fields were not {@linkplain
+   * zipkin2.internal.LazySpan#isNormalized() normalized}.
+   */
+  Call<Void> accept(List<Span> spans, List<byte[]> encodedSpans);
+}
@@ -34,6 +34,8 @@ public final class V1SpanConverter {
 
   final Span.Builder first = Span.newBuilder();
   final List<Span.Builder> spans = new ArrayList<>();
+  // builders from previous conversions, recycled to avoid allocating per span
+  final List<Span.Builder> spare = new ArrayList<>();
   V1Annotation cs, sr, ss, cr, ms, mr, ws, wr;
 
   public List<Span> convert(V1Span source) {
@@ -53,6 +55,7 @@ public final class V1SpanConverter {
 
   void start(V1Span source) {
     first.clear();
+    spare.addAll(spans);
     spans.clear();
     cs = sr = ss = cr = ms = mr = ws = wr = null;
     newBuilder(first, source);
@@ -297,7 +300,9 @@ public final class V1SpanConverter {
   }
 
   Span.Builder newSpanBuilder(V1Span source, Endpoint e) {
-    Span.Builder result = newBuilder(Span.newBuilder(), source).localEndpoint(e);
+    int spareCount = spare.size();
+    Span.Builder result = spareCount > 0 ? spare.remove(spareCount - 1).clear() : Span.newBuilder();
+    newBuilder(result, source).localEndpoint(e);
     spans.add(result);
     return result;
   }
@@ -111,6 +111,37 @@ public class SpanTest {
     );
   }
 
+  /** Decoders reuse a builder, so spans must not share its collections. */
+  @Test public void build_copiesCollectionsFromReusedBuilder() {
+    Span.Builder builder = base.toBuilder()
+      .addAnnotation(2L, "foo")
+      .addAnnotation(1L, "foo")
+      .putTag("http.path", "/api")
+      .putTag("http.method", "GET");
+    Span span = builder.build();
+
+    builder.clear().traceId("2").id("2").addAnnotation(3L, "bar").putTag("error", "");
+    builder.build();
+
+    assertThat(span.annotations()).containsExactly(
+      Annotation.create(1L, "foo"),
+      Annotation.create(2L, "foo")
+    );
+    assertThat(span.tags()).containsExactly(
+      entry("http.method", "GET"),
+      entry("http.path", "/api")
+    );
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void annotationsAreImmutable() {
+    base.toBuilder()
+      .addAnnotation(1L, "foo")
+      .addAnnotation(2L, "foo")
+      .build()
+      .annotations().add(Annotation.create(3L, "foo"));
+  }
+
   @Test public void putTagOverwritesValue() {
     Span span = base.toBuilder()
       .putTag("foo", "bar")
@@ -398,6 +429,48 @@ public class SpanTest {
       .isEqualTo("00000000000004d2000000000000162e");
   }
 
+  @Test public void traceIdFromString_packsLongs() {
+    Span span = base.toBuilder().traceId("4d2000000000000162e").build();
+
+    assertThat(span.traceIdHigh()).isEqualTo(1234L);
+    assertThat(span.traceIdLow()).isEqualTo(5678L);
+    assertThat(span).isEqualTo(base.toBuilder().traceId(1234L, 5678L).build());
+  }
+
+  @Test public void idsFromString_packLongs() {
+    Span span = base.toBuilder().parentId("cafebabe").id("1").build();
+
+    assertThat(span.parentIdAsLong()).isEqualTo(3405691582L);
+    assertThat(span.parentId()).isEqualTo("00000000cafebabe");
+    assertThat(span.idAsLong()).isEqualTo(1L);
+    assertThat(span.id()).isEqualTo("0000000000000001");
+  }
+
+  @Test public void parentIdAsLong_zeroWhenAbsent() {
+    assertThat(base.parentIdAsLong()).isZero();
+  }
+
+  /** The string form is derived lazily, but only once. */
+  @Test public void traceId_derivedOnce() {
+    Span span = base.toBuilder().traceId(1234L, 5678L).build();
+
+    assertThat(span.traceId()).isSameAs(span.traceId());
+  }
+
+  @Test public void traceId_retainsInput() {
+    String traceId = "00000000000004d2000000000000162e";
+
+    assertThat(base.toBuilder().traceId(traceId).build().traceId()).isSameAs(traceId);
+  }
+
+  @Test public void merge_copiesIds() {
+    Span merged = Span.newBuilder().merge(base.toBuilder().parentId(2L).build()).build();
+
+    assertThat(merged.traceId()).isEqualTo(base.traceId());
+    assertThat(merged.parentIdAsLong()).isEqualTo(2L);
+    assertThat(merged.idAsLong()).isEqualTo(base.idAsLong());
+  }
+
   /** Some tools like rsocket redundantly pass high bits as zero. */
   @Test public void normalizeTraceId_truncates64BitZeroPrefix() {
     assertThat(normalizeTraceId("0000000000000000000000000000162e"))
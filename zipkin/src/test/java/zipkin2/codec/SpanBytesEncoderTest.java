@@ -13,14 +13,20 @@
  */
 package zipkin2.codec;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
 import org.junit.Test;
 import zipkin2.Endpoint;
 import zipkin2.Span;
 import zipkin2.TestObjects;
 import zipkin2.internal.Proto3SpanWriterTest;
 
+import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static zipkin2.TestObjects.BACKEND;
 import static zipkin2.TestObjects.FRONTEND;
 
@@ -467,4 +473,50 @@ public class SpanBytesEncoderTest {
 
     assertThat(SpanBytesEncoder.THRIFT.encode(span)).hasSize(336);
   }
+
+  @Test
+  public void encode_byteBuffer_sameAsArray() {
+    for (SpanBytesEncoder encoder : SpanBytesEncoder.values()) {
+      for (ByteBuffer out : asList(ByteBuffer.allocate(1024), ByteBuffer.allocateDirect(1024))) {
+        out.position(3); // ensure we write at the position
+
+        assertThat(encoder.encode(UTF8_SPAN, out)).isEqualTo(encoder.sizeInBytes(UTF8_SPAN));
+        assertThat(written(out, 3)).containsExactly(encoder.encode(UTF8_SPAN));
+      }
+    }
+  }
+
+  @Test
+  public void encodeList_byteBuffer_sameAsArray() {
+    List<Span> spans = asList(SPAN, UTF8_SPAN, LOCAL_SPAN);
+    for (SpanBytesEncoder encoder : SpanBytesEncoder.values()) {
+      for (List<Span> input : asList(spans, Collections.<Span>emptyList())) {
+        byte[] expected = encoder.encodeList(input);
+        assertThat(encoder.sizeInBytes(input)).isEqualTo(expected.length);
+
+        for (ByteBuffer out : asList(ByteBuffer.allocate(4096), ByteBuffer.allocateDirect(4096))) {
+          assertThat(encoder.encodeList(input, out)).isEqualTo(expected.length);
+          assertThat(written(out, 0)).containsExactly(expected);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void encode_byteBuffer_overflowWritesNothing() {
+    for (SpanBytesEncoder encoder : SpanBytesEncoder.values()) {
+      ByteBuffer out = ByteBuffer.allocate(encoder.sizeInBytes(SPAN) - 1);
+
+      assertThatThrownBy(() -> encoder.encode(SPAN, out))
+        .isInstanceOf(BufferOverflowException.class);
+      assertThat(out.position()).isZero();
+    }
+  }
+
+  static byte[] written(ByteBuffer out, int start) {
+    byte[] result = new byte[out.position() - start];
+    out.position(start);
+    out.get(result);
+    return result;
+  }
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.codec.SpanBytesEncoder;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.CLIENT_SPAN;
+import static zipkin2.internal.JsonCodec.UTF_8;
+
+public class DecodeCacheTest {
+  DecodeCache cache = new DecodeCache(1000);
+
+  @After public void disable() {
+    DecodeCache.disable();
+  }
+
+  @Test public void utf8_sharesSameBytes() {
+    byte[] bytes = "xfrontendx".getBytes(UTF_8);
+    String first = cache.utf8(bytes, 1, 8);
+
+    assertThat(first).isEqualTo("frontend");
+    assertThat(cache.utf8("frontend".getBytes(UTF_8), 0, 8)).isSameAs(first);
+  }
+
+  @Test public void utf8_differentBytes() {
+    String frontend = cache.utf8("frontend".getBytes(UTF_8), 0, 8);
+
+    assertThat(cache.utf8("backend".getBytes(UTF_8), 0, 7))
+      .isEqualTo("backend");
+    assertThat(cache.utf8("frontenD".getBytes(UTF_8), 0, 8))
+      .isNotSameAs(frontend)
+      .isEqualTo("frontenD");
+  }
+
+  @Test public void utf8_multibyte() {
+    byte[] bytes = "𐐀".getBytes(UTF_8);
+
+    assertThat(cache.utf8(bytes, 0, bytes.length)).isEqualTo("𐐀");
+  }
+
+  @Test public void utf8_doesntCacheLongValues() {
+    byte[] bytes = new byte[DecodeCache.MAX_KEY_LENGTH + 1];
+    Arrays.fill(bytes, (byte) 'a');
+    String first = cache.utf8(bytes, 0, bytes.length);
+
+    assertThat(cache.utf8(bytes, 0, bytes.length)).isEqualTo(first).isNotSameAs(first);
+  }
+
+  @Test public void tableSizeIsPowerOfTwo() {
+    assertThat(cache.utf8).hasSize(1024);
+    assertThat(new DecodeCache(1).utf8).hasSize(1);
+  }
+
+  @Test public void disabledByDefault() {
+    String value = new String("frontend");
+
+    assertThat(DecodeCache.get()).isNull();
+    assertThat(DecodeCache.shareString(value)).isSameAs(value);
+  }
+
+  @Test public void shareString() {
+    DecodeCache.enable(1000);
+    String value = DecodeCache.shareString(new String("frontend"));
+
+    assertThat(DecodeCache.shareString(new String("frontend"))).isSameAs(value);
+  }
+
+  @Test public void shareEndpoint() {
+    DecodeCache.enable(1000);
+    Endpoint endpoint = DecodeCache.shareEndpoint(CLIENT_SPAN.localEndpoint());
+
+    assertThat(DecodeCache.shareEndpoint(CLIENT_SPAN.localEndpoint().toBuilder().build()))
+      .isSameAs(endpoint);
+  }
+
+  @Test public void readBuffer_readUtf8() {
+    DecodeCache.enable(1000);
+    byte[] bytes = "frontend".getBytes(UTF_8);
+
+    assertThat(ReadBuffer.wrap(bytes).readUtf8(bytes.length))
+      .isSameAs(ReadBuffer.wrap(bytes).readUtf8(bytes.length));
+  }
+
+  @Test public void decodersShareValues() {
+    DecodeCache.enable(1000);
+
+    for (SpanBytesEncoder encoder : asList(SpanBytesEncoder.PROTO3, SpanBytesEncoder.JSON_V2)) {
+      byte[] message = encoder.encodeList(asList(CLIENT_SPAN, CLIENT_SPAN));
+      List<Span> spans = SpanBytesDecoder.valueOf(encoder.name()).decodeList(message);
+
+      assertThat(spans.get(0)).isEqualTo(CLIENT_SPAN);
+      assertThat(spans.get(1).localEndpoint()).isSameAs(spans.get(0).localEndpoint());
+      assertThat(spans.get(1).name()).isSameAs(spans.get(0).name());
+    }
+  }
+}
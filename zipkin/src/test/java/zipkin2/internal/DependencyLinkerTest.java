@@ -16,6 +16,8 @@ package zipkin2.internal;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.junit.Test;
@@ -560,6 +562,50 @@ public class DependencyLinkerTest {
     );
   }
 
+  @Test
+  public void putTraces_parallel() {
+    List<List<Span>> traces = new ArrayList<>();
+    for (int i = 1; i <= 10; i++) {
+      String traceId = Integer.toHexString(i);
+      List<Span> trace = new ArrayList<>();
+      for (Span span : TRACE) trace.add(span.toBuilder().traceId(traceId).build());
+      traces.add(trace);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      assertThat(new DependencyLinker().putTraces(traces, executor, 3).link()).containsExactly(
+        DependencyLink.newBuilder().parent("web").child("app").callCount(10L).build(),
+        DependencyLink.newBuilder().parent("app").child("db").callCount(10L).errorCount(10L)
+          .build()
+      );
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void putTraces_parallelismExceedsTraces() {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      assertThat(new DependencyLinker().putTraces(asList(TRACE), executor, 8).link())
+        .isEqualTo(new DependencyLinker().putTrace(TRACE).link());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /** The result of one linker can be used to resume linking in another. */
+  @Test
+  public void putLinks_resumes() {
+    List<DependencyLink> checkpoint = new DependencyLinker().putTrace(TRACE).link();
+
+    assertThat(new DependencyLinker().putLinks(checkpoint).putTrace(TRACE).link()).containsExactly(
+      DependencyLink.newBuilder().parent("web").child("app").callCount(2L).build(),
+      DependencyLink.newBuilder().parent("app").child("db").callCount(2L).errorCount(2L).build()
+    );
+  }
+
   @Test
   public void merge_error() {
     List<DependencyLink> links = asList(
@@ -63,4 +63,48 @@ public class HexCodecTest {
               "48485A3953BB6124 should be a 1 to 32 character lower-hex string with no prefix");
     }
   }
+
+  @Test public void lowerHexToUnsignedLong_rejectsNonAscii() {
+    // U+0130 masks to '0' when only the low 7 bits are considered
+    try {
+      lowerHexToUnsignedLong("\u0130");
+      failBecauseExceptionWasNotThrown(NumberFormatException.class);
+    } catch (NumberFormatException e) {
+    }
+  }
+
+  @Test public void lowerHexToUnsignedLong_ascii() {
+    byte[] traceId = "463ac35c9f6413ad48485a3953bb6124".getBytes(HexCodec.ASCII);
+
+    assertThat(lowerHexToUnsignedLong(traceId, 0, 16)).isEqualTo(0x463ac35c9f6413adL);
+    assertThat(lowerHexToUnsignedLong(traceId, 16, 32)).isEqualTo(0x48485a3953bb6124L);
+
+    try {
+      lowerHexToUnsignedLong(new byte[] {'a', (byte) 0xb0}, 0, 2); // 0xb0 masks to '0'
+      failBecauseExceptionWasNotThrown(NumberFormatException.class);
+    } catch (NumberFormatException e) {
+    }
+  }
+
+  @Test public void lowerHexZeroPrefix() {
+    assertThat(HexCodec.lowerHexZeroPrefix("0000000000000001")).isEqualTo(15);
+    assertThat(HexCodec.lowerHexZeroPrefix("0000")).isEqualTo(4);
+    assertThat(HexCodec.lowerHexZeroPrefix("a000")).isZero();
+    assertThat(HexCodec.lowerHexZeroPrefix("000G")).isEqualTo(-1);
+  }
+
+  @Test public void toLowerHex() {
+    assertThat(HexCodec.toLowerHex(0L, 0x48485a3953bb6124L))
+      .isEqualTo("48485a3953bb6124");
+    assertThat(HexCodec.toLowerHex(0x463ac35c9f6413adL, 0x48485a3953bb6124L))
+      .isEqualTo("463ac35c9f6413ad48485a3953bb6124");
+    assertThat(HexCodec.toLowerHex(0L, -1L)).isEqualTo("ffffffffffffffff");
+  }
+
+  @Test public void writeHexLong_bytes() {
+    byte[] bytes = new byte[16];
+    HexCodec.writeHexLong(bytes, 0, 0x0123456789abcdefL);
+
+    assertThat(new String(bytes, HexCodec.ASCII)).isEqualTo("0123456789abcdef");
+  }
 }
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.nio.charset.Charset;
+import java.util.List;
+import org.junit.Test;
+import zipkin2.Span;
+import zipkin2.codec.Encoding;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.codec.SpanBytesEncoder;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static zipkin2.TestObjects.CLIENT_SPAN;
+import static zipkin2.TestObjects.TRACE;
+import static zipkin2.internal.JsonCodec.UTF_8;
+
+public class LazySpanTest {
+  static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+  @Test public void isSupported() {
+    assertThat(LazySpan.isSupported(SpanBytesDecoder.PROTO3)).isTrue();
+    assertThat(LazySpan.isSupported(SpanBytesDecoder.JSON_V2)).isTrue();
+    assertThat(LazySpan.isSupported(SpanBytesDecoder.JSON_V1)).isFalse();
+    assertThat(LazySpan.isSupported(SpanBytesDecoder.THRIFT)).isFalse();
+  }
+
+  @Test public void indexList_proto3() {
+    indexList(SpanBytesEncoder.PROTO3, SpanBytesDecoder.PROTO3);
+  }
+
+  @Test public void indexList_json() {
+    indexList(SpanBytesEncoder.JSON_V2, SpanBytesDecoder.JSON_V2);
+  }
+
+  void indexList(SpanBytesEncoder encoder, SpanBytesDecoder decoder) {
+    List<LazySpan> spans = LazySpan.indexList(decoder, encoder.encodeList(TRACE));
+
+    assertThat(spans).hasSameSizeAs(TRACE);
+    for (int i = 0; i < TRACE.size(); i++) {
+      LazySpan lazy = spans.get(i);
+      Span span = TRACE.get(i);
+
+      assertThat(lazy.traceIdHigh()).isEqualTo(span.traceIdHigh());
+      assertThat(lazy.traceIdLow()).isEqualTo(span.traceIdLow());
+      assertThat(lazy.traceId()).isEqualTo(span.traceId());
+      assertThat(lazy.parentIdAsLong()).isEqualTo(span.parentIdAsLong());
+      assertThat(lazy.idAsLong()).isEqualTo(span.idAsLong());
+      assertThat(lazy.name()).isEqualTo(span.name());
+      assertThat(lazy.timestampAsLong()).isEqualTo(span.timestampAsLong());
+      assertThat(lazy.localEndpoint()).isEqualTo(span.localEndpoint());
+      assertThat(lazy.remoteEndpoint()).isEqualTo(span.remoteEndpoint());
+      assertThat(lazy.debug()).isEqualTo(Boolean.TRUE.equals(span.debug()));
+      assertThat(lazy.toSpan()).isEqualTo(span);
+
+      assertThat(lazy.encoding()).isEqualTo(encoder.encoding());
+      assertThat(lazy.encodedBytes()).containsExactly(encoder.encode(span));
+      assertThat(lazy.encodedLength()).isEqualTo(encoder.sizeInBytes(span));
+      assertThat(lazy.isNormalized()).isTrue();
+    }
+  }
+
+  @Test public void indexList_empty() {
+    assertThat(LazySpan.indexList(SpanBytesDecoder.JSON_V2, "[]".getBytes(UTF_8))).isEmpty();
+    assertThat(LazySpan.indexList(SpanBytesDecoder.PROTO3, new byte[0])).isEmpty();
+  }
+
+  /** Unusual values fall back to normal decoding, so results are the same. */
+  @Test public void json_unusualValues() {
+    String json = "[ {\"traceId\" : \"4d2000000000000162e\", \"parentId\": null, \"id\": \"a\","
+      + " \"name\": \"G\\u0045T\", \"timestamp\": 1.5E1, \"debug\": true,"
+      + " \"tags\": {\"}\": \"]\"}, \"localEndpoint\": {\"serviceName\": \"x\"}} ]\n";
+
+    LazySpan lazy = LazySpan.indexList(SpanBytesDecoder.JSON_V2, json.getBytes(UTF_8)).get(0);
+
+    assertThat(lazy.traceIdHigh()).isEqualTo(1234L);
+    assertThat(lazy.traceIdLow()).isEqualTo(5678L);
+    assertThat(lazy.parentIdAsLong()).isZero();
+    assertThat(lazy.idAsLong()).isEqualTo(10L);
+    assertThat(lazy.name()).isEqualTo("get");
+    assertThat(lazy.timestampAsLong()).isEqualTo(15L);
+    assertThat(lazy.debug()).isTrue();
+    assertThat(lazy.localServiceName()).isEqualTo("x");
+    assertThat(lazy.remoteServiceName()).isNull();
+    assertThat(lazy.toSpan().tags()).containsEntry("}", "]");
+  }
+
+  @Test public void json_encodedBytesAreVerbatim() {
+    String span = "{\"traceId\":\"1\",\"id\":\"2\"}";
+    byte[] json = ("[" + span + ", " + span + "]").getBytes(UTF_8);
+
+    List<LazySpan> spans = LazySpan.indexList(SpanBytesDecoder.JSON_V2, json);
+
+    assertThat(spans).extracting(LazySpan::toString).containsExactly(span, span);
+    assertThat(spans.get(1).encoding()).isEqualTo(Encoding.JSON);
+  }
+
+  /** Whitespace would be stored, and a newline ends a document in newline-delimited formats. */
+  @Test public void json_isNormalized_falseWhenNotCompact() {
+    String span = "{\"traceId\":\"0000000000000001\",\"id\":\"0000000000000002\"}";
+    for (String json : new String[] {
+      "[{\"traceId\" : \"0000000000000001\", \"id\":\"0000000000000002\"}]",
+      "[{\n  \"traceId\": \"0000000000000001\",\n  \"id\": \"0000000000000002\"\n}]",
+      "[" + span.replace("}", "\n}") + "]",
+      "[" + span.replace(",", ",\r\n") + "]"
+    }) {
+      assertThat(LazySpan.indexList(SpanBytesDecoder.JSON_V2, json.getBytes(UTF_8)).get(0)
+        .isNormalized()).withFailMessage(json).isFalse();
+    }
+
+    // formatting between spans in a list isn't part of any span
+    byte[] list = ("[\n  " + span + ",\n  " + span + "\n]").getBytes(UTF_8);
+    assertThat(LazySpan.indexList(SpanBytesDecoder.JSON_V2, list))
+      .allMatch(LazySpan::isNormalized);
+  }
+
+  @Test public void json_isNormalized_trueWhenSameAsEncoder() {
+    Span span = CLIENT_SPAN.toBuilder()
+      .putTag("emoji", "\uD83D\uDCA9").putTag("line", "\u2027").debug(true).build();
+    byte[] json = SpanBytesEncoder.JSON_V2.encodeList(asList(span));
+
+    assertThat(LazySpan.indexList(SpanBytesDecoder.JSON_V2, json).get(0).isNormalized()).isTrue();
+  }
+
+  @Test public void json_isNormalized_falseWhenDecodingWouldChangeValues() {
+    String ids = "\"traceId\":\"0000000000000001\",\"id\":\"0000000000000002\"";
+    for (String span : new String[] {
+      "{\"traceId\":\"1\",\"id\":\"0000000000000002\"}", // unpadded
+      "{\"traceId\":\"00000000000000000000000000000001\",\"id\":\"0000000000000002\"}",
+      "{" + ids + ",\"name\":\"GET\"}",
+      "{" + ids + ",\"name\":\"g\\u0045t\"}",
+      "{" + ids + ",\"name\":\"\"}",
+      "{" + ids + ",\"duration\":1e3}",
+      "{" + ids + ",\"localEndpoint\":{\"serviceName\":\"FE\"}}",
+      "{" + ids + ",\"localEndpoint\":{\"serviceName\":\"fe\",\"foo\":1}}",
+      "{" + ids + ",\"foo\":\"bar\"}", // would be stored
+      "{\"id\":\"0000000000000002\",\"traceId\":\"0000000000000001\"}", // field order
+      "{" + ids + ",\"parentId\":\"0000000000000003\"}",
+      "{\"traceId\":\"0000000000000001\",\"parentId\":\"0000000000000002\","
+        + "\"id\":\"0000000000000002\"}",
+      "{" + ids + ",\"kind\":\"CLIENT\",\"shared\":true}",
+      "{" + ids + ",\"kind\":\"client\"}",
+      "{" + ids + ",\"name\":null}",
+      "{" + ids + ",\"timestamp\":0}",
+      "{" + ids + ",\"duration\":0}",
+      "{" + ids + ",\"duration\":01}",
+      "{" + ids + ",\"localEndpoint\":{}}",
+      "{" + ids + ",\"remoteEndpoint\":{\"serviceName\":\"\"}}",
+      "{" + ids + ",\"localEndpoint\":{\"port\":80,\"serviceName\":\"fe\"}}",
+      "{" + ids + ",\"localEndpoint\":{\"ipv4\":\"010.0.0.1\"}}",
+      "{" + ids + ",\"localEndpoint\":{\"ipv6\":\"0:0:0:0:0:0:0:1\"}}",
+      "{" + ids + ",\"localEndpoint\":{\"port\":0}}",
+      "{" + ids + ",\"annotations\":[]}",
+      "{" + ids + ",\"annotations\":[{\"timestamp\":2,\"value\":\"a\"},"
+        + "{\"timestamp\":1,\"value\":\"b\"}]}",
+      "{" + ids + ",\"annotations\":[{\"timestamp\":1,\"value\":\"b\"},"
+        + "{\"timestamp\":1,\"value\":\"a\"}]}",
+      "{" + ids + ",\"annotations\":[{\"timestamp\":1,\"value\":\"a\"},"
+        + "{\"timestamp\":1,\"value\":\"a\"}]}",
+      "{" + ids + ",\"annotations\":[{\"value\":\"a\",\"timestamp\":1}]}",
+      "{" + ids + ",\"tags\":{}}",
+      "{" + ids + ",\"tags\":{\"b\":\"1\",\"a\":\"2\"}}",
+      "{" + ids + ",\"tags\":{\"a\":\"1\",\"a\":\"2\"}}",
+      "{" + ids + ",\"tags\":{\"a\":\"1\\n2\"}}",
+      "{" + ids + ",\"tags\":{\"a\":\"\u2028\"}}",
+      "{" + ids + ",\"debug\":false}",
+      "{" + ids + ",\"shared\":false}"
+    }) {
+      byte[] json = ("[" + span + "]").getBytes(UTF_8);
+
+      assertThat(LazySpan.indexList(SpanBytesDecoder.JSON_V2, json).get(0).isNormalized())
+        .withFailMessage(span).isFalse();
+    }
+  }
+
+  @Test public void proto3_isNormalized_falseOnUpperCase() {
+    byte[] proto3 = SpanBytesEncoder.PROTO3.encodeList(asList(CLIENT_SPAN));
+    byte[] upperCase = new String(proto3, ISO_8859_1).replace("frontend", "FRONTEND")
+      .getBytes(ISO_8859_1);
+
+    assertThat(LazySpan.indexList(SpanBytesDecoder.PROTO3, upperCase).get(0).isNormalized())
+      .isFalse();
+  }
+
+  @Test public void json_malformed() {
+    for (String json : new String[] {"[", "{}", "[{]", "[{\"a\":}]", "[{\"a\":\"b}]", "[{}] x"}) {
+      assertThatThrownBy(() -> LazySpan.indexList(SpanBytesDecoder.JSON_V2, json.getBytes(UTF_8)))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageStartingWith("Malformed");
+    }
+  }
+
+  @Test public void proto3_truncated() {
+    byte[] proto3 = SpanBytesEncoder.PROTO3.encode(CLIENT_SPAN);
+    byte[] truncated = new byte[proto3.length - 1];
+    System.arraycopy(proto3, 0, truncated, 0, truncated.length);
+
+    assertThatThrownBy(() -> LazySpan.indexList(SpanBytesDecoder.PROTO3, truncated))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessageStartingWith("Truncated");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void indexList_unsupported() {
+    LazySpan.indexList(SpanBytesDecoder.THRIFT, SpanBytesEncoder.THRIFT.encodeList(TRACE));
+  }
+}
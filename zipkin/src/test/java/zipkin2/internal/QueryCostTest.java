@@ -0,0 +1,68 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class QueryCostTest {
+  @After public void clear() {
+    QueryCost.restore(null);
+  }
+
+  @Test public void noCurrentByDefault() {
+    assertThat(QueryCost.current()).isNull();
+  }
+
+  @Test public void makeCurrent_restoresPrevious() {
+    QueryCost outer = new QueryCost(), inner = new QueryCost();
+
+    assertThat(outer.makeCurrent()).isNull();
+    QueryCost previous = inner.makeCurrent();
+    assertThat(previous).isSameAs(outer);
+    assertThat(QueryCost.current()).isSameAs(inner);
+
+    QueryCost.restore(previous);
+    assertThat(QueryCost.current()).isSameAs(outer);
+
+    QueryCost.restore(null);
+    assertThat(QueryCost.current()).isNull();
+  }
+
+  @Test public void accumulates() {
+    QueryCost cost = new QueryCost();
+    cost.incrementCalls();
+    cost.incrementCalls();
+    cost.addRows(10);
+    cost.addBytes(1024);
+
+    assertThat(cost.calls()).isEqualTo(2);
+    assertThat(cost.rows()).isEqualTo(10);
+    assertThat(cost.bytes()).isEqualTo(1024);
+    assertThat(cost).hasToString("QueryCost{calls=2, rows=10, bytes=1024}");
+  }
+
+  @Test public void current_isPerThread() throws InterruptedException {
+    new QueryCost().makeCurrent();
+
+    QueryCost[] otherThread = new QueryCost[1];
+    Thread thread = new Thread(() -> otherThread[0] = QueryCost.current());
+    thread.start();
+    thread.join();
+
+    assertThat(otherThread[0]).isNull();
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2015-2019 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+import zipkin2.v1.V1Annotation;
+import zipkin2.v1.V1BinaryAnnotation;
+import zipkin2.v1.V1Span;
+import zipkin2.v1.V1SpanConverter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.BACKEND;
+import static zipkin2.TestObjects.DB;
+import static zipkin2.TestObjects.FRONTEND;
+import static zipkin2.internal.ThriftField.TYPE_I32;
+import static zipkin2.internal.ThriftField.TYPE_I64;
+import static zipkin2.internal.ThriftField.TYPE_STOP;
+import static zipkin2.internal.ThriftField.TYPE_STRING;
+import static zipkin2.internal.ThriftField.TYPE_STRUCT;
+
+public class V1ThriftSpanReaderTest {
+  V1ThriftSpanReader reader = V1ThriftSpanReader.create();
+  V1Span.Builder builder = V1Span.newBuilder().traceId(1L).parentId(2L).id(3L).name("get");
+
+  @Test public void read_clientSpan() {
+    assertSameAsConverter(builder
+      .addAnnotation(1000L, "cs", FRONTEND)
+      .addAnnotation(1500L, "ws", FRONTEND)
+      .addAnnotation(3000L, "cr", FRONTEND)
+      .addBinaryAnnotation("http.path", "/api", FRONTEND)
+      .addBinaryAnnotation("sa", BACKEND)
+      .build(), true);
+  }
+
+  @Test public void read_serverSpan_finagleClientAddress() {
+    Endpoint clientPort = FRONTEND.toBuilder().port(63840).build();
+    assertSameAsConverter(builder
+      .addAnnotation(1000L, "sr", FRONTEND)
+      .addAnnotation(3000L, "ss", FRONTEND)
+      .addBinaryAnnotation("ca", clientPort)
+      .build(), true);
+  }
+
+  @Test public void read_incompleteRpc() {
+    assertSameAsConverter(builder.addAnnotation(3000L, "cr", FRONTEND).build(), true);
+    assertSameAsConverter(builder.clear().traceId(1L).id(3L)
+      .timestamp(1000L).duration(2000L)
+      .addAnnotation(3000L, "ss", FRONTEND).build(), true);
+  }
+
+  @Test public void read_localSpan() {
+    assertSameAsConverter(builder
+      .timestamp(1000L).duration(2000L)
+      .addBinaryAnnotation("lc", "", FRONTEND)
+      .build(), true);
+  }
+
+  @Test public void read_addressesWithoutCoreAnnotations() {
+    assertSameAsConverter(builder.addBinaryAnnotation("sa", BACKEND).build(), true);
+    assertSameAsConverter(builder.clear().traceId(1L).id(3L)
+      .addBinaryAnnotation("ca", FRONTEND).build(), true);
+  }
+
+  @Test public void read_sharedSpan_fallsBack() {
+    assertSameAsConverter(builder
+      .addAnnotation(1000L, "cs", FRONTEND)
+      .addAnnotation(1100L, "sr", BACKEND)
+      .addAnnotation(2900L, "ss", BACKEND)
+      .addAnnotation(3000L, "cr", FRONTEND)
+      .build(), false);
+  }
+
+  @Test public void read_loopback_fallsBack() {
+    assertSameAsConverter(builder
+      .addAnnotation(1000L, "cs", FRONTEND)
+      .addAnnotation(1100L, "sr", FRONTEND)
+      .build(), false);
+  }
+
+  @Test public void read_messaging_fallsBack() {
+    assertSameAsConverter(builder
+      .addAnnotation(1000L, "ms", FRONTEND)
+      .addBinaryAnnotation("ma", DB)
+      .build(), false);
+  }
+
+  @Test public void read_mixedEndpoints_fallsBack() {
+    assertSameAsConverter(builder
+      .addAnnotation(1000L, "cs", FRONTEND)
+      .addBinaryAnnotation("error", "timeout", BACKEND)
+      .build(), false);
+  }
+
+  @Test public void read_reusesEndpointDecodedFromSameBytes() {
+    reader.read(ReadBuffer.wrap(thrift(builder
+      .addAnnotation(1000L, "cs", FRONTEND)
+      .addAnnotation(3000L, "cr", FRONTEND)
+      .build())));
+
+    assertThat(reader.annotationEndpoints[1]).isSameAs(reader.annotationEndpoints[0]);
+  }
+
+  void assertSameAsConverter(V1Span v1, boolean convertedDirectly) {
+    List<Span> expected = V1SpanConverter.create().convert(v1);
+
+    List<Span> actual = new ArrayList<>();
+    reader.read(ReadBuffer.wrap(thrift(v1)), actual);
+
+    assertThat(actual).isEqualTo(expected);
+    assertThat(reader.converter == null).isEqualTo(convertedDirectly);
+  }
+
+  /** Unlike {@link V1ThriftSpanWriter}, this writes an endpoint per annotation. */
+  static byte[] thrift(V1Span v1) {
+    byte[] bytes = new byte[2048];
+    WriteBuffer buffer = WriteBuffer.wrap(bytes);
+    V1ThriftSpanWriter.TRACE_ID.write(buffer);
+    ThriftCodec.writeLong(buffer, v1.traceId());
+    if (v1.name() != null) {
+      V1ThriftSpanWriter.NAME.write(buffer);
+      ThriftCodec.writeLengthPrefixed(buffer, v1.name());
+    }
+    V1ThriftSpanWriter.ID.write(buffer);
+    ThriftCodec.writeLong(buffer, v1.id());
+    if (v1.parentId() != 0L) {
+      V1ThriftSpanWriter.PARENT_ID.write(buffer);
+      ThriftCodec.writeLong(buffer, v1.parentId());
+    }
+
+    V1ThriftSpanWriter.ANNOTATIONS.write(buffer);
+    ThriftCodec.writeListBegin(buffer, v1.annotations().size());
+    for (V1Annotation a : v1.annotations()) {
+      new ThriftField(TYPE_I64, 1).write(buffer);
+      ThriftCodec.writeLong(buffer, a.timestamp());
+      new ThriftField(TYPE_STRING, 2).write(buffer);
+      ThriftCodec.writeLengthPrefixed(buffer, a.value());
+      writeEndpoint(buffer, 3, a.endpoint());
+      buffer.writeByte(TYPE_STOP);
+    }
+
+    V1ThriftSpanWriter.BINARY_ANNOTATIONS.write(buffer);
+    ThriftCodec.writeListBegin(buffer, v1.binaryAnnotations().size());
+    for (V1BinaryAnnotation b : v1.binaryAnnotations()) {
+      boolean isAddress = b.stringValue() == null;
+      new ThriftField(TYPE_STRING, 1).write(buffer);
+      ThriftCodec.writeLengthPrefixed(buffer, b.key());
+      new ThriftField(TYPE_STRING, 2).write(buffer);
+      ThriftCodec.writeLengthPrefixed(buffer, isAddress ? "\1" : b.stringValue());
+      new ThriftField(TYPE_I32, 3).write(buffer);
+      ThriftCodec.writeInt(buffer, isAddress ? 0 : 6);
+      writeEndpoint(buffer, 4, b.endpoint());
+      buffer.writeByte(TYPE_STOP);
+    }
+
+    if (v1.timestamp() != 0L) {
+      V1ThriftSpanWriter.TIMESTAMP.write(buffer);
+      ThriftCodec.writeLong(buffer, v1.timestamp());
+    }
+    if (v1.duration() != 0L) {
+      V1ThriftSpanWriter.DURATION.write(buffer);
+      ThriftCodec.writeLong(buffer, v1.duration());
+    }
+    buffer.writeByte(TYPE_STOP);
+
+    byte[] result = new byte[buffer.pos()];
+    System.arraycopy(bytes, 0, result, 0, result.length);
+    return result;
+  }
+
+  static void writeEndpoint(WriteBuffer buffer, int fieldId, Endpoint endpoint) {
+    if (endpoint == null) return;
+    new ThriftField(TYPE_STRUCT, fieldId).write(buffer);
+    ThriftEndpointCodec.write(endpoint, buffer);
+  }
+}
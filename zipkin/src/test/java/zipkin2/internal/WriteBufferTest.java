@@ -142,6 +142,24 @@ public class WriteBufferTest {
     return new String(bytes, UTF_8);
   }
 
+  @Test public void byteBuffer_writeAscii_long() {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(32);
+    buffer.put((byte) '[');
+    WriteBuffer.wrap(buffer).writeAscii(-1005656679588439279L);
+
+    assertThat(buffer.position()).isEqualTo(21);
+    buffer.flip();
+    assertThat(UTF_8.decode(buffer).toString()).isEqualTo("[-1005656679588439279");
+  }
+
+  @Test public void byteBuffer_writeLongHex() {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+    WriteBuffer.wrap(buffer).writeLongHex(0x48485a3953bb6124L);
+
+    buffer.flip();
+    assertThat(UTF_8.decode(buffer).toString()).isEqualTo("48485a3953bb6124");
+  }
+
   // Test creating Buffer for a long string
   @Test public void writeString() {
     StringBuilder builder = new StringBuilder();